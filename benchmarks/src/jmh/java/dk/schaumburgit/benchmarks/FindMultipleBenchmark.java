@@ -0,0 +1,61 @@
+package dk.schaumburgit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dk.schaumburgit.trackingbarcodescanner.Barcode;
+import dk.schaumburgit.trackingbarcodescanner.ScanOptions;
+import dk.schaumburgit.trackingbarcodescanner.TrackingBarcodeScanner;
+import dk.schaumburgit.trackingbarcodescanner.TrackingOptions;
+
+/**
+ * TrackingBarcodeScanner.findMultiple() on a frame with three barcodes (hit)
+ * or none (miss).
+ *
+ * Tracked runs reuse one scanner with TrackingOptions.trackMultiple, so each
+ * barcode is looked for around its previous position (with a full scan every
+ * FULL_SCAN_INTERVAL frames); untracked runs use a fresh, default scanner for
+ * every frame.
+ */
+@State(Scope.Thread)
+public class FindMultipleBenchmark
+{
+    private static final int FULL_SCAN_INTERVAL = 10;
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"true", "false"})
+    public boolean tracked;
+
+    @Param({"true", "false"})
+    public boolean hit;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private TrackingBarcodeScanner mScanner;
+
+    @Setup
+    public void setup()
+    {
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        mWidth = size[0];
+        mHeight = size[1];
+        mFrame = SyntheticFrames.luminance(mWidth, mHeight, hit ? SyntheticFrames.CONTENTS.length : 0);
+        mScanner = new TrackingBarcodeScanner(new ScanOptions(), new TrackingOptions().withTrackMultiple(true, FULL_SCAN_INTERVAL));
+    }
+
+    @Benchmark
+    public Barcode[] findMultiple()
+    {
+        TrackingBarcodeScanner scanner = tracked
+                ? mScanner
+                : new TrackingBarcodeScanner(new ScanOptions(), new TrackingOptions());
+
+        return scanner.findMultiple(SyntheticFrames.bitmap(mFrame, mWidth, mHeight));
+    }
+}
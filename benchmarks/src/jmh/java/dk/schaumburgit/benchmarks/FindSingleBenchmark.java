@@ -0,0 +1,58 @@
+package dk.schaumburgit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dk.schaumburgit.trackingbarcodescanner.Barcode;
+import dk.schaumburgit.trackingbarcodescanner.ScanOptions;
+import dk.schaumburgit.trackingbarcodescanner.TrackingBarcodeScanner;
+import dk.schaumburgit.trackingbarcodescanner.TrackingOptions;
+
+/**
+ * TrackingBarcodeScanner.findSingle() on a frame with one barcode (hit) or
+ * none (miss).
+ *
+ * Tracked runs reuse one scanner for all frames, so after the first hit it
+ * looks around the previous position first; untracked runs use a fresh
+ * scanner for every frame, which always scans the whole image.
+ */
+@State(Scope.Thread)
+public class FindSingleBenchmark
+{
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"true", "false"})
+    public boolean tracked;
+
+    @Param({"true", "false"})
+    public boolean hit;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private TrackingBarcodeScanner mScanner;
+
+    @Setup
+    public void setup()
+    {
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        mWidth = size[0];
+        mHeight = size[1];
+        mFrame = SyntheticFrames.luminance(mWidth, mHeight, hit ? 1 : 0);
+        mScanner = new TrackingBarcodeScanner(new ScanOptions(), new TrackingOptions());
+    }
+
+    @Benchmark
+    public Barcode findSingle()
+    {
+        TrackingBarcodeScanner scanner = tracked
+                ? mScanner
+                : new TrackingBarcodeScanner(new ScanOptions(), new TrackingOptions());
+
+        return scanner.findSingle(SyntheticFrames.bitmap(mFrame, mWidth, mHeight));
+    }
+}
@@ -0,0 +1,67 @@
+package dk.schaumburgit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dk.schaumburgit.trackingbarcodescanner.Geometry;
+
+/**
+ * The Geometry.Rectangle operations used for every tracked frame - alone, and
+ * chained into a tracking window the way the tracking does: the bounding box
+ * of the result points, plus a margin, within the image.
+ */
+@State(Scope.Thread)
+public class GeometryBenchmark
+{
+    // Not final, so they aren't folded into constants:
+    private int mImageWidth = 1920;
+    private int mImageHeight = 1080;
+    private int[] mPointsX = {812, 1108, 1104, 816};
+    private int[] mPointsY = {402, 398, 690, 694};
+    private double mMargin = 1.0;
+
+    private Geometry.Rectangle mRectangle;
+
+    @Setup
+    public void setup()
+    {
+        mRectangle = boundingBox();
+    }
+
+    private Geometry.Rectangle boundingBox()
+    {
+        Geometry.Rectangle box = new Geometry.Rectangle(mPointsX[0], mPointsY[0]);
+        for (int n = 1; n < mPointsX.length; n++)
+            box = box.expandToInclude(mPointsX[n], mPointsY[n]);
+
+        return box;
+    }
+
+    @Benchmark
+    public Geometry.Rectangle expandToInclude()
+    {
+        return mRectangle.expandToInclude(mPointsX[0] - 10, mPointsY[0] - 10);
+    }
+
+    @Benchmark
+    public Geometry.Rectangle addRelativeMargin()
+    {
+        return mRectangle.addRelativeMargin(mMargin);
+    }
+
+    @Benchmark
+    public Geometry.Rectangle normalize()
+    {
+        return mRectangle.normalize(0, 0, mImageWidth, mImageHeight);
+    }
+
+    @Benchmark
+    public Geometry.Rectangle trackingWindow()
+    {
+        return boundingBox()
+                .addRelativeMargin(mMargin)
+                .normalize(0, 0, mImageWidth, mImageHeight);
+    }
+}
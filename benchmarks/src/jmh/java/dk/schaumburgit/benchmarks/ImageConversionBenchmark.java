@@ -0,0 +1,65 @@
+package dk.schaumburgit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dk.schaumburgit.fastbarcodescanner.imageutils.ImageDecoder;
+import dk.schaumburgit.fastbarcodescanner.imageutils.ImageUtils;
+import dk.schaumburgit.stillsequencecamera.camera2.YPlaneLuminanceSource;
+
+/**
+ * The conversions from a captured YUV_420_888 Image into bytes for decoding
+ * (or saving) - compared with reading the luminance straight from the
+ * Y-plane, as the Camera2 capture does.
+ *
+ * JpegUtils and ImageDecoder.ToBitmap are left out: they go through YuvImage
+ * and BitmapFactory, which are implemented natively and only run on a device
+ * (JpegUtils is timed there by fast-barcode-scanner's JpegUtilsBenchmark).
+ */
+@State(Scope.Thread)
+public class ImageConversionBenchmark
+{
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    private SyntheticImage mImage;
+
+    @Setup
+    public void setup()
+    {
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        byte[] luminance = SyntheticFrames.luminance(size[0], size[1], 1);
+        mImage = new SyntheticImage(SyntheticFrames.nv21(luminance, size[0], size[1]), size[0], size[1]);
+    }
+
+    @Benchmark
+    public byte[] toNV21()
+    {
+        mImage.rewind();
+        return ImageDecoder.ToNV21(mImage);
+    }
+
+    @Benchmark
+    public byte[] serialize()
+    {
+        mImage.rewind();
+        return ImageDecoder.Serialize(mImage);
+    }
+
+    @Benchmark
+    public byte[] imageToMat()
+    {
+        mImage.rewind();
+        return ImageUtils.imageToMat(mImage);
+    }
+
+    @Benchmark
+    public byte[] yPlaneMatrix()
+    {
+        mImage.rewind();
+        return new YPlaneLuminanceSource(mImage).getMatrix();
+    }
+}
@@ -0,0 +1,96 @@
+package dk.schaumburgit.benchmarks;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import java.util.Random;
+
+/**
+ * The frames the benchmarks run on: noisy mid-gray backgrounds with zero or
+ * more QR codes side by side - the same frames for the same arguments, so
+ * results can be compared between runs.
+ */
+final class SyntheticFrames
+{
+    static final String[] CONTENTS = {
+            "FBS-BENCHMARK-0001",
+            "FBS-BENCHMARK-0002",
+            "FBS-BENCHMARK-0003"
+    };
+
+    private SyntheticFrames()
+    {
+    }
+
+    /**
+     * Parses a resolution parameter like "1280x720" into {width, height}
+     */
+    static int[] parseResolution(String resolution)
+    {
+        String[] parts = resolution.split("x");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    /**
+     * The luminance (Y-plane) of a width x height frame with nBarcodes QR
+     * codes (at most CONTENTS.length) evenly spaced across it.
+     */
+    static byte[] luminance(int width, int height, int nBarcodes)
+    {
+        byte[] pixels = new byte[width * height];
+        Random random = new Random(width * 31L + height);
+        for (int n = 0; n < pixels.length; n++)
+            pixels[n] = (byte) (96 + random.nextInt(64));
+
+        if (nBarcodes <= 0)
+            return pixels;
+
+        int size = Math.min(height / 2, width / (nBarcodes + 1)) * 9 / 10;
+        for (int n = 0; n < nBarcodes; n++) {
+            BitMatrix code = encode(CONTENTS[n], size);
+            int left = (n + 1) * width / (nBarcodes + 1) - size / 2;
+            int top = (height - size) / 2;
+            for (int y = 0; y < size; y++)
+                for (int x = 0; x < size; x++)
+                    pixels[(top + y) * width + left + x] = (byte) (code.get(x, y) ? 16 : 240);
+        }
+
+        return pixels;
+    }
+
+    /**
+     * The given luminance as an NV21 frame (with neutral chroma)
+     */
+    static byte[] nv21(byte[] luminance, int width, int height)
+    {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        System.arraycopy(luminance, 0, nv21, 0, width * height);
+        for (int n = width * height; n < nv21.length; n++)
+            nv21[n] = (byte) 128;
+
+        return nv21;
+    }
+
+    /**
+     * A fresh bitmap on the given luminance - like the ones the cameras
+     * deliver (so nothing is binarized yet)
+     */
+    static BinaryBitmap bitmap(byte[] luminance, int width, int height)
+    {
+        return new BinaryBitmap(new HybridBinarizer(new PlanarYUVLuminanceSource(luminance, width, height, 0, 0, width, height, false)));
+    }
+
+    private static BitMatrix encode(String contents, int size)
+    {
+        try {
+            return new QRCodeWriter().encode(contents, BarcodeFormat.QR_CODE, size, size);
+        } catch (WriterException e) {
+            throw new IllegalStateException("Cannot encode benchmark barcode", e);
+        }
+    }
+}
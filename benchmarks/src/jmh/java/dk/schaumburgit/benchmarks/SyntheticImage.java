@@ -0,0 +1,126 @@
+package dk.schaumburgit.benchmarks;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A YUV_420_888 Image laid out like the ones most camera HALs deliver: a
+ * tightly packed Y-plane, and U and V planes that are overlapping views on one
+ * interleaved (NV21-style) chroma buffer, with a pixel stride of 2.
+ *
+ * The plane buffers are direct, like a camera's. Conversions reading them
+ * relative to their position must call rewind() before each use.
+ */
+class SyntheticImage extends Image
+{
+    private final int mWidth;
+    private final int mHeight;
+    private final Plane[] mPlanes;
+
+    SyntheticImage(byte[] nv21, int width, int height)
+    {
+        mWidth = width;
+        mHeight = height;
+
+        int ySize = width * height;
+        int chromaSize = ySize / 2;
+
+        ByteBuffer y = ByteBuffer.allocateDirect(ySize);
+        y.put(nv21, 0, ySize);
+
+        ByteBuffer vu = ByteBuffer.allocateDirect(chromaSize);
+        vu.put(nv21, ySize, chromaSize);
+
+        mPlanes = new Plane[]{
+                new SyntheticPlane(view(y, 0, ySize), width, 1),
+                new SyntheticPlane(view(vu, 1, chromaSize - 1), width, 2),
+                new SyntheticPlane(view(vu, 0, chromaSize - 1), width, 2)
+        };
+    }
+
+    private static ByteBuffer view(ByteBuffer buffer, int start, int length)
+    {
+        ByteBuffer view = buffer.duplicate();
+        view.position(start);
+        view.limit(start + length);
+        return view.slice();
+    }
+
+    /**
+     * Moves all plane buffers back to their start
+     */
+    void rewind()
+    {
+        for (Plane plane : mPlanes)
+            plane.getBuffer().rewind();
+    }
+
+    @Override
+    public int getFormat()
+    {
+        return ImageFormat.YUV_420_888;
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return mHeight;
+    }
+
+    @Override
+    public long getTimestamp()
+    {
+        return 0;
+    }
+
+    @Override
+    public Plane[] getPlanes()
+    {
+        return mPlanes;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    private static class SyntheticPlane extends Plane
+    {
+        private final ByteBuffer mBuffer;
+        private final int mRowStride;
+        private final int mPixelStride;
+
+        SyntheticPlane(ByteBuffer buffer, int rowStride, int pixelStride)
+        {
+            mBuffer = buffer;
+            mRowStride = rowStride;
+            mPixelStride = pixelStride;
+        }
+
+        @Override
+        public int getRowStride()
+        {
+            return mRowStride;
+        }
+
+        @Override
+        public int getPixelStride()
+        {
+            return mPixelStride;
+        }
+
+        @Override
+        public ByteBuffer getBuffer()
+        {
+            return mBuffer;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package dk.schaumburgit.fastbarcodescanner;
+
+import android.graphics.ImageFormat;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+import dk.schaumburgit.fastbarcodescanner.imageutils.JpegUtils;
+
+/**
+ * Times JpegUtils.ToJpeg on NV21 frames at the resolutions the JMH
+ * benchmarks use. It goes through YuvImage, which is implemented natively,
+ * so it can't run in the benchmarks project on the JVM - this runs on a
+ * device instead:
+ *
+ *    gradlew :fast-barcode-scanner:connectedAndroidTest
+ *
+ * The average time per frame is written to logcat (tag JpegUtilsBenchmark).
+ */
+public class JpegUtilsBenchmark extends TestCase
+{
+    private static final String TAG = "JpegUtilsBenchmark";
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 20;
+
+    public void testToJpeg_640x480() throws Exception
+    {
+        run(640, 480);
+    }
+
+    public void testToJpeg_1280x720() throws Exception
+    {
+        run(1280, 720);
+    }
+
+    public void testToJpeg_1920x1080() throws Exception
+    {
+        run(1920, 1080);
+    }
+
+    private static void run(int width, int height)
+    {
+        byte[] nv21 = nv21(width, height);
+
+        for (int n = 0; n < WARMUP_ITERATIONS; n++)
+            JpegUtils.ToJpeg(nv21, ImageFormat.NV21, width, height);
+
+        long start = System.nanoTime();
+        byte[] jpeg = null;
+        for (int n = 0; n < ITERATIONS; n++)
+            jpeg = JpegUtils.ToJpeg(nv21, ImageFormat.NV21, width, height);
+        long elapsed = System.nanoTime() - start;
+
+        assertNotNull(jpeg);
+        assertEquals((byte) 0xFF, jpeg[0]);
+        assertEquals((byte) 0xD8, jpeg[1]);
+
+        Log.i(TAG, "ToJpeg " + width + "x" + height + ": " + (elapsed / ITERATIONS / 1000) + " us/frame (" + jpeg.length + " bytes)");
+    }
+
+    /**
+     * A noisy mid-gray NV21 frame (like the JMH benchmarks' SyntheticFrames)
+     */
+    private static byte[] nv21(int width, int height)
+    {
+        byte[] frame = new byte[width * height * 3 / 2];
+        Random random = new Random(width * 31L + height);
+        for (int n = 0; n < width * height; n++)
+            frame[n] = (byte) (96 + random.nextInt(64));
+        for (int n = width * height; n < frame.length; n++)
+            frame[n] = (byte) 128;
+
+        return frame;
+    }
+}
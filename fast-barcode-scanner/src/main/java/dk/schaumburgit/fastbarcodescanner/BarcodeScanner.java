@@ -17,27 +17,39 @@ package dk.schaumburgit.fastbarcodescanner;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.graphics.Point;
+import android.graphics.Rect;
 import android.media.Image;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Pair;
 import android.util.Size;
 import android.view.SurfaceView;
 
 import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
 
+import java.io.File;
 import java.security.InvalidParameterException;
+import java.util.HashMap;
+import java.util.Map;
 
 import dk.schaumburgit.fastbarcodescanner.callbackmanagers.CallBackOptions;
+import dk.schaumburgit.fastbarcodescanner.callbackmanagers.FlightRecorderOptions;
 import dk.schaumburgit.fastbarcodescanner.callbackmanagers.MultiCallbackManager;
+import dk.schaumburgit.fastbarcodescanner.callbackmanagers.SavedImageOptions;
 import dk.schaumburgit.fastbarcodescanner.callbackmanagers.SingleCallbackManager;
+import dk.schaumburgit.stillsequencecamera.FrameSaver;
+import dk.schaumburgit.stillsequencecamera.FrameStatistics;
 import dk.schaumburgit.stillsequencecamera.ISource;
 import dk.schaumburgit.stillsequencecamera.IStillSequenceCamera;
 import dk.schaumburgit.stillsequencecamera.camera.StillSequenceCamera;
 import dk.schaumburgit.stillsequencecamera.camera.StillSequenceCameraOptions;
 import dk.schaumburgit.stillsequencecamera.camera2.StillSequenceCamera2;
 import dk.schaumburgit.stillsequencecamera.camera2.StillSequenceCamera2Options;
+import dk.schaumburgit.stillsequencecamera.replay.FlightRecorder;
 import dk.schaumburgit.trackingbarcodescanner.Barcode;
 import dk.schaumburgit.trackingbarcodescanner.ScanOptions;
 import dk.schaumburgit.trackingbarcodescanner.TrackingBarcodeScanner;
@@ -74,13 +86,17 @@ class BarcodeScanner implements IBarcodeScanner {
     private final Activity mActivity;
     private HandlerThread mProcessingThread;
     private Handler mProcessingHandler;
+    private DecodePool<?> mDecodePool;
+    private FrameDifferenceGate mFrameGate;
 
     private final IStillSequenceCamera mImageSource;
     private final TrackingBarcodeScanner mBarcodeFinder;
     private final ConfigManager mFormatChooser;
 
     private final ScanOptions mScanOptions;
+    private final TrackingOptions mTrackingOptions;
     private final CallBackOptions mCallBackOptions;
+    private final ProcessingOptions mProcessingOptions;
 
     @TargetApi(21)
     BarcodeScanner(
@@ -88,21 +104,27 @@ class BarcodeScanner implements IBarcodeScanner {
             StillSequenceCamera2Options cameraOptions,
             ScanOptions scanOptions,
             TrackingOptions trackingOptions,
-            CallBackOptions callBackOptions
+            CallBackOptions callBackOptions,
+            ProcessingOptions processingOptions
     ) {
         if (activity == null)
             throw new InvalidParameterException("activity cannot be null");
 
         this.mScanOptions = scanOptions;
+        this.mTrackingOptions = trackingOptions;
         this.mCallBackOptions = callBackOptions;
+        this.mProcessingOptions = processingOptions;
 
         this.mActivity = activity;
         this.mImageSource = new StillSequenceCamera2(activity, cameraOptions);
         this.mBarcodeFinder = new TrackingBarcodeScanner(scanOptions, trackingOptions);
         this.mFormatChooser = new ConfigManager(mImageSource, mBarcodeFinder);
 
-        ConfigInfo bestFormatInfo = this.mFormatChooser.calculateBestFormat(cameraOptions.minPixels);
-        this.mImageSource.setup(bestFormatInfo.imageFormat, bestFormatInfo.imageWidth, bestFormatInfo.imageHeight);
+        if (processingOptions.prewarmDecoder)
+            DecoderWarmup.start(scanOptions, trackingOptions);
+        setupImageSource(cameraOptions.minPixels);
+        setupFrameSaver();
+        setupFlightRecorder();
     }
 
 
@@ -127,13 +149,16 @@ class BarcodeScanner implements IBarcodeScanner {
             StillSequenceCameraOptions cameraOptions,
             ScanOptions scanOptions,
             TrackingOptions trackingOptions,
-            CallBackOptions callBackOptions
+            CallBackOptions callBackOptions,
+            ProcessingOptions processingOptions
     ) {
         if (activity == null)
             throw new InvalidParameterException("activity cannot be null");
 
         this.mScanOptions = scanOptions;
+        this.mTrackingOptions = trackingOptions;
         this.mCallBackOptions = callBackOptions;
+        this.mProcessingOptions = processingOptions;
 
         if (cameraOptions == null)
             throw new InvalidParameterException("cameraOptions cannot be null");
@@ -146,8 +171,11 @@ class BarcodeScanner implements IBarcodeScanner {
         this.mImageSource = new StillSequenceCamera(activity, cameraOptions);
         this.mFormatChooser = new ConfigManager(mImageSource, mBarcodeFinder);
 
-        ConfigInfo bestFormatInfo = this.mFormatChooser.calculateBestFormat(cameraOptions.minPixels);
-        this.mImageSource.setup(bestFormatInfo.imageFormat, bestFormatInfo.imageWidth, bestFormatInfo.imageHeight);
+        if (processingOptions.prewarmDecoder)
+            DecoderWarmup.start(scanOptions, trackingOptions);
+        setupImageSource(cameraOptions.minPixels);
+        setupFrameSaver();
+        setupFlightRecorder();
     }
 
     /**
@@ -174,7 +202,80 @@ class BarcodeScanner implements IBarcodeScanner {
             SurfaceView surfaceView,
             int resolution
     ) {
-        this(activity, new StillSequenceCameraOptions(surfaceView, resolution), new ScanOptions(), new TrackingOptions(), new CallBackOptions());
+        this(activity, new StillSequenceCameraOptions(surfaceView, resolution), new ScanOptions(), new TrackingOptions(), new CallBackOptions(), new ProcessingOptions());
+    }
+
+    /**
+     * Creates a BarcodeScanner scanning the images of the given source - e.g.
+     * a ReplayCamera, to run the scanning without a physical camera.
+     *
+     * @param activity Only needed for ProcessingOptions.calibrateFormat (which
+     *                 is ignored when null)
+     */
+    BarcodeScanner(
+            Activity activity,
+            IStillSequenceCamera imageSource,
+            int minPixels,
+            ScanOptions scanOptions,
+            TrackingOptions trackingOptions,
+            CallBackOptions callBackOptions,
+            ProcessingOptions processingOptions
+    ) {
+        if (imageSource == null)
+            throw new InvalidParameterException("imageSource cannot be null");
+
+        this.mScanOptions = scanOptions;
+        this.mTrackingOptions = trackingOptions;
+        this.mCallBackOptions = callBackOptions;
+        this.mProcessingOptions = processingOptions;
+
+        this.mActivity = activity;
+        this.mImageSource = imageSource;
+        this.mBarcodeFinder = new TrackingBarcodeScanner(scanOptions, trackingOptions);
+        this.mFormatChooser = new ConfigManager(mImageSource, mBarcodeFinder);
+
+        if (processingOptions.prewarmDecoder)
+            DecoderWarmup.start(scanOptions, trackingOptions);
+        setupImageSource(minPixels);
+        setupFrameSaver();
+        setupFlightRecorder();
+    }
+
+    /**
+     * Sets up the camera with the calibrated configuration for this device if
+     * there is one - otherwise with the best estimate (calibrating it on start
+     * if requested). Estimates are remembered for the lifetime of the process,
+     * so only the first scanner for a given camera pays for them.
+     */
+    private void setupImageSource(int minPixels) {
+        mMinPixels = minPixels;
+        if (mProcessingOptions.calibrateFormat && mActivity != null) {
+            mCalibrationStore = new CalibrationStore(mActivity);
+            mCalibrationKey = CalibrationStore.key(mImageSource.getCameraId(), minPixels);
+            ConfigInfo calibrated = mCalibrationStore.load(mCalibrationKey);
+            if (calibrated != null) {
+                Log.i(TAG, "Using calibrated capture configuration " + calibrated.imageWidth + "x" + calibrated.imageHeight);
+                mConfig = calibrated;
+                mNeedsCalibration = false;
+                this.mImageSource.setup(calibrated.imageFormat, calibrated.imageWidth, calibrated.imageHeight);
+                return;
+            }
+        }
+
+        String configKey = mImageSource.getClass().getSimpleName() + "/" + mImageSource.getCameraId() + "/" + minPixels;
+        ConfigInfo bestFormatInfo;
+        synchronized (sChosenConfigs) {
+            bestFormatInfo = sChosenConfigs.get(configKey);
+        }
+        if (bestFormatInfo == null) {
+            bestFormatInfo = this.mFormatChooser.calculateBestFormat(minPixels);
+            synchronized (sChosenConfigs) {
+                sChosenConfigs.put(configKey, bestFormatInfo);
+            }
+        }
+        mConfig = bestFormatInfo;
+        mNeedsCalibration = mProcessingOptions.calibrateFormat && mActivity != null;
+        this.mImageSource.setup(bestFormatInfo.imageFormat, bestFormatInfo.imageWidth, bestFormatInfo.imageHeight);
     }
 
     @Override
@@ -195,14 +296,63 @@ class BarcodeScanner implements IBarcodeScanner {
         mProcessingThread.start();
         mProcessingHandler = new Handler(mProcessingThread.getLooper());
 
-        final SingleCallbackManager callbackManager = new SingleCallbackManager(this.mScanOptions, this.mCallBackOptions, listener, finalHandler);
-        mImageSource.start(
+        final SingleCallbackManager callbackManager = new SingleCallbackManager(this.mScanOptions, this.mCallBackOptions, listener, finalHandler, mScanTimers.getCallbackDispatch(), mFlightRecorder, mFlightExportDirectory);
+        final DecodePool<Barcode> decodePool = new DecodePool<Barcode>(
+                mProcessingOptions,
+                mScanOptions,
+                mTrackingOptions,
+                mBarcodeFinder,
+                mProcessingHandler,
+                mScanTimers,
+                new DecodePool.Job<Barcode>() {
+                    @Override
+                    public Barcode decode(TrackingBarcodeScanner finder, ISource source, BinaryBitmap bitmap) {
+                        LuminanceSource detectionImage = (source == null) ? null : source.getDetectionImage();
+                        return finder.findSingle(bitmap, detectionImage);
+                    }
+
+                    @Override
+                    public void onDecoded(ISource source, Barcode bc) {
+                        processSingleResult(source, bc, callbackManager);
+                    }
+
+                    @Override
+                    public void onError(ISource source, Exception error) {
+                        processError(source, error, callbackManager);
+                    }
+
+                    @Override
+                    public void onUnchanged(ISource source) {
+                        processSingleResult(source, mLastBarcode, callbackManager);
+                    }
+                }
+        );
+        mDecodePool = decodePool;
+        final FrameDifferenceGate frameGate = new FrameDifferenceGate(mProcessingOptions.staticFrameThreshold);
+        mFrameGate = frameGate;
+        mHasLastResult = false;
+        mBlurredFrames = 0;
+        markStart();
+        startCapture(
                 new IStillSequenceCamera.OnImageAvailableListener() {
 
                     @Override
                     public void onImageAvailable(ISource source, BinaryBitmap bitmap) {
-                        if (!mPaused)
-                            processSingleImage(source, bitmap, callbackManager);
+                        markFrame();
+                        if (mPaused) {
+                            if (source != null)
+                                source.close();
+                            return;
+                        }
+                        if (isDroppedAsBlurred(source)) {
+                            callbackManager.onBlurred();
+                            return;
+                        }
+                        if (frameGate.isUnchanged(source, mHasLastResult)) {
+                            decodePool.submitUnchanged(source);
+                            return;
+                        }
+                        decodePool.submit(source, bitmap);
                     }
 
                     @Override
@@ -211,8 +361,7 @@ class BarcodeScanner implements IBarcodeScanner {
                             callbackManager.onError(error);
                     }
 
-                },
-                mProcessingHandler
+                }
         );
     }
 
@@ -236,14 +385,60 @@ class BarcodeScanner implements IBarcodeScanner {
         mProcessingThread.start();
         mProcessingHandler = new Handler(mProcessingThread.getLooper());
 
-        final MultiCallbackManager callbackManager = new MultiCallbackManager(this.mScanOptions, this.mCallBackOptions, listener, finalHandler);
-        mImageSource.start(
+        final MultiCallbackManager callbackManager = new MultiCallbackManager(this.mScanOptions, this.mCallBackOptions, listener, finalHandler, mScanTimers.getCallbackDispatch());
+        final DecodePool<Barcode[]> decodePool = new DecodePool<Barcode[]>(
+                mProcessingOptions,
+                mScanOptions,
+                mTrackingOptions,
+                mBarcodeFinder,
+                mProcessingHandler,
+                mScanTimers,
+                new DecodePool.Job<Barcode[]>() {
+                    @Override
+                    public Barcode[] decode(TrackingBarcodeScanner finder, ISource source, BinaryBitmap bitmap) {
+                        return finder.findMultiple(bitmap);
+                    }
+
+                    @Override
+                    public void onDecoded(ISource source, Barcode[] bcs) {
+                        processMultiResult(source, bcs, minNoOfBarcodes, callbackManager);
+                    }
+
+                    @Override
+                    public void onError(ISource source, Exception error) {
+                        processMultiError(source, error, callbackManager);
+                    }
+
+                    @Override
+                    public void onUnchanged(ISource source) {
+                        processMultiResult(source, mLastBarcodes, minNoOfBarcodes, callbackManager);
+                    }
+                }
+        );
+        mDecodePool = decodePool;
+        final FrameDifferenceGate frameGate = new FrameDifferenceGate(mProcessingOptions.staticFrameThreshold);
+        mFrameGate = frameGate;
+        mHasLastResult = false;
+        mBlurredFrames = 0;
+        markStart();
+        startCapture(
                 new IStillSequenceCamera.OnImageAvailableListener() {
 
                     @Override
                     public void onImageAvailable(ISource source, BinaryBitmap bitmap) {
-                        if (!mPaused)
-                            processMultiImage(source, bitmap, minNoOfBarcodes, callbackManager);
+                        markFrame();
+                        if (mPaused) {
+                            if (source != null)
+                                source.close();
+                            return;
+                        }
+                        if (isDroppedAsBlurred(source))
+                            return;
+                        if (frameGate.isUnchanged(source, mHasLastResult)) {
+                            decodePool.submitUnchanged(source);
+                            return;
+                        }
+                        decodePool.submit(source, bitmap);
                     }
 
                     @Override
@@ -252,9 +447,96 @@ class BarcodeScanner implements IBarcodeScanner {
                             callbackManager.onError(error);
                     }
 
-                },
+                }
+        );
+    }
+
+    //*********************************************************************
+    //* Capture configuration and calibration:
+    //*********************************************************************
+    private int mMinPixels;
+    private ConfigInfo mConfig = null;
+    private boolean mNeedsCalibration = false;
+    private CalibrationStore mCalibrationStore = null;
+    private String mCalibrationKey = null;
+    private volatile FormatCalibrator mCalibrator = null;
+    private static final Map<String, ConfigInfo> sChosenConfigs = new HashMap<String, ConfigInfo>();
+
+    /**
+     * Starts the camera on the processing thread - first calibrating the
+     * capture configuration, if that's still needed.
+     */
+    private void startCapture(final IStillSequenceCamera.OnImageAvailableListener listener) {
+        if (!mNeedsCalibration) {
+            mImageSource.start(listener, mProcessingHandler);
+            return;
+        }
+
+        final FormatCalibrator calibrator = new FormatCalibrator(
+                mImageSource,
+                mScanOptions,
+                mTrackingOptions,
+                mProcessingOptions.decodeThreads,
+                FormatCalibrator.candidates(mImageSource, mConfig, mMinPixels),
                 mProcessingHandler
         );
+        mCalibrator = calibrator;
+        calibrator.start(new FormatCalibrator.Listener() {
+            @Override
+            public void onCalibrated(ConfigInfo best) {
+                if (mCalibrator != calibrator)
+                    return;
+                mCalibrator = null;
+                mConfig = best;
+                mNeedsCalibration = false;
+                mCalibrationStore.save(mCalibrationKey, best);
+
+                mImageSource.start(listener, mProcessingHandler);
+            }
+
+            @Override
+            public void onError(Exception error) {
+                if (mCalibrator != calibrator)
+                    return;
+                mCalibrator = null;
+
+                listener.onError(error);
+            }
+        });
+    }
+
+    //*********************************************************************
+    //* Start-up timing:
+    //*********************************************************************
+    private long mStartNanos = 0;
+    private volatile long mTimeToFirstFrameNanos = -1;
+    private volatile long mTimeToFirstHitNanos = -1;
+
+    private void markStart() {
+        mStartNanos = SystemClock.elapsedRealtimeNanos();
+        mTimeToFirstFrameNanos = -1;
+        mTimeToFirstHitNanos = -1;
+        mScanTimers.reset();
+    }
+
+    private void markFrame() {
+        if (mTimeToFirstFrameNanos < 0)
+            mTimeToFirstFrameNanos = SystemClock.elapsedRealtimeNanos() - mStartNanos;
+    }
+
+    private void markHit() {
+        if (mTimeToFirstHitNanos < 0)
+            mTimeToFirstHitNanos = SystemClock.elapsedRealtimeNanos() - mStartNanos;
+    }
+
+    @Override
+    public long getTimeToFirstFrameNanos() {
+        return mTimeToFirstFrameNanos;
+    }
+
+    @Override
+    public long getTimeToFirstHitNanos() {
+        return mTimeToFirstHitNanos;
     }
 
     private boolean mPaused = false;
@@ -271,7 +553,12 @@ class BarcodeScanner implements IBarcodeScanner {
 
     @Override
     public void StopScan() {
-        mImageSource.stop();
+        FormatCalibrator calibrator = mCalibrator;
+        mCalibrator = null;
+        if (calibrator != null)
+            calibrator.cancel();
+        else
+            mImageSource.stop();
 
         if (mProcessingThread != null) {
             try {
@@ -283,38 +570,226 @@ class BarcodeScanner implements IBarcodeScanner {
                 e.printStackTrace();
             }
         }
+
+        if (mDecodePool != null) {
+            mDecodePool.close();
+            mDecodePool = null;
+        }
     }
 
     @Override
     public void Close() {
+        setMetricsListener(null, 0, null);
         this.mImageSource.close();
+        if (mFrameSaver != null)
+            mFrameSaver.close();
+        if (mFlightRecorder != null)
+            mFlightRecorder.close();
     }
 
     //*********************************************************************
+    //* Saving the included images:
     //*********************************************************************
+    private FrameSaver mFrameSaver = null;
+
+    /**
+     * Gives the camera a FrameSaver if the callbacks should include images -
+     * so the sources save them in the background rather than on the
+     * processing thread.
+     */
+    private void setupFrameSaver() {
+        if (!mCallBackOptions.includeImage)
+            return;
+
+        File directory = mCallBackOptions.imageDirectory;
+        if (directory == null && mActivity != null)
+            directory = new File(mActivity.getCacheDir(), "barcode-images");
+
+        if (directory == null) {
+            Log.w(TAG, "No image directory (and no activity): the callbacks will not include images");
+            return;
+        }
 
-    private void processSingleImage(ISource source, BinaryBitmap bitmap, SingleCallbackManager callbackManager) {
-        // Decode the image:
+        SavedImageOptions savedImage = mCallBackOptions.savedImage;
+        mFrameSaver = new FrameSaver(directory, mCallBackOptions.maxQueuedImages, mCallBackOptions.imageQuality, savedImage.scale, savedImage.grayscale);
+        mImageSource.setFrameSaver(mFrameSaver);
+    }
+
+    //*********************************************************************
+    //* Flight recorder:
+    //*********************************************************************
+    private FlightRecorder mFlightRecorder = null;
+    private File mFlightExportDirectory = null;
+
+    /**
+     * Lets the camera record the latest frames if requested - exported by the
+     * SingleCallbackManager when an error or the given barcode is reported.
+     */
+    private void setupFlightRecorder() {
+        FlightRecorderOptions options = mCallBackOptions.flightRecorder;
+        if (options == null)
+            return;
+
+        File ringFile = options.ringFile;
+        File exportDirectory = options.exportDirectory;
+        if (mActivity != null) {
+            if (ringFile == null)
+                ringFile = new File(mActivity.getCacheDir(), "flight-recorder.ring");
+            if (exportDirectory == null)
+                exportDirectory = new File(mActivity.getCacheDir(), "flight-recordings");
+        }
+
+        if (ringFile == null) {
+            Log.w(TAG, "No flight recorder file (and no activity): nothing will be recorded");
+            return;
+        }
+
+        mFlightRecorder = new FlightRecorder(ringFile, options.frames, options.maxPixels);
+        mFlightExportDirectory = exportDirectory;
+        mImageSource.setFlightRecorder(mFlightRecorder);
+    }
+
+    /**
+     * Notes how the decoding of the source's frame went, if it was recorded.
+     * Must be called before the source is closed.
+     */
+    private void recordOutcome(ISource source, FlightRecorder.Outcome outcome, String text) {
+        if (mFlightRecorder != null && source != null)
+            mFlightRecorder.setOutcome(source.getRecordedFrame(), outcome, text);
+    }
+
+    private void recordOutcome(ISource source, Barcode[] bcs) {
+        if (bcs == null || bcs.length == 0) {
+            recordOutcome(source, FlightRecorder.Outcome.Blank, null);
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (Barcode bc : bcs) {
+            if (text.length() > 0)
+                text.append('\n');
+            text.append(bc.contents);
+        }
+        recordOutcome(source, FlightRecorder.Outcome.Hit, text.toString());
+    }
+
+    //*********************************************************************
+    //* Metrics:
+    //*********************************************************************
+    private final ScanTimers mScanTimers = new ScanTimers();
+    private volatile MetricsListener mMetricsListener = null;
+    private volatile Handler mMetricsHandler = null;
+    private volatile long mMetricsIntervalMillis = 0;
+
+    private final Runnable mReportMetrics = new Runnable() {
+        @Override
+        public void run() {
+            MetricsListener listener = mMetricsListener;
+            Handler handler = mMetricsHandler;
+            if (listener == null || handler == null)
+                return;
+
+            listener.OnMetrics(getMetrics());
+            handler.postDelayed(this, mMetricsIntervalMillis);
+        }
+    };
+
+    @Override
+    public ScanMetrics getMetrics() {
+        DecodePool<?> decodePool = mDecodePool;
+        return new ScanMetrics(
+                mImageSource.getFrameStatistics(),
+                mScanTimers,
+                (decodePool == null) ? 0 : decodePool.getDroppedFrames(),
+                mFrameSaver,
+                mImageSource.getBufferPool(),
+                getSkippedStaticFrames(),
+                getBlurredFrames(),
+                getExposureNanos(),
+                getSensitivity(),
+                getTimeToFirstFrameNanos(),
+                getTimeToFirstHitNanos()
+        );
+    }
+
+    @Override
+    public synchronized void setMetricsListener(MetricsListener listener, long intervalMillis, Handler callbackHandler) {
+        Handler oldHandler = mMetricsHandler;
+        if (oldHandler != null)
+            oldHandler.removeCallbacks(mReportMetrics);
+        mMetricsListener = null;
+        mMetricsHandler = null;
+
+        if (listener == null)
+            return;
+
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("intervalMillis must be positive");
+
+        Handler handler = (callbackHandler == null) ? new Handler() : callbackHandler;
+        mMetricsIntervalMillis = intervalMillis;
+        mMetricsListener = listener;
+        mMetricsHandler = handler;
+        handler.postDelayed(mReportMetrics, intervalMillis);
+    }
+
+    //*********************************************************************
+    //* Blurred frames:
+    //*********************************************************************
+    private volatile long mBlurredFrames = 0;
+
+    /**
+     * Checks (and counts) whether a frame is too blurred to be worth decoding
+     * at all - and if so, closes its source.
+     */
+    private boolean isDroppedAsBlurred(ISource source) {
+        if (mProcessingOptions.blurFilter != ProcessingOptions.BlurFilter.Drop || !isBlurred(source))
+            return false;
+
+        source.close();
+        return true;
+    }
+
+    private boolean isBlurred(ISource source) {
+        if (source == null || !mProcessingOptions.isBlurred(source.getSharpness()))
+            return false;
+
+        mBlurredFrames++;
+        return true;
+    }
+
+    //*********************************************************************
+    //* The latest decoding result, reused for unchanged frames
+    //* (only touched on the processing thread):
+    //*********************************************************************
+    private boolean mHasLastResult = false;
+    private Barcode mLastBarcode = null;
+    private Barcode[] mLastBarcodes = null;
+
+    private void processSingleResult(ISource source, Barcode bc, SingleCallbackManager callbackManager) {
+        mLastBarcode = bc;
+        mHasLastResult = true;
+        updateRegionOfInterest(bc == null ? null : new Barcode[]{bc});
         try {
-            Barcode bc = mBarcodeFinder.findSingle(bitmap);
             if (bc == null) {
+                boolean blurred = isBlurred(source);
+                recordOutcome(source, FlightRecorder.Outcome.Blank, null);
                 if (source!=null)
                 {
                     source.close();
                     source = null;
                 }
-                callbackManager.onBlank();
+                if (blurred)
+                    callbackManager.onBlurred();
+                else
+                    callbackManager.onBlank();
             } else {
+                markHit();
+                recordOutcome(source, FlightRecorder.Outcome.Hit, bc.contents);
                 callbackManager.onBarcode(bc, source);
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error processing image", e);
-            if (source!=null)
-            {
-                source.close();
-                source = null;
-            }
-            callbackManager.onError(e);
+            processError(source, e, callbackManager);
         } finally {
             if (source!=null)
             {
@@ -324,6 +799,61 @@ class BarcodeScanner implements IBarcodeScanner {
         }
     }
 
+    //*********************************************************************
+    //* Telling the camera where the barcodes are, so it can focus and
+    //* meter on them (only touched on the processing thread):
+    //*********************************************************************
+    private boolean mHasRegionOfInterest = false;
+    private int mMissesSinceHit = 0;
+
+    /**
+     * Passes the bounding box of the barcodes on to the camera - or, once the
+     * barcodes have been missing for trackingPatience frames, tells it to go
+     * back to the whole frame.
+     */
+    private void updateRegionOfInterest(Barcode[] bcs) {
+        Rect region = boundingBox(bcs);
+        if (region != null) {
+            mMissesSinceHit = 0;
+            mHasRegionOfInterest = true;
+            mImageSource.setRegionOfInterest(region);
+        } else if (mHasRegionOfInterest && ++mMissesSinceHit >= mTrackingOptions.trackingPatience) {
+            mHasRegionOfInterest = false;
+            mImageSource.setRegionOfInterest(null);
+        }
+    }
+
+    private static Rect boundingBox(Barcode[] bcs) {
+        if (bcs == null)
+            return null;
+
+        Rect result = null;
+        for (Barcode bc : bcs) {
+            if (bc == null || bc.points == null)
+                continue;
+            for (Point p : bc.points) {
+                if (p == null)
+                    continue;
+                if (result == null)
+                    result = new Rect(p.x, p.y, p.x + 1, p.y + 1);
+                else
+                    result.union(p.x, p.y);
+            }
+        }
+
+        return result;
+    }
+
+    private void processError(ISource source, Exception e, SingleCallbackManager callbackManager) {
+        Log.e(TAG, "Error processing image", e);
+        recordOutcome(source, FlightRecorder.Outcome.Error, e.toString());
+        if (source!=null)
+        {
+            source.close();
+        }
+        callbackManager.onError(e);
+    }
+
     /*
     private void processSingleJpeg(byte[] jpegData, int width, int height, SingleCallbackManager callbackManager) {
         try {
@@ -341,29 +871,39 @@ class BarcodeScanner implements IBarcodeScanner {
     }
 */
 
-    private void processMultiImage(ISource source, BinaryBitmap bitmap, int minNoOfBarcodes, MultiCallbackManager callbackManager) {
-        // Decode the image:
+    private void processMultiResult(ISource source, Barcode[] bcs, int minNoOfBarcodes, MultiCallbackManager callbackManager) {
+        mLastBarcodes = bcs;
+        mHasLastResult = true;
+        updateRegionOfInterest(bcs);
+        recordOutcome(source, bcs);
         try {
-            //BinaryBitmap bitmap = mBarcodeFinder.DecodeImage(source);
-            Barcode[] bcs = mBarcodeFinder.findMultiple(bitmap);
-            if (bcs == null) {
-                source.close();
-                callbackManager.onMultipleBarcodesFound(null, null);
+            if (bcs == null || bcs.length == 0) {
+                // Too blurred to count as blank?
+                if (!isBlurred(source))
+                    callbackManager.onMultipleBarcodesFound(null, null);
             } else if (bcs.length < minNoOfBarcodes) {
-                source.close();
                 callbackManager.onMultipleBarcodesFound(null, null);
             } else {
+                markHit();
                 callbackManager.onMultipleBarcodesFound(bcs, source);
-                source.close();
             }
         } catch (Exception e) {
             Log.e(TAG, "Error processing image", e);
             callbackManager.onError(e);
         } finally {
-            source.close();
+            if (source != null)
+                source.close();
         }
     }
 
+    private void processMultiError(ISource source, Exception e, MultiCallbackManager callbackManager) {
+        Log.e(TAG, "Error processing image", e);
+        recordOutcome(source, FlightRecorder.Outcome.Error, e.toString());
+        if (source != null)
+            source.close();
+        callbackManager.onError(e);
+    }
+
     /*
     private void processMultiJpeg(byte[] jpegData, int width, int height, int minNoOfBarcodes, MultiCallbackManager callbackManager) {
         try {
@@ -393,6 +933,32 @@ class BarcodeScanner implements IBarcodeScanner {
         mImageSource.setLockFocus(lockFocus);
     }
 
+    @Override
+    public long getExposureNanos() {
+        return mImageSource.getLastExposureNanos();
+    }
+
+    @Override
+    public int getSensitivity() {
+        return mImageSource.getLastSensitivity();
+    }
+
+    @Override
+    public FrameStatistics getFrameStatistics() {
+        return mImageSource.getFrameStatistics();
+    }
+
+    @Override
+    public long getBlurredFrames() {
+        return mBlurredFrames;
+    }
+
+    @Override
+    public long getSkippedStaticFrames() {
+        FrameDifferenceGate frameGate = mFrameGate;
+        return (frameGate == null) ? 0 : frameGate.getSkippedFrames();
+    }
+
     //*********************************************************************
     //* Managing Barcode events:
     //* ========================
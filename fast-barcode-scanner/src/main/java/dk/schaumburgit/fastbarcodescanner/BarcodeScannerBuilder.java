@@ -2,10 +2,21 @@ package dk.schaumburgit.fastbarcodescanner;
 
 import android.app.Activity;
 
+import com.google.zxing.BarcodeFormat;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
 import dk.schaumburgit.fastbarcodescanner.IBarcodeScanner.BarcodeDetectedListener;
 import dk.schaumburgit.fastbarcodescanner.callbackmanagers.CallBackOptions;
 import dk.schaumburgit.fastbarcodescanner.callbackmanagers.EventConflation;
+import dk.schaumburgit.fastbarcodescanner.callbackmanagers.FlightRecorderOptions;
+import dk.schaumburgit.fastbarcodescanner.callbackmanagers.SavedImageOptions;
 import dk.schaumburgit.stillsequencecamera.camera.StillSequenceCameraOptions;
+import dk.schaumburgit.stillsequencecamera.camera2.CaptureProfile;
+import dk.schaumburgit.stillsequencecamera.camera2.FrameQueueOptions;
 import dk.schaumburgit.stillsequencecamera.camera2.StillSequenceCamera2Options;
 import dk.schaumburgit.trackingbarcodescanner.ScanOptions;
 import dk.schaumburgit.trackingbarcodescanner.TrackingOptions;
@@ -16,6 +27,7 @@ class BarcodeScannerBuilder implements IBarcodeScannerBuilder {
     private final ScanOptions scanOptions;
     private final TrackingOptions trackingOptions;
     private final CallBackOptions callbackOptions;
+    private final ProcessingOptions processingOptions;
 
     //******************************************************************
     // Constructors:
@@ -26,6 +38,7 @@ class BarcodeScannerBuilder implements IBarcodeScannerBuilder {
         this.trackingOptions = new TrackingOptions();
         this.scanOptions = new ScanOptions();
         this.callbackOptions = new CallBackOptions();
+        this.processingOptions = new ProcessingOptions();
     }
 
     BarcodeScannerBuilder(StillSequenceCamera2Options cam2Opts) {
@@ -34,43 +47,50 @@ class BarcodeScannerBuilder implements IBarcodeScannerBuilder {
         this.trackingOptions = new TrackingOptions();
         this.scanOptions = new ScanOptions();
         this.callbackOptions = new CallBackOptions();
+        this.processingOptions = new ProcessingOptions();
     }
 
     //******************************************************************
     // Cloning:
     //******************************************************************
-    private BarcodeScannerBuilder(StillSequenceCameraOptions cameraOptions, StillSequenceCamera2Options camera2Options, TrackingOptions trackingOptions, ScanOptions scanOptions, CallBackOptions callbackOptions)
+    private BarcodeScannerBuilder(StillSequenceCameraOptions cameraOptions, StillSequenceCamera2Options camera2Options, TrackingOptions trackingOptions, ScanOptions scanOptions, CallBackOptions callbackOptions, ProcessingOptions processingOptions)
     {
         this.cameraOptions = cameraOptions;
         this.camera2Options = camera2Options;
         this.trackingOptions = trackingOptions;
         this.scanOptions = scanOptions;
         this.callbackOptions = callbackOptions;
+        this.processingOptions = processingOptions;
     }
 
     private BarcodeScannerBuilder clone(final StillSequenceCameraOptions cameraOptions)
     {
-        return new BarcodeScannerBuilder(cameraOptions, this.camera2Options, this.trackingOptions, this.scanOptions, this.callbackOptions);
+        return new BarcodeScannerBuilder(cameraOptions, this.camera2Options, this.trackingOptions, this.scanOptions, this.callbackOptions, this.processingOptions);
     }
 
     private BarcodeScannerBuilder clone(final StillSequenceCamera2Options camera2Options)
     {
-        return new BarcodeScannerBuilder(this.cameraOptions, camera2Options, this.trackingOptions, this.scanOptions, this.callbackOptions);
+        return new BarcodeScannerBuilder(this.cameraOptions, camera2Options, this.trackingOptions, this.scanOptions, this.callbackOptions, this.processingOptions);
     }
 
     private BarcodeScannerBuilder clone(final TrackingOptions trackingOptions)
     {
-        return new BarcodeScannerBuilder(this.cameraOptions, this.camera2Options, trackingOptions, this.scanOptions, this.callbackOptions);
+        return new BarcodeScannerBuilder(this.cameraOptions, this.camera2Options, trackingOptions, this.scanOptions, this.callbackOptions, this.processingOptions);
     }
 
     private BarcodeScannerBuilder clone(final ScanOptions scanOptions)
     {
-        return new BarcodeScannerBuilder(this.cameraOptions, this.camera2Options, this.trackingOptions, scanOptions, this.callbackOptions);
+        return new BarcodeScannerBuilder(this.cameraOptions, this.camera2Options, this.trackingOptions, scanOptions, this.callbackOptions, this.processingOptions);
+    }
+
+    private BarcodeScannerBuilder clone(final ProcessingOptions processingOptions)
+    {
+        return new BarcodeScannerBuilder(this.cameraOptions, this.camera2Options, this.trackingOptions, this.scanOptions, this.callbackOptions, processingOptions);
     }
 
     private BarcodeScannerBuilder clone(final CallBackOptions callbackOptions)
     {
-        return new BarcodeScannerBuilder(this.cameraOptions, this.camera2Options, this.trackingOptions, this.scanOptions, callbackOptions);
+        return new BarcodeScannerBuilder(this.cameraOptions, this.camera2Options, this.trackingOptions, this.scanOptions, callbackOptions, this.processingOptions);
     }
 
     //******************************************************************
@@ -88,6 +108,99 @@ class BarcodeScannerBuilder implements IBarcodeScannerBuilder {
         return clone(new StillSequenceCamera2Options(null));
     }
 
+    @Override
+    public IBarcodeScannerBuilder detectionStream(int detectionPixels)
+    {
+        if (this.camera2Options != null)
+            return clone(this.camera2Options.clone(-1, detectionPixels));
+
+        // The legacy camera API only has the one stream:
+        return this;
+    }
+
+    @Override
+    public IBarcodeScannerBuilder frameQueue(int maxImages, FrameQueueOptions.DropPolicy dropPolicy, int queueDepth)
+    {
+        if (this.camera2Options == null)
+            return this;
+
+        return clone(this.camera2Options.clone(new FrameQueueOptions(maxImages, dropPolicy, queueDepth)));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder previewBuffers(int previewBuffers)
+    {
+        if (this.cameraOptions == null)
+            return this;
+
+        return clone(this.cameraOptions.cloneBuffers(previewBuffers));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder captureTemplate(CaptureProfile.Template template)
+    {
+        if (this.camera2Options == null)
+            return this;
+
+        return clone(this.camera2Options.clone(this.camera2Options.captureProfile.clone(template)));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder frameRate(int minFps, int maxFps)
+    {
+        if (this.camera2Options == null)
+            return this;
+
+        return clone(this.camera2Options.clone(this.camera2Options.captureProfile.clone(minFps, maxFps)));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder imageProcessing(int noiseReductionMode, int edgeMode)
+    {
+        if (this.camera2Options == null)
+            return this;
+
+        return clone(this.camera2Options.clone(this.camera2Options.captureProfile.cloneProcessing(noiseReductionMode, edgeMode)));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder maxExposure(long maxExposureNanos)
+    {
+        if (this.camera2Options == null)
+            return this;
+
+        CaptureProfile profile = this.camera2Options.captureProfile;
+        return clone(this.camera2Options.clone(profile.cloneExposure(maxExposureNanos, profile.aeCompensation)));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder exposureCompensation(int steps)
+    {
+        if (this.camera2Options == null)
+            return this;
+
+        CaptureProfile profile = this.camera2Options.captureProfile;
+        return clone(this.camera2Options.clone(profile.cloneExposure(profile.maxExposureNanos, steps)));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder meterOnBarcode(boolean meterOnBarcode)
+    {
+        if (this.camera2Options == null)
+            return this;
+
+        return clone(this.camera2Options.clone(this.camera2Options.captureProfile.clone(meterOnBarcode)));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder zoomOnBarcode(float maxZoom)
+    {
+        if (this.camera2Options == null)
+            return this;
+
+        return clone(this.camera2Options.clone(this.camera2Options.captureProfile.cloneZoom(maxZoom)));
+    }
+
     //******************************************************************
     // Empty handling:
     //******************************************************************
@@ -103,7 +216,7 @@ class BarcodeScannerBuilder implements IBarcodeScannerBuilder {
 
     @Override
     public IBarcodeScannerBuilder emptyMarker(String emptyMarkerContents) {
-        return clone(new ScanOptions(emptyMarkerContents, this.scanOptions.beginsWith));
+        return clone(new ScanOptions(emptyMarkerContents, this.scanOptions.beginsWith, this.scanOptions.formats, this.scanOptions.tryHarder, this.scanOptions.pureBarcode));
     }
 
     //******************************************************************
@@ -124,7 +237,23 @@ class BarcodeScannerBuilder implements IBarcodeScannerBuilder {
     //******************************************************************
     @Override
     public IBarcodeScannerBuilder beginsWith(String prefix) {
-        return clone(new ScanOptions(this.scanOptions.emptyMarker, prefix));
+        return clone(new ScanOptions(this.scanOptions.emptyMarker, prefix, this.scanOptions.formats, this.scanOptions.tryHarder, this.scanOptions.pureBarcode));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder formats(BarcodeFormat... formats) {
+        Set<BarcodeFormat> formatSet = (formats == null || formats.length == 0) ? null : EnumSet.copyOf(Arrays.asList(formats));
+        return clone(this.scanOptions.clone(formatSet, this.scanOptions.tryHarder, this.scanOptions.pureBarcode));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder tryHarder(boolean tryHarder) {
+        return clone(this.scanOptions.clone(this.scanOptions.formats, tryHarder, this.scanOptions.pureBarcode));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder pureBarcode(boolean pureBarcode) {
+        return clone(this.scanOptions.clone(this.scanOptions.formats, this.scanOptions.tryHarder, pureBarcode));
     }
 
     @Override
@@ -137,16 +266,79 @@ class BarcodeScannerBuilder implements IBarcodeScannerBuilder {
         return clone(this.trackingOptions.clone(relativeTrackingMargin, nRetries));
     }
 
+    @Override
+    public IBarcodeScannerBuilder predictMotion(boolean predictMotion) {
+        return clone(this.trackingOptions.withPredictMotion(predictMotion));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder adaptiveTrackingMargin(double minMargin, double maxMargin) {
+        return clone(this.trackingOptions.withAdaptiveMargin(true, minMargin, maxMargin));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder trackMultiple(int fullScanInterval) {
+        return clone(this.trackingOptions.withTrackMultiple(true, fullScanInterval));
+    }
+
+    //******************************************************************
+    // Processing:
+    //******************************************************************
+    @Override
+    public IBarcodeScannerBuilder decodeThreads(int nThreads, ProcessingOptions.ResultOrdering ordering) {
+        return clone(this.processingOptions.clone(nThreads, ordering));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder skipStaticFrames(double threshold) {
+        return clone(this.processingOptions.clone(threshold));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder blurFilter(ProcessingOptions.BlurFilter mode, double minSharpness) {
+        return clone(this.processingOptions.clone(mode, minSharpness));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder calibrateFormat(boolean calibrate) {
+        return clone(this.processingOptions.clone(calibrate));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder prewarmDecoder(boolean prewarm) {
+        return clone(this.processingOptions.clonePrewarm(prewarm));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder includeImages(boolean includeImages) {
+        return clone(this.callbackOptions.clone(includeImages));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder imageStorage(File directory, int maxQueued, int quality) {
+        return clone(this.callbackOptions.clone(directory, maxQueued, quality));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder flightRecorder(int frames, long exportNanos, boolean exportOnError, String exportOnBarcode) {
+        return clone(this.callbackOptions.clone(new FlightRecorderOptions(frames, exportNanos).clone(exportOnError, exportOnBarcode)));
+    }
+
+    @Override
+    public IBarcodeScannerBuilder saveBarcodeRegion(double margin, int scale, boolean grayscale) {
+        return clone(this.callbackOptions.clone(new SavedImageOptions(true, margin, scale, grayscale)));
+    }
+
     @Override
     public IBarcodeScanner build(
             Activity activity
     ) {
         if (this.camera2Options != null) {
-            return BarcodeScannerFactory.Create(activity, this.camera2Options, this.scanOptions, this.trackingOptions, this.callbackOptions);
+            return BarcodeScannerFactory.Create(activity, this.camera2Options, this.scanOptions, this.trackingOptions, this.callbackOptions, this.processingOptions);
         }
 
         if (this.cameraOptions != null) {
-            return BarcodeScannerFactory.CreateLegacy(activity, this.cameraOptions, this.scanOptions, this.trackingOptions, this.callbackOptions);
+            return BarcodeScannerFactory.CreateLegacy(activity, this.cameraOptions, this.scanOptions, this.trackingOptions, this.callbackOptions, this.processingOptions);
         }
 
         return null;
@@ -7,6 +7,7 @@ import android.view.SurfaceView;
 import android.view.TextureView;
 
 import dk.schaumburgit.fastbarcodescanner.callbackmanagers.CallBackOptions;
+import dk.schaumburgit.stillsequencecamera.IStillSequenceCamera;
 import dk.schaumburgit.stillsequencecamera.camera.StillSequenceCameraOptions;
 import dk.schaumburgit.stillsequencecamera.camera2.StillSequenceCamera2Options;
 import dk.schaumburgit.trackingbarcodescanner.ScanOptions;
@@ -40,7 +41,20 @@ public class BarcodeScannerFactory {
             CallBackOptions callBackOptions
     )
     {
-        return new BarcodeScanner(activity, cameraOptions, scanOptions, trackingOptions, callBackOptions);
+        return Create(activity, cameraOptions, scanOptions, trackingOptions, callBackOptions, new ProcessingOptions());
+    }
+
+    @TargetApi(21)
+    public static IBarcodeScanner Create(
+            Activity activity,
+            StillSequenceCamera2Options cameraOptions,
+            ScanOptions scanOptions,
+            TrackingOptions trackingOptions,
+            CallBackOptions callBackOptions,
+            ProcessingOptions processingOptions
+    )
+    {
+        return new BarcodeScanner(activity, cameraOptions, scanOptions, trackingOptions, callBackOptions, processingOptions);
     }
 
     @TargetApi(21)
@@ -59,6 +73,26 @@ public class BarcodeScannerFactory {
         );
     }
 
+    /**
+     * Creates a BarcodeScanner scanning the images of the given source instead
+     * of a camera - e.g. a ReplayCamera playing back recorded frames, to run
+     * (and time) the full scanning pipeline without a camera or a screen.
+     *
+     * @param imageSource Non-null. Closed when the scanner is closed.
+     * @param minPixels   The requested minimum resolution of the images
+     */
+    public static IBarcodeScanner Create(
+            IStillSequenceCamera imageSource,
+            int minPixels,
+            ScanOptions scanOptions,
+            TrackingOptions trackingOptions,
+            CallBackOptions callBackOptions,
+            ProcessingOptions processingOptions
+    )
+    {
+        return new BarcodeScanner(null, imageSource, minPixels, scanOptions, trackingOptions, callBackOptions, processingOptions);
+    }
+
     public static IBarcodeScannerBuilder builder(TextureView preview)
     {
             return new BarcodeScannerBuilder(new StillSequenceCamera2Options(preview));
@@ -101,7 +135,27 @@ public class BarcodeScannerFactory {
             TrackingOptions trackingOptions,
             CallBackOptions callBackOptions
     ) {
-        return new BarcodeScanner(activity, cameraOptions, scanOptions, trackingOptions, callBackOptions);
+        return CreateLegacy(activity, cameraOptions, scanOptions, trackingOptions, callBackOptions, new ProcessingOptions());
+    }
+
+    /**
+     * Like CreateLegacy(Activity, StillSequenceCameraOptions, ScanOptions, TrackingOptions, CallBackOptions),
+     * with control over how the captured images are processed.
+     *
+     * @deprecated This constructor uses the deprecated Camera API. We recommend using
+     * one of the other BarcodeScanner constructors (using the new
+     * {@link android.hardware.camera2} API) for new applications.
+     */
+    @Deprecated
+    public static IBarcodeScanner CreateLegacy(
+            Activity activity,
+            StillSequenceCameraOptions cameraOptions,
+            ScanOptions scanOptions,
+            TrackingOptions trackingOptions,
+            CallBackOptions callBackOptions,
+            ProcessingOptions processingOptions
+    ) {
+        return new BarcodeScanner(activity, cameraOptions, scanOptions, trackingOptions, callBackOptions, processingOptions);
     }
 
     /**
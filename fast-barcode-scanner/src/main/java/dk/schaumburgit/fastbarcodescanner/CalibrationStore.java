@@ -0,0 +1,64 @@
+package dk.schaumburgit.fastbarcodescanner;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Persists the capture configuration chosen by the FormatCalibrator, so it
+ * only has to be measured once per device.
+ *
+ * Configurations are kept in the app's private SharedPreferences, keyed by
+ * the device (manufacturer + model), the camera id and the requested minimum
+ * resolution - so a different camera or resolution is calibrated anew.
+ */
+class CalibrationStore
+{
+    private static final String TAG = "CalibrationStore";
+    private static final String PREFERENCES = "dk.schaumburgit.fastbarcodescanner.calibration";
+
+    private final SharedPreferences mPreferences;
+
+    CalibrationStore(Context context)
+    {
+        mPreferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    static String key(String cameraId, int minPixels)
+    {
+        return Build.MANUFACTURER + "/" + Build.MODEL + "/" + cameraId + "/" + minPixels;
+    }
+
+    /**
+     * The stored configuration for the key - or null if there is none (or it
+     * can't be read)
+     */
+    ConfigInfo load(String key)
+    {
+        String value = mPreferences.getString(key, null);
+        if (value == null)
+            return null;
+
+        String[] parts = value.split(",");
+        try {
+            return new ConfigInfo(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Ignoring unreadable calibration for " + key + ": " + value);
+            return null;
+        }
+    }
+
+    void save(String key, ConfigInfo config)
+    {
+        mPreferences
+                .edit()
+                .putString(key, config.imageFormat + "," + config.imageWidth + "," + config.imageHeight)
+                .apply();
+    }
+
+    void forget(String key)
+    {
+        mPreferences.edit().remove(key).apply();
+    }
+}
@@ -0,0 +1,322 @@
+package dk.schaumburgit.fastbarcodescanner;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.zxing.BinaryBitmap;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import dk.schaumburgit.stillsequencecamera.ISource;
+import dk.schaumburgit.trackingbarcodescanner.ScanOptions;
+import dk.schaumburgit.trackingbarcodescanner.TrackingBarcodeScanner;
+import dk.schaumburgit.trackingbarcodescanner.TrackingOptions;
+
+/**
+ * Decodes the images received from the camera, either inline (one thread) or
+ * on a pool of worker threads.
+ *
+ * submit() and the Job's onDecoded()/onError() callbacks are always called on
+ * the thread of the delivery handler, so the callback managers never see
+ * concurrent calls.
+ *
+ * Each worker thread has its own TrackingBarcodeScanner (they are not thread
+ * safe), so each worker tracks the barcode across the frames it decodes - i.e.
+ * only every Nth frame with N workers. Its tracking window is therefore based
+ * on an older hit, and a velocity estimated from it would be off by about a
+ * factor N: motion prediction (TrackingOptions.predictMotion) is switched off
+ * for the workers, which just look around their previous hit.
+ *
+ * When all workers are busy, new frames are dropped (and their sources closed)
+ * rather than queued: a queued frame would only get older while waiting.
+ *
+ * The time spent decoding each frame - and, through the finders, in each
+ * stage of the decoding - is recorded in the ScanTimers.
+ */
+class DecodePool<T>
+{
+    private static final String TAG = "BarcodeScanner";
+
+    interface Job<T>
+    {
+        /**
+         * Called on a worker thread
+         */
+        T decode(TrackingBarcodeScanner finder, ISource source, BinaryBitmap bitmap) throws Exception;
+
+        /**
+         * Called on the delivery thread. Responsible for closing the source.
+         */
+        void onDecoded(ISource source, T result);
+
+        /**
+         * Called on the delivery thread. Responsible for closing the source.
+         */
+        void onError(ISource source, Exception error);
+
+        /**
+         * Called on the delivery thread, in place of a result, for a frame
+         * submitted with submitUnchanged(). Responsible for closing the source.
+         */
+        void onUnchanged(ISource source);
+    }
+
+    private static class Outcome<T>
+    {
+        final ISource source;
+        final T result;
+        final Exception error;
+        final boolean unchanged;
+
+        Outcome(ISource source, T result, Exception error, boolean unchanged)
+        {
+            this.source = source;
+            this.result = result;
+            this.error = error;
+            this.unchanged = unchanged;
+        }
+    }
+
+    private final Job<T> mJob;
+    private final ScanTimers mTimers;
+    private final Handler mDeliveryHandler;
+    private final TrackingBarcodeScanner mInlineFinder;
+    private final ThreadPoolExecutor mExecutor;
+    private final Semaphore mFreeWorkers;
+    private final ThreadLocal<TrackingBarcodeScanner> mWorkerFinders;
+
+    // Only touched on the delivery thread:
+    private final ResultSequencer<Outcome<T>> mSequencer;
+
+    private volatile long mDroppedFrames = 0;
+    private volatile boolean mClosed = false;
+
+    DecodePool(
+            ProcessingOptions processingOptions,
+            final ScanOptions scanOptions,
+            final TrackingOptions trackingOptions,
+            TrackingBarcodeScanner inlineFinder,
+            Handler deliveryHandler,
+            final ScanTimers timers,
+            Job<T> job
+    )
+    {
+        mJob = job;
+        mTimers = timers;
+        mDeliveryHandler = deliveryHandler;
+        mSequencer = new ResultSequencer<Outcome<T>>(processingOptions.resultOrdering == ProcessingOptions.ResultOrdering.LatestWins);
+
+        int nThreads = processingOptions.decodeThreads;
+        if (nThreads <= 1) {
+            inlineFinder.setStageTimer(timers);
+            mInlineFinder = inlineFinder;
+            mExecutor = null;
+            mFreeWorkers = null;
+            mWorkerFinders = null;
+            return;
+        }
+
+        mInlineFinder = null;
+        mFreeWorkers = new Semaphore(nThreads);
+        if (trackingOptions.predictMotion)
+            Log.i(TAG, "Motion prediction is switched off with " + nThreads + " decode threads");
+        final TrackingOptions workerOptions = trackingOptions.withPredictMotion(false);
+        mWorkerFinders = new ThreadLocal<TrackingBarcodeScanner>() {
+            @Override
+            protected TrackingBarcodeScanner initialValue() {
+                TrackingBarcodeScanner finder = new TrackingBarcodeScanner(scanOptions, workerOptions);
+                finder.setStageTimer(timers);
+                return finder;
+            }
+        };
+        mExecutor = new ThreadPoolExecutor(
+                nThreads,
+                nThreads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int mThreadNo = 0;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "BarcodeScanner decode thread #" + (mThreadNo++));
+                    }
+                }
+        );
+    }
+
+    /**
+     * The number of frames dropped because all decode workers were busy
+     */
+    long getDroppedFrames()
+    {
+        return mDroppedFrames;
+    }
+
+    /**
+     * Must be called on the delivery thread
+     */
+    void submit(final ISource source, final BinaryBitmap bitmap)
+    {
+        if (mExecutor == null) {
+            // Single-threaded: decode and deliver right here
+            T result;
+            try {
+                result = decode(mInlineFinder, source, bitmap);
+            } catch (Exception e) {
+                mJob.onError(source, e);
+                return;
+            }
+            mJob.onDecoded(source, result);
+            return;
+        }
+
+        if (mClosed || !mFreeWorkers.tryAcquire()) {
+            mDroppedFrames++;
+            close(source);
+            return;
+        }
+
+        final long sequenceNo = mSequencer.next();
+        try {
+            mExecutor.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            decode(sequenceNo, source, bitmap);
+                        }
+                    }
+            );
+        } catch (RejectedExecutionException e) {
+            // shutting down - and this frame won't get a result:
+            mSequencer.skip(sequenceNo, mReceiver);
+            mFreeWorkers.release();
+            mDroppedFrames++;
+            close(source);
+        }
+    }
+
+    /**
+     * Submits a frame that needn't be decoded (e.g. one unchanged since the
+     * previous frame): Job.onUnchanged() is called for it in its place in the
+     * sequence - after the results of the frames still being decoded, so it
+     * sees the result of the frame right before it. (With LatestWins, those
+     * results are stale once it has been delivered.)
+     *
+     * Must be called on the delivery thread
+     */
+    void submitUnchanged(ISource source)
+    {
+        if (mExecutor == null) {
+            mJob.onUnchanged(source);
+            return;
+        }
+
+        if (mClosed) {
+            close(source);
+            return;
+        }
+
+        deliver(mSequencer.next(), new Outcome<T>(source, null, null, true));
+    }
+
+    private void decode(final long sequenceNo, ISource source, BinaryBitmap bitmap)
+    {
+        Outcome<T> outcome;
+        try {
+            outcome = new Outcome<T>(source, decode(mWorkerFinders.get(), source, bitmap), null, false);
+        } catch (Exception e) {
+            outcome = new Outcome<T>(source, null, e, false);
+        } finally {
+            mFreeWorkers.release();
+        }
+
+        final Outcome<T> finalOutcome = outcome;
+        boolean posted = mDeliveryHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(sequenceNo, finalOutcome);
+                    }
+                }
+        );
+
+        // The delivery thread is gone (we're stopping), so nobody else will:
+        if (!posted)
+            close(source);
+    }
+
+    private T decode(TrackingBarcodeScanner finder, ISource source, BinaryBitmap bitmap) throws Exception
+    {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            return mJob.decode(finder, source, bitmap);
+        } finally {
+            mTimers.onDecoded(SystemClock.elapsedRealtimeNanos() - start);
+        }
+    }
+
+    private void deliver(long sequenceNo, Outcome<T> outcome)
+    {
+        if (mClosed) {
+            close(outcome.source);
+            return;
+        }
+
+        mSequencer.deliver(sequenceNo, outcome, mReceiver);
+    }
+
+    private final ResultSequencer.Receiver<Outcome<T>> mReceiver = new ResultSequencer.Receiver<Outcome<T>>() {
+        @Override
+        public void onNext(Outcome<T> outcome) {
+            if (outcome.unchanged)
+                mJob.onUnchanged(outcome.source);
+            else if (outcome.error != null)
+                mJob.onError(outcome.source, outcome.error);
+            else
+                mJob.onDecoded(outcome.source, outcome.result);
+        }
+
+        @Override
+        public void onStale(Outcome<T> outcome) {
+            Log.v(TAG, "Discarding stale result");
+            close(outcome.source);
+        }
+    };
+
+    /**
+     * Stops the workers. Results not yet delivered are discarded.
+     */
+    void close()
+    {
+        mClosed = true;
+
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+            try {
+                if (!mExecutor.awaitTermination(1, TimeUnit.SECONDS))
+                    mExecutor.shutdownNow();
+            } catch (InterruptedException e) {
+                mExecutor.shutdownNow();
+            }
+        }
+
+        // Runs on the caller's thread, but the delivery thread has been
+        // stopped by now (or will discard anything arriving after mClosed)
+        for (Outcome<T> outcome : mSequencer.clear())
+            close(outcome.source);
+    }
+
+    private static void close(ISource source)
+    {
+        if (source != null)
+            source.close();
+    }
+}
@@ -0,0 +1,101 @@
+package dk.schaumburgit.fastbarcodescanner;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.schaumburgit.trackingbarcodescanner.ScanOptions;
+import dk.schaumburgit.trackingbarcodescanner.TrackingBarcodeScanner;
+import dk.schaumburgit.trackingbarcodescanner.TrackingOptions;
+
+/**
+ * Runs a few decodes of synthetic barcodes on a low-priority background
+ * thread, so the class loading and JIT compilation of the decoding path are
+ * done while the camera is still starting - rather than delaying the first
+ * real frames.
+ *
+ * The decodes use their own TrackingBarcodeScanner (with the same options as
+ * the real one), so they don't disturb any tracking state. Only the first
+ * warm-up in a process does anything.
+ */
+class DecoderWarmup
+{
+    private static final String TAG = "DecoderWarmup";
+    private static final String CONTENTS = "FastBarcodeScanner warm-up";
+    private static final int ROUNDS = 3;
+
+    private static boolean sStarted = false;
+
+    static void start(final ScanOptions scanOptions, final TrackingOptions trackingOptions)
+    {
+        synchronized (DecoderWarmup.class) {
+            if (sStarted)
+                return;
+            sStarted = true;
+        }
+
+        Thread thread = new Thread("BarcodeScanner decoder warm-up") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                warmUp(scanOptions, trackingOptions);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void warmUp(ScanOptions scanOptions, TrackingOptions trackingOptions)
+    {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            List<BinaryBitmap> bitmaps = new ArrayList<BinaryBitmap>();
+            if (isScanned(scanOptions, BarcodeFormat.QR_CODE) || !isScanned(scanOptions, BarcodeFormat.CODE_128))
+                bitmaps.add(render(BarcodeFormat.QR_CODE, 480, 480));
+            if (isScanned(scanOptions, BarcodeFormat.CODE_128))
+                bitmaps.add(render(BarcodeFormat.CODE_128, 640, 160));
+
+            for (int round = 0; round < ROUNDS; round++) {
+                for (BinaryBitmap bitmap : bitmaps) {
+                    new TrackingBarcodeScanner(scanOptions, trackingOptions).findSingle(bitmap);
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Decoder warm-up failed", e);
+        }
+        Log.i(TAG, "Decoder warm-up took " + (SystemClock.elapsedRealtimeNanos() - start) / 1000000 + "ms");
+    }
+
+    private static boolean isScanned(ScanOptions scanOptions, BarcodeFormat format)
+    {
+        return scanOptions.formats == null || scanOptions.formats.contains(format);
+    }
+
+    /**
+     * A grayscale image of a barcode, with a quiet zone around it
+     */
+    private static BinaryBitmap render(BarcodeFormat format, int width, int height) throws Exception
+    {
+        BitMatrix matrix = new MultiFormatWriter().encode(CONTENTS, format, width, height);
+        int w = matrix.getWidth();
+        int h = matrix.getHeight();
+
+        byte[] luminance = new byte[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++)
+                luminance[y * w + x] = matrix.get(x, y) ? (byte) 0 : (byte) 255;
+        }
+
+        return new BinaryBitmap(new HybridBinarizer(new PlanarYUVLuminanceSource(luminance, w, h, 0, 0, w, h, false)));
+    }
+}
@@ -0,0 +1,414 @@
+package dk.schaumburgit.fastbarcodescanner;
+
+import android.graphics.ImageFormat;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+
+import com.google.zxing.BinaryBitmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import dk.schaumburgit.stillsequencecamera.ISource;
+import dk.schaumburgit.stillsequencecamera.IStillSequenceCamera;
+import dk.schaumburgit.stillsequencecamera.LatencyHistogram;
+import dk.schaumburgit.trackingbarcodescanner.ScanOptions;
+import dk.schaumburgit.trackingbarcodescanner.TrackingBarcodeScanner;
+import dk.schaumburgit.trackingbarcodescanner.TrackingOptions;
+
+/**
+ * Chooses the capture configuration (format and size) by measuring, rather
+ * than estimating: each candidate - in every scannable format the camera
+ * supports - is captured for a moment, measuring
+ *
+ * - the capture interval (time between frames, without any decoding),
+ * - the conversion cost (turning the camera image into a bitmap, as timed by
+ *   the camera itself - see FrameStatistics.getConversionTime()), and
+ * - the decode cost (binarizing and scanning the bitmap, with one
+ *   TrackingBarcodeScanner per candidate - i.e. as it would be while scanning).
+ *
+ * The candidate with the shortest effective frame period - the capture
+ * interval or the per-thread processing time, whichever is longer - wins;
+ * among candidates within 10% of each other, the one with the most pixels.
+ *
+ * Everything runs on the given handler's thread, which must be the thread
+ * delivering the camera images. The camera is closed and set up again for
+ * every candidate (see IStillSequenceCamera.setup()), and left set up (but not
+ * started) with the winning configuration.
+ */
+class FormatCalibrator
+{
+    private static final String TAG = "FormatCalibrator";
+
+    private static final int WARMUP_FRAMES = 3;
+    private static final int MEASURED_FRAMES = 8;
+    private static final long CANDIDATE_TIMEOUT_MS = 3000;
+    private static final int MAX_CANDIDATES = 3;
+
+    /**
+     * The formats the cameras can turn into a scannable bitmap
+     */
+    private static final int[] SCANNABLE_FORMATS = {
+            ImageFormat.YUV_420_888,
+            ImageFormat.NV21,
+            ImageFormat.YV12,
+            ImageFormat.JPEG
+    };
+    private static final double TIE_MARGIN = 0.1;
+
+    interface Listener
+    {
+        /**
+         * Called on the handler thread with the winning configuration (which
+         * the camera has been set up with)
+         */
+        void onCalibrated(ConfigInfo best);
+
+        /**
+         * Called on the handler thread if the camera cannot be set up with the
+         * winning configuration
+         */
+        void onError(Exception error);
+    }
+
+    private final IStillSequenceCamera mCamera;
+    private final ScanOptions mScanOptions;
+    private final TrackingOptions mTrackingOptions;
+    private final int mDecodeThreads;
+    private final List<ConfigInfo> mCandidates;
+    private final Handler mHandler;
+
+    private final Object mLock = new Object();
+    private final List<Measurement> mResults = new ArrayList<Measurement>();
+    private Listener mListener = null;
+    private boolean mCancelled = false;
+    private boolean mCapturing = false;
+    private int mCandidate = -1;
+    private Measurement mCurrent = null;
+
+    /**
+     * @param candidates The configurations to measure - the first one is used
+     *                   if none of them can be measured
+     */
+    FormatCalibrator(IStillSequenceCamera camera, ScanOptions scanOptions, TrackingOptions trackingOptions, int decodeThreads, List<ConfigInfo> candidates, Handler handler)
+    {
+        if (candidates.isEmpty())
+            throw new IllegalArgumentException("FormatCalibrator needs at least one candidate");
+
+        mCamera = camera;
+        mScanOptions = scanOptions;
+        mTrackingOptions = trackingOptions;
+        mDecodeThreads = Math.max(1, decodeThreads);
+        mCandidates = candidates;
+        mHandler = handler;
+    }
+
+    /**
+     * The estimated configuration, plus the (up to) MAX_CANDIDATES smallest
+     * sizes of the same format with at least minPixels pixels - and the
+     * smallest such size of every other scannable format the camera supports,
+     * so the formats are compared by measurement too.
+     */
+    static List<ConfigInfo> candidates(IStillSequenceCamera camera, ConfigInfo estimate, int minPixels)
+    {
+        List<ConfigInfo> res = new ArrayList<ConfigInfo>();
+        res.add(estimate);
+        for (Size size : smallestSizes(camera, estimate.imageFormat, minPixels)) {
+            if (res.size() > MAX_CANDIDATES)
+                break;
+            if (size.getWidth() != estimate.imageWidth || size.getHeight() != estimate.imageHeight)
+                res.add(new ConfigInfo(estimate.imageFormat, size.getWidth(), size.getHeight()));
+        }
+
+        for (int format : SCANNABLE_FORMATS) {
+            if (format == estimate.imageFormat)
+                continue;
+
+            List<Size> sizes = smallestSizes(camera, format, minPixels);
+            if (!sizes.isEmpty())
+                res.add(new ConfigInfo(format, sizes.get(0).getWidth(), sizes.get(0).getHeight()));
+        }
+
+        return res;
+    }
+
+    /**
+     * The sizes of the format with at least minPixels pixels, smallest first
+     * (empty if the camera doesn't support the format)
+     */
+    private static List<Size> smallestSizes(IStillSequenceCamera camera, int format, int minPixels)
+    {
+        List<Size> sizes = new ArrayList<Size>();
+        for (Size size : camera.getOutputSizes(format)) {
+            if (size.getWidth() * size.getHeight() >= minPixels)
+                sizes.add(size);
+        }
+        Collections.sort(sizes, new Comparator<Size>() {
+            @Override
+            public int compare(Size lhs, Size rhs) {
+                return Long.signum((long) lhs.getWidth() * lhs.getHeight() - (long) rhs.getWidth() * rhs.getHeight());
+            }
+        });
+
+        return sizes;
+    }
+
+    /**
+     * Starts measuring the candidates, calling the listener when done (unless
+     * cancelled first).
+     */
+    void start(Listener listener)
+    {
+        synchronized (mLock) {
+            mListener = listener;
+        }
+        mHandler.post(mNextCandidate);
+    }
+
+    /**
+     * Stops the calibration (and the camera, if capturing for it). The listener
+     * will not be called.
+     */
+    void cancel()
+    {
+        synchronized (mLock) {
+            mCancelled = true;
+            mHandler.removeCallbacks(mNextCandidate);
+            if (mCapturing) {
+                mCamera.stop();
+                mCapturing = false;
+            }
+        }
+    }
+
+    private final Runnable mNextCandidate = new Runnable() {
+        @Override
+        public void run() {
+            nextCandidate();
+        }
+    };
+
+    /**
+     * Finishes the current candidate (if any) and starts capturing the next one
+     * - or, after the last one, sets the camera up with the best.
+     */
+    void nextCandidate()
+    {
+        ConfigInfo best;
+        RuntimeException error = null;
+        Listener listener;
+        synchronized (mLock) {
+            if (mCancelled)
+                return;
+
+            mHandler.removeCallbacks(mNextCandidate);
+            if (mCapturing) {
+                mCamera.stop();
+                mCapturing = false;
+                mResults.add(mCurrent);
+                Log.i(TAG, mCurrent.toString());
+            }
+
+            mCandidate++;
+            if (mCandidate < mCandidates.size()) {
+                ConfigInfo candidate = mCandidates.get(mCandidate);
+                mCurrent = new Measurement(candidate, new TrackingBarcodeScanner(mScanOptions, mTrackingOptions));
+                try {
+                    reconfigure(candidate);
+                    mCamera.start(mFrameListener, mHandler);
+                    mCapturing = true;
+                    mHandler.postDelayed(mNextCandidate, CANDIDATE_TIMEOUT_MS);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Cannot capture " + candidate.imageWidth + "x" + candidate.imageHeight + " (format " + candidate.imageFormat + ")", e);
+                    mHandler.post(mNextCandidate);
+                }
+                return;
+            }
+
+            best = chooseBest(mResults, mDecodeThreads, mCandidates.get(0));
+            try {
+                reconfigure(best);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            listener = mListener;
+        }
+
+        if (error != null) {
+            Log.e(TAG, "Cannot set up the calibrated " + best.imageWidth + "x" + best.imageHeight + " (format " + best.imageFormat + ")", error);
+            if (listener != null)
+                listener.onError(error);
+            return;
+        }
+
+        Log.i(TAG, "Calibrated: " + best.imageWidth + "x" + best.imageHeight + " (format " + best.imageFormat + ")");
+        if (listener != null)
+            listener.onCalibrated(best);
+    }
+
+    /**
+     * Sets the camera up with the given configuration: setup() is only
+     * allowed on a closed camera, and the camera may be capturing a previous
+     * candidate - or have been set up with the estimate before calibrating.
+     */
+    private void reconfigure(ConfigInfo config)
+    {
+        mCamera.close();
+        mCamera.setup(config.imageFormat, config.imageWidth, config.imageHeight);
+    }
+
+    /**
+     * The complete measurement with the shortest effective frame period -
+     * among those within TIE_MARGIN of each other, the one with the most
+     * pixels. The fallback if none of them is complete.
+     */
+    static ConfigInfo chooseBest(List<Measurement> results, int decodeThreads, ConfigInfo fallback)
+    {
+        Measurement best = null;
+        for (Measurement m : results) {
+            if (!m.isComplete())
+                continue;
+
+            if (best == null) {
+                best = m;
+                continue;
+            }
+
+            double period = m.framePeriodNanos(decodeThreads);
+            double bestPeriod = best.framePeriodNanos(decodeThreads);
+            if (period < bestPeriod * (1 - TIE_MARGIN)
+                    || (period < bestPeriod * (1 + TIE_MARGIN) && m.pixels() > best.pixels()))
+                best = m;
+        }
+
+        return (best == null) ? fallback : best.config;
+    }
+
+    private final IStillSequenceCamera.OnImageAvailableListener mFrameListener = new IStillSequenceCamera.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ISource source, BinaryBitmap bitmap) {
+            try {
+                Measurement m;
+                synchronized (mLock) {
+                    m = mCurrent;
+                    if (mCancelled || !mCapturing || m == null || m.done)
+                        return;
+                }
+
+                long now = SystemClock.elapsedRealtimeNanos();
+                m.seen++;
+                if (m.seen <= WARMUP_FRAMES) {
+                    // Let the auto-exposure etc. settle
+                } else if (m.seen <= WARMUP_FRAMES + MEASURED_FRAMES) {
+                    // Capture interval, without any decoding slowing it down:
+                    if (m.lastArrival >= 0) {
+                        m.totalInterval += now - m.lastArrival;
+                        m.intervals++;
+                    }
+                } else {
+                    // (the camera converted this frame before delivering it)
+                    LatencyHistogram.Snapshot conversion = mCamera.getFrameStatistics().getConversionTime();
+                    if (m.decodes == 0)
+                        m.conversionAtStart = conversion;
+
+                    long start = SystemClock.elapsedRealtimeNanos();
+                    m.scanner.findSingle(bitmap);
+                    long decoded = SystemClock.elapsedRealtimeNanos();
+
+                    m.totalDecode += decoded - start;
+                    m.decodes++;
+                    if (m.decodes >= MEASURED_FRAMES) {
+                        m.conversionAtEnd = conversion;
+                        m.done = true;
+                        mHandler.post(mNextCandidate);
+                    }
+                }
+                m.lastArrival = now;
+            } catch (Exception e) {
+                Log.w(TAG, "Error measuring frame", e);
+            } finally {
+                if (source != null)
+                    source.close();
+            }
+        }
+
+        @Override
+        public void onError(Exception error) {
+            Log.w(TAG, "Camera error during calibration", error);
+        }
+    };
+
+    /**
+     * The measurements for one candidate (only touched on the handler thread)
+     */
+    static class Measurement
+    {
+        final ConfigInfo config;
+        final TrackingBarcodeScanner scanner;
+        int seen = 0;
+        long lastArrival = -1;
+        long totalInterval = 0;
+        int intervals = 0;
+        LatencyHistogram.Snapshot conversionAtStart = null;
+        LatencyHistogram.Snapshot conversionAtEnd = null;
+        long totalDecode = 0;
+        int decodes = 0;
+        boolean done = false;
+
+        Measurement(ConfigInfo config, TrackingBarcodeScanner scanner)
+        {
+            this.config = config;
+            this.scanner = scanner;
+        }
+
+        /**
+         * The average conversion time of the frames converted while decoding
+         * (0 if the camera didn't time any)
+         */
+        double conversionNanos()
+        {
+            if (conversionAtStart == null || conversionAtEnd == null)
+                return 0;
+
+            long count = conversionAtEnd.count - conversionAtStart.count;
+            if (count <= 0)
+                return 0;
+
+            return (double) (conversionAtEnd.totalNanos - conversionAtStart.totalNanos) / count;
+        }
+
+        boolean isComplete()
+        {
+            return intervals > 0 && decodes > 0;
+        }
+
+        long pixels()
+        {
+            return (long) config.imageWidth * config.imageHeight;
+        }
+
+        double framePeriodNanos(int decodeThreads)
+        {
+            double captureInterval = (double) totalInterval / intervals;
+            double processing = conversionNanos() + (double) totalDecode / decodes;
+            return Math.max(captureInterval, processing / decodeThreads);
+        }
+
+        @Override
+        public String toString()
+        {
+            String res = config.imageWidth + "x" + config.imageHeight + " (format " + config.imageFormat + "): ";
+            if (!isComplete())
+                return res + "incomplete after " + seen + " frames";
+
+            return res
+                    + "capture " + (totalInterval / intervals / 1000) + "us, "
+                    + "conversion " + ((long) conversionNanos() / 1000) + "us, "
+                    + "decode " + (totalDecode / decodes / 1000) + "us";
+        }
+    }
+}
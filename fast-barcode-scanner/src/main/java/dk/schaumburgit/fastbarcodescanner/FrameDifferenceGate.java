@@ -0,0 +1,71 @@
+package dk.schaumburgit.fastbarcodescanner;
+
+import dk.schaumburgit.stillsequencecamera.ISource;
+import dk.schaumburgit.stillsequencecamera.LuminanceThumbnail;
+
+/**
+ * Detects frames that are (nearly) identical to the last decoded frame, so
+ * their decoding can be skipped and the previous result reused.
+ *
+ * Frames are compared by the mean absolute difference of their luminance
+ * thumbnails against the thumbnail of the last frame that was let through -
+ * so a slow drift will eventually let a frame through, too.
+ *
+ * Even in a completely static scene, every MAX_CONSECUTIVE_SKIPS'th frame is
+ * let through, so a result based on a bad frame is not reused forever.
+ *
+ * Not thread safe: must only be used from the processing thread.
+ */
+class FrameDifferenceGate
+{
+    private static final int MAX_CONSECUTIVE_SKIPS = 15;
+
+    private final double mThreshold;
+    private LuminanceThumbnail mReference = null;
+    private int mConsecutiveSkips = 0;
+    private volatile long mSkippedFrames = 0;
+
+    /**
+     * @param threshold The mean absolute luminance difference (0-255) below which
+     *                  a frame is considered unchanged. 0 disables the gate.
+     */
+    FrameDifferenceGate(double threshold)
+    {
+        mThreshold = threshold;
+    }
+
+    /**
+     * Decides whether the frame of the given source can be skipped.
+     *
+     * @param haveResult Whether there is a previous result that can be reused
+     */
+    boolean isUnchanged(ISource source, boolean haveResult)
+    {
+        if (mThreshold <= 0 || source == null)
+            return false;
+
+        LuminanceThumbnail thumbnail = source.getThumbnail();
+        if (thumbnail == null)
+            return false;
+
+        if (haveResult
+                && mConsecutiveSkips < MAX_CONSECUTIVE_SKIPS
+                && thumbnail.difference(mReference) < mThreshold) {
+            mConsecutiveSkips++;
+            mSkippedFrames++;
+            return true;
+        }
+
+        mReference = thumbnail;
+        mConsecutiveSkips = 0;
+        return false;
+    }
+
+    /**
+     * The number of frames skipped as unchanged
+     */
+    long getSkippedFrames()
+    {
+        return mSkippedFrames;
+    }
+}
@@ -4,6 +4,8 @@ import android.graphics.Point;
 import android.media.Image;
 import android.os.Handler;
 
+import dk.schaumburgit.stillsequencecamera.FrameStatistics;
+
 /**
  * Created by Thomas on 23-02-2018.
  */
@@ -100,6 +102,64 @@ public interface IBarcodeScanner {
 
     void setLockFocus(boolean lockFocus);
 
+    /**
+     * The number of frames skipped (in the current or latest scan) because
+     * they were unchanged from the previous frame (see
+     * IBarcodeScannerBuilder.skipStaticFrames)
+     */
+    long getSkippedStaticFrames();
+
+    /**
+     * The number of frames (in the current or latest scan) considered too
+     * blurred to count (see IBarcodeScannerBuilder.blurFilter)
+     */
+    long getBlurredFrames();
+
+    /**
+     * The exposure time (in nanoseconds) applied to the latest captured frame
+     * (see IBarcodeScannerBuilder.maxExposure) - or -1 if unknown
+     */
+    long getExposureNanos();
+
+    /**
+     * The sensitivity (ISO) applied to the latest captured frame - or -1 if unknown
+     */
+    int getSensitivity();
+
+    /**
+     * The camera's frame accounting: how many frames were produced, skipped,
+     * dropped, delivered for decoding and decoded - and how long they waited
+     * for the decoder (see IBarcodeScannerBuilder.frameQueue).
+     */
+    FrameStatistics getFrameStatistics();
+
+    /**
+     * Nanoseconds from the latest StartScan()/StartMultiScan() until the first
+     * frame arrived from the camera (including any calibration, see
+     * IBarcodeScannerBuilder.calibrateFormat) - or -1 if none has arrived yet
+     */
+    long getTimeToFirstFrameNanos();
+
+    /**
+     * Nanoseconds from the latest StartScan()/StartMultiScan() until the first
+     * barcode was found - or -1 if none has been found yet
+     */
+    long getTimeToFirstHitNanos();
+
+    /**
+     * A snapshot of the latency of each stage of the scanning (capture,
+     * conversion, binarization, tracked and full scans, callbacks) together
+     * with the frame counts - see ScanMetrics.
+     */
+    ScanMetrics getMetrics();
+
+    /**
+     * Calls the listener with a fresh getMetrics() snapshot every
+     * intervalMillis milliseconds, on the given handler (null means the
+     * calling thread), until called again - with a null listener to stop.
+     */
+    void setMetricsListener(MetricsListener listener, long intervalMillis, Handler callbackHandler);
+
     /**
      * Callback interface for being notified that a barcode has been detected.
      * <p>
@@ -127,15 +187,30 @@ public interface IBarcodeScanner {
         void OnError(Exception error);
     }
 
+    public interface MetricsListener
+    {
+        void OnMetrics(ScanMetrics metrics);
+    }
+
     public static class BarcodeInfo {
         public final String barcode;
         //public final int format;
         public final Point[] points;
+        /**
+         * Identifies the same barcode across callbacks when tracking
+         * multiple barcodes (-1 otherwise)
+         */
+        public final int trackId;
 
         public BarcodeInfo(String barcode, Point[] points) {
+            this(barcode, points, -1);
+        }
+
+        public BarcodeInfo(String barcode, Point[] points, int trackId) {
             this.barcode = barcode;
             //this.format = format;
             this.points = points;
+            this.trackId = trackId;
         }
     }
 }
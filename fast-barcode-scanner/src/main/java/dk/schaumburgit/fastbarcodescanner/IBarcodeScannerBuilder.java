@@ -2,7 +2,13 @@ package dk.schaumburgit.fastbarcodescanner;
 
 import android.app.Activity;
 
+import com.google.zxing.BarcodeFormat;
+
+import java.io.File;
+
 import dk.schaumburgit.fastbarcodescanner.callbackmanagers.EventConflation;
+import dk.schaumburgit.stillsequencecamera.camera2.CaptureProfile;
+import dk.schaumburgit.stillsequencecamera.camera2.FrameQueueOptions;
 
 /**
  * Created by Thomas on 08-02-2018.
@@ -13,6 +19,77 @@ public interface IBarcodeScannerBuilder
     //ICaptureBuilder
     IBarcodeScannerBuilder resolution(int minPixels);
 
+    /**
+     * Captures a second, low-resolution stream of at least detectionPixels pixels
+     * alongside the full-resolution one, used for locating the barcode - so only
+     * that region of the full-resolution image is decoded (Camera2 only; default:
+     * 0, i.e. off).
+     */
+    IBarcodeScannerBuilder detectionStream(int detectionPixels);
+
+    /**
+     * Sets the number of images the camera can buffer (maxImages), and what to
+     * do when they arrive faster than they are decoded: keep only the latest
+     * (LatestWins, the default), queue up to queueDepth of them dropping the
+     * oldest (BoundedQueue), or queue up to queueDepth and hold back the camera
+     * (Block). Camera2 only; default: 4, LatestWins.
+     */
+    IBarcodeScannerBuilder frameQueue(int maxImages, FrameQueueOptions.DropPolicy dropPolicy, int queueDepth);
+
+    /**
+     * Sets the number of preview buffers in the ring shared by the camera and
+     * the decoding - i.e. how many frames can be captured while others are
+     * still being decoded (legacy camera API only; default: 3).
+     */
+    IBarcodeScannerBuilder previewBuffers(int previewBuffers);
+
+    /**
+     * Builds the capture request from the given template - e.g. Preview or
+     * Record for a steadier frame rate than the default Still (Camera2 only).
+     */
+    IBarcodeScannerBuilder captureTemplate(CaptureProfile.Template template);
+
+    /**
+     * Asks the auto-exposure for the supported frame rate range closest to
+     * [minFps, maxFps] (Camera2 only; default: 0, 0 - i.e. the template's choice).
+     */
+    IBarcodeScannerBuilder frameRate(int minFps, int maxFps);
+
+    /**
+     * Overrides the in-camera noise reduction and edge enhancement, using the
+     * CameraMetadata NOISE_REDUCTION_MODE_* and EDGE_MODE_* constants - or -1 to
+     * leave the template's choice (Camera2 only).
+     */
+    IBarcodeScannerBuilder imageProcessing(int noiseReductionMode, int edgeMode);
+
+    /**
+     * Caps the exposure time at maxExposureNanos, raising the sensitivity (ISO)
+     * to compensate - trading noise for less motion blur (Camera2 only;
+     * default: 0, i.e. no cap).
+     */
+    IBarcodeScannerBuilder maxExposure(long maxExposureNanos);
+
+    /**
+     * Adjusts the auto-exposure target by the given number of compensation
+     * steps (Camera2 only; default: 0).
+     */
+    IBarcodeScannerBuilder exposureCompensation(int steps);
+
+    /**
+     * Moves the auto-focus and auto-exposure regions onto the barcode(s) found
+     * - and back to the whole frame when they have been lost for a while
+     * (Camera2 only; default: false).
+     */
+    IBarcodeScannerBuilder meterOnBarcode(boolean meterOnBarcode);
+
+    /**
+     * Lets the camera zoom in (up to maxZoom times) on a barcode that has been
+     * tracked steadily for a while, giving more pixels per barcode module - and
+     * back out to the full field of view when it is lost (Camera2 only;
+     * default: 1, i.e. no zoom).
+     */
+    IBarcodeScannerBuilder zoomOnBarcode(float maxZoom);
+
     // void filterImages(...rgb...);
     //IBarcodeScannerBuilder scanQR(int subtype);
     //IBarcodeScannerBuilder findBarcode(int barcodeType);
@@ -30,15 +107,128 @@ public interface IBarcodeScannerBuilder
 
 
     IBarcodeScannerBuilder beginsWith(String prefix);
+
+    /**
+     * Only looks for barcodes of the given formats (default: all formats).
+     * Calling it with no formats removes the restriction.
+     */
+    IBarcodeScannerBuilder formats(BarcodeFormat... formats);
+
+    /**
+     * Spends more time looking for barcodes in each image - more hits, but
+     * fewer frames per second (default: off).
+     */
+    IBarcodeScannerBuilder tryHarder(boolean tryHarder);
+
+    /**
+     * Assumes the images contain nothing but a single, unrotated barcode
+     * (default: off).
+     */
+    IBarcodeScannerBuilder pureBarcode(boolean pureBarcode);
     IBarcodeScannerBuilder track(
             double relativeTrackingMargin,
             int nRetries
     );
 
+    /**
+     * Moves the tracking window along with a moving barcode, based on its
+     * velocity over the previous frames (default: off).
+     */
+    IBarcodeScannerBuilder predictMotion(boolean predictMotion);
+
+    /**
+     * Lets the tracking margin adapt to the observed movement, starting from the
+     * margin given to track() and staying within [minMargin, maxMargin]
+     * (default: off).
+     */
+    IBarcodeScannerBuilder adaptiveTrackingMargin(double minMargin, double maxMargin);
+
+    /**
+     * Makes multi-barcode scans track each barcode separately, only scanning the
+     * full image every fullScanInterval frames, or when a barcode is lost
+     * (default: off).
+     */
+    IBarcodeScannerBuilder trackMultiple(int fullScanInterval);
+
+    /**
+     * Decodes the captured images on a pool of nThreads worker threads
+     * (default: 1, i.e. no pool).
+     *
+     * @param ordering Whether results must be delivered in capture order (Strict),
+     *                 or as soon as they are available, discarding stale ones (LatestWins).
+     */
+    IBarcodeScannerBuilder decodeThreads(int nThreads, ProcessingOptions.ResultOrdering ordering);
+
+    /**
+     * Skips decoding frames that differ less than threshold (mean absolute
+     * luminance difference, 0-255) from the last decoded frame, reusing the
+     * previous result instead (default: 0, i.e. off).
+     */
+    IBarcodeScannerBuilder skipStaticFrames(double threshold);
+
+    /**
+     * Treats frames with a Laplacian-variance sharpness (see SharpnessMeter)
+     * below minSharpness as blurred: depending on mode, they are either
+     * dropped before decoding (Drop), or decoded but not counted as blanks
+     * when nothing is found (Debounce). Default: None.
+     */
+    IBarcodeScannerBuilder blurFilter(ProcessingOptions.BlurFilter mode, double minSharpness);
+
+    /**
+     * Chooses the capture format and size by measuring a few candidates on the
+     * device when the scanner is first started (taking a second or two),
+     * instead of using estimates. The result is remembered per device and
+     * camera, so later scanners start without calibrating. Default: false.
+     */
+    IBarcodeScannerBuilder calibrateFormat(boolean calibrate);
+
+    /**
+     * Decodes a few synthetic barcodes in the background while the camera
+     * starts, so the first real frames aren't slowed down by class loading
+     * and JIT compilation. Default: false.
+     */
+    IBarcodeScannerBuilder prewarmDecoder(boolean prewarm);
+
     // ICallbackBuilder
     //IBarcodeScannerBuilder setListener(BarcodeScanner.BarcodeDetectedListener listener);
     //IBarcodeScannerBuilder setVerbose();
-//    IBarcodeScannerBuilder includeImagesInCallback();
+
+    /**
+     * Saves the image of each reported barcode as a JPEG file, and passes its
+     * URL to the listener (default: true). The saving happens in the
+     * background, so the file may not be written yet when the listener is
+     * called.
+     */
+    IBarcodeScannerBuilder includeImages(boolean includeImages);
+
+    /**
+     * Where and how the included images are saved: in directory (null: a
+     * "barcode-images" folder in the activity's cache directory), with the
+     * given JPEG quality (1-100). When more than maxQueued images are waiting
+     * to be written, further images are dropped - and reported without an
+     * image. Default: null, 2, 90.
+     */
+    IBarcodeScannerBuilder imageStorage(File directory, int maxQueued, int quality);
+
+    /**
+     * Records the luminance of the latest frames (downsampled to at most
+     * 640x480 pixels), and how their decoding went, in a memory-mapped ring
+     * file in the activity's cache directory - and exports the last
+     * exportNanos of it (as a replayable recording, see ReplayCamera) to its
+     * "flight-recordings" folder when an error is reported to the listener
+     * (if exportOnError) or the barcode exportOnBarcode is (if not null).
+     * Default: off.
+     */
+    IBarcodeScannerBuilder flightRecorder(int frames, long exportNanos, boolean exportOnError, String exportOnBarcode);
+
+    /**
+     * Saves only the region around the reported barcode(s) - enlarged by
+     * margin times its longest side on all sides - instead of the whole
+     * frame, downsampled by scale and without colour if grayscale. Makes
+     * saving the included images much cheaper. JPEG frames are always saved
+     * whole. Default: the whole frame, at full resolution, in colour.
+     */
+    IBarcodeScannerBuilder saveBarcodeRegion(double margin, int scale, boolean grayscale);
 
     IBarcodeScanner build(Activity activity);
     //BarcodeScanner start(
@@ -0,0 +1,148 @@
+package dk.schaumburgit.fastbarcodescanner;
+
+/**
+ * A set of options controlling how the BarcodeScanner processes the images
+ * delivered by the camera.
+ *
+ * By default, images are decoded one at a time on a single processing thread.
+ * Setting decodeThreads > 1 spreads the decoding over a pool of worker threads,
+ * with the results delivered to the listener according to resultOrdering.
+ * Each worker then tracks the barcode on its own share of the frames, so
+ * TrackingOptions.predictMotion is ignored (see DecodePool).
+ *
+ * Setting staticFrameThreshold > 0 skips decoding frames whose luminance
+ * differs less than the threshold (mean absolute difference, 0-255) from the
+ * last decoded frame - reusing the previous result instead. This saves a lot
+ * of work for fixed-mount scanners looking at an empty scene.
+ *
+ * Frames with a sharpness (see SharpnessMeter) below minSharpness are
+ * considered blurred, and handled according to blurFilter.
+ *
+ * With calibrateFormat, the capture format and size are chosen by measuring
+ * the candidates on the device (see FormatCalibrator) the first time the
+ * scanner is started, rather than from estimates. The result is remembered for
+ * the device and camera, so later scanners start straight away.
+ *
+ * With prewarmDecoder, a few synthetic barcodes are decoded on a background
+ * thread while the camera starts (see DecoderWarmup), so the first real frames
+ * don't pay for class loading and JIT compilation.
+ */
+public class ProcessingOptions
+{
+    public enum ResultOrdering
+    {
+        /**
+         * Results are delivered in the order the images were captured, even if
+         * a later image finished decoding first.
+         */
+        Strict,
+        /**
+         * Results are delivered as soon as they are ready; a result for an image
+         * older than the last delivered one is discarded.
+         */
+        LatestWins
+    }
+
+    public enum BlurFilter
+    {
+        /**
+         * Sharpness is ignored
+         */
+        None,
+        /**
+         * Blurred frames are decoded as usual - but if nothing is found, they
+         * are not counted as blanks in the debouncing
+         */
+        Debounce,
+        /**
+         * Blurred frames are dropped without decoding (and not counted as blanks)
+         */
+        Drop
+    }
+
+    public final int decodeThreads;
+    public final ResultOrdering resultOrdering;
+    public final double staticFrameThreshold;
+    public final BlurFilter blurFilter;
+    public final double minSharpness;
+    public final boolean calibrateFormat;
+    public final boolean prewarmDecoder;
+
+    public ProcessingOptions(int decodeThreads, ResultOrdering resultOrdering, double staticFrameThreshold, BlurFilter blurFilter, double minSharpness, boolean calibrateFormat, boolean prewarmDecoder)
+    {
+        this.decodeThreads = decodeThreads;
+        this.resultOrdering = resultOrdering;
+        this.staticFrameThreshold = staticFrameThreshold;
+        this.blurFilter = blurFilter;
+        this.minSharpness = minSharpness;
+        this.calibrateFormat = calibrateFormat;
+        this.prewarmDecoder = prewarmDecoder;
+    }
+    public ProcessingOptions(int decodeThreads, ResultOrdering resultOrdering, double staticFrameThreshold, BlurFilter blurFilter, double minSharpness, boolean calibrateFormat)
+    {
+        this(decodeThreads, resultOrdering, staticFrameThreshold, blurFilter, minSharpness, calibrateFormat, false);
+    }
+    public ProcessingOptions(int decodeThreads, ResultOrdering resultOrdering, double staticFrameThreshold, BlurFilter blurFilter, double minSharpness)
+    {
+        this(decodeThreads, resultOrdering, staticFrameThreshold, blurFilter, minSharpness, false);
+    }
+    public ProcessingOptions(int decodeThreads, ResultOrdering resultOrdering, double staticFrameThreshold)
+    {
+        this(decodeThreads, resultOrdering, staticFrameThreshold, BlurFilter.None, 0);
+    }
+    public ProcessingOptions(int decodeThreads, ResultOrdering resultOrdering)
+    {
+        this(decodeThreads, resultOrdering, 0);
+    }
+    public ProcessingOptions()
+    {
+        this.decodeThreads = 1;
+        this.resultOrdering = ResultOrdering.Strict;
+        this.staticFrameThreshold = 0;
+        this.blurFilter = BlurFilter.None;
+        this.minSharpness = 0;
+        this.calibrateFormat = false;
+        this.prewarmDecoder = false;
+    }
+    public ProcessingOptions clone(int decodeThreads, ResultOrdering resultOrdering)
+    {
+        if (decodeThreads < 1)
+            decodeThreads = this.decodeThreads;
+
+        if (resultOrdering == null)
+            resultOrdering = this.resultOrdering;
+
+        return new ProcessingOptions(decodeThreads, resultOrdering, this.staticFrameThreshold, this.blurFilter, this.minSharpness, this.calibrateFormat, this.prewarmDecoder);
+    }
+    public ProcessingOptions clone(double staticFrameThreshold)
+    {
+        return new ProcessingOptions(this.decodeThreads, this.resultOrdering, staticFrameThreshold, this.blurFilter, this.minSharpness, this.calibrateFormat, this.prewarmDecoder);
+    }
+    public ProcessingOptions clone(BlurFilter blurFilter, double minSharpness)
+    {
+        if (blurFilter == null)
+            blurFilter = this.blurFilter;
+
+        if (minSharpness < 0)
+            minSharpness = this.minSharpness;
+
+        return new ProcessingOptions(this.decodeThreads, this.resultOrdering, this.staticFrameThreshold, blurFilter, minSharpness, this.calibrateFormat, this.prewarmDecoder);
+    }
+    public ProcessingOptions clone(boolean calibrateFormat)
+    {
+        return new ProcessingOptions(this.decodeThreads, this.resultOrdering, this.staticFrameThreshold, this.blurFilter, this.minSharpness, calibrateFormat, this.prewarmDecoder);
+    }
+    public ProcessingOptions clonePrewarm(boolean prewarmDecoder)
+    {
+        return new ProcessingOptions(this.decodeThreads, this.resultOrdering, this.staticFrameThreshold, this.blurFilter, this.minSharpness, this.calibrateFormat, prewarmDecoder);
+    }
+
+    /**
+     * Whether the sharpness measured for a frame makes it count as blurred
+     * (frames without a sharpness measure never do)
+     */
+    public boolean isBlurred(double sharpness)
+    {
+        return blurFilter != BlurFilter.None && sharpness >= 0 && sharpness < minSharpness;
+    }
+}
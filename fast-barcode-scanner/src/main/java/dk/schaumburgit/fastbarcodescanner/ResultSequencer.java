@@ -0,0 +1,102 @@
+package dk.schaumburgit.fastbarcodescanner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Puts the results of frames decoded in parallel back into frame order (see
+ * DecodePool).
+ *
+ * Every frame gets a sequence number from next() when it is submitted, and
+ * its result is handed to deliver() whenever it is ready - in whatever order
+ * the workers finish. With in-order delivery, a result is held back until
+ * the results of all earlier frames have been passed on. With latest-wins
+ * delivery, results are passed on at once, and any result older than one
+ * already passed on is stale.
+ *
+ * Not thread safe: only used on the delivery thread.
+ */
+class ResultSequencer<T>
+{
+    interface Receiver<T>
+    {
+        /**
+         * The next result, in frame order
+         */
+        void onNext(T result);
+
+        /**
+         * A result superseded by a newer one (latest-wins delivery only)
+         */
+        void onStale(T result);
+    }
+
+    private final boolean mLatestWins;
+    private long mNextSequenceNo = 0;
+    private long mNextToDeliver = 0;
+    private final HashMap<Long, T> mPending = new HashMap<Long, T>();
+
+    ResultSequencer(boolean latestWins)
+    {
+        mLatestWins = latestWins;
+    }
+
+    /**
+     * The sequence number of the next frame submitted
+     */
+    long next()
+    {
+        return mNextSequenceNo++;
+    }
+
+    /**
+     * Gives up a sequence number whose frame will not have a result after
+     * all - so the later ones aren't held back waiting for it.
+     */
+    void skip(long sequenceNo, Receiver<T> receiver)
+    {
+        if (!mLatestWins)
+            deliver(sequenceNo, null, receiver);
+    }
+
+    /**
+     * Passes the result of the given frame on to the receiver - along with any
+     * later results it was holding back - or holds it back itself.
+     */
+    void deliver(long sequenceNo, T result, Receiver<T> receiver)
+    {
+        if (mLatestWins) {
+            if (sequenceNo < mNextToDeliver) {
+                receiver.onStale(result);
+                return;
+            }
+            mNextToDeliver = sequenceNo + 1;
+            receiver.onNext(result);
+            return;
+        }
+
+        mPending.put(sequenceNo, result);
+        while (mPending.containsKey(mNextToDeliver)) {
+            T next = mPending.remove(mNextToDeliver);
+            mNextToDeliver++;
+            if (next != null)
+                receiver.onNext(next);
+        }
+    }
+
+    /**
+     * Removes (and returns) the results held back
+     */
+    List<T> clear()
+    {
+        List<T> res = new ArrayList<T>();
+        for (T result : mPending.values()) {
+            if (result != null)
+                res.add(result);
+        }
+        mPending.clear();
+
+        return res;
+    }
+}
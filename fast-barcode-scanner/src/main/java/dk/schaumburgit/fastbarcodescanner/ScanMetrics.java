@@ -0,0 +1,122 @@
+package dk.schaumburgit.fastbarcodescanner;
+
+import android.os.SystemClock;
+
+import dk.schaumburgit.stillsequencecamera.FrameBufferPool;
+import dk.schaumburgit.stillsequencecamera.FrameSaver;
+import dk.schaumburgit.stillsequencecamera.FrameStatistics;
+import dk.schaumburgit.stillsequencecamera.LatencyHistogram;
+
+/**
+ * A snapshot of where the time (and the frames) went in a scan - see
+ * IBarcodeScanner.getMetrics().
+ *
+ * The latency stages, in the order a frame passes through them:
+ *
+ * capture: from the start of the exposure until the frame was acquired
+ *          (Camera2 only, and only where the camera's timestamps allow it)
+ * queueWait: acquired until handed to the scanner
+ * conversion: turning the camera image into a bitmap
+ * binarization: turning the bitmap into black and white
+ * trackedScan: decoding a region of the image (around a tracked barcode)
+ * fullScan: decoding the whole image
+ * decode: all of the above scanning for one frame, start to end
+ * callbackDispatch: from posting a callback until the listener was called
+ *
+ * The frame counts come from the camera (see FrameStatistics), except
+ * decodeDropped (frames dropped because all decode threads were busy),
+ * skippedStaticFrames and blurredFrames. The image counts are those of the
+ * FrameSaver saving the images included in the callbacks (all 0 when images
+ * aren't included): imagesDropped were not saved because too many images
+ * were already waiting to be written. The buffer pool counts are those of
+ * the camera's FrameBufferPool (the per-frame conversion buffers): a miss
+ * means a buffer had to be allocated.
+ *
+ * The decoding stages, decodeDropped, skippedStaticFrames and blurredFrames
+ * cover the current (or latest) scan; the camera stages and counts cover the
+ * lifetime of the scanner.
+ */
+public class ScanMetrics
+{
+    /**
+     * When the snapshot was taken (SystemClock.elapsedRealtimeNanos())
+     */
+    public final long timestampNanos;
+
+    public final LatencyHistogram.Snapshot capture;
+    public final LatencyHistogram.Snapshot queueWait;
+    public final LatencyHistogram.Snapshot conversion;
+    public final LatencyHistogram.Snapshot binarization;
+    public final LatencyHistogram.Snapshot trackedScan;
+    public final LatencyHistogram.Snapshot fullScan;
+    public final LatencyHistogram.Snapshot decode;
+    public final LatencyHistogram.Snapshot callbackDispatch;
+
+    public final long framesProduced;
+    public final long framesSkipped;
+    public final long framesDropped;
+    public final long framesDelivered;
+    public final long decodeDropped;
+    public final long skippedStaticFrames;
+    public final long blurredFrames;
+
+    public final long imagesSaved;
+    public final long imagesDropped;
+    public final long imagesFailed;
+
+    public final long bufferPoolHits;
+    public final long bufferPoolMisses;
+    public final int bufferPoolHighWaterMark;
+
+    public final long exposureNanos;
+    public final int sensitivity;
+    public final long timeToFirstFrameNanos;
+    public final long timeToFirstHitNanos;
+
+    ScanMetrics(
+            FrameStatistics frames,
+            ScanTimers timers,
+            long decodeDropped,
+            FrameSaver frameSaver,
+            FrameBufferPool bufferPool,
+            long skippedStaticFrames,
+            long blurredFrames,
+            long exposureNanos,
+            int sensitivity,
+            long timeToFirstFrameNanos,
+            long timeToFirstHitNanos
+    )
+    {
+        this.timestampNanos = SystemClock.elapsedRealtimeNanos();
+
+        this.capture = frames.getCaptureLatency();
+        this.queueWait = frames.getQueueWait();
+        this.conversion = frames.getConversionTime();
+        this.binarization = timers.binarization();
+        this.trackedScan = timers.trackedScan();
+        this.fullScan = timers.fullScan();
+        this.decode = timers.decode();
+        this.callbackDispatch = timers.callbackDispatch();
+
+        this.framesProduced = frames.getProduced();
+        this.framesSkipped = frames.getSkipped();
+        this.framesDropped = frames.getDropped();
+        this.framesDelivered = frames.getDelivered();
+        this.decodeDropped = decodeDropped;
+        this.skippedStaticFrames = skippedStaticFrames;
+        this.blurredFrames = blurredFrames;
+
+        this.imagesSaved = (frameSaver == null) ? 0 : frameSaver.getSavedCount();
+        this.imagesDropped = (frameSaver == null) ? 0 : frameSaver.getDroppedCount();
+        this.imagesFailed = (frameSaver == null) ? 0 : frameSaver.getFailedCount();
+
+        this.bufferPoolHits = (bufferPool == null) ? 0 : bufferPool.getHits();
+        this.bufferPoolMisses = (bufferPool == null) ? 0 : bufferPool.getMisses();
+        this.bufferPoolHighWaterMark = (bufferPool == null) ? 0 : bufferPool.getHighWaterMark();
+
+        this.exposureNanos = exposureNanos;
+        this.sensitivity = sensitivity;
+        this.timeToFirstFrameNanos = timeToFirstFrameNanos;
+        this.timeToFirstHitNanos = timeToFirstHitNanos;
+    }
+}
@@ -0,0 +1,84 @@
+package dk.schaumburgit.fastbarcodescanner;
+
+import dk.schaumburgit.stillsequencecamera.LatencyHistogram;
+import dk.schaumburgit.trackingbarcodescanner.TrackingBarcodeScanner;
+
+/**
+ * The latency histograms of the decoding side of a scan: the stages reported
+ * by the TrackingBarcodeScanners (binarization, tracked and full scans), the
+ * total decode time per frame, and the time from posting a callback until the
+ * listener is called.
+ *
+ * Thread safe: the decode stages are recorded from the decoding threads, the
+ * callback dispatch from the callback thread.
+ */
+class ScanTimers implements TrackingBarcodeScanner.StageTimer
+{
+    private final LatencyHistogram mBinarization = new LatencyHistogram();
+    private final LatencyHistogram mTrackedScan = new LatencyHistogram();
+    private final LatencyHistogram mFullScan = new LatencyHistogram();
+    private final LatencyHistogram mDecode = new LatencyHistogram();
+    private final LatencyHistogram mCallbackDispatch = new LatencyHistogram();
+
+    @Override
+    public void onBinarized(long nanos)
+    {
+        mBinarization.record(nanos);
+    }
+
+    @Override
+    public void onTrackedScan(long nanos)
+    {
+        mTrackedScan.record(nanos);
+    }
+
+    @Override
+    public void onFullScan(long nanos)
+    {
+        mFullScan.record(nanos);
+    }
+
+    void onDecoded(long nanos)
+    {
+        mDecode.record(nanos);
+    }
+
+    LatencyHistogram getCallbackDispatch()
+    {
+        return mCallbackDispatch;
+    }
+
+    LatencyHistogram.Snapshot binarization()
+    {
+        return mBinarization.snapshot();
+    }
+
+    LatencyHistogram.Snapshot trackedScan()
+    {
+        return mTrackedScan.snapshot();
+    }
+
+    LatencyHistogram.Snapshot fullScan()
+    {
+        return mFullScan.snapshot();
+    }
+
+    LatencyHistogram.Snapshot decode()
+    {
+        return mDecode.snapshot();
+    }
+
+    LatencyHistogram.Snapshot callbackDispatch()
+    {
+        return mCallbackDispatch.snapshot();
+    }
+
+    void reset()
+    {
+        mBinarization.reset();
+        mTrackedScan.reset();
+        mFullScan.reset();
+        mDecode.reset();
+        mCallbackDispatch.reset();
+    }
+}
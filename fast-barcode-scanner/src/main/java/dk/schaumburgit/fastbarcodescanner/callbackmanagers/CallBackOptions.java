@@ -1,5 +1,7 @@
 package dk.schaumburgit.fastbarcodescanner.callbackmanagers;
 
+import java.io.File;
+
 /**
  * Created by Thomas on 05-02-2018.
  */
@@ -15,6 +17,35 @@ public class CallBackOptions
     public final int debounceBlanks;
     public final int debounceErrors;
 
+    /**
+     * Where the included images are saved - null means a "barcode-images"
+     * folder in the cache directory of the activity
+     */
+    public final File imageDirectory;
+
+    /**
+     * The maximum number of images waiting to be written: when saving falls
+     * further behind, images are dropped (and the callbacks get no image).
+     */
+    public final int maxQueuedImages;
+
+    /**
+     * The JPEG quality (1-100) of the saved images
+     */
+    public final int imageQuality;
+
+    /**
+     * Records the latest frames, exporting them when an error or a given
+     * barcode is reported - or null (the default) to record nothing
+     */
+    public final FlightRecorderOptions flightRecorder;
+
+    /**
+     * How much of each frame is saved for the callbacks: the whole frame (the
+     * default) or just the barcode region, downsampled and/or in grayscale
+     */
+    public final SavedImageOptions savedImage;
+
     public CallBackOptions(
             boolean includeImageInCallback,
             EventConflation conflateHits,
@@ -24,13 +55,71 @@ public class CallBackOptions
             EventConflation conflateErrors
     )
     {
+        this(includeImageInCallback, conflateHits, debounceBlanks, conflateBlanks, debounceErrors, conflateErrors, null, 2, 90);
+    }
+    public CallBackOptions(
+            boolean includeImageInCallback,
+            EventConflation conflateHits,
+            int debounceBlanks,
+            EventConflation conflateBlanks,
+            int debounceErrors,
+            EventConflation conflateErrors,
+            File imageDirectory,
+            int maxQueuedImages,
+            int imageQuality
+    )
+    {
+        this(includeImageInCallback, conflateHits, debounceBlanks, conflateBlanks, debounceErrors, conflateErrors, imageDirectory, maxQueuedImages, imageQuality, null);
+    }
+    public CallBackOptions(
+            boolean includeImageInCallback,
+            EventConflation conflateHits,
+            int debounceBlanks,
+            EventConflation conflateBlanks,
+            int debounceErrors,
+            EventConflation conflateErrors,
+            File imageDirectory,
+            int maxQueuedImages,
+            int imageQuality,
+            FlightRecorderOptions flightRecorder
+    )
+    {
+        this(includeImageInCallback, conflateHits, debounceBlanks, conflateBlanks, debounceErrors, conflateErrors, imageDirectory, maxQueuedImages, imageQuality, flightRecorder, new SavedImageOptions());
+    }
+    public CallBackOptions(
+            boolean includeImageInCallback,
+            EventConflation conflateHits,
+            int debounceBlanks,
+            EventConflation conflateBlanks,
+            int debounceErrors,
+            EventConflation conflateErrors,
+            File imageDirectory,
+            int maxQueuedImages,
+            int imageQuality,
+            FlightRecorderOptions flightRecorder,
+            SavedImageOptions savedImage
+    )
+    {
+        if (savedImage == null)
+            throw new IllegalArgumentException("savedImage is null");
+
+        if (maxQueuedImages < 1)
+            throw new IllegalArgumentException("maxQueuedImages must be at least 1");
+
+        if (imageQuality < 1 || imageQuality > 100)
+            throw new IllegalArgumentException("imageQuality must be between 1 and 100");
+
         this.includeImage = includeImageInCallback;
         this.debounceBlanks = debounceBlanks;
         this.debounceErrors = debounceErrors;
         this.conflateHits = conflateHits;
         this.conflateBlanks = conflateBlanks;
         this.conflateErrors = conflateErrors;
-
+        this.imageDirectory = imageDirectory;
+        this.maxQueuedImages = maxQueuedImages;
+        this.imageQuality = imageQuality;
+        this.flightRecorder = flightRecorder;
+        this.savedImage = savedImage;
     }
     public CallBackOptions()
     {
@@ -40,10 +129,27 @@ public class CallBackOptions
         this.conflateBlanks = EventConflation.None;
         this.debounceErrors = 0;
         this.conflateErrors = EventConflation.First;
+        this.imageDirectory = null;
+        this.maxQueuedImages = 2;
+        this.imageQuality = 90;
+        this.flightRecorder = null;
+        this.savedImage = new SavedImageOptions();
     }
     public CallBackOptions clone(boolean includeImage)
     {
-        return new CallBackOptions(includeImage, this.conflateHits, this.debounceBlanks, this.conflateBlanks, this.debounceErrors, this.conflateErrors);
+        return new CallBackOptions(includeImage, this.conflateHits, this.debounceBlanks, this.conflateBlanks, this.debounceErrors, this.conflateErrors, this.imageDirectory, this.maxQueuedImages, this.imageQuality, this.flightRecorder, this.savedImage);
+    }
+    public CallBackOptions clone(File imageDirectory, int maxQueuedImages, int imageQuality)
+    {
+        return new CallBackOptions(this.includeImage, this.conflateHits, this.debounceBlanks, this.conflateBlanks, this.debounceErrors, this.conflateErrors, imageDirectory, maxQueuedImages, imageQuality, this.flightRecorder, this.savedImage);
+    }
+    public CallBackOptions clone(FlightRecorderOptions flightRecorder)
+    {
+        return new CallBackOptions(this.includeImage, this.conflateHits, this.debounceBlanks, this.conflateBlanks, this.debounceErrors, this.conflateErrors, this.imageDirectory, this.maxQueuedImages, this.imageQuality, flightRecorder, this.savedImage);
+    }
+    public CallBackOptions clone(SavedImageOptions savedImage)
+    {
+        return new CallBackOptions(this.includeImage, this.conflateHits, this.debounceBlanks, this.conflateBlanks, this.debounceErrors, this.conflateErrors, this.imageDirectory, this.maxQueuedImages, this.imageQuality, this.flightRecorder, savedImage);
     }
     public CallBackOptions clone(int debounceBlanks, int debounceErrors)
     {
@@ -53,7 +159,7 @@ public class CallBackOptions
         if (debounceErrors < 0)
             debounceErrors = this.debounceErrors;
 
-        return new CallBackOptions(this.includeImage, this.conflateHits, debounceBlanks, this.conflateBlanks, debounceErrors, this.conflateErrors);
+        return new CallBackOptions(this.includeImage, this.conflateHits, debounceBlanks, this.conflateBlanks, debounceErrors, this.conflateErrors, this.imageDirectory, this.maxQueuedImages, this.imageQuality, this.flightRecorder, this.savedImage);
     }
     public CallBackOptions clone(EventConflation conflateHits, EventConflation conflateBlanks, EventConflation conflateErrors)
     {
@@ -66,6 +172,6 @@ public class CallBackOptions
         if (conflateErrors == null)
             conflateErrors = this.conflateErrors;
 
-        return new CallBackOptions(this.includeImage, conflateHits, this.debounceBlanks, conflateBlanks, this.debounceErrors, conflateErrors);
+        return new CallBackOptions(this.includeImage, conflateHits, this.debounceBlanks, conflateBlanks, this.debounceErrors, conflateErrors, this.imageDirectory, this.maxQueuedImages, this.imageQuality, this.flightRecorder, this.savedImage);
     }
 }
@@ -0,0 +1,95 @@
+package dk.schaumburgit.fastbarcodescanner.callbackmanagers;
+
+import java.io.File;
+
+/**
+ * Settings for recording the latest frames in a FlightRecorder, and for when
+ * the recording is exported (see CallBackOptions.flightRecorder).
+ */
+public class FlightRecorderOptions
+{
+    /**
+     * The ring file the frames are recorded in - null means
+     * "flight-recorder.ring" in the cache directory of the activity
+     */
+    public final File ringFile;
+
+    /**
+     * The number of frames kept in the ring file
+     */
+    public final int frames;
+
+    /**
+     * Frames larger than this are downsampled before being recorded
+     */
+    public final int maxPixels;
+
+    /**
+     * Where the exported recordings are written - null means a
+     * "flight-recordings" folder in the cache directory of the activity
+     */
+    public final File exportDirectory;
+
+    /**
+     * How much of the recording (before the event) is exported
+     */
+    public final long exportNanos;
+
+    /**
+     * Export when an error is reported to the listener
+     */
+    public final boolean exportOnError;
+
+    /**
+     * Export when this barcode is reported to the listener (or null)
+     */
+    public final String exportOnBarcode;
+
+    public FlightRecorderOptions(
+            File ringFile,
+            int frames,
+            int maxPixels,
+            File exportDirectory,
+            long exportNanos,
+            boolean exportOnError,
+            String exportOnBarcode
+    )
+    {
+        if (frames < 1)
+            throw new IllegalArgumentException("frames must be at least 1");
+
+        if (maxPixels < 1)
+            throw new IllegalArgumentException("maxPixels must be at least 1");
+
+        if (exportNanos <= 0)
+            throw new IllegalArgumentException("exportNanos must be positive");
+
+        this.ringFile = ringFile;
+        this.frames = frames;
+        this.maxPixels = maxPixels;
+        this.exportDirectory = exportDirectory;
+        this.exportNanos = exportNanos;
+        this.exportOnError = exportOnError;
+        this.exportOnBarcode = exportOnBarcode;
+    }
+
+    public FlightRecorderOptions(int frames, long exportNanos)
+    {
+        this(null, frames, 640 * 480, null, exportNanos, true, null);
+    }
+
+    public FlightRecorderOptions()
+    {
+        this(90, 3000000000L);
+    }
+
+    public FlightRecorderOptions clone(boolean exportOnError, String exportOnBarcode)
+    {
+        return new FlightRecorderOptions(this.ringFile, this.frames, this.maxPixels, this.exportDirectory, this.exportNanos, exportOnError, exportOnBarcode);
+    }
+
+    public FlightRecorderOptions clone(File ringFile, File exportDirectory)
+    {
+        return new FlightRecorderOptions(ringFile, this.frames, this.maxPixels, exportDirectory, this.exportNanos, this.exportOnError, this.exportOnBarcode);
+    }
+}
@@ -1,11 +1,13 @@
 package dk.schaumburgit.fastbarcodescanner.callbackmanagers;
 import android.media.Image;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
 import dk.schaumburgit.fastbarcodescanner.IBarcodeScanner.BarcodeInfo;
 import dk.schaumburgit.fastbarcodescanner.IBarcodeScanner.MultipleBarcodesDetectedListener;
 import dk.schaumburgit.stillsequencecamera.ISource;
+import dk.schaumburgit.stillsequencecamera.LatencyHistogram;
 import dk.schaumburgit.trackingbarcodescanner.Barcode;
 import dk.schaumburgit.trackingbarcodescanner.ScanOptions;
 
@@ -22,6 +24,7 @@ public class MultiCallbackManager //extends ErrorCallbackHandler
     protected final MultipleBarcodesDetectedListener listener;
 
     private final CallBackOptions callbackOptions;
+    private final LatencyHistogram mDispatchLatency;
 
     public MultiCallbackManager(
             ScanOptions scanOptions,
@@ -30,6 +33,23 @@ public class MultiCallbackManager //extends ErrorCallbackHandler
             Handler callbackHandler
     )
     {
+        this(scanOptions, callbackOptions, listener, callbackHandler, null);
+    }
+
+    /**
+     * @param dispatchLatency Receives the time from posting each callback
+     *                        until the listener is called (may be null)
+     */
+    public MultiCallbackManager(
+            ScanOptions scanOptions,
+            CallBackOptions callbackOptions,
+            MultipleBarcodesDetectedListener listener,
+            Handler callbackHandler,
+            LatencyHistogram dispatchLatency
+    )
+    {
+        this.mDispatchLatency = dispatchLatency;
+
         if (scanOptions == null)
             throw new IllegalArgumentException("scanOptions is null");
         this.mScanOptions = scanOptions;
@@ -65,7 +85,7 @@ public class MultiCallbackManager //extends ErrorCallbackHandler
             mNoBarcodeCount = 0;
             if (!_equals(bcs, mLastReportedMultiBarcode)) {
                 mLastReportedMultiBarcode = bcs;
-                _onMultipleBarcodes(mLastReportedMultiBarcode, callbackOptions.includeImage ? source.save() : null, listener, callbackHandler);
+                _onMultipleBarcodes(mLastReportedMultiBarcode, callbackOptions.includeImage ? source.save(callbackOptions.savedImage.cropRegion(bcs)) : null, listener, callbackHandler);
             }
         }
     }
@@ -74,10 +94,12 @@ public class MultiCallbackManager //extends ErrorCallbackHandler
     public void onError(final Exception error) {
         mConsecutiveErrorCount++;
         if (mConsecutiveErrorCount >= this.callbackOptions.debounceErrors) {
+            final long postedAt = SystemClock.elapsedRealtimeNanos();
             callbackHandler.post(
                     new Runnable() {
                         @Override
                         public void run() {
+                            recordDispatch(postedAt);
                             listener.OnError(error);
                         }
                     }
@@ -85,6 +107,15 @@ public class MultiCallbackManager //extends ErrorCallbackHandler
         }
     }
 
+    /**
+     * Records the time from posting a callback (at postedAt) until now,
+     * when the listener is about to be called
+     */
+    private void recordDispatch(long postedAt) {
+        if (mDispatchLatency != null)
+            mDispatchLatency.record(SystemClock.elapsedRealtimeNanos() - postedAt);
+    }
+
     private static boolean _equals(Barcode[] bcs1, Barcode[] bcs2) {
         if (bcs1 == bcs2)
             return true;
@@ -108,10 +139,12 @@ public class MultiCallbackManager //extends ErrorCallbackHandler
 
     private void _onMultipleBarcodes(final Barcode[] barcodes, final String sourceUrl, final MultipleBarcodesDetectedListener listener, Handler callbackHandler) {
         if (listener != null) {
+            final long postedAt = SystemClock.elapsedRealtimeNanos();
             callbackHandler.post(
                     new Runnable() {
                         @Override
                         public void run() {
+                            recordDispatch(postedAt);
                             listener.OnHits(_convert(barcodes), sourceUrl);
                         }
                     }
@@ -121,10 +154,12 @@ public class MultiCallbackManager //extends ErrorCallbackHandler
 
     private void _onBlank(final MultipleBarcodesDetectedListener listener, Handler callbackHandler) {
         if (listener != null) {
+            final long postedAt = SystemClock.elapsedRealtimeNanos();
             callbackHandler.post(
                     new Runnable() {
                         @Override
                         public void run() {
+                            recordDispatch(postedAt);
                             listener.OnBlank();
                         }
                     }
@@ -138,7 +173,7 @@ public class MultiCallbackManager //extends ErrorCallbackHandler
 
         BarcodeInfo[] res = new BarcodeInfo[barcodes.length];
         for (int n = 0; n < barcodes.length; n++)
-            res[n] = new BarcodeInfo(barcodes[n].contents, barcodes[n].points);
+            res[n] = new BarcodeInfo(barcodes[n].contents, barcodes[n].points, barcodes[n].trackId);
 
         return res;
     }
@@ -0,0 +1,125 @@
+package dk.schaumburgit.fastbarcodescanner.callbackmanagers;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import dk.schaumburgit.trackingbarcodescanner.Barcode;
+
+/**
+ * How much of each frame is saved for the callbacks (see
+ * CallBackOptions.savedImage): the whole frame or just the barcode region,
+ * at full or reduced resolution, in colour or grayscale.
+ */
+public class SavedImageOptions
+{
+    /**
+     * Save only the region around the reported barcode(s) instead of the
+     * whole frame
+     */
+    public final boolean cropToBarcode;
+
+    /**
+     * The margin added around the barcode region on all sides, relative to
+     * the longest side of the region (the points of e.g. a QR code are the
+     * centres of its finder patterns, so some margin is needed to include all
+     * of it)
+     */
+    public final double margin;
+
+    /**
+     * The saved image is downsampled by this factor (1: full resolution)
+     */
+    public final int scale;
+
+    /**
+     * Save only the luminance of the image
+     */
+    public final boolean grayscale;
+
+    public SavedImageOptions(boolean cropToBarcode, double margin, int scale, boolean grayscale)
+    {
+        if (margin < 0)
+            throw new IllegalArgumentException("margin must not be negative");
+
+        if (scale < 1)
+            throw new IllegalArgumentException("scale must be at least 1");
+
+        this.cropToBarcode = cropToBarcode;
+        this.margin = margin;
+        this.scale = scale;
+        this.grayscale = grayscale;
+    }
+
+    public SavedImageOptions()
+    {
+        this(false, 0.5, 1, false);
+    }
+
+    public SavedImageOptions clone(boolean cropToBarcode, double margin)
+    {
+        return new SavedImageOptions(cropToBarcode, margin, this.scale, this.grayscale);
+    }
+
+    public SavedImageOptions clone(int scale, boolean grayscale)
+    {
+        return new SavedImageOptions(this.cropToBarcode, this.margin, scale, grayscale);
+    }
+
+    /**
+     * The region to save for the given barcodes - or null for the whole frame
+     * (if not cropping, or if the barcodes have no points)
+     */
+    public Rect cropRegion(Barcode[] barcodes)
+    {
+        if (!cropToBarcode || barcodes == null)
+            return null;
+
+        Rect bounds = null;
+        for (Barcode bc : barcodes) {
+            if (bc == null)
+                continue;
+
+            Rect region = cropRegion(bc.points);
+            if (region == null)
+                continue;
+
+            if (bounds == null)
+                bounds = region;
+            else
+                bounds.union(region);
+        }
+
+        return bounds;
+    }
+
+    /**
+     * The region to save for a barcode with the given points - or null for
+     * the whole frame
+     */
+    public Rect cropRegion(Point[] points)
+    {
+        if (!cropToBarcode || points == null)
+            return null;
+
+        Rect bounds = null;
+        for (Point p : points) {
+            if (p == null)
+                continue;
+
+            if (bounds == null)
+                bounds = new Rect(p.x, p.y, p.x, p.y);
+            else
+                bounds.union(p.x, p.y);
+        }
+
+        if (bounds == null)
+            return null;
+
+        // The points of a 1D barcode lie on a line, so the margin is relative
+        // to the longest side:
+        int d = (int) Math.ceil(Math.max(bounds.width(), bounds.height()) * margin);
+        bounds.inset(-d, -d);
+
+        return bounds.isEmpty() ? null : bounds;
+    }
+}
@@ -3,13 +3,17 @@ package dk.schaumburgit.fastbarcodescanner.callbackmanagers;
 import android.graphics.Point;
 import android.media.Image;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.File;
 import java.util.Objects;
 
 import dk.schaumburgit.fastbarcodescanner.IBarcodeScanner.BarcodeDetectedListener;
 import dk.schaumburgit.fastbarcodescanner.IBarcodeScanner.BarcodeInfo;
 import dk.schaumburgit.stillsequencecamera.ISource;
+import dk.schaumburgit.stillsequencecamera.LatencyHistogram;
+import dk.schaumburgit.stillsequencecamera.replay.FlightRecorder;
 import dk.schaumburgit.trackingbarcodescanner.Barcode;
 import dk.schaumburgit.trackingbarcodescanner.ScanOptions;
 
@@ -24,6 +28,9 @@ public class SingleCallbackManager //extends ErrorCallbackHandler
     private final BarcodeDetectedListener listener;
     private final CallBackOptions callbackOptions;
     private final Handler callbackHandler;
+    private final LatencyHistogram mDispatchLatency;
+    private final FlightRecorder mFlightRecorder;
+    private final File mExportDirectory;
 
     public SingleCallbackManager(
             ScanOptions scanOptions,
@@ -31,6 +38,41 @@ public class SingleCallbackManager //extends ErrorCallbackHandler
             BarcodeDetectedListener listener,
             Handler callbackHandler
     ) {
+        this(scanOptions, callbackOptions, listener, callbackHandler, null);
+    }
+
+    /**
+     * @param dispatchLatency Receives the time from posting each callback
+     *                        until the listener is called (may be null)
+     */
+    public SingleCallbackManager(
+            ScanOptions scanOptions,
+            CallBackOptions callbackOptions,
+            BarcodeDetectedListener listener,
+            Handler callbackHandler,
+            LatencyHistogram dispatchLatency
+    ) {
+        this(scanOptions, callbackOptions, listener, callbackHandler, dispatchLatency, null, null);
+    }
+
+    /**
+     * @param flightRecorder  Exported (to exportDirectory) when an error or
+     *                        barcode is reported as set up in
+     *                        callbackOptions.flightRecorder (may be null)
+     */
+    public SingleCallbackManager(
+            ScanOptions scanOptions,
+            CallBackOptions callbackOptions,
+            BarcodeDetectedListener listener,
+            Handler callbackHandler,
+            LatencyHistogram dispatchLatency,
+            FlightRecorder flightRecorder,
+            File exportDirectory
+    ) {
+        this.mDispatchLatency = dispatchLatency;
+        this.mFlightRecorder = flightRecorder;
+        this.mExportDirectory = exportDirectory;
+
         if (scanOptions == null)
             throw new IllegalArgumentException("scanOptions is null");
         this.mScanOptions = scanOptions;
@@ -76,6 +118,14 @@ public class SingleCallbackManager //extends ErrorCallbackHandler
         }
     }
 
+    /**
+     * A frame too blurred to tell whether there's a barcode or not: neither
+     * counts towards nor resets the blank debouncing.
+     */
+    public void onBlurred() {
+        Log.v(TAG, "Ignored blurred frame");
+    }
+
     public void onBarcode(Barcode bc, ISource source) {
         // Found nothing
         if (bc == null || bc.contents == null) {
@@ -160,12 +210,14 @@ public class SingleCallbackManager //extends ErrorCallbackHandler
             }
 
             final BarcodeInfo bc = new BarcodeInfo(barcode, points);
-            final String sourceUrl = (source == null) ? null : source.save();
+            final String sourceUrl = (source == null || !callbackOptions.includeImage) ? null : source.save(callbackOptions.savedImage.cropRegion(points));
             Log.v(TAG, "Sending barcode: " + bc.barcode + " (image: " + (sourceUrl == null ? "none" : sourceUrl));
+            final long postedAt = SystemClock.elapsedRealtimeNanos();
             callbackHandler.post(
                     new Runnable() {
                         @Override
                         public void run() {
+                            recordDispatch(postedAt);
                             listener.OnHit(bc, sourceUrl);
                         }
                     }
@@ -173,6 +225,10 @@ public class SingleCallbackManager //extends ErrorCallbackHandler
 
             mLastReportedBarcode = barcode;
             mLatestEvent = ELastEvent.Barcode;
+
+            FlightRecorderOptions recorderOptions = callbackOptions.flightRecorder;
+            if (recorderOptions != null && recorderOptions.exportOnBarcode != null && recorderOptions.exportOnBarcode.equals(barcode))
+                exportFlightRecording("barcode");
         }
         finally {
             if (source!=null)
@@ -180,6 +236,15 @@ public class SingleCallbackManager //extends ErrorCallbackHandler
         }
     }
 
+    /**
+     * Records the time from posting a callback (at postedAt) until now,
+     * when the listener is about to be called
+     */
+    private void recordDispatch(long postedAt) {
+        if (mDispatchLatency != null)
+            mDispatchLatency.record(SystemClock.elapsedRealtimeNanos() - postedAt);
+    }
+
     public static boolean stringEquals(String str1, String str2) {
         return (str1 == null ? str2 == null : str1.equals(str2));
     }
@@ -204,10 +269,12 @@ public class SingleCallbackManager //extends ErrorCallbackHandler
         }
 
         Log.v(TAG, "Sending blank");
+        final long postedAt = SystemClock.elapsedRealtimeNanos();
         callbackHandler.post(
                 new Runnable() {
                     @Override
                     public void run() {
+                        recordDispatch(postedAt);
                         listener.OnBlank();
                     }
                 }
@@ -231,15 +298,37 @@ public class SingleCallbackManager //extends ErrorCallbackHandler
                 break;
         }
 
+        final long postedAt = SystemClock.elapsedRealtimeNanos();
         callbackHandler.post(
                 new Runnable() {
                     @Override
                     public void run() {
+                        recordDispatch(postedAt);
                         listener.OnError(error);
                     }
                 }
         );
 
         mLatestEvent = ELastEvent.Error;
+
+        FlightRecorderOptions recorderOptions = callbackOptions.flightRecorder;
+        if (recorderOptions != null && recorderOptions.exportOnError)
+            exportFlightRecording("error");
+    }
+
+    /**
+     * Freezes the flight recorder and exports the frames leading up to the
+     * event just reported (in the background) - unless an export is already
+     * running.
+     */
+    private void exportFlightRecording(String event)
+    {
+        if (mFlightRecorder == null || mExportDirectory == null || mFlightRecorder.isFrozen())
+            return;
+
+        File file = new File(mExportDirectory, "flight-" + event + "-" + System.currentTimeMillis() + ".ssc");
+        Log.i(TAG, "Exporting flight recording to " + file);
+        mExportDirectory.mkdirs();
+        mFlightRecorder.freezeAndExport(file, callbackOptions.flightRecorder.exportNanos);
     }
 }
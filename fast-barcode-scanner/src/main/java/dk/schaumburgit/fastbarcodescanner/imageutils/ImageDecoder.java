@@ -12,6 +12,7 @@ import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 
 import dalvik.system.PathClassLoader;
+import dk.schaumburgit.stillsequencecamera.PooledSource;
 
 /**
  * Created by Thomas on 18-12-2015.
@@ -51,17 +52,39 @@ public class ImageDecoder
     }
 
     public static byte[] ToNV21(Image image)
+    {
+        return ToNV21(image, null);
+    }
+
+    /**
+     * Like ToNV21(Image), but the result is borrowed from the buffer pool of
+     * the supplied source, and is only valid until the source is closed.
+     *
+     * @param owner The source of the image (null means "allocate a new array")
+     */
+    public static byte[] ToNV21(Image image, PooledSource owner)
     {
         if (image.getPlanes().length != 3)
             throw new RuntimeException("Expected 3 planes for planar YUV");
 
-        byte[] nv21Bytes = new byte[getNV21Size(image)];
+        byte[] nv21Bytes = allocate(getNV21Size(image), owner);
         getNV21(image, nv21Bytes);
 
         return nv21Bytes;
     }
 
     public static byte[] Serialize(Image image)
+    {
+        return Serialize(image, null);
+    }
+
+    /**
+     * Like Serialize(Image), but the result is borrowed from the buffer pool of
+     * the supplied source, and is only valid until the source is closed.
+     *
+     * @param owner The source of the image (null means "allocate a new array")
+     */
+    public static byte[] Serialize(Image image, PooledSource owner)
     {
         if (image==null)
             return null;
@@ -72,7 +95,7 @@ public class ImageDecoder
         if (image.getFormat() == ImageFormat.YUV_420_888)
             planes = new Image.Plane[] {planes[0], planes[2], planes[1]};
 
-        byte[] serializeBytes = new byte[getSerializedSize(image)];
+        byte[] serializeBytes = allocate(getSerializedSize(image), owner);
         int nextFree = 0;
 
         for (Image.Plane plane: planes)
@@ -87,6 +110,14 @@ public class ImageDecoder
         return serializeBytes;
     }
 
+    static byte[] allocate(int size, PooledSource owner)
+    {
+        if (owner == null)
+            return new byte[size];
+
+        return owner.borrowBuffer(size);
+    }
+
     private static int getSerializedSize(Image image) {
         int size = 0;
 
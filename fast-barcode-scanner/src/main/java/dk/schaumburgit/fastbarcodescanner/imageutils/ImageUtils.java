@@ -5,6 +5,8 @@ import android.media.Image;
 
 import java.nio.ByteBuffer;
 
+import dk.schaumburgit.stillsequencecamera.PooledSource;
+
 /**
  * Created by Thomas on 17-12-2015.
  */
@@ -76,6 +78,18 @@ public class ImageUtils {
      * @return OpenCV Mat.
      */
     public static byte[] imageToMat(Image image) {
+        return imageToMat(image, null);
+    }
+
+    /**
+     * Like imageToMat(Image), but the result (and the scratch row) is borrowed from the
+     * buffer pool of the supplied source, and is only valid until the source is closed.
+     *
+     * @param image Image in the YUV_420_888 format.
+     * @param owner The source of the image (null means "allocate new arrays")
+     * @return OpenCV Mat.
+     */
+    public static byte[] imageToMat(Image image, PooledSource owner) {
         ByteBuffer buffer;
         int rowStride;
         int pixelStride;
@@ -85,8 +99,11 @@ public class ImageUtils {
 
         Image.Plane[] planes = image.getPlanes();
         int bytesPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.YUV_420_888) / 8;
-        byte[] pixels = new byte[image.getWidth() * image.getHeight() * bytesPerPixel];
-        byte[] rowData = new byte[planes[0].getRowStride()];
+        // (the Y-plane plus the two quarter-size chroma planes - bytesPerPixel
+        // is rounded down to the Y-plane's one byte):
+        int size = pixelWidth * pixelHeight * ImageFormat.getBitsPerPixel(ImageFormat.YUV_420_888) / 8;
+        byte[] pixels = ImageDecoder.allocate(size, owner);
+        byte[] rowData = ImageDecoder.allocate(planes[0].getRowStride(), owner);
 
         for (int i = 0; i < planes.length; i++) {
             buffer = planes[i].getBuffer();
@@ -0,0 +1,187 @@
+package dk.schaumburgit.fastbarcodescanner;
+
+import android.graphics.Rect;
+import android.os.Handler;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import dk.schaumburgit.stillsequencecamera.ISource;
+import dk.schaumburgit.stillsequencecamera.LuminanceThumbnail;
+import dk.schaumburgit.trackingbarcodescanner.ScanOptions;
+import dk.schaumburgit.trackingbarcodescanner.TrackingBarcodeScanner;
+import dk.schaumburgit.trackingbarcodescanner.TrackingOptions;
+
+import static org.junit.Assert.*;
+
+/**
+ * The handler posts are no-ops in local unit tests, so results decoded by the
+ * workers never reach the delivery thread: their sources are closed instead.
+ * The ordering itself is covered by ResultSequencerTest.
+ */
+public class DecodePoolTest
+{
+    // The frames, in the order they reached the job's callbacks:
+    private final List<String> mDelivered = new ArrayList<String>();
+    private final CountDownLatch mDecodeStarted = new CountDownLatch(1);
+    private final CountDownLatch mFinishDecoding = new CountDownLatch(1);
+    private boolean mBlockDecoding = false;
+
+    private final DecodePool.Job<String> mJob = new DecodePool.Job<String>() {
+        @Override
+        public String decode(TrackingBarcodeScanner finder, ISource source, BinaryBitmap bitmap) throws Exception {
+            if (mBlockDecoding) {
+                mDecodeStarted.countDown();
+                mFinishDecoding.await(5, TimeUnit.SECONDS);
+            }
+            return ((FakeSource) source).name;
+        }
+
+        @Override
+        public void onDecoded(ISource source, String result) {
+            mDelivered.add(result);
+            source.close();
+        }
+
+        @Override
+        public void onError(ISource source, Exception error) {
+            mDelivered.add("error");
+            source.close();
+        }
+
+        @Override
+        public void onUnchanged(ISource source) {
+            mDelivered.add(((FakeSource) source).name + " (unchanged)");
+            source.close();
+        }
+    };
+
+    @Test
+    public void inline_deliversEveryFrameAtOnce() throws Exception
+    {
+        DecodePool<String> pool = pool(1);
+
+        pool.submit(new FakeSource("A"), null);
+        pool.submitUnchanged(new FakeSource("B"));
+        pool.submit(new FakeSource("C"), null);
+
+        assertEquals(Arrays.asList("A", "B (unchanged)", "C"), mDelivered);
+        pool.close();
+    }
+
+    @Test
+    public void pooled_unchangedFrameWithNothingInFlight_isDeliveredAtOnce() throws Exception
+    {
+        DecodePool<String> pool = pool(2);
+
+        pool.submitUnchanged(new FakeSource("A"));
+
+        assertEquals(Arrays.asList("A (unchanged)"), mDelivered);
+        pool.close();
+    }
+
+    @Test
+    public void pooled_unchangedFrame_waitsForFramesInFlight() throws Exception
+    {
+        DecodePool<String> pool = pool(2);
+        mBlockDecoding = true;
+
+        FakeSource decoded = new FakeSource("A");
+        FakeSource unchanged = new FakeSource("B");
+        pool.submit(decoded, null);
+        assertTrue(mDecodeStarted.await(5, TimeUnit.SECONDS));
+        pool.submitUnchanged(unchanged);
+
+        // B must not overtake A (or reuse the result from before A):
+        assertTrue(mDelivered.isEmpty());
+        assertFalse(unchanged.closed);
+
+        mFinishDecoding.countDown();
+        pool.close();
+        assertTrue(mDelivered.isEmpty());
+        assertTrue(decoded.closed);
+        assertTrue(unchanged.closed);
+    }
+
+    @Test
+    public void closed_unchangedFrameIsClosed() throws Exception
+    {
+        DecodePool<String> pool = pool(2);
+        pool.close();
+
+        FakeSource source = new FakeSource("A");
+        pool.submitUnchanged(source);
+
+        assertTrue(mDelivered.isEmpty());
+        assertTrue(source.closed);
+    }
+
+    private DecodePool<String> pool(int decodeThreads)
+    {
+        ScanOptions scanOptions = new ScanOptions();
+        TrackingOptions trackingOptions = new TrackingOptions();
+        return new DecodePool<String>(
+                new ProcessingOptions().clone(decodeThreads, ProcessingOptions.ResultOrdering.Strict),
+                scanOptions,
+                trackingOptions,
+                new TrackingBarcodeScanner(scanOptions, trackingOptions),
+                new Handler(),
+                new ScanTimers(),
+                mJob
+        );
+    }
+
+    private static class FakeSource implements ISource
+    {
+        final String name;
+        volatile boolean closed = false;
+
+        FakeSource(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public String save() {
+            return null;
+        }
+
+        @Override
+        public String save(Rect region) {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public LuminanceThumbnail getThumbnail() {
+            return null;
+        }
+
+        @Override
+        public double getSharpness() {
+            return -1;
+        }
+
+        @Override
+        public LuminanceSource getDetectionImage() {
+            return null;
+        }
+
+        @Override
+        public long getRecordedFrame() {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package dk.schaumburgit.fastbarcodescanner;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.util.Size;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import dk.schaumburgit.stillsequencecamera.CaptureFormatInfo;
+import dk.schaumburgit.stillsequencecamera.FrameBufferPool;
+import dk.schaumburgit.stillsequencecamera.FrameSaver;
+import dk.schaumburgit.stillsequencecamera.FrameStatistics;
+import dk.schaumburgit.stillsequencecamera.ISource;
+import dk.schaumburgit.stillsequencecamera.IStillSequenceCamera;
+import dk.schaumburgit.stillsequencecamera.LuminanceThumbnail;
+import dk.schaumburgit.stillsequencecamera.replay.FlightRecorder;
+import dk.schaumburgit.trackingbarcodescanner.ScanOptions;
+import dk.schaumburgit.trackingbarcodescanner.TrackingOptions;
+
+import static org.junit.Assert.*;
+
+/**
+ * The handler posts are no-ops in local unit tests, so the tests call
+ * nextCandidate() themselves - where the handler would have.
+ */
+public class FormatCalibratorTest
+{
+    private static final ConfigInfo SMALL = new ConfigInfo(ImageFormat.YUV_420_888, 640, 480);
+    private static final ConfigInfo LARGE = new ConfigInfo(ImageFormat.YUV_420_888, 1280, 960);
+    private static final ConfigInfo JPEG = new ConfigInfo(ImageFormat.JPEG, 640, 480);
+
+    // (more than enough for the warm-up, the capture intervals and the decodes)
+    private static final int FRAMES_PER_CANDIDATE = 30;
+
+    //*********************************************************************
+    //* The camera state machine:
+    //*********************************************************************
+
+    @Test
+    public void calibrate_closesCameraBeforeEverySetup() throws Exception
+    {
+        FakeCamera camera = new FakeCamera();
+        // Set up with the estimate, as BarcodeScanner leaves it:
+        camera.setup(SMALL.imageFormat, SMALL.imageWidth, SMALL.imageHeight);
+
+        RecordingListener listener = new RecordingListener();
+        FormatCalibrator calibrator = calibrator(camera, SMALL, LARGE);
+        calibrator.start(listener);
+
+        calibrator.nextCandidate();
+        assertTrue(camera.isCapturing(SMALL));
+        camera.deliver(FRAMES_PER_CANDIDATE);
+
+        calibrator.nextCandidate();
+        assertTrue(camera.isCapturing(LARGE));
+        camera.deliver(FRAMES_PER_CANDIDATE);
+
+        calibrator.nextCandidate();
+        assertNull(listener.error);
+        assertNotNull(listener.best);
+        assertEquals(FakeCamera.STOPPED, camera.mState);
+        assertSame(listener.best, camera.mConfig);
+        assertEquals(2 * FRAMES_PER_CANDIDATE, camera.mClosedSources);
+    }
+
+    @Test
+    public void calibrate_skipsCandidatesThatCannotBeCaptured() throws Exception
+    {
+        FakeCamera camera = new FakeCamera();
+        camera.mUnsupported = JPEG;
+        camera.setup(SMALL.imageFormat, SMALL.imageWidth, SMALL.imageHeight);
+
+        RecordingListener listener = new RecordingListener();
+        FormatCalibrator calibrator = calibrator(camera, JPEG, SMALL);
+        calibrator.start(listener);
+
+        calibrator.nextCandidate();
+        assertEquals(FakeCamera.CLOSED, camera.mState);
+
+        calibrator.nextCandidate();
+        assertTrue(camera.isCapturing(SMALL));
+        camera.deliver(FRAMES_PER_CANDIDATE);
+
+        calibrator.nextCandidate();
+        assertSame(SMALL, listener.best);
+        assertSame(SMALL, camera.mConfig);
+        assertEquals(FakeCamera.STOPPED, camera.mState);
+    }
+
+    @Test
+    public void calibrate_reportsBestThatCannotBeSetUp() throws Exception
+    {
+        FakeCamera camera = new FakeCamera();
+        camera.mUnsupported = JPEG;
+        camera.setup(SMALL.imageFormat, SMALL.imageWidth, SMALL.imageHeight);
+
+        // Nothing measured, so the first candidate is "best" - and fails:
+        RecordingListener listener = new RecordingListener();
+        FormatCalibrator calibrator = calibrator(camera, JPEG);
+        calibrator.start(listener);
+
+        calibrator.nextCandidate();
+        calibrator.nextCandidate();
+        assertNull(listener.best);
+        assertTrue(listener.error instanceof UnsupportedOperationException);
+    }
+
+    @Test
+    public void cancel_stopsCamera_withoutCallingListener() throws Exception
+    {
+        FakeCamera camera = new FakeCamera();
+        camera.setup(SMALL.imageFormat, SMALL.imageWidth, SMALL.imageHeight);
+
+        RecordingListener listener = new RecordingListener();
+        FormatCalibrator calibrator = calibrator(camera, SMALL, LARGE);
+        calibrator.start(listener);
+        calibrator.nextCandidate();
+        camera.deliver(FRAMES_PER_CANDIDATE);
+
+        calibrator.cancel();
+        calibrator.nextCandidate();
+        assertEquals(FakeCamera.STOPPING, camera.mState);
+        assertNull(listener.best);
+        assertNull(listener.error);
+
+        // (the camera can still be closed and set up again afterwards)
+        camera.close();
+        camera.setup(LARGE.imageFormat, LARGE.imageWidth, LARGE.imageHeight);
+    }
+
+    //*********************************************************************
+    //* chooseBest():
+    //*********************************************************************
+
+    @Test
+    public void chooseBest_prefersShortestFramePeriod() throws Exception
+    {
+        List<FormatCalibrator.Measurement> results = Arrays.asList(
+                measurement(SMALL, 50, 40),
+                measurement(LARGE, 50, 80)
+        );
+
+        assertSame(SMALL, FormatCalibrator.chooseBest(results, 1, JPEG));
+    }
+
+    @Test
+    public void chooseBest_moreThreadsHideDecodeTime() throws Exception
+    {
+        List<FormatCalibrator.Measurement> results = Arrays.asList(
+                measurement(SMALL, 50, 40),
+                measurement(LARGE, 50, 80)
+        );
+
+        // With two decode threads, LARGE is as fast as the capture (50ms), and larger:
+        assertSame(LARGE, FormatCalibrator.chooseBest(results, 2, JPEG));
+    }
+
+    @Test
+    public void chooseBest_tiesGoToMorePixels() throws Exception
+    {
+        List<FormatCalibrator.Measurement> results = Arrays.asList(
+                measurement(SMALL, 50, 40),
+                measurement(LARGE, 54, 40)
+        );
+        assertSame(LARGE, FormatCalibrator.chooseBest(results, 1, JPEG));
+
+        results = Arrays.asList(
+                measurement(SMALL, 50, 40),
+                measurement(LARGE, 56, 40)
+        );
+        assertSame(SMALL, FormatCalibrator.chooseBest(results, 1, JPEG));
+    }
+
+    @Test
+    public void chooseBest_ignoresIncompleteMeasurements() throws Exception
+    {
+        FormatCalibrator.Measurement incomplete = new FormatCalibrator.Measurement(LARGE, null);
+        incomplete.totalInterval = 1;
+        incomplete.intervals = 1;
+
+        assertSame(SMALL, FormatCalibrator.chooseBest(Arrays.asList(incomplete, measurement(SMALL, 50, 40)), 1, JPEG));
+        assertSame(JPEG, FormatCalibrator.chooseBest(Arrays.asList(incomplete), 1, JPEG));
+        assertSame(JPEG, FormatCalibrator.chooseBest(new ArrayList<FormatCalibrator.Measurement>(), 1, JPEG));
+    }
+
+    /**
+     * A complete measurement with the given average capture interval and
+     * decode time (in milliseconds)
+     */
+    private static FormatCalibrator.Measurement measurement(ConfigInfo config, long captureMillis, long decodeMillis)
+    {
+        FormatCalibrator.Measurement m = new FormatCalibrator.Measurement(config, null);
+        m.totalInterval = 4 * captureMillis * 1000000;
+        m.intervals = 4;
+        m.totalDecode = 4 * decodeMillis * 1000000;
+        m.decodes = 4;
+        return m;
+    }
+
+    private static FormatCalibrator calibrator(FakeCamera camera, ConfigInfo... candidates)
+    {
+        return new FormatCalibrator(
+                camera,
+                new ScanOptions(),
+                new TrackingOptions(),
+                1,
+                Arrays.asList(candidates),
+                new Handler()
+        );
+    }
+
+    private static class RecordingListener implements FormatCalibrator.Listener
+    {
+        ConfigInfo best = null;
+        Exception error = null;
+
+        @Override
+        public void onCalibrated(ConfigInfo best) {
+            this.best = best;
+        }
+
+        @Override
+        public void onError(Exception error) {
+            this.error = error;
+        }
+    }
+
+    /**
+     * A camera with the state machine of StillSequenceCamera2: setup() only
+     * when CLOSED, start() only when STOPPED, and an asynchronous stop() -
+     * which close() waits for. Delivers blank frames on request.
+     */
+    private static class FakeCamera implements IStillSequenceCamera
+    {
+        static final int CLOSED = 0;
+        static final int STOPPED = 1;
+        static final int CAPTURING = 2;
+        static final int STOPPING = 3;
+
+        private static final int WIDTH = 64;
+        private static final int HEIGHT = 48;
+
+        int mState = CLOSED;
+        ConfigInfo mConfig = null;
+        ConfigInfo mUnsupported = null;
+        int mClosedSources = 0;
+        private OnImageAvailableListener mListener = null;
+        private final FrameStatistics mFrameStatistics = new FrameStatistics();
+
+        boolean isCapturing(ConfigInfo config) {
+            return mState == CAPTURING && mConfig == config;
+        }
+
+        void deliver(int frames) {
+            for (int n = 0; n < frames && mState == CAPTURING; n++) {
+                BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(
+                        new PlanarYUVLuminanceSource(new byte[WIDTH * HEIGHT], WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, false)));
+                mListener.onImageAvailable(new FakeSource(), bitmap);
+            }
+        }
+
+        @Override
+        public void setup(int imageFormat, int imageWidth, int imageHeight) {
+            if (mState != CLOSED)
+                throw new IllegalStateException("setup() can only be called in the CLOSED state (" + mState + ")");
+            if (mUnsupported != null && imageFormat == mUnsupported.imageFormat
+                    && imageWidth == mUnsupported.imageWidth && imageHeight == mUnsupported.imageHeight)
+                throw new UnsupportedOperationException("Unsupported configuration");
+
+            mConfig = null;
+            for (ConfigInfo config : new ConfigInfo[]{SMALL, LARGE, JPEG}) {
+                if (config.imageFormat == imageFormat && config.imageWidth == imageWidth && config.imageHeight == imageHeight)
+                    mConfig = config;
+            }
+            mState = STOPPED;
+        }
+
+        @Override
+        public void start(OnImageAvailableListener listener, Handler callbackHandler) {
+            if (mState != STOPPED)
+                throw new IllegalStateException("start() can only be called in the STOPPED state (" + mState + ")");
+
+            mListener = listener;
+            mState = CAPTURING;
+        }
+
+        @Override
+        public void stop() {
+            if (mState != CAPTURING)
+                return;
+
+            // (finished in the background - or by close())
+            mListener = null;
+            mState = STOPPING;
+        }
+
+        @Override
+        public void close() {
+            if (mState == CLOSED)
+                return;
+
+            stop();
+            mState = CLOSED;
+        }
+
+        @Override
+        public List<CaptureFormatInfo> getSupportedImageFormats(double relativeDevicePerformance) {
+            return new ArrayList<CaptureFormatInfo>();
+        }
+
+        @Override
+        public String getCameraId() {
+            return "fake";
+        }
+
+        @Override
+        public List<Size> getOutputSizes(int imageFormat) {
+            return new ArrayList<Size>();
+        }
+
+        @Override
+        public FrameBufferPool getBufferPool() {
+            return null;
+        }
+
+        @Override
+        public void setFrameSaver(FrameSaver frameSaver) {
+        }
+
+        @Override
+        public void setFlightRecorder(FlightRecorder flightRecorder) {
+        }
+
+        @Override
+        public FrameStatistics getFrameStatistics() {
+            return mFrameStatistics;
+        }
+
+        @Override
+        public long getLastExposureNanos() {
+            return -1;
+        }
+
+        @Override
+        public int getLastSensitivity() {
+            return -1;
+        }
+
+        @Override
+        public void setRegionOfInterest(Rect region) {
+        }
+
+        @Override
+        public double sourceAspectRatio() {
+            return (double) WIDTH / HEIGHT;
+        }
+
+        @Override
+        public boolean isLockFocus() {
+            return true;
+        }
+
+        @Override
+        public void setLockFocus(boolean lockFocus) {
+        }
+
+        private class FakeSource implements ISource
+        {
+            @Override
+            public String save() {
+                return null;
+            }
+
+            @Override
+            public String save(Rect region) {
+                return null;
+            }
+
+            @Override
+            public void close() {
+                mClosedSources++;
+            }
+
+            @Override
+            public LuminanceThumbnail getThumbnail() {
+                return null;
+            }
+
+            @Override
+            public double getSharpness() {
+                return -1;
+            }
+
+            @Override
+            public LuminanceSource getDetectionImage() {
+                return null;
+            }
+
+            @Override
+            public long getRecordedFrame() {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package dk.schaumburgit.fastbarcodescanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResultSequencerTest
+{
+    private final List<String> mDelivered = new ArrayList<String>();
+    private final List<String> mStale = new ArrayList<String>();
+
+    private final ResultSequencer.Receiver<String> mReceiver = new ResultSequencer.Receiver<String>() {
+        @Override
+        public void onNext(String result) {
+            mDelivered.add(result);
+        }
+
+        @Override
+        public void onStale(String result) {
+            mStale.add(result);
+        }
+    };
+
+    @Test
+    public void next_numbersFramesInOrder() throws Exception
+    {
+        ResultSequencer<String> sequencer = new ResultSequencer<String>(false);
+
+        assertEquals(0, sequencer.next());
+        assertEquals(1, sequencer.next());
+        assertEquals(2, sequencer.next());
+    }
+
+    @Test
+    public void inOrder_holdsBackLaterResults() throws Exception
+    {
+        ResultSequencer<String> sequencer = new ResultSequencer<String>(false);
+        long first = sequencer.next();
+        long second = sequencer.next();
+        long third = sequencer.next();
+
+        sequencer.deliver(third, "third", mReceiver);
+        sequencer.deliver(second, "second", mReceiver);
+        assertTrue(mDelivered.isEmpty());
+
+        sequencer.deliver(first, "first", mReceiver);
+        assertEquals(Arrays.asList("first", "second", "third"), mDelivered);
+        assertTrue(mStale.isEmpty());
+    }
+
+    @Test
+    public void inOrder_skippedFrameDoesNotHoldBackLaterResults() throws Exception
+    {
+        ResultSequencer<String> sequencer = new ResultSequencer<String>(false);
+        long first = sequencer.next();
+        long second = sequencer.next();
+
+        sequencer.deliver(second, "second", mReceiver);
+        sequencer.skip(first, mReceiver);
+
+        assertEquals(Collections.singletonList("second"), mDelivered);
+    }
+
+    @Test
+    public void latestWins_deliversAtOnce_andDiscardsOlderResults() throws Exception
+    {
+        ResultSequencer<String> sequencer = new ResultSequencer<String>(true);
+        long first = sequencer.next();
+        long second = sequencer.next();
+        long third = sequencer.next();
+
+        sequencer.deliver(second, "second", mReceiver);
+        sequencer.deliver(first, "first", mReceiver);
+        sequencer.deliver(third, "third", mReceiver);
+
+        assertEquals(Arrays.asList("second", "third"), mDelivered);
+        assertEquals(Collections.singletonList("first"), mStale);
+    }
+
+    @Test
+    public void latestWins_skippedFrameDoesNotMakeOlderResultsStale() throws Exception
+    {
+        ResultSequencer<String> sequencer = new ResultSequencer<String>(true);
+        long first = sequencer.next();
+        long second = sequencer.next();
+
+        sequencer.skip(second, mReceiver);
+        sequencer.deliver(first, "first", mReceiver);
+
+        assertEquals(Collections.singletonList("first"), mDelivered);
+        assertTrue(mStale.isEmpty());
+    }
+
+    @Test
+    public void clear_returnsHeldBackResults() throws Exception
+    {
+        ResultSequencer<String> sequencer = new ResultSequencer<String>(false);
+        sequencer.next();
+        long second = sequencer.next();
+        long third = sequencer.next();
+        sequencer.deliver(second, "second", mReceiver);
+        sequencer.deliver(third, "third", mReceiver);
+
+        List<String> held = sequencer.clear();
+        Collections.sort(held);
+        assertEquals(Arrays.asList("second", "third"), held);
+        assertTrue(sequencer.clear().isEmpty());
+        assertTrue(mDelivered.isEmpty());
+    }
+}
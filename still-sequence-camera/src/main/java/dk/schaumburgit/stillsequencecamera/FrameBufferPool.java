@@ -0,0 +1,139 @@
+package dk.schaumburgit.stillsequencecamera;
+
+import java.util.ArrayList;
+
+/**
+ * A pool of byte arrays used for the per-frame conversions in the
+ * capture->decode pipeline (NV21 conversion, serialization etc.), so we don't
+ * allocate - and later garbage collect - several megabytes for every frame.
+ *
+ * The pool is keyed by the frame format and size set by setup() (which the
+ * IStillSequenceCamera implementations call from their own setup()). Buffers
+ * for any other format/size are still handed out, but counted as misses and
+ * never retained.
+ *
+ * Buffers are normally borrowed through a PooledSource, which hands them
+ * back to the pool when the source is closed.
+ */
+public class FrameBufferPool
+{
+    private final Object mLock = new Object();
+
+    private int mFormat = -1;
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private int mMaxRetained = 0;
+    private final ArrayList<byte[]> mFree = new ArrayList<byte[]>();
+
+    private long mHits = 0;
+    private long mMisses = 0;
+    private int mBorrowed = 0;
+    private int mHighWaterMark = 0;
+
+    /**
+     * (Re)configures the pool for frames of the given format and size,
+     * dropping any buffers retained for a previous configuration.
+     *
+     * @param maxRetained The maximum number of buffers kept in the pool
+     *                    when not borrowed.
+     */
+    public void setup(int format, int width, int height, int maxRetained)
+    {
+        synchronized (mLock) {
+            mFormat = format;
+            mWidth = width;
+            mHeight = height;
+            mMaxRetained = maxRetained;
+            mFree.clear();
+        }
+    }
+
+    /**
+     * Borrows a buffer of exactly size bytes for a frame of the given format and size.
+     *
+     * The contents of the returned buffer are undefined.
+     */
+    public byte[] borrow(int format, int width, int height, int size)
+    {
+        synchronized (mLock) {
+            mBorrowed++;
+            if (mBorrowed > mHighWaterMark)
+                mHighWaterMark = mBorrowed;
+
+            if (isConfiguredFor(format, width, height)) {
+                for (int n = mFree.size() - 1; n >= 0; n--) {
+                    byte[] buffer = mFree.get(n);
+                    if (buffer.length == size) {
+                        // swap-remove, to avoid shifting the rest of the list:
+                        int last = mFree.size() - 1;
+                        mFree.set(n, mFree.get(last));
+                        mFree.remove(last);
+                        mHits++;
+                        return buffer;
+                    }
+                }
+            }
+
+            mMisses++;
+        }
+
+        return new byte[size];
+    }
+
+    /**
+     * Returns a buffer previously acquired through borrow().
+     */
+    public void giveBack(int format, int width, int height, byte[] buffer)
+    {
+        if (buffer == null)
+            return;
+
+        synchronized (mLock) {
+            mBorrowed--;
+
+            if (isConfiguredFor(format, width, height) && mFree.size() < mMaxRetained)
+                mFree.add(buffer);
+        }
+    }
+
+    private boolean isConfiguredFor(int format, int width, int height)
+    {
+        return format == mFormat && width == mWidth && height == mHeight;
+    }
+
+    /**
+     * The number of borrow() calls satisfied from the pool
+     */
+    public long getHits() {
+        synchronized (mLock) {
+            return mHits;
+        }
+    }
+
+    /**
+     * The number of borrow() calls that had to allocate a new buffer
+     */
+    public long getMisses() {
+        synchronized (mLock) {
+            return mMisses;
+        }
+    }
+
+    /**
+     * The number of buffers currently borrowed
+     */
+    public int getBorrowedCount() {
+        synchronized (mLock) {
+            return mBorrowed;
+        }
+    }
+
+    /**
+     * The highest number of buffers borrowed at the same time
+     */
+    public int getHighWaterMark() {
+        synchronized (mLock) {
+            return mHighWaterMark;
+        }
+    }
+}
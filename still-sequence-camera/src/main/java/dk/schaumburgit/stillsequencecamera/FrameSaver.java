@@ -0,0 +1,657 @@
+package dk.schaumburgit.stillsequencecamera;
+
+import android.annotation.TargetApi;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Saves captured frames as JPEG files in the background - this is what
+ * ISource.save() hands the frames to.
+ *
+ * The calling (decoding) thread only copies the frame into a pooled buffer
+ * and gets the URL of the file back at once; the JPEG encoding and the file
+ * writing happen on a low-priority background thread, so the file may not
+ * exist yet when save() returns (see awaitIdle()).
+ *
+ * At most maxQueued frames are waiting to be written at any time: when the
+ * background thread falls behind, further frames are dropped (and counted)
+ * rather than copied, and save() returns null for them.
+ *
+ * YUV frames can be saved cropped to a region (e.g. around a barcode),
+ * downsampled and/or without chroma: all of it is done while copying, so
+ * less is copied, encoded and written. JPEG frames are always saved whole.
+ */
+public class FrameSaver
+{
+    private static final String TAG = "FrameSaver";
+
+    // The layouts of the frames waiting to be written:
+    private static final int LAYOUT_NV21 = 0;
+    private static final int LAYOUT_I420 = 1;
+    private static final int LAYOUT_JPEG = 2;
+
+    private final File mDirectory;
+    private final int mMaxQueued;
+    private final int mJpegQuality;
+    private final int mScale;
+    private final boolean mGrayscale;
+
+    private final Object mLock = new Object();
+
+    // Keyed on the format and size of the frames handed in (not of the saved
+    // copies, which vary with the crop region): see reserve()
+    private final FrameBufferPool mPool = new FrameBufferPool();
+    private int mPoolFormat = -1;
+    private int mPoolWidth = -1;
+    private int mPoolHeight = -1;
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private boolean mClosed = false;
+    private int mQueued = 0;
+    private long mSequence = 0;
+
+    private long mSaved = 0;
+    private long mDropped = 0;
+    private long mFailed = 0;
+
+    /**
+     * @param directory   Where the JPEG files are written (created if missing)
+     * @param maxQueued   The maximum number of frames waiting to be written
+     * @param jpegQuality The JPEG quality (1-100)
+     */
+    public FrameSaver(File directory, int maxQueued, int jpegQuality)
+    {
+        this(directory, maxQueued, jpegQuality, 1, false);
+    }
+
+    /**
+     * @param scale     YUV frames are saved downsampled by this factor (1: full
+     *                  resolution)
+     * @param grayscale YUV frames are saved without chroma
+     */
+    public FrameSaver(File directory, int maxQueued, int jpegQuality, int scale, boolean grayscale)
+    {
+        if (directory == null)
+            throw new IllegalArgumentException("directory cannot be null");
+        if (maxQueued < 1)
+            throw new IllegalArgumentException("maxQueued must be at least 1");
+        if (jpegQuality < 1 || jpegQuality > 100)
+            throw new IllegalArgumentException("jpegQuality must be between 1 and 100");
+        if (scale < 1)
+            throw new IllegalArgumentException("scale must be at least 1");
+
+        mDirectory = directory;
+        mMaxQueued = maxQueued;
+        mJpegQuality = jpegQuality;
+        mScale = scale;
+        mGrayscale = grayscale;
+
+        mThread = new HandlerThread("Frame Saver Background", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    //*********************************************************************
+    //* Handing off frames:
+    //*********************************************************************
+
+    /**
+     * Saves an NV21 frame (e.g. a legacy camera preview buffer)
+     *
+     * @return The URL the file will be written to - or null if the frame was dropped
+     */
+    public String saveNV21(byte[] nv21, int width, int height)
+    {
+        return saveNV21(nv21, width, height, null);
+    }
+
+    /**
+     * Saves the given region (in frame coordinates - or null for all of it)
+     * of an NV21 frame
+     *
+     * @return The URL the file will be written to - or null if the frame was dropped
+     */
+    public String saveNV21(byte[] nv21, int width, int height, Rect region)
+    {
+        if (!isWholeFrame(width, height, region)) {
+            ByteBuffer buffer = ByteBuffer.wrap(nv21);
+            return saveRegion(ImageFormat.NV21, width, height, region, nv21Planes(buffer, width, height));
+        }
+
+        int size = yuvSize(width, height);
+        Job job = reserve(ImageFormat.NV21, width, height, width, height, size, LAYOUT_NV21);
+        if (job == null)
+            return null;
+
+        System.arraycopy(nv21, 0, job.data, 0, size);
+        return submit(job);
+    }
+
+    /**
+     * Saves a frame stored contiguously in the given buffer (from its
+     * position): ImageFormat.NV21 frames as NV21, ImageFormat.YUV_420_888
+     * frames as I420 (like the frames of a replay recording).
+     *
+     * @return The URL the file will be written to - or null if the frame was dropped
+     */
+    public String saveFrame(ByteBuffer frame, int format, int width, int height)
+    {
+        return saveFrame(frame, format, width, height, null);
+    }
+
+    /**
+     * Saves the given region (in frame coordinates - or null for all of it)
+     * of a frame stored contiguously in the given buffer (see above)
+     *
+     * @return The URL the file will be written to - or null if the frame was dropped
+     */
+    public String saveFrame(ByteBuffer frame, int format, int width, int height, Rect region)
+    {
+        int layout;
+        switch (format) {
+            case ImageFormat.NV21:
+                layout = LAYOUT_NV21;
+                break;
+            case ImageFormat.YUV_420_888:
+                layout = LAYOUT_I420;
+                break;
+            default:
+                throw new UnsupportedOperationException("Cannot save frames of format " + format);
+        }
+
+        if (!isWholeFrame(width, height, region)) {
+            PlaneView[] planes = (layout == LAYOUT_NV21)
+                    ? nv21Planes(frame.slice(), width, height)
+                    : i420Planes(frame.slice(), width, height);
+            return saveRegion(format, width, height, region, planes);
+        }
+
+        int size = yuvSize(width, height);
+        Job job = reserve(format, width, height, width, height, size, layout);
+        if (job == null)
+            return null;
+
+        frame.duplicate().get(job.data, 0, size);
+        return submit(job);
+    }
+
+    /**
+     * Saves an image from a Camera2 ImageReader: YUV_420_888 images are
+     * copied (as NV21), JPEG images are written as they are.
+     *
+     * @return The URL the file will be written to - or null if the frame was dropped
+     */
+    @TargetApi(21)
+    public String saveImage(Image image)
+    {
+        return saveImage(image, null);
+    }
+
+    /**
+     * Saves the given region (in image coordinates - or null for all of it)
+     * of an image from a Camera2 ImageReader. JPEG images are saved whole.
+     *
+     * @return The URL the file will be written to - or null if the frame was dropped
+     */
+    @TargetApi(21)
+    public String saveImage(Image image, Rect region)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        switch (image.getFormat()) {
+            case ImageFormat.JPEG: {
+                ByteBuffer buffer = image.getPlanes()[0].getBuffer().duplicate();
+                buffer.rewind();
+                Job job = reserve(ImageFormat.JPEG, width, height, width, height, buffer.remaining(), LAYOUT_JPEG);
+                if (job == null)
+                    return null;
+
+                buffer.get(job.data);
+                return submit(job);
+            }
+            case ImageFormat.YUV_420_888: {
+                Image.Plane[] planes = image.getPlanes();
+                return saveRegion(ImageFormat.YUV_420_888, width, height, region, new PlaneView[]{
+                        new PlaneView(planes[0].getBuffer(), 0, planes[0].getRowStride(), planes[0].getPixelStride()),
+                        new PlaneView(planes[1].getBuffer(), 0, planes[1].getRowStride(), planes[1].getPixelStride()),
+                        new PlaneView(planes[2].getBuffer(), 0, planes[2].getRowStride(), planes[2].getPixelStride())
+                });
+            }
+            default:
+                throw new UnsupportedOperationException("Cannot save images of format " + image.getFormat());
+        }
+    }
+
+    /**
+     * Saves an image that is already JPEG encoded (e.g. from
+     * Camera.takePicture())
+     *
+     * @return The URL the file will be written to - or null if the frame was dropped
+     */
+    public String saveJpeg(byte[] jpeg, int width, int height)
+    {
+        Job job = reserve(ImageFormat.JPEG, width, height, width, height, jpeg.length, LAYOUT_JPEG);
+        if (job == null)
+            return null;
+
+        System.arraycopy(jpeg, 0, job.data, 0, jpeg.length);
+        return submit(job);
+    }
+
+    private static int yuvSize(int width, int height)
+    {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    /**
+     * Whether the frame is saved as it is (so it can be copied in one go)
+     */
+    private boolean isWholeFrame(int width, int height, Rect region)
+    {
+        if (mScale != 1 || mGrayscale)
+            return false;
+
+        return region == null || (region.left <= 0 && region.top <= 0 && region.right >= width && region.bottom >= height);
+    }
+
+    static PlaneView[] nv21Planes(ByteBuffer frame, int width, int height)
+    {
+        int ySize = width * height;
+        int chromaRowStride = 2 * ((width + 1) / 2);
+        return new PlaneView[]{
+                new PlaneView(frame, 0, width, 1),
+                new PlaneView(frame, ySize + 1, chromaRowStride, 2),
+                new PlaneView(frame, ySize, chromaRowStride, 2)
+        };
+    }
+
+    static PlaneView[] i420Planes(ByteBuffer frame, int width, int height)
+    {
+        int ySize = width * height;
+        int chromaWidth = (width + 1) / 2;
+        int chromaSize = chromaWidth * ((height + 1) / 2);
+        return new PlaneView[]{
+                new PlaneView(frame, 0, width, 1),
+                new PlaneView(frame, ySize, chromaWidth, 1),
+                new PlaneView(frame, ySize + chromaSize, chromaWidth, 1)
+        };
+    }
+
+    /**
+     * Saves the region of a YUV frame (Y, U and V planes), cropped, scaled
+     * and converted to NV21 in one pass while copying.
+     *
+     * The region is clipped to the frame, and aligned to the chroma (and
+     * scaling) grid - so the copy is an NV21 frame of its own. Nothing is
+     * saved (and null returned) if the region is outside the frame or too
+     * small to scale.
+     */
+    private String saveRegion(int format, int width, int height, Rect region, PlaneView[] planes)
+    {
+        int[] crop = (region == null)
+                ? alignRegion(width, height, 0, 0, width, height, mScale)
+                : alignRegion(width, height, region.left, region.top, region.right, region.bottom, mScale);
+        if (crop == null)
+            return null;
+
+        int outWidth = crop[2] / mScale;
+        int outHeight = crop[3] / mScale;
+        Job job = reserve(format, width, height, outWidth, outHeight, yuvSize(outWidth, outHeight), LAYOUT_NV21);
+        if (job == null)
+            return null;
+
+        copyRegion(planes[0], planes[1], planes[2], crop[0], crop[1], outWidth, outHeight, mScale, mGrayscale, job.data);
+        return submit(job);
+    }
+
+    /**
+     * Clips the region (left, top, right, bottom) to the frame and aligns it
+     * to the chroma (and scaling) grid.
+     *
+     * @return The aligned region as {left, top, width, height} - or null if
+     * it is outside the frame or too small to scale
+     */
+    static int[] alignRegion(int width, int height, int left, int top, int right, int bottom, int scale)
+    {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, width);
+        bottom = Math.min(bottom, height);
+        if (left >= right || top >= bottom)
+            return null;
+
+        int step = 2 * scale;
+        left &= ~1;
+        top &= ~1;
+        int cropWidth = ((right - left) / step) * step;
+        int cropHeight = ((bottom - top) / step) * step;
+        if (cropWidth == 0 || cropHeight == 0)
+            return null;
+
+        return new int[]{left, top, cropWidth, cropHeight};
+    }
+
+    /**
+     * Copies the aligned region starting at (left, top) into out as an NV21
+     * frame of outWidth x outHeight, taking every scale'th pixel
+     */
+    static void copyRegion(PlaneView y, PlaneView u, PlaneView v, int left, int top, int outWidth, int outHeight, int scale, boolean grayscale, byte[] out)
+    {
+        ByteBuffer rows = y.buffer.duplicate();
+        int yStep = scale * y.pixelStride;
+        for (int row = 0; row < outHeight; row++) {
+            int src = y.offset + (top + row * scale) * y.rowStride + left * y.pixelStride;
+            int dst = row * outWidth;
+            if (yStep == 1) {
+                rows.position(src);
+                rows.get(out, dst, outWidth);
+            } else {
+                for (int col = 0; col < outWidth; col++)
+                    out[dst + col] = y.buffer.get(src + col * yStep);
+            }
+        }
+
+        int dst = outWidth * outHeight;
+        int chromaWidth = outWidth / 2;
+        int chromaHeight = outHeight / 2;
+        if (grayscale) {
+            Arrays.fill(out, dst, dst + 2 * chromaWidth * chromaHeight, (byte) 128);
+            return;
+        }
+
+        int uStep = scale * u.pixelStride;
+        int vStep = scale * v.pixelStride;
+        for (int row = 0; row < chromaHeight; row++) {
+            int chromaRow = top / 2 + row * scale;
+            int uSrc = u.offset + chromaRow * u.rowStride + (left / 2) * u.pixelStride;
+            int vSrc = v.offset + chromaRow * v.rowStride + (left / 2) * v.pixelStride;
+            for (int col = 0; col < chromaWidth; col++) {
+                out[dst++] = v.buffer.get(vSrc + col * vStep);
+                out[dst++] = u.buffer.get(uSrc + col * uStep);
+            }
+        }
+    }
+
+    /**
+     * Claims a place in the queue and a buffer for the copy - or returns
+     * null (counting the frame as dropped) if the queue is full.
+     *
+     * The pool is set up for the size of the frames handed in, and YUV copies
+     * all borrow a buffer for the whole frame - so the saved size (cropped
+     * and/or scaled) can change from frame to frame and still reuse the same
+     * buffers. JPEG data is copied into a buffer of exactly its size.
+     *
+     * @param frameWidth The size of the frame handed in
+     * @param width      The size of the saved copy
+     * @param size       The number of bytes the saved copy needs
+     */
+    private Job reserve(int format, int frameWidth, int frameHeight, int width, int height, int size, int layout)
+    {
+        File file;
+        synchronized (mLock) {
+            if (mClosed)
+                return null;
+
+            if (mQueued >= mMaxQueued) {
+                mDropped++;
+                return null;
+            }
+            mQueued++;
+
+            if (format != mPoolFormat || frameWidth != mPoolWidth || frameHeight != mPoolHeight) {
+                mPool.setup(format, frameWidth, frameHeight, mMaxQueued);
+                mPoolFormat = format;
+                mPoolWidth = frameWidth;
+                mPoolHeight = frameHeight;
+            }
+
+            file = new File(mDirectory, "frame-" + System.currentTimeMillis() + "-" + (mSequence++) + ".jpg");
+        }
+
+        int bufferSize = (layout == LAYOUT_JPEG) ? size : Math.max(size, yuvSize(frameWidth, frameHeight));
+        byte[] data = mPool.borrow(format, frameWidth, frameHeight, bufferSize);
+        return new Job(file, format, frameWidth, frameHeight, width, height, layout, data);
+    }
+
+    private String submit(final Job job)
+    {
+        boolean posted = mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        write(job);
+                    }
+                }
+        );
+
+        if (!posted) {
+            release(job, false, true);
+            return null;
+        }
+
+        return Uri.fromFile(job.file).toString();
+    }
+
+    //*********************************************************************
+    //* Background encoding and writing:
+    //*********************************************************************
+
+    private void write(Job job)
+    {
+        boolean success = false;
+        OutputStream out = null;
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+                throw new IOException("Cannot create " + mDirectory);
+
+            out = new BufferedOutputStream(new FileOutputStream(job.file));
+            if (job.layout == LAYOUT_JPEG) {
+                out.write(job.data);
+            } else {
+                byte[] nv21 = job.data;
+                if (job.layout == LAYOUT_I420)
+                    nv21 = i420ToNV21(job.data, job.width, job.height);
+
+                YuvImage yuv = new YuvImage(nv21, ImageFormat.NV21, job.width, job.height, null);
+                if (!yuv.compressToJpeg(new Rect(0, 0, job.width, job.height), mJpegQuality, out))
+                    throw new IOException("JPEG encoding failed");
+            }
+            out.flush();
+            success = true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error saving " + job.file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing " + job.file, e);
+                    success = false;
+                }
+            }
+            if (!success)
+                job.file.delete();
+
+            release(job, success, false);
+        }
+    }
+
+    private void release(Job job, boolean saved, boolean dropped)
+    {
+        mPool.giveBack(job.format, job.frameWidth, job.frameHeight, job.data);
+
+        synchronized (mLock) {
+            mQueued--;
+            if (saved)
+                mSaved++;
+            else if (dropped)
+                mDropped++;
+            else
+                mFailed++;
+            mLock.notifyAll();
+        }
+    }
+
+    private static byte[] i420ToNV21(byte[] i420, int width, int height)
+    {
+        // (the buffer may be larger than the frame: see reserve())
+        int ySize = width * height;
+        int chromaSize = ((width + 1) / 2) * ((height + 1) / 2);
+        byte[] nv21 = new byte[yuvSize(width, height)];
+
+        System.arraycopy(i420, 0, nv21, 0, ySize);
+        for (int n = 0; n < chromaSize; n++) {
+            nv21[ySize + 2 * n] = i420[ySize + chromaSize + n];
+            nv21[ySize + 2 * n + 1] = i420[ySize + n];
+        }
+
+        return nv21;
+    }
+
+    //*********************************************************************
+    //* Status and shutdown:
+    //*********************************************************************
+
+    /**
+     * The number of frames waiting to be written
+     */
+    public int getQueuedCount()
+    {
+        synchronized (mLock) {
+            return mQueued;
+        }
+    }
+
+    /**
+     * The number of frames written
+     */
+    public long getSavedCount()
+    {
+        synchronized (mLock) {
+            return mSaved;
+        }
+    }
+
+    /**
+     * The number of frames dropped because the queue was full
+     */
+    public long getDroppedCount()
+    {
+        synchronized (mLock) {
+            return mDropped;
+        }
+    }
+
+    /**
+     * The number of frames that could not be encoded or written
+     */
+    public long getFailedCount()
+    {
+        synchronized (mLock) {
+            return mFailed;
+        }
+    }
+
+    /**
+     * Waits until all queued frames have been written (or have failed).
+     *
+     * @return False if that didn't happen within timeoutMillis
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (mLock) {
+            while (mQueued > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return false;
+                mLock.wait(remaining);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Stops accepting frames. The frames already queued are still written,
+     * after which the background thread ends.
+     */
+    public void close()
+    {
+        synchronized (mLock) {
+            if (mClosed)
+                return;
+            mClosed = true;
+        }
+
+        final HandlerThread thread = mThread;
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        thread.quit();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Where a plane of a YUV frame is, and how its pixels are laid out
+     */
+    static class PlaneView
+    {
+        final ByteBuffer buffer;
+        final int offset;
+        final int rowStride;
+        final int pixelStride;
+
+        PlaneView(ByteBuffer buffer, int offset, int rowStride, int pixelStride)
+        {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.rowStride = rowStride;
+            this.pixelStride = pixelStride;
+        }
+    }
+
+    private static class Job
+    {
+        final File file;
+        final int format;
+        final int frameWidth;
+        final int frameHeight;
+        final int width;
+        final int height;
+        final int layout;
+        final byte[] data;
+
+        Job(File file, int format, int frameWidth, int frameHeight, int width, int height, int layout, byte[] data)
+        {
+            this.file = file;
+            this.format = format;
+            this.frameWidth = frameWidth;
+            this.frameHeight = frameHeight;
+            this.width = width;
+            this.height = height;
+            this.layout = layout;
+            this.data = data;
+        }
+    }
+}
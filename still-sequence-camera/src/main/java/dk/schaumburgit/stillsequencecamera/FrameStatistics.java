@@ -0,0 +1,213 @@
+package dk.schaumburgit.stillsequencecamera;
+
+/**
+ * Frame accounting for an IStillSequenceCamera, so the capture pipeline can
+ * be sized against the decoding:
+ *
+ * produced: frames captured by the camera
+ * acquired: frames we actually got hold of (the rest were skipped before we
+ *           could - e.g. by ImageReader.acquireLatestImage(), or because all
+ *           buffers were still in use)
+ * dropped: acquired frames discarded before reaching the listener
+ * delivered: frames handed to the listener (as ISource)
+ * released: delivered frames whose source has been closed again - i.e. the
+ *           listener is done decoding them
+ *
+ * The queue wait is the time a frame spent queued up for the listener,
+ * after it was acquired.
+ *
+ * Latency histograms are kept for the capture (from the start of the
+ * exposure until the frame was acquired - only where the camera's
+ * timestamps allow it), the queue wait and the conversion of the frame into
+ * a bitmap.
+ *
+ * Thread safe: the counters are updated from the capture, callback and
+ * decoding threads.
+ */
+public class FrameStatistics
+{
+    private final Object mLock = new Object();
+
+    private long mProduced = 0;
+    private long mAcquired = 0;
+    private long mDropped = 0;
+    private long mDelivered = 0;
+    private long mReleased = 0;
+    private long mTotalQueueWaitNanos = 0;
+    private long mMaxQueueWaitNanos = 0;
+
+    private final LatencyHistogram mCaptureLatency = new LatencyHistogram();
+    private final LatencyHistogram mQueueWait = new LatencyHistogram();
+    private final LatencyHistogram mConversionTime = new LatencyHistogram();
+
+    public void onProduced()
+    {
+        synchronized (mLock) {
+            mProduced++;
+        }
+    }
+
+    public void onAcquired()
+    {
+        synchronized (mLock) {
+            mAcquired++;
+        }
+    }
+
+    public void onDropped()
+    {
+        synchronized (mLock) {
+            mDropped++;
+        }
+    }
+
+    public void onCaptured(long captureLatencyNanos)
+    {
+        mCaptureLatency.record(captureLatencyNanos);
+    }
+
+    public void onConverted(long conversionNanos)
+    {
+        mConversionTime.record(conversionNanos);
+    }
+
+    public void onDelivered(long queueWaitNanos)
+    {
+        mQueueWait.record(queueWaitNanos);
+        synchronized (mLock) {
+            mDelivered++;
+            mTotalQueueWaitNanos += queueWaitNanos;
+            if (queueWaitNanos > mMaxQueueWaitNanos)
+                mMaxQueueWaitNanos = queueWaitNanos;
+        }
+    }
+
+    public void onReleased()
+    {
+        synchronized (mLock) {
+            mReleased++;
+        }
+    }
+
+    public void reset()
+    {
+        synchronized (mLock) {
+            mProduced = 0;
+            mAcquired = 0;
+            mDropped = 0;
+            mDelivered = 0;
+            mReleased = 0;
+            mTotalQueueWaitNanos = 0;
+            mMaxQueueWaitNanos = 0;
+        }
+        mCaptureLatency.reset();
+        mQueueWait.reset();
+        mConversionTime.reset();
+    }
+
+    /**
+     * The number of frames captured by the camera
+     */
+    public long getProduced() {
+        synchronized (mLock) {
+            return mProduced;
+        }
+    }
+
+    /**
+     * The number of captured frames we got hold of
+     */
+    public long getAcquired() {
+        synchronized (mLock) {
+            return mAcquired;
+        }
+    }
+
+    /**
+     * The number of frames skipped before we could get hold of them
+     * (approximate while capturing: results may be counted before their images)
+     */
+    public long getSkipped() {
+        synchronized (mLock) {
+            return Math.max(0, mProduced - mAcquired);
+        }
+    }
+
+    /**
+     * The number of acquired frames discarded before reaching the listener
+     */
+    public long getDropped() {
+        synchronized (mLock) {
+            return mDropped;
+        }
+    }
+
+    /**
+     * The number of frames handed to the listener
+     */
+    public long getDelivered() {
+        synchronized (mLock) {
+            return mDelivered;
+        }
+    }
+
+    /**
+     * The number of delivered frames that have been closed again by the listener
+     */
+    public long getReleased() {
+        synchronized (mLock) {
+            return mReleased;
+        }
+    }
+
+    /**
+     * The number of delivered frames not yet closed by the listener
+     */
+    public long getInFlight() {
+        synchronized (mLock) {
+            return mDelivered - mReleased;
+        }
+    }
+
+    /**
+     * The average time (in nanoseconds) a delivered frame spent queued up for
+     * the listener
+     */
+    public long getAverageQueueWaitNanos() {
+        synchronized (mLock) {
+            return (mDelivered == 0) ? 0 : mTotalQueueWaitNanos / mDelivered;
+        }
+    }
+
+    /**
+     * The longest time (in nanoseconds) a delivered frame spent queued up for
+     * the listener
+     */
+    public long getMaxQueueWaitNanos() {
+        synchronized (mLock) {
+            return mMaxQueueWaitNanos;
+        }
+    }
+
+    /**
+     * The time from the start of the exposure until the frame was acquired
+     * (empty if the camera's timestamps can't be compared to the clock)
+     */
+    public LatencyHistogram.Snapshot getCaptureLatency() {
+        return mCaptureLatency.snapshot();
+    }
+
+    /**
+     * The time delivered frames spent queued up for the listener
+     */
+    public LatencyHistogram.Snapshot getQueueWait() {
+        return mQueueWait.snapshot();
+    }
+
+    /**
+     * The time spent converting frames into bitmaps for the listener
+     */
+    public LatencyHistogram.Snapshot getConversionTime() {
+        return mConversionTime.snapshot();
+    }
+}
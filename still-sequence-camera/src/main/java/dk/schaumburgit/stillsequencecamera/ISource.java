@@ -1,11 +1,56 @@
 package dk.schaumburgit.stillsequencecamera;
 
+import android.graphics.Rect;
+
+import com.google.zxing.LuminanceSource;
+
 /**
  * Created by Thomas on 12-04-2018.
  */
 
 public interface ISource
 {
+    /**
+     * Hands a copy of the image to the FrameSaver of the camera (see
+     * IStillSequenceCamera.setFrameSaver()), and returns the URL of the file
+     * it will be written to - without waiting for the encoding and writing.
+     *
+     * Returns null if the camera has no FrameSaver, or if the saver's queue is
+     * full. Must be called before the source is closed.
+     */
     String save();
+
+    /**
+     * Like save(), but only saves the given region of the image (in image
+     * coordinates, e.g. around a barcode) - or all of it if region is null.
+     * The region may be enlarged slightly to fit the chroma grid; JPEG
+     * images are always saved whole.
+     */
+    String save(Rect region);
     void close();
+
+    /**
+     * A downsampled luminance copy of the image, computed at capture
+     * time - or null if the camera doesn't supply one.
+     */
+    LuminanceThumbnail getThumbnail();
+
+    /**
+     * The sharpness of the image as measured by SharpnessMeter at capture
+     * time - or a negative value if the camera doesn't measure it.
+     */
+    double getSharpness();
+
+    /**
+     * A low-resolution luminance image covering the same field of view, captured
+     * together with this one (see StillSequenceCamera2Options.detectionPixels) -
+     * or null if there is none. Valid until the source is closed.
+     */
+    LuminanceSource getDetectionImage();
+
+    /**
+     * The sequence number of the image in the camera's FlightRecorder (see
+     * IStillSequenceCamera.setFlightRecorder()) - or -1 if it wasn't recorded.
+     */
+    long getRecordedFrame();
 }
@@ -1,22 +1,98 @@
 package dk.schaumburgit.stillsequencecamera;
 
+import android.graphics.Rect;
 import android.os.Handler;
+import android.util.Size;
 
 import com.google.zxing.BinaryBitmap;
 
 import java.util.List;
 
+import dk.schaumburgit.stillsequencecamera.replay.FlightRecorder;
+
 /**
  * Created by Thomas Schaumburg on 21-11-2015.
  */
 public interface IStillSequenceCamera {
     double sourceAspectRatio();
     List<CaptureFormatInfo> getSupportedImageFormats(double relativeDevicePerformance);
+
+    /**
+     * Identifies the physical camera used (unique on this device)
+     */
+    String getCameraId();
+
+    /**
+     * The image sizes setup() accepts for the given format (empty if the format
+     * isn't supported)
+     */
+    List<Size> getOutputSizes(int imageFormat);
+
+    /**
+     * Configures the capture - only allowed on a new or closed camera, so to
+     * capture in another format or size, close() the camera and set it up again.
+     */
     void setup(int imageFormat, int imageWidth, int imageHeight);
     void start(OnImageAvailableListener listener, Handler callbackHandler);
     void stop();
+
+    /**
+     * Releases the camera, stopping it first if needed - and waiting for the
+     * stop to finish, so setup() can be called as soon as close() returns.
+     */
     void close();
 
+    /**
+     * The pool that conversion buffers for the captured frames should be borrowed
+     * from (see PooledSource). It is sized by setup().
+     */
+    FrameBufferPool getBufferPool();
+
+    /**
+     * Sets the saver that ISource.save() hands the frames of this camera to
+     * - or null to make save() return null (the default).
+     */
+    void setFrameSaver(FrameSaver frameSaver);
+
+    /**
+     * Sets the recorder the luminance of every captured frame is recorded in
+     * - or null to record nothing (the default).
+     */
+    void setFlightRecorder(FlightRecorder flightRecorder);
+
+    /**
+     * How many frames the camera produced, and how many of them were dropped,
+     * delivered to the listener and released again.
+     */
+    FrameStatistics getFrameStatistics();
+
+    /**
+     * The exposure time (in nanoseconds) of the latest captured frame - or -1
+     * if the camera doesn't report it.
+     */
+    long getLastExposureNanos();
+
+    /**
+     * The sensitivity (ISO) of the latest captured frame - or -1 if the camera
+     * doesn't report it.
+     */
+    int getLastSensitivity();
+
+    /**
+     * Tells the camera where in the captured images the barcode being tracked
+     * currently is (in image coordinates) - or null when there is none.
+     *
+     * The camera may use it to focus and meter on the barcode; it is free to
+     * ignore it.
+     */
+    void setRegionOfInterest(Rect region);
+
+    /**
+     * The listener takes ownership of the source passed to onImageAvailable(),
+     * and must close() it when done with the image - the bitmap may read directly
+     * from the camera buffers, so it is only valid until then. Until the source is
+     * closed, the camera may hold back on delivering new images.
+     */
     public interface OnImageAvailableListener
     {
         void onImageAvailable(ISource source, BinaryBitmap bitmap);
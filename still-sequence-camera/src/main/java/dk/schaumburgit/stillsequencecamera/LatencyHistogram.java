@@ -0,0 +1,128 @@
+package dk.schaumburgit.stillsequencecamera;
+
+/**
+ * A latency histogram with fixed, power-of-two buckets: bucket 0 holds
+ * everything below 2^18 ns (~0.26 ms), bucket n everything from 2^(17+n) ns
+ * up to 2^(18+n) ns - and the last bucket everything above (~4.3 s or more).
+ *
+ * Recording never allocates, so it can be done on every frame; snapshot()
+ * copies the counts for reporting.
+ *
+ * Thread safe: stages may be recorded from several decoding threads.
+ */
+public class LatencyHistogram
+{
+    public static final int BUCKET_COUNT = 16;
+    private static final int FIRST_BUCKET_SHIFT = 18;
+
+    private final Object mLock = new Object();
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount = 0;
+    private long mTotalNanos = 0;
+    private long mMaxNanos = 0;
+
+    public void record(long nanos)
+    {
+        if (nanos < 0)
+            nanos = 0;
+        int bucket = bucketOf(nanos);
+        synchronized (mLock) {
+            mCounts[bucket]++;
+            mCount++;
+            mTotalNanos += nanos;
+            if (nanos > mMaxNanos)
+                mMaxNanos = nanos;
+        }
+    }
+
+    public void reset()
+    {
+        synchronized (mLock) {
+            for (int n = 0; n < BUCKET_COUNT; n++)
+                mCounts[n] = 0;
+            mCount = 0;
+            mTotalNanos = 0;
+            mMaxNanos = 0;
+        }
+    }
+
+    public Snapshot snapshot()
+    {
+        synchronized (mLock) {
+            return new Snapshot(mCounts.clone(), mCount, mTotalNanos, mMaxNanos);
+        }
+    }
+
+    private static int bucketOf(long nanos)
+    {
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos >> FIRST_BUCKET_SHIFT);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * The (exclusive) upper bound of the given bucket, in nanoseconds - or
+     * Long.MAX_VALUE for the last one.
+     */
+    public static long getBucketUpperBoundNanos(int bucket)
+    {
+        if (bucket >= BUCKET_COUNT - 1)
+            return Long.MAX_VALUE;
+
+        return 1L << (FIRST_BUCKET_SHIFT + bucket);
+    }
+
+    /**
+     * The contents of a LatencyHistogram at a given time
+     */
+    public static class Snapshot
+    {
+        private final long[] mCounts;
+        public final long count;
+        public final long totalNanos;
+        public final long maxNanos;
+
+        private Snapshot(long[] counts, long count, long totalNanos, long maxNanos)
+        {
+            this.mCounts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * The number of recordings in the given bucket (see
+         * getBucketUpperBoundNanos)
+         */
+        public long getBucketCount(int bucket)
+        {
+            return mCounts[bucket];
+        }
+
+        public long getAverageNanos()
+        {
+            return (count == 0) ? 0 : totalNanos / count;
+        }
+
+        /**
+         * An upper estimate of the given percentile (0-100): the upper bound
+         * of the bucket it falls in (capped at the maximum recorded) - or 0
+         * if nothing has been recorded.
+         */
+        public long getPercentileNanos(double percentile)
+        {
+            if (count == 0)
+                return 0;
+
+            long rank = (long) Math.ceil(count * percentile / 100.0);
+            long seen = 0;
+            for (int n = 0; n < BUCKET_COUNT; n++) {
+                seen += mCounts[n];
+                if (seen >= rank && seen > 0)
+                    return Math.min(getBucketUpperBoundNanos(n), maxNanos);
+            }
+
+            return maxNanos;
+        }
+    }
+}
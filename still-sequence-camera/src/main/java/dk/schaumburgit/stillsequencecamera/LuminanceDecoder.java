@@ -0,0 +1,159 @@
+package dk.schaumburgit.stillsequencecamera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageFormat;
+import android.util.Log;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Extracts the luminance of camera frames that can't be scanned in place,
+ * into buffers borrowed from the frame's PooledSource - so the per-frame
+ * conversion doesn't allocate a new frame-sized array every time.
+ *
+ * Frames starting with a full-resolution Y-plane (NV21, YV12, NV16) are
+ * wrapped as they are. Formats not handled here make the decode methods
+ * return null, and the caller falls back to its generic conversion.
+ *
+ * Keeps a reusable bitmap and row buffer for JPEG decoding, so an instance
+ * must only be used from one thread at a time.
+ */
+public class LuminanceDecoder
+{
+    private static final String TAG = "LuminanceDecoder";
+
+    private Bitmap mBitmap = null;
+    private int[] mRow = null;
+
+    /**
+     * The luminance of a legacy camera preview frame - or null if the format
+     * isn't handled here.
+     */
+    public LuminanceSource decodePreview(byte[] data, int format, int width, int height, PooledSource owner)
+    {
+        switch (format) {
+            case ImageFormat.NV21:
+            case ImageFormat.YV12:
+            case ImageFormat.NV16:
+                return new PlanarYUVLuminanceSource(data, width, height, 0, 0, width, height, false);
+
+            case ImageFormat.YUY2: {
+                // Y0 U0 Y1 V0 ...: every other byte is luminance
+                byte[] luminance = owner.borrowBuffer(width * height);
+                for (int n = 0; n < luminance.length; n++)
+                    luminance[n] = data[2 * n];
+                return new PlanarYUVLuminanceSource(luminance, width, height, 0, 0, width, height, false);
+            }
+
+            case ImageFormat.RGB_565: {
+                byte[] luminance = owner.borrowBuffer(width * height);
+                for (int n = 0; n < luminance.length; n++) {
+                    int pixel = (data[2 * n] & 0xff) | ((data[2 * n + 1] & 0xff) << 8);
+                    int r = (pixel >> 8) & 0xf8;
+                    int g = (pixel >> 3) & 0xfc;
+                    int b = (pixel << 3) & 0xf8;
+                    luminance[n] = (byte) ((r + 2 * g + b) / 4);
+                }
+                return new PlanarYUVLuminanceSource(luminance, width, height, 0, 0, width, height, false);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * The luminance of a JPEG frame (e.g. the plane of a Camera2 JPEG image).
+     * The decoded bitmap is reused from frame to frame; only the luminance is
+     * kept, in a buffer borrowed from the owner.
+     */
+    public LuminanceSource decodeJpeg(ByteBuffer jpeg, PooledSource owner)
+    {
+        Bitmap bitmap = decodeBitmap(jpeg);
+        if (bitmap == null)
+            return null;
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (mRow == null || mRow.length < width)
+            mRow = new int[width];
+
+        byte[] luminance = owner.borrowBuffer(width * height);
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(mRow, 0, width, 0, y, width, 1);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = mRow[x];
+                int r = (pixel >> 16) & 0xff;
+                int g = (pixel >> 8) & 0xff;
+                int b = pixel & 0xff;
+                // (the same weights as ZXing's RGBLuminanceSource)
+                luminance[offset + x] = (byte) ((r + 2 * g + b) / 4);
+            }
+        }
+
+        return new PlanarYUVLuminanceSource(luminance, width, height, 0, 0, width, height, false);
+    }
+
+    private Bitmap decodeBitmap(ByteBuffer jpeg)
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inBitmap = mBitmap;
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeStream(new ByteBufferInputStream(jpeg.duplicate()), null, options);
+        } catch (IllegalArgumentException e) {
+            // The previous bitmap can't be reused (e.g. the size has changed):
+            Log.v(TAG, "Cannot reuse the bitmap: " + e.getMessage());
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeStream(new ByteBufferInputStream(jpeg.duplicate()), null, options);
+        }
+
+        if (bitmap != null)
+            mBitmap = bitmap;
+
+        return bitmap;
+    }
+
+    /**
+     * Lets BitmapFactory read straight from the (direct) buffer of an image plane
+     */
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer)
+        {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return mBuffer.hasRemaining() ? (mBuffer.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length)
+        {
+            if (!mBuffer.hasRemaining())
+                return -1;
+
+            length = Math.min(length, mBuffer.remaining());
+            mBuffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public int available()
+        {
+            return mBuffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package dk.schaumburgit.stillsequencecamera;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * A small, downsampled copy of the luminance of a captured frame, cheap
+ * enough to compute in the capture thread for every frame.
+ *
+ * Each thumbnail pixel is the average of a horizontal run of pixels across
+ * the middle row of the corresponding cell in the full image - so only
+ * height rows of the full image are ever read.
+ */
+public class LuminanceThumbnail
+{
+    public static final int DEFAULT_WIDTH = 32;
+    public static final int DEFAULT_HEIGHT = 24;
+
+    public final int width;
+    public final int height;
+    public final byte[] pixels;
+
+    private LuminanceThumbnail(int width, int height, byte[] pixels)
+    {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    public static LuminanceThumbnail create(LuminanceSource source)
+    {
+        return create(source, DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    public static LuminanceThumbnail create(LuminanceSource source, int width, int height)
+    {
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        if (width > sourceWidth)
+            width = sourceWidth;
+        if (height > sourceHeight)
+            height = sourceHeight;
+
+        byte[] pixels = new byte[width * height];
+        byte[] row = new byte[sourceWidth];
+
+        for (int ty = 0; ty < height; ty++) {
+            int y = (2 * ty + 1) * sourceHeight / (2 * height);
+            row = source.getRow(y, row);
+
+            for (int tx = 0; tx < width; tx++) {
+                int x0 = tx * sourceWidth / width;
+                int x1 = (tx + 1) * sourceWidth / width;
+                int sum = 0;
+                for (int x = x0; x < x1; x++)
+                    sum += row[x] & 0xff;
+                pixels[ty * width + tx] = (byte) (sum / (x1 - x0));
+            }
+        }
+
+        return new LuminanceThumbnail(width, height, pixels);
+    }
+
+    /**
+     * The mean absolute difference (0-255) between the pixels of two thumbnails
+     * - or 255 if they cannot be compared.
+     */
+    public double difference(LuminanceThumbnail that)
+    {
+        if (that == null || that.width != this.width || that.height != this.height)
+            return 255;
+
+        long sum = 0;
+        for (int n = 0; n < pixels.length; n++)
+            sum += Math.abs((this.pixels[n] & 0xff) - (that.pixels[n] & 0xff));
+
+        return (double) sum / pixels.length;
+    }
+}
@@ -0,0 +1,189 @@
+package dk.schaumburgit.stillsequencecamera;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Base class for ISource implementations that let the decoding stages borrow
+ * conversion buffers from a FrameBufferPool.
+ *
+ * Every buffer borrowed through borrowBuffer() is handed back to the pool
+ * when the source is closed - so the buffers must not be used after that.
+ */
+public abstract class PooledSource implements ISource
+{
+    private final Object mLock = new Object();
+    private final FrameBufferPool mPool;
+    private final int mFormat;
+    private final int mWidth;
+    private final int mHeight;
+
+    private byte[][] mBorrowed = new byte[2][];
+    private int mBorrowedCount = 0;
+    private boolean mClosed;
+    private volatile LuminanceThumbnail mThumbnail = null;
+    private volatile double mSharpness = -1;
+    private volatile LuminanceSource mDetectionImage = null;
+    private volatile FrameSaver mFrameSaver = null;
+    private volatile long mRecordedFrame = -1;
+
+    protected PooledSource(FrameBufferPool pool, int format, int width, int height)
+    {
+        this(pool, format, width, height, false);
+    }
+
+    /**
+     * @param closed Create the source closed - for recycled sources, which are
+     *               opened with reopen() every time they are handed out
+     */
+    protected PooledSource(FrameBufferPool pool, int format, int width, int height, boolean closed)
+    {
+        mClosed = closed;
+        mPool = pool;
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Borrows a buffer of exactly size bytes, valid until this source is closed.
+     */
+    public byte[] borrowBuffer(int size)
+    {
+        if (mPool == null)
+            return new byte[size];
+
+        byte[] buffer = mPool.borrow(mFormat, mWidth, mHeight, size);
+        synchronized (mLock) {
+            if (mClosed) {
+                mPool.giveBack(mFormat, mWidth, mHeight, buffer);
+                throw new IllegalStateException("Cannot borrow buffers from a closed source");
+            }
+
+            if (mBorrowedCount == mBorrowed.length) {
+                byte[][] grown = new byte[2 * mBorrowed.length][];
+                System.arraycopy(mBorrowed, 0, grown, 0, mBorrowedCount);
+                mBorrowed = grown;
+            }
+            mBorrowed[mBorrowedCount++] = buffer;
+        }
+
+        return buffer;
+    }
+
+    @Override
+    public LuminanceThumbnail getThumbnail()
+    {
+        return mThumbnail;
+    }
+
+    /**
+     * Called by the camera when it has computed the thumbnail for this source
+     */
+    public void setThumbnail(LuminanceThumbnail thumbnail)
+    {
+        mThumbnail = thumbnail;
+    }
+
+    @Override
+    public double getSharpness()
+    {
+        return mSharpness;
+    }
+
+    /**
+     * Called by the camera when it has measured the sharpness of this source
+     */
+    public void setSharpness(double sharpness)
+    {
+        mSharpness = sharpness;
+    }
+
+    @Override
+    public LuminanceSource getDetectionImage()
+    {
+        return mDetectionImage;
+    }
+
+    /**
+     * Called by the camera when a low-resolution detection image was captured
+     * together with this source
+     */
+    public void setDetectionImage(LuminanceSource detectionImage)
+    {
+        mDetectionImage = detectionImage;
+    }
+
+    @Override
+    public long getRecordedFrame()
+    {
+        return mRecordedFrame;
+    }
+
+    /**
+     * Called by the camera when it has recorded this source in its FlightRecorder
+     */
+    public void setRecordedFrame(long sequence)
+    {
+        mRecordedFrame = sequence;
+    }
+
+    /**
+     * The saver save() hands the frame to - or null if frames aren't saved
+     */
+    protected FrameSaver getFrameSaver()
+    {
+        return mFrameSaver;
+    }
+
+    /**
+     * Called by the camera when this source is created (or reopened), with the
+     * saver set by IStillSequenceCamera.setFrameSaver() - or null
+     */
+    public void setFrameSaver(FrameSaver frameSaver)
+    {
+        mFrameSaver = frameSaver;
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized (mLock) {
+            if (mClosed)
+                return;
+            mClosed = true;
+
+            for (int n = 0; n < mBorrowedCount; n++) {
+                mPool.giveBack(mFormat, mWidth, mHeight, mBorrowed[n]);
+                mBorrowed[n] = null;
+            }
+            mBorrowedCount = 0;
+        }
+
+        onClose();
+    }
+
+    /**
+     * Makes a closed source usable again, for sources that are recycled rather
+     * than re-created for every frame (e.g. the wrappers of a fixed ring of
+     * camera buffers). Clears the thumbnail, sharpness, detection image and
+     * recorded frame.
+     */
+    protected void reopen()
+    {
+        synchronized (mLock) {
+            if (!mClosed)
+                throw new IllegalStateException("Only a closed source can be reopened");
+            mClosed = false;
+        }
+
+        mThumbnail = null;
+        mSharpness = -1;
+        mDetectionImage = null;
+        mRecordedFrame = -1;
+    }
+
+    /**
+     * Called (once) when the source is closed, after the borrowed buffers have been returned.
+     */
+    protected abstract void onClose();
+}
@@ -0,0 +1,72 @@
+package dk.schaumburgit.stillsequencecamera;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Estimates how sharp (i.e. how little motion- or focus-blurred) a frame is,
+ * cheaply enough to do it in the capture thread for every frame.
+ *
+ * The measure is the variance of the Laplacian (4*c - left - right - up - down)
+ * of a 2x subsampled luminance image, sampled on a grid of roughly
+ * GRID_WIDTH x GRID_HEIGHT points: sharp edges (like barcode bars) give large
+ * Laplacian values, blur smears them out.
+ *
+ * The absolute value depends on the scene (a blank wall is never "sharp"),
+ * so thresholds should be found by experiment for a given setup.
+ *
+ * Not thread safe: the row buffers are reused between calls.
+ */
+public class SharpnessMeter
+{
+    private static final int SCALE = 2;
+    private static final int GRID_WIDTH = 128;
+    private static final int GRID_HEIGHT = 96;
+
+    private byte[] mAbove = null;
+    private byte[] mRow = null;
+    private byte[] mBelow = null;
+
+    /**
+     * The Laplacian variance of the source - or 0 if the source is too
+     * small to measure.
+     */
+    public double measure(LuminanceSource source)
+    {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width < 2 * SCALE + 1 || height < 2 * SCALE + 1)
+            return 0;
+
+        if (mRow == null || mRow.length < width) {
+            mAbove = new byte[width];
+            mRow = new byte[width];
+            mBelow = new byte[width];
+        }
+
+        int stepX = Math.max(1, (width - 2 * SCALE) / GRID_WIDTH);
+        int stepY = Math.max(1, (height - 2 * SCALE) / GRID_HEIGHT);
+
+        long sum = 0;
+        long sumOfSquares = 0;
+        int count = 0;
+        for (int y = SCALE; y < height - SCALE; y += stepY) {
+            byte[] above = source.getRow(y - SCALE, mAbove);
+            byte[] row = source.getRow(y, mRow);
+            byte[] below = source.getRow(y + SCALE, mBelow);
+
+            for (int x = SCALE; x < width - SCALE; x += stepX) {
+                int laplacian = 4 * (row[x] & 0xff)
+                        - (row[x - SCALE] & 0xff)
+                        - (row[x + SCALE] & 0xff)
+                        - (above[x] & 0xff)
+                        - (below[x] & 0xff);
+                sum += laplacian;
+                sumOfSquares += laplacian * laplacian;
+                count++;
+            }
+        }
+
+        double mean = (double) sum / count;
+        return (double) sumOfSquares / count - mean * mean;
+    }
+}
@@ -1,39 +1,83 @@
 package dk.schaumburgit.stillsequencecamera.camera;
 
-import android.hardware.Camera;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
 
-import dk.schaumburgit.stillsequencecamera.ISource;
+import dk.schaumburgit.stillsequencecamera.FrameBufferPool;
+import dk.schaumburgit.stillsequencecamera.FrameSaver;
+import dk.schaumburgit.stillsequencecamera.PooledSource;
 
 /**
  * Created by Thomas on 17-04-2018.
+ *
+ * The ISource wrapper around one of the preview buffers in the ring of a
+ * PreviewBufferManager. The wrapper belongs to its buffer for good: it is
+ * reopened every time the buffer is filled by the camera, and closing it
+ * hands the buffer back to the camera.
  */
 
-class PreviewBuffer implements ISource {
-    private final Object mLock = new Object();
+class PreviewBuffer extends PooledSource {
     private final PreviewBufferManager mManager;
-    private byte[] mBuffer;
-    public PreviewBuffer(PreviewBufferManager mgr, byte[] buffer)
+    private final byte[] mBuffer;
+    private final int mFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private volatile boolean mDelivered = false;
+    private volatile int mGeneration = 0;
+
+    /**
+     * Creates the wrapper closed: it is opened when the camera has filled the buffer
+     */
+    PreviewBuffer(PreviewBufferManager mgr, byte[] buffer, FrameBufferPool pool, int format, int width, int height)
     {
+        super(pool, format, width, height, true);
         mManager = mgr;
         mBuffer = buffer;
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * The preview data - only valid until the source is closed
+     */
+    byte[] getData() {
+        return mBuffer;
+    }
+
+    /**
+     * @param generation Identifies this borrowing of the buffer, so the manager
+     *                   can ignore a close meant for an earlier one
+     */
+    void open(int generation) {
+        reopen();
+        mGeneration = generation;
+        mDelivered = false;
+    }
+
+    /**
+     * Marks the buffer as handed to the listener (for the frame statistics)
+     */
+    void markDelivered() {
+        mDelivered = true;
     }
 
     @Override
     public String save() {
-        return null;
+        return save(null);
+    }
+
+    @Override
+    public String save(Rect region) {
+        FrameSaver saver = getFrameSaver();
+        if (saver == null || mFormat != ImageFormat.NV21)
+            return null;
+
+        return saver.saveNV21(mBuffer, mWidth, mHeight, region);
     }
 
     @Override
-    public void close() {
-        byte[] buffer = null;
-        synchronized (mLock) {
-            if (mBuffer != null) {
-                buffer = mBuffer;
-                mBuffer = null;
-            }
-        }
-
-        if (buffer != null)
-            mManager._return(buffer);
+    protected void onClose() {
+        mManager._return(this, mGeneration, mDelivered);
     }
 }
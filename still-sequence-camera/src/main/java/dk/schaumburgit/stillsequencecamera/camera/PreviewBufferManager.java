@@ -2,22 +2,54 @@ package dk.schaumburgit.stillsequencecamera.camera;
 
 import android.graphics.ImageFormat;
 import android.hardware.Camera;
+import android.util.Log;
+
+import dk.schaumburgit.stillsequencecamera.FrameBufferPool;
+import dk.schaumburgit.stillsequencecamera.FrameSaver;
+import dk.schaumburgit.stillsequencecamera.FrameStatistics;
 
 /**
  * Created by Thomas on 17-04-2018.
+ *
+ * A fixed ring of preallocated preview callback buffers, each with its own
+ * (reused) PreviewBuffer wrapper.
+ *
+ * Each buffer is either free, queued with the camera (addCallbackBuffer), or
+ * borrowed by the listener - from the camera fills it, until the PreviewBuffer
+ * wrapping it is closed. Only then does it go back to the camera, so the
+ * listener can keep decoding it on another thread while the camera fills the
+ * other buffers. When all buffers are borrowed, the camera skips frames.
  */
 
 class PreviewBufferManager {
-    private Object _lock = new Object();
+    private static final String TAG = "PreviewBufferManager";
+
+    private static final int FREE = 0;
+    private static final int QUEUED = 1;
+    private static final int BORROWED = 2;
+
+    private final Object _lock = new Object();
     private final Camera mCamera;
+    private final FrameBufferPool mBufferPool;
+    private final FrameStatistics mStatistics;
     private int mPreviewFormat;
     private int mPreviewWidth;
     private int mPreviewHeight;
     private int mPreviewBufferSize;
-    public PreviewBufferManager(Camera camera)
+
+    // The ring (guarded by _lock):
+    private byte[][] mBuffers = new byte[0][];
+    private PreviewBuffer[] mWrappers = new PreviewBuffer[0];
+    private int[] mStates = new int[0];
+    private int[] mGenerations = new int[0];
+    private boolean mRunning = false;
+    private volatile FrameSaver mFrameSaver = null;
+
+    public PreviewBufferManager(Camera camera, FrameBufferPool bufferPool, FrameStatistics statistics)
     {
         mCamera = camera;
-
+        mBufferPool = bufferPool;
+        mStatistics = statistics;
     }
 
     public void setup(int previewFormat, int previewWidth, int previewHeight) {
@@ -28,35 +60,139 @@ class PreviewBufferManager {
         mPreviewBufferSize = (mPreviewWidth * mPreviewHeight * bitsPerPixel) / 8;
     }
 
-    private int buffersCurrentlyAllocated = 0;
-    private int buffersCurrentlyBorrowed = 0;
+    /**
+     * Hands all free buffers in a ring of nBuffers to the camera - (re)allocating
+     * the ring first if its depth or the preview size has changed.
+     */
     public void start(int nBuffers) {
-        int nBufs = 3;
+        synchronized (_lock) {
+            if (mBuffers.length != nBuffers || (nBuffers > 0 && mBuffers[0].length != mPreviewBufferSize))
+                allocateRing(nBuffers);
+
+            mRunning = true;
+            for (int n = 0; n < mBuffers.length; n++) {
+                if (mStates[n] == FREE) {
+                    mStates[n] = QUEUED;
+                    mCamera.addCallbackBuffer(mBuffers[n]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the buffers back from the camera. The camera must already have
+     * dropped its buffer queue (setPreviewCallbackWithBuffer(null)). Borrowed
+     * buffers stay with the listener until closed.
+     */
+    public void stop() {
+        synchronized (_lock) {
+            mRunning = false;
+            for (int n = 0; n < mStates.length; n++) {
+                if (mStates[n] == QUEUED)
+                    mStates[n] = FREE;
+            }
+        }
+    }
+
+    private void allocateRing(int nBuffers)
+    {
+        // Any buffer still borrowed from the old ring is simply forgotten
+        // (its wrapper won't find itself in the new ring):
+        mBuffers = new byte[nBuffers][];
+        mWrappers = new PreviewBuffer[nBuffers];
+        mStates = new int[nBuffers];
+        mGenerations = new int[nBuffers];
         for (int n = 0; n < nBuffers; n++) {
-            allocateBuffer();
+            mBuffers[n] = new byte[mPreviewBufferSize];
+            mWrappers[n] = new PreviewBuffer(this, mBuffers[n], mBufferPool, mPreviewFormat, mPreviewWidth, mPreviewHeight);
+            mStates[n] = FREE;
         }
     }
 
-    private void allocateBuffer()
+    private int slotOf(byte[] buffer)
     {
-        mCamera.addCallbackBuffer(new byte[mPreviewBufferSize]);
-        synchronized (_lock) {
-            buffersCurrentlyAllocated++;
+        for (int n = 0; n < mBuffers.length; n++) {
+            if (mBuffers[n] == buffer)
+                return n;
         }
+        return -1;
     }
 
+    /**
+     * Called when the camera has filled the buffer: returns its (reopened)
+     * wrapper, which hands the buffer back to the camera when closed - or null
+     * if the buffer isn't from the current ring.
+     */
     public PreviewBuffer borrow(byte[] buffer)
     {
+        PreviewBuffer wrapper;
+        int generation;
         synchronized (_lock) {
-            buffersCurrentlyBorrowed++;
+            int slot = slotOf(buffer);
+            if (slot < 0 || mStates[slot] != QUEUED) {
+                Log.w(TAG, "Received a preview buffer that isn't queued in the ring");
+                return null;
+            }
+            mStates[slot] = BORROWED;
+            generation = ++mGenerations[slot];
+            wrapper = mWrappers[slot];
         }
-        return new PreviewBuffer(this, buffer);
+
+        wrapper.open(generation);
+        wrapper.setFrameSaver(mFrameSaver);
+        return wrapper;
+    }
+
+    /**
+     * Sets the saver the wrappers hand their buffers to when saved - or null
+     */
+    public void setFrameSaver(FrameSaver frameSaver)
+    {
+        mFrameSaver = frameSaver;
     }
 
-    void _return(byte[] buffer) {
-        mCamera.addCallbackBuffer(buffer);
+    /**
+     * Called when the camera delivered a buffer that will not be used: queues it
+     * with the camera again (or frees it, if stopped).
+     */
+    public void discard(byte[] buffer)
+    {
         synchronized (_lock) {
-            buffersCurrentlyBorrowed--;
+            int slot = slotOf(buffer);
+            if (slot < 0)
+                return;
+            requeue(slot);
+        }
+    }
+
+    /**
+     * Called when a wrapper is closed: hands its buffer back to the camera -
+     * unless the close belongs to an earlier borrowing of the buffer (see
+     * PreviewBuffer.open()) or to a buffer of an older ring.
+     */
+    void _return(PreviewBuffer wrapper, int generation, boolean delivered) {
+        synchronized (_lock) {
+            for (int n = 0; n < mWrappers.length; n++) {
+                if (mWrappers[n] == wrapper) {
+                    if (mStates[n] != BORROWED || mGenerations[n] != generation)
+                        return;
+                    requeue(n);
+                    break;
+                }
+            }
+        }
+
+        if (delivered && mStatistics != null)
+            mStatistics.onReleased();
+    }
+
+    private void requeue(int slot)
+    {
+        if (mRunning) {
+            mStates[slot] = QUEUED;
+            mCamera.addCallbackBuffer(mBuffers[slot]);
+        } else {
+            mStates[slot] = FREE;
         }
     }
 }
@@ -1,20 +1,73 @@
 package dk.schaumburgit.stillsequencecamera.camera;
 
+import android.graphics.Rect;
+
+import com.google.zxing.LuminanceSource;
+
+import dk.schaumburgit.stillsequencecamera.FrameSaver;
 import dk.schaumburgit.stillsequencecamera.ISource;
+import dk.schaumburgit.stillsequencecamera.LuminanceThumbnail;
 
 /**
  * Created by Thomas on 12-04-2018.
  */
 
 public class SourceJPEG implements ISource {
+    private final byte[] mJpegData;
+    private final int mWidth;
+    private final int mHeight;
+    private final FrameSaver mFrameSaver;
+
     public SourceJPEG(byte[] jpegData, int width, int height) {
+        this(jpegData, width, height, null);
+    }
+
+    /**
+     * @param frameSaver The saver save() hands the JPEG data to - or null
+     */
+    public SourceJPEG(byte[] jpegData, int width, int height, FrameSaver frameSaver) {
+        mJpegData = jpegData;
+        mWidth = width;
+        mHeight = height;
+        mFrameSaver = frameSaver;
     }
 
     @Override
     public String save() {
+        if (mFrameSaver == null)
+            return null;
+
+        return mFrameSaver.saveJpeg(mJpegData, mWidth, mHeight);
+    }
+
+    /**
+     * JPEG data is saved as it is - the region is ignored
+     */
+    @Override
+    public String save(Rect region) {
+        return save();
+    }
+
+    @Override
+    public LuminanceThumbnail getThumbnail() {
         return null;
     }
 
+    @Override
+    public double getSharpness() {
+        return -1;
+    }
+
+    @Override
+    public LuminanceSource getDetectionImage() {
+        return null;
+    }
+
+    @Override
+    public long getRecordedFrame() {
+        return -1;
+    }
+
     @Override
     public void close() {
 
@@ -2,27 +2,38 @@ package dk.schaumburgit.stillsequencecamera.camera;
 
 import android.app.Activity;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
 import android.hardware.Camera.PictureCallback;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
 import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 
-import dk.schaumburgit.stillsequencecamera.ISource;
 import dk.schaumburgit.stillsequencecamera.IStillSequenceCamera;
 import dk.schaumburgit.stillsequencecamera.CaptureFormatInfo;
+import dk.schaumburgit.stillsequencecamera.FrameBufferPool;
+import dk.schaumburgit.stillsequencecamera.FrameSaver;
+import dk.schaumburgit.stillsequencecamera.FrameStatistics;
+import dk.schaumburgit.stillsequencecamera.LuminanceDecoder;
+import dk.schaumburgit.stillsequencecamera.LuminanceThumbnail;
+import dk.schaumburgit.stillsequencecamera.SharpnessMeter;
 import dk.schaumburgit.stillsequencecamera.imageformats.ImageConverter;
 import dk.schaumburgit.stillsequencecamera.imageformats.LuminanceSourceFactory;
+import dk.schaumburgit.stillsequencecamera.replay.FlightRecorder;
 
 /**
  * Created by Thomas Schaumburg on 08-12-2015.
@@ -38,10 +49,17 @@ public class StillSequenceCamera implements IStillSequenceCamera {
     private int mPreviewHeight;
     private Camera mCamera;
     private PreviewBufferManager mBufferManager;
+    private final FrameBufferPool mBufferPool = new FrameBufferPool();
+    private final LuminanceDecoder mLuminanceDecoder = new LuminanceDecoder();
+    private final SharpnessMeter mSharpnessMeter = new SharpnessMeter(); // (preview callback thread only)
+    private final FrameStatistics mFrameStatistics = new FrameStatistics();
     private final Activity mActivity;
     private final int mMinPixels;
+    private final int mPreviewBuffers;
     private final SurfaceView mPreview;
     private IStillSequenceCamera.OnImageAvailableListener mImageListener = null;
+    private volatile FlightRecorder mFlightRecorder = null;
+    private volatile FrameSaver mFrameSaver = null;
     private Handler mCallbackHandler;
     private final static int CLOSED = 0;
     private final static int INITIALIZED = 1;
@@ -57,6 +75,7 @@ public class StillSequenceCamera implements IStillSequenceCamera {
         mState = CLOSED;
 
         this.mMinPixels = (camOptions.minPixels < 1024*768) ? (1024*768) : camOptions.minPixels;
+        this.mPreviewBuffers = camOptions.previewBuffers;
 
         // Open a camera:
         int chosenCameraId = -1;
@@ -78,9 +97,18 @@ public class StillSequenceCamera implements IStillSequenceCamera {
         mCameraId = chosenCameraId;
 
         // Open a camera:
-        mCamera = Camera.open(mCameraId);
-        mBufferManager = new PreviewBufferManager(mCamera);
+        openCamera();
+    }
 
+    /**
+     * Opens the chosen camera - in the constructor, and again when setup() is
+     * called after close() (e.g. to capture in another format).
+     */
+    private void openCamera()
+    {
+        mCamera = Camera.open(mCameraId);
+        mBufferManager = new PreviewBufferManager(mCamera, mBufferPool, mFrameStatistics);
+        mBufferManager.setFrameSaver(mFrameSaver);
     }
 
     @Override
@@ -89,6 +117,23 @@ public class StillSequenceCamera implements IStillSequenceCamera {
         return  pictureSize.width / pictureSize.height;
     }
 
+    @Override
+    public String getCameraId() {
+        return String.valueOf(mCameraId);
+    }
+
+    @Override
+    public List<Size> getOutputSizes(int imageFormat) {
+        List<Size> res = new ArrayList<Size>();
+        if (!mCamera.getParameters().getSupportedPictureFormats().contains(imageFormat))
+            return res;
+
+        for (android.hardware.Camera.Size size : mCamera.getParameters().getSupportedPictureSizes())
+            res.add(new Size(size.width, size.height));
+
+        return res;
+    }
+
     @Override
     public List<CaptureFormatInfo> getSupportedImageFormats(double relativeDevicePerformance) {
         List<CaptureFormatInfo> res = new ArrayList<CaptureFormatInfo>();
@@ -169,6 +214,7 @@ public class StillSequenceCamera implements IStillSequenceCamera {
      * The #start() method can be called immediately when this method returns
      *
      * If setup() returns successfully, the StillSequenceCamera enters the INITIALIZED state.
+     * After close(), the camera is opened again.
      *
      * @throws IllegalStateException         if the StillSequenceCamera is in any but the CLOSED state
      * @throws UnsupportedOperationException if no back-facing camera is available
@@ -179,7 +225,10 @@ public class StillSequenceCamera implements IStillSequenceCamera {
     public void setup(int format, int imageWidth, int imageHeight)
             throws UnsupportedOperationException, IllegalStateException {
         if (mState != CLOSED)
-            throw new IllegalStateException("StillSequenceCamera.setup() can only be called on a new instance");
+            throw new IllegalStateException("StillSequenceCamera.setup() can only be called in the CLOSED state");
+
+        if (mCamera == null)
+            openCamera();
 
         mImageFormat = format;
         mImageWidth = imageWidth;
@@ -211,6 +260,7 @@ public class StillSequenceCamera implements IStillSequenceCamera {
         mPreviewHeight = previewSize.height;
 
         mBufferManager.setup(mPreviewFormat, mPreviewWidth, mPreviewHeight);
+        mBufferPool.setup(mPreviewFormat, mPreviewWidth, mPreviewHeight, 2 * mPreviewBuffers);
 
         mState = INITIALIZED;
     }
@@ -362,40 +412,87 @@ public class StillSequenceCamera implements IStillSequenceCamera {
 
         mContinueTakingPictures = true;
 
-        mBufferManager.start(3);
+        mBufferManager.start(mPreviewBuffers);
 
         final Camera.PreviewCallback frameHandler =
                 new Camera.PreviewCallback() {
                     @Override
                     public void onPreviewFrame(byte[] data, Camera camera) {
-                        Log.i(TAG, "Received preview frame (format=" + mPreviewFormat + ")");
+                        Log.v(TAG, "Received preview frame (format=" + mPreviewFormat + ")");
 
                         if (!mContinueTakingPictures) {
                             mCamera.setPreviewCallbackWithBuffer(null);
+                            mBufferManager.discard(data);
                             return;
                         }
 
-                        ISource source = mBufferManager.borrow(data);
-                        try {
+                        mFrameStatistics.onProduced();
+                        Handler callbackHandler = mCallbackHandler;
+                        if (mImageListener == null || callbackHandler == null) {
+                            mBufferManager.discard(data);
+                            return;
+                        }
+
+                        // The buffer stays out of the camera's hands until the
+                        // listener closes the source:
+                        final PreviewBuffer source = mBufferManager.borrow(data);
+                        if (source == null)
+                            return;
+                        mFrameStatistics.onAcquired();
 
-                            final BinaryBitmap bitmap = ImageConverter.DecodeData(mPreviewFormat, mPreviewWidth, mPreviewHeight, data);
+                        // (Both YUV preview formats start with the Y-plane:)
+                        FlightRecorder recorder = mFlightRecorder;
+                        if (recorder != null && (mPreviewFormat == ImageFormat.NV21 || mPreviewFormat == ImageFormat.YV12))
+                            source.setRecordedFrame(recorder.record(
+                                    new PlanarYUVLuminanceSource(data, mPreviewWidth, mPreviewHeight, 0, 0, mPreviewWidth, mPreviewHeight, false)
+                            ));
 
-                            if (mImageListener == null) {
-                                mCamera.addCallbackBuffer(data);
-                                return;
+                        final BinaryBitmap bitmap;
+                        try {
+                            long convertStart = SystemClock.elapsedRealtimeNanos();
+                            LuminanceSource luminance = mLuminanceDecoder.decodePreview(data, mPreviewFormat, mPreviewWidth, mPreviewHeight, source);
+                            bitmap = (luminance != null)
+                                    ? new BinaryBitmap(new HybridBinarizer(luminance))
+                                    : ImageConverter.DecodeData(mPreviewFormat, mPreviewWidth, mPreviewHeight, data);
+                            mFrameStatistics.onConverted(SystemClock.elapsedRealtimeNanos() - convertStart);
+
+                            // For skipping unchanged and blurred frames (there
+                            // is no luminance to sample in the odd preview
+                            // formats the decoder leaves to ImageConverter):
+                            if (luminance != null) {
+                                source.setThumbnail(LuminanceThumbnail.create(luminance));
+                                source.setSharpness(mSharpnessMeter.measure(luminance));
                             }
+                        } catch (Exception e) {
+                            Log.e(TAG, "Error extracting image", e);
+                            mFrameStatistics.onDropped();
+                            source.close();
+                            return;
+                        }
 
-                            mCallbackHandler.post(
-                                    new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            mImageListener.onImageAvailable(null /*new SourceJPEG(jpegData, size.width, size.height)*/, bitmap);
+                        final long queuedAt = SystemClock.elapsedRealtimeNanos();
+                        callbackHandler.post(
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        OnImageAvailableListener listener = mImageListener;
+                                        if (listener == null) {
+                                            mFrameStatistics.onDropped();
+                                            source.close();
+                                            return;
+                                        }
+
+                                        source.markDelivered();
+                                        mFrameStatistics.onDelivered(SystemClock.elapsedRealtimeNanos() - queuedAt);
+                                        try {
+                                            listener.onImageAvailable(source, bitmap);
+                                        } catch (Exception e) {
+                                            Log.e(TAG, "Error handling image", e);
+                                            source.close();
                                         }
                                     }
-                            );
-                        } finally {
-                            source.close();
-                        }
+                                }
+                        );
                     }
                 };
 
@@ -417,6 +514,9 @@ public class StillSequenceCamera implements IStillSequenceCamera {
 
     private void stopTakingPicturesUsingPreview() {
         mContinueTakingPictures = false;
+        if (mCamera != null)
+            mCamera.setPreviewCallbackWithBuffer(null); // drops the camera's buffer queue
+        mBufferManager.stop();
     }
 
 /*
@@ -481,6 +581,42 @@ public class StillSequenceCamera implements IStillSequenceCamera {
     }
 */
 
+    @Override
+    public FrameBufferPool getBufferPool() {
+        return mBufferPool;
+    }
+
+    @Override
+    public void setFrameSaver(FrameSaver frameSaver) {
+        mFrameSaver = frameSaver;
+        mBufferManager.setFrameSaver(frameSaver);
+    }
+
+    @Override
+    public void setFlightRecorder(FlightRecorder flightRecorder) {
+        mFlightRecorder = flightRecorder;
+    }
+
+    @Override
+    public FrameStatistics getFrameStatistics() {
+        return mFrameStatistics;
+    }
+
+    @Override
+    public long getLastExposureNanos() {
+        return -1;
+    }
+
+    @Override
+    public int getLastSensitivity() {
+        return -1;
+    }
+
+    @Override
+    public void setRegionOfInterest(Rect region) {
+        // The legacy camera always focuses and meters on the whole frame
+    }
+
     @Override
     public boolean isLockFocus() {
         return mLockFocus;
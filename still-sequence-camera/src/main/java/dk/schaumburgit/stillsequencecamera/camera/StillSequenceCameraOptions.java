@@ -4,6 +4,11 @@ import android.view.SurfaceView;
 
 /**
  * Created by Thomas on 06-02-2018.
+ *
+ * previewBuffers is the depth of the ring of preview callback buffers: the
+ * number of frames that can be queued with the camera or decoding at the same
+ * time. Deeper rings let capture and decoding overlap more, at the cost of a
+ * full preview frame of memory per buffer.
  */
 
 public class StillSequenceCameraOptions
@@ -18,10 +23,19 @@ public class StillSequenceCameraOptions
     public final SurfaceView preview;
     public final Facing facing = Facing.Back;
     public final int minPixels;// = 1024*768;
-    public StillSequenceCameraOptions(SurfaceView preview, int minPixels)
+    public final int previewBuffers;
+    public StillSequenceCameraOptions(SurfaceView preview, int minPixels, int previewBuffers)
     {
+        if (previewBuffers < 1)
+            throw new IllegalArgumentException("previewBuffers must be at least 1");
+
         this.preview = preview;
         this.minPixels = minPixels;
+        this.previewBuffers = previewBuffers;
+    }
+    public StillSequenceCameraOptions(SurfaceView preview, int minPixels)
+    {
+        this(preview, minPixels, 3);
     }
     public StillSequenceCameraOptions(SurfaceView preview)
     {
@@ -29,10 +43,14 @@ public class StillSequenceCameraOptions
     }
     public StillSequenceCameraOptions clone(int minPixels)
     {
-        return new StillSequenceCameraOptions(this.preview, minPixels);
+        return new StillSequenceCameraOptions(this.preview, minPixels, this.previewBuffers);
     }
     public StillSequenceCameraOptions clone(SurfaceView preview)
     {
-        return new StillSequenceCameraOptions(preview, this.minPixels);
+        return new StillSequenceCameraOptions(preview, this.minPixels, this.previewBuffers);
+    }
+    public StillSequenceCameraOptions cloneBuffers(int previewBuffers)
+    {
+        return new StillSequenceCameraOptions(this.preview, this.minPixels, previewBuffers);
     }
 }
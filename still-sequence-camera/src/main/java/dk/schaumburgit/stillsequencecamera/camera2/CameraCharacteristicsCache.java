@@ -0,0 +1,65 @@
+package dk.schaumburgit.stillsequencecamera.camera2;
+
+import android.annotation.TargetApi;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A process-wide cache of the CameraCharacteristics (and the stream
+ * configuration map derived from them) of each camera.
+ *
+ * Querying the characteristics is an IPC to the camera service, and reading
+ * the stream map unmarshals a sizeable chunk of metadata - and both are
+ * needed several times while a scanner is being set up. Neither ever changes
+ * for a given camera, so we only do it once per process.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class CameraCharacteristicsCache
+{
+    private static final Map<String, CameraCharacteristics> sCharacteristics = new HashMap<String, CameraCharacteristics>();
+    private static final Map<String, StreamConfigurationMap> sStreamMaps = new HashMap<String, StreamConfigurationMap>();
+
+    static CameraCharacteristics get(CameraManager manager, String cameraId) throws CameraAccessException
+    {
+        synchronized (sCharacteristics) {
+            CameraCharacteristics cached = sCharacteristics.get(cameraId);
+            if (cached != null)
+                return cached;
+        }
+
+        // Not holding the lock during the IPC - worst case we query twice:
+        CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+        synchronized (sCharacteristics) {
+            sCharacteristics.put(cameraId, characteristics);
+        }
+
+        return characteristics;
+    }
+
+    /**
+     * The SCALER_STREAM_CONFIGURATION_MAP of the camera (null if not available)
+     */
+    static StreamConfigurationMap getStreamMap(CameraManager manager, String cameraId) throws CameraAccessException
+    {
+        synchronized (sStreamMaps) {
+            StreamConfigurationMap cached = sStreamMaps.get(cameraId);
+            if (cached != null)
+                return cached;
+        }
+
+        StreamConfigurationMap map = get(manager, cameraId).get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map != null) {
+            synchronized (sStreamMaps) {
+                sStreamMaps.put(cameraId, map);
+            }
+        }
+
+        return map;
+    }
+}
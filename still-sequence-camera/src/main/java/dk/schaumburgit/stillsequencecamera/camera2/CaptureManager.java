@@ -11,12 +11,16 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.MeteringRectangle;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Range;
 import android.util.Size;
@@ -24,14 +28,24 @@ import android.util.SparseIntArray;
 import android.view.Surface;
 
 import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
 import dk.schaumburgit.stillsequencecamera.CaptureFormatInfo;
+import dk.schaumburgit.stillsequencecamera.FrameBufferPool;
+import dk.schaumburgit.stillsequencecamera.FrameSaver;
+import dk.schaumburgit.stillsequencecamera.FrameStatistics;
 import dk.schaumburgit.stillsequencecamera.IStillSequenceCamera;
+import dk.schaumburgit.stillsequencecamera.LuminanceDecoder;
+import dk.schaumburgit.stillsequencecamera.LuminanceThumbnail;
+import dk.schaumburgit.stillsequencecamera.SharpnessMeter;
 import dk.schaumburgit.stillsequencecamera.imageformats.LuminanceSourceFactory;
+import dk.schaumburgit.stillsequencecamera.replay.FlightRecorder;
 
 import static dk.schaumburgit.stillsequencecamera.imageformats.ImageConverter.DecodeImage;
 
@@ -46,17 +60,55 @@ public class CaptureManager {
     private final Activity mActivity;
     private final PreviewManager mPreview;
     private final int mMinPixels;
+    private final int mDetectionPixels;
+    private final CaptureProfile mCaptureProfile;
+    private final FrameQueueOptions mFrameQueue;
+    private final FrameBufferPool mBufferPool;
+    private final FrameStatistics mFrameStatistics = new FrameStatistics();
+    private volatile FrameSaver mFrameSaver = null;
+    private volatile FlightRecorder mFlightRecorder = null;
 
     // Set by setup(), freed by close():
     private ImageReader mImageReader;
+    private ImageReader mDetectionReader;
 
     // Set by start(), cleared by stop():
     private IStillSequenceCamera.OnImageAvailableListener mImageListener = null;
     private CameraCaptureSession mCameraCaptureSession;
     private CaptureRequest mStillCaptureRequest = null;
+    private CaptureRequest.Builder mCaptureBuilder = null;
+    private ExposureController mExposureController = null;
+    private ImageDispatcher mDispatcher = null;
 
 
-    public CaptureManager(Activity activity, PreviewManager preview, int minPixels)
+    public CaptureManager(Activity activity, PreviewManager preview, int minPixels, FrameBufferPool bufferPool)
+    {
+        this(activity, preview, minPixels, 0, bufferPool);
+    }
+
+    /**
+     * @param detectionPixels If > 0, a low-resolution YUV stream of at least this
+     *                        many pixels is captured alongside the main stream
+     */
+    public CaptureManager(Activity activity, PreviewManager preview, int minPixels, int detectionPixels, FrameBufferPool bufferPool)
+    {
+        this(activity, preview, minPixels, detectionPixels, new CaptureProfile(), bufferPool);
+    }
+
+    /**
+     * @param captureProfile The template, frame rate and processing settings
+     *                       used for the repeating capture request
+     */
+    public CaptureManager(Activity activity, PreviewManager preview, int minPixels, int detectionPixels, CaptureProfile captureProfile, FrameBufferPool bufferPool)
+    {
+        this(activity, preview, minPixels, detectionPixels, captureProfile, new FrameQueueOptions(), bufferPool);
+    }
+
+    /**
+     * @param frameQueue The ImageReader depth and the policy for dropping images
+     *                   when the listener can't keep up
+     */
+    public CaptureManager(Activity activity, PreviewManager preview, int minPixels, int detectionPixels, CaptureProfile captureProfile, FrameQueueOptions frameQueue, FrameBufferPool bufferPool)
     {
         if (activity==null)
             throw new NullPointerException("CaptureManager requires an Activity");
@@ -67,6 +119,10 @@ public class CaptureManager {
         if (minPixels < 1024*768)
             minPixels = 1024*768;
         this.mMinPixels = minPixels;
+        this.mDetectionPixels = detectionPixels;
+        this.mCaptureProfile = (captureProfile == null) ? new CaptureProfile() : captureProfile;
+        this.mFrameQueue = (frameQueue == null) ? new FrameQueueOptions() : frameQueue;
+        this.mBufferPool = bufferPool;
     }
 
     public long minExposureInNanos(String cameraId)
@@ -77,8 +133,7 @@ public class CaptureManager {
             CameraManager manager = (CameraManager) mActivity.getSystemService(Context.CAMERA_SERVICE);
 
             final Range<Integer>[] fpsRanges =
-                    manager
-                            .getCameraCharacteristics(cameraId)
+                    CameraCharacteristicsCache.get(manager, cameraId)
                             .get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
 
             int maxFps = 0;
@@ -116,8 +171,7 @@ public class CaptureManager {
         try {
             CameraManager manager = (CameraManager) mActivity.getSystemService(Context.CAMERA_SERVICE);
 
-            Rect sensorPixels = manager
-                    .getCameraCharacteristics(cameraId)
+            Rect sensorPixels = CameraCharacteristicsCache.get(manager, cameraId)
                     .get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
             Log.v(TAG, "Sensor is " + sensorPixels.width() + " x " + sensorPixels.height());
 
@@ -143,9 +197,7 @@ public class CaptureManager {
         try {
             CameraManager manager = (CameraManager) mActivity.getSystemService(Context.CAMERA_SERVICE);
 
-            StreamConfigurationMap map = manager
-                    .getCameraCharacteristics(cameraId)
-                    .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            StreamConfigurationMap map = CameraCharacteristicsCache.getStreamMap(manager, cameraId);
 
             if (map == null) {
                 throw new UnsupportedOperationException("Insufficient camera info available");
@@ -200,6 +252,27 @@ public class CaptureManager {
         return null;
     }
 
+    /**
+     * The output sizes supported for the given format
+     */
+    public List<Size> getOutputSizes(String cameraId, int format) {
+        List<Size> res = new ArrayList<Size>();
+        try {
+            CameraManager manager = (CameraManager) mActivity.getSystemService(Context.CAMERA_SERVICE);
+
+            StreamConfigurationMap map = CameraCharacteristicsCache.getStreamMap(manager, cameraId);
+
+            Size[] sizes = (map == null) ? null : map.getOutputSizes(format);
+            if (sizes != null)
+                res.addAll(Arrays.asList(sizes));
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            // Not a valid output format
+        }
+
+        return res;
+    }
 
     public void setup(String cameraId, int outputFormat, int imageWidth, int imageHeight) {
         try {
@@ -240,12 +313,40 @@ public class CaptureManager {
 
             // Set up the still image reader:
             // ==============================
+            if (mImageReader != null) {
+                mImageReader.setOnImageAvailableListener(null, null);
+                mImageReader.close();
+                mImageReader = null;
+            }
             mImageReader = ImageReader.newInstance(
                     imageWidth,
                     imageHeight,
                     outputFormat,
-                    /*maxImages*/4
+                    mFrameQueue.maxImages
             );
+
+            // Every image in flight may hold a couple of conversion buffers:
+            if (mBufferPool != null)
+                mBufferPool.setup(outputFormat, imageWidth, imageHeight, 2 * mFrameQueue.maxImages);
+
+            // Set up the low-resolution detection reader (if requested):
+            // ===========================================================
+            if (mDetectionReader != null) {
+                mDetectionReader.close();
+                mDetectionReader = null;
+            }
+            Size detectionSize = (mDetectionPixels > 0) ? chooseDetectionSize(cameraId, imageWidth, imageHeight) : null;
+            if (detectionSize != null) {
+                Log.v(TAG, "Detection stream is " + detectionSize.getWidth() + " x " + detectionSize.getHeight());
+                mDetectionReader = ImageReader.newInstance(
+                        detectionSize.getWidth(),
+                        detectionSize.getHeight(),
+                        ImageFormat.YUV_420_888,
+                        mFrameQueue.maxImages
+                );
+            } else if (mDetectionPixels > 0) {
+                Log.w(TAG, "No suitable size for a detection stream - capturing without one");
+            }
         //} catch (CameraAccessException e) {
         //    e.printStackTrace();
         } catch (NullPointerException e) {
@@ -256,6 +357,45 @@ public class CaptureManager {
         }
     }
 
+    /**
+     * The smallest YUV_420_888 output size with at least mDetectionPixels pixels and
+     * the same aspect ratio as the main stream - or null if there is none smaller
+     * than the main stream itself.
+     */
+    private Size chooseDetectionSize(String cameraId, int imageWidth, int imageHeight)
+    {
+        try {
+            CameraManager manager = (CameraManager) mActivity.getSystemService(Context.CAMERA_SERVICE);
+            StreamConfigurationMap map = CameraCharacteristicsCache.getStreamMap(manager, cameraId);
+            if (map == null)
+                return null;
+
+            Size best = null;
+            for (Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+                long pixels = (long) size.getWidth() * size.getHeight();
+                if (pixels < mDetectionPixels || pixels >= (long) imageWidth * imageHeight)
+                    continue;
+                if ((long) size.getWidth() * imageHeight != (long) size.getHeight() * imageWidth)
+                    continue;
+                if (best == null || new CompareSizesByArea().compare(size, best) < 0)
+                    best = size;
+            }
+
+            return best;
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * The surface of the low-resolution detection stream - or null if there is none
+     */
+    public Surface getDetectionSurface()
+    {
+        return (mDetectionReader == null) ? null : mDetectionReader.getSurface();
+    }
+
     public Surface getSurface()
     {
         if (mImageReader == null)
@@ -286,88 +426,418 @@ public class CaptureManager {
         mInternalCaptureThread.start();
         mInternalCaptureHandler = new Handler(mInternalCaptureThread.getLooper());
 
+        final ImageDispatcher dispatcher = new ImageDispatcher(callbackHandler, listener, mFrameQueue.queueDepth);
+        mDispatcher = dispatcher;
+
         mImageReader.setOnImageAvailableListener(
                 new ImageReader.OnImageAvailableListener() {
 
                     @Override
                     public void onImageAvailable(ImageReader reader) {
-                        Image image = reader.acquireLatestImage();
-                        if (image != null) {
-                            sendImageAvailable(image);
+                        if (mFrameQueue.dropPolicy == FrameQueueOptions.DropPolicy.Block) {
+                            // Leave the image in the reader if the queue is full:
+                            drainReader(reader, dispatcher);
+                            return;
                         }
+
+                        Image image = (mFrameQueue.dropPolicy == FrameQueueOptions.DropPolicy.LatestWins)
+                                ? acquireLatestImage(reader)
+                                : acquireNextImage(reader);
+                        if (image != null)
+                            dispatchImage(image, dispatcher);
                     }
+                },
+                mInternalCaptureHandler
+        );
 
-                    private Image mLatestImage = null;
+        if (mDetectionReader != null) {
+            mDetectionReader.setOnImageAvailableListener(
+                    new ImageReader.OnImageAvailableListener() {
 
-                    private synchronized Image getLatestImage() {
-                        Image image = mLatestImage;
-                        mLatestImage = null;
-                        return image;
-                    }
+                        @Override
+                        public void onImageAvailable(ImageReader reader) {
+                            Image image = acquireLatestImage(reader);
+                            if (image != null)
+                                dispatcher.detectionImageAvailable(image);
+                        }
+                    },
+                    mInternalCaptureHandler
+            );
+        }
 
-                    private synchronized void setLatestImage(Image image) {
-                        if (mLatestImage != null)
-                            mLatestImage.close();
-                        mLatestImage = image;
-                    }
+        configureRequest(cameraDevice);
+    }
 
-                    private void sendImageAvailable(Image image) {
-                        // begin protected region
-                        setLatestImage(image);
-                        // end protected region
+    private void dispatchImage(Image image, ImageDispatcher dispatcher) {
+        mFrameStatistics.onAcquired();
+        if (mRealtimeTimestamps)
+            mFrameStatistics.onCaptured(SystemClock.elapsedRealtimeNanos() - image.getTimestamp());
 
-                        if (listener == null) {
-                            image.close();
-                            return;
-                        }
+        if (mDetectionReader == null)
+            dispatcher.send(image, null);
+        else
+            dispatcher.imageAvailable(image);
+    }
 
-                        if (image == null) {
-                            return;
-                        }
+    /**
+     * Takes images from the reader (in order) for as long as there is room in
+     * the dispatcher queue (DropPolicy.Block). Runs on the capture thread.
+     */
+    private void drainReader(ImageReader reader, ImageDispatcher dispatcher) {
+        while (!dispatcher.isFull()) {
+            Image image = acquireNextImage(reader);
+            if (image == null)
+                return;
+            dispatchImage(image, dispatcher);
+        }
+    }
 
-                        callbackHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                // begin protected region
-                                Image image = getLatestImage();
-                                // end protected region
-
-                                if (image == null) {
-                                    return;
-                                }
-
-                                IStillSequenceCamera.OnImageAvailableListener listener = mImageListener;
-                                if (listener == null) {
-                                    image.close();
-                                    return;
-                                }
-
-                                final BinaryBitmap bitmap = DecodeImage(image);
-
-                                try {
-                                    listener.onImageAvailable(new SourceImage(image), bitmap);
-                                } catch (Exception e) {
-                                    Log.e(TAG, "Error extracting image", e);
-                                } finally {
-                                    image.close();
-                                }
-                            }
-                        });
-                    }
-                },
-                mInternalCaptureHandler
-        );
+    /**
+     * Called (on the callback thread) when an image has been taken off the
+     * dispatcher queue - with DropPolicy.Block, the images left waiting in the
+     * reader can now be taken in.
+     */
+    private void onQueueSpaceAvailable(final ImageDispatcher dispatcher) {
+        if (mFrameQueue.dropPolicy != FrameQueueOptions.DropPolicy.Block)
+            return;
 
-        configureRequest(cameraDevice);
+        Handler handler = mInternalCaptureHandler;
+        final ImageReader reader = mImageReader;
+        if (handler == null || reader == null)
+            return;
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mDispatcher == dispatcher)
+                    drainReader(reader, dispatcher);
+            }
+        });
+    }
+
+    private static Image acquireNextImage(ImageReader reader) {
+        try {
+            return reader.acquireNextImage();
+        } catch (IllegalStateException e) {
+            // All maxImages are still being decoded downstream:
+            Log.v(TAG, "Image left in reader: no free ImageReader slots");
+            return null;
+        }
+    }
+
+    private static Image acquireLatestImage(ImageReader reader) {
+        try {
+            return reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            // All maxImages are still being decoded downstream
+            // - we'll have to skip this one:
+            Log.v(TAG, "Dropped image: no free ImageReader slots");
+            return null;
+        }
+    }
+
+    /**
+     * Hands the captured images over to the listener on the callback thread,
+     * through a queue of (at most) queueDepth images - when it is full, the
+     * oldest waiting image is dropped (see FrameQueueOptions.DropPolicy).
+     *
+     * With a detection stream, each full-resolution image is first paired with
+     * the detection image from the same capture (i.e. with the same timestamp).
+     * A full-resolution image whose detection image went missing is sent on
+     * its own, a detection image without a full-resolution partner is dropped.
+     */
+    private class ImageDispatcher {
+        private final Handler mCallbackHandler;
+        private final IStillSequenceCamera.OnImageAvailableListener mListener;
+
+        // Only touched on the capture thread:
+        private Image mPendingImage = null;
+        private Image mPendingDetection = null;
+        private final SharpnessMeter mSharpnessMeter = new SharpnessMeter();
+
+        // Handed over from the capture thread to the callback thread
+        // (a ring buffer, guarded by this):
+        private final Image[] mQueuedImages;
+        private final Image[] mQueuedDetections;
+        private final long[] mQueuedAt;
+        private final LuminanceThumbnail[] mQueuedThumbnails;
+        private final double[] mQueuedSharpness;
+        private int mQueueHead = 0;
+        private int mQueueCount = 0;
+
+        ImageDispatcher(Handler callbackHandler, IStillSequenceCamera.OnImageAvailableListener listener, int queueDepth) {
+            mCallbackHandler = callbackHandler;
+            mListener = listener;
+            mQueuedImages = new Image[queueDepth];
+            mQueuedDetections = new Image[queueDepth];
+            mQueuedAt = new long[queueDepth];
+            mQueuedThumbnails = new LuminanceThumbnail[queueDepth];
+            mQueuedSharpness = new double[queueDepth];
+        }
+
+        void imageAvailable(Image image) {
+            if (mPendingImage != null) {
+                // Its detection image never arrived:
+                send(mPendingImage, null);
+            }
+            mPendingImage = image;
+            pair();
+        }
+
+        void detectionImageAvailable(Image detection) {
+            if (mPendingDetection != null)
+                mPendingDetection.close();
+            mPendingDetection = detection;
+            pair();
+        }
+
+        private void pair() {
+            if (mPendingImage == null || mPendingDetection == null)
+                return;
+
+            long imageTime = mPendingImage.getTimestamp();
+            long detectionTime = mPendingDetection.getTimestamp();
+            if (imageTime == detectionTime) {
+                send(mPendingImage, mPendingDetection);
+                mPendingImage = null;
+                mPendingDetection = null;
+            } else if (detectionTime < imageTime) {
+                // Its full-resolution image was dropped:
+                mPendingDetection.close();
+                mPendingDetection = null;
+            } else {
+                // The detection image for the pending image was dropped:
+                send(mPendingImage, null);
+                mPendingImage = null;
+            }
+        }
+
+        /**
+         * Whether taking in another image would push one out of the queue
+         * (counting the image waiting for its detection image). Only called on
+         * the capture thread.
+         */
+        synchronized boolean isFull() {
+            int waiting = mQueueCount + (mPendingImage != null ? 1 : 0);
+            return waiting >= mQueuedImages.length;
+        }
+
+        private synchronized void enqueue(Image image, Image detection, LuminanceThumbnail thumbnail, double sharpness) {
+            if (mQueueCount == mQueuedImages.length) {
+                dropOldest();
+            }
+
+            int tail = (mQueueHead + mQueueCount) % mQueuedImages.length;
+            mQueuedImages[tail] = image;
+            mQueuedDetections[tail] = detection;
+            mQueuedAt[tail] = SystemClock.elapsedRealtimeNanos();
+            mQueuedThumbnails[tail] = thumbnail;
+            mQueuedSharpness[tail] = sharpness;
+            mQueueCount++;
+        }
+
+        private void dropOldest() {
+            mQueuedImages[mQueueHead].close();
+            if (mQueuedDetections[mQueueHead] != null)
+                mQueuedDetections[mQueueHead].close();
+            mQueuedImages[mQueueHead] = null;
+            mQueuedDetections[mQueueHead] = null;
+            mQueuedThumbnails[mQueueHead] = null;
+            mQueueHead = (mQueueHead + 1) % mQueuedImages.length;
+            mQueueCount--;
+            mFrameStatistics.onDropped();
+        }
+
+        void send(Image image, Image detection) {
+            if (mListener == null) {
+                image.close();
+                if (detection != null)
+                    detection.close();
+                mFrameStatistics.onDropped();
+                return;
+            }
+
+            // The thumbnail and sharpness are measured here, on the capture
+            // thread, leaving the callback thread free for decoding:
+            LuminanceThumbnail thumbnail = null;
+            double sharpness = -1;
+            LuminanceSource luminance = measurableLuminance(image, detection);
+            if (luminance != null) {
+                thumbnail = LuminanceThumbnail.create(luminance);
+                sharpness = mSharpnessMeter.measure(luminance);
+            }
+
+            enqueue(image, detection, thumbnail, sharpness);
+            mCallbackHandler.post(mDeliverNext);
+        }
+
+        // Posted once per queued image - finding the queue empty if
+        // the image was dropped in the meantime:
+        private final Runnable mDeliverNext = new Runnable() {
+            @Override
+            public void run() {
+                Image image;
+                Image detection;
+                long queuedAt;
+                LuminanceThumbnail thumbnail;
+                double sharpness;
+                // begin protected region
+                synchronized (ImageDispatcher.this) {
+                    if (mQueueCount == 0)
+                        return;
+
+                    image = mQueuedImages[mQueueHead];
+                    detection = mQueuedDetections[mQueueHead];
+                    queuedAt = mQueuedAt[mQueueHead];
+                    thumbnail = mQueuedThumbnails[mQueueHead];
+                    sharpness = mQueuedSharpness[mQueueHead];
+                    mQueuedImages[mQueueHead] = null;
+                    mQueuedDetections[mQueueHead] = null;
+                    mQueuedThumbnails[mQueueHead] = null;
+                    mQueueHead = (mQueueHead + 1) % mQueuedImages.length;
+                    mQueueCount--;
+                }
+                // end protected region
+
+                onQueueSpaceAvailable(ImageDispatcher.this);
+
+                IStillSequenceCamera.OnImageAvailableListener listener = mImageListener;
+                if (listener == null) {
+                    image.close();
+                    if (detection != null)
+                        detection.close();
+                    mFrameStatistics.onDropped();
+                    return;
+                }
+
+                // From here on, the images are owned by the source
+                // (and closed when the listener closes the source):
+                SourceImage source = new SourceImage(image, detection, mBufferPool, mFrameStatistics);
+                source.setFrameSaver(mFrameSaver);
+                source.setThumbnail(thumbnail);
+                source.setSharpness(sharpness);
+                mFrameStatistics.onDelivered(SystemClock.elapsedRealtimeNanos() - queuedAt);
+                try {
+                    long convertStart = SystemClock.elapsedRealtimeNanos();
+                    final BinaryBitmap bitmap = toBinaryBitmap(image, detection, source);
+                    mFrameStatistics.onConverted(SystemClock.elapsedRealtimeNanos() - convertStart);
+                    listener.onImageAvailable(source, bitmap);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error extracting image", e);
+                    source.close();
+                }
+            }
+        };
+
+        /**
+         * Closes any images not yet handed over. Must only be called once the
+         * capture thread has stopped.
+         */
+        void close() {
+            if (mPendingImage != null)
+                mPendingImage.close();
+            if (mPendingDetection != null)
+                mPendingDetection.close();
+            mPendingImage = null;
+            mPendingDetection = null;
+            synchronized (this) {
+                while (mQueueCount > 0)
+                    dropOldest();
+            }
+        }
+    }
+
+    // Only used for JPEG images without a detection image, which can't be
+    // measured before they are decoded on the callback thread:
+    private final SharpnessMeter mJpegSharpnessMeter = new SharpnessMeter();
+    private final LuminanceDecoder mLuminanceDecoder = new LuminanceDecoder();
+
+    /**
+     * The luminance the thumbnail and sharpness of a captured image are
+     * measured on: the Y-plane of YUV images, else that of the detection image
+     * (if any) - cheaper, but note that sharpness values then refer to the
+     * lower resolution. Null for JPEG images without a detection image.
+     */
+    private static LuminanceSource measurableLuminance(Image image, Image detection)
+    {
+        if (isYuv(image))
+            return new YPlaneLuminanceSource(image);
+        if (detection != null)
+            return new YPlaneLuminanceSource(detection);
+
+        return null;
+    }
+
+    private static boolean isYuv(Image image)
+    {
+        switch (image.getFormat()) {
+            case ImageFormat.YUV_420_888:
+            case ImageFormat.YUV_422_888:
+            case ImageFormat.YUV_444_888:
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * YUV images are scanned straight from their Y-plane (no copying, no chroma),
+     * JPEG images are decoded into a luminance buffer borrowed from the source's
+     * pool, everything else goes through the generic ImageConverter.
+     *
+     * The thumbnail and sharpness have already been measured on the capture
+     * thread (see measurableLuminance) - except for JPEG images without a
+     * detection image, which are measured here, once decoded.
+     */
+    private BinaryBitmap toBinaryBitmap(Image image, Image detection, SourceImage source)
+    {
+        LuminanceSource detectionLuminance = null;
+        if (detection != null) {
+            detectionLuminance = new YPlaneLuminanceSource(detection);
+            source.setDetectionImage(detectionLuminance);
+        }
+
+        if (isYuv(image)) {
+            YPlaneLuminanceSource luminance = new YPlaneLuminanceSource(image);
+            record(source, luminance);
+            return new BinaryBitmap(new HybridBinarizer(luminance));
+        }
+
+        if (detectionLuminance != null)
+            record(source, detectionLuminance);
+
+        if (image.getFormat() == ImageFormat.JPEG) {
+            LuminanceSource luminance = mLuminanceDecoder.decodeJpeg(image.getPlanes()[0].getBuffer(), source);
+            if (luminance != null) {
+                if (detectionLuminance == null) {
+                    source.setThumbnail(LuminanceThumbnail.create(luminance));
+                    source.setSharpness(mJpegSharpnessMeter.measure(luminance));
+                    record(source, luminance);
+                }
+                return new BinaryBitmap(new HybridBinarizer(luminance));
+            }
+        }
+
+        return DecodeImage(image);
+    }
+
+    private void record(SourceImage source, LuminanceSource luminance)
+    {
+        FlightRecorder recorder = mFlightRecorder;
+        if (recorder != null)
+            source.setRecordedFrame(recorder.record(luminance));
     }
 
     private void configureRequest(CameraDevice cameraDevice)
     {
         try {
-            // This is the CaptureRequest.Builder that we use to take a picture.
-            final CaptureRequest.Builder captureBuilder =
-                    cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            // This is the CaptureRequest.Builder that we use to take a picture
+            // (kept, so we can update the repeating request as we go along):
+            final CaptureRequest.Builder captureBuilder = createRequestBuilder(cameraDevice);
+            mCaptureBuilder = captureBuilder;
             captureBuilder.addTarget(mImageReader.getSurface());
+            if (mDetectionReader != null)
+                captureBuilder.addTarget(mDetectionReader.getSurface());
             if (mPreview != null)
                 captureBuilder.addTarget(mPreview.getSurface());
 
@@ -377,29 +847,442 @@ public class CaptureManager {
             captureBuilder.set(CaptureRequest.CONTROL_AE_MODE,
                     CaptureRequest.CONTROL_AE_MODE_ON);
 
+            applyCaptureProfile(cameraDevice.getId(), captureBuilder);
+
             // Orientation
             //int rotation = mActivity.getWindowManager().getDefaultDisplay().getRotation();
             //captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, ORIENTATIONS.get(rotation));
 
-            mStillCaptureRequest = captureBuilder.build();
-
             //captureNext();
-            mCameraCaptureSession.setRepeatingRequest(
-                    mStillCaptureRequest,
-                    new CameraCaptureSession.CaptureCallback (){
-                        @Override
-                        public void onCaptureSequenceCompleted(CameraCaptureSession session, int sequenceId, long frameNumber) {
-                            super.onCaptureSequenceCompleted(session, sequenceId, frameNumber);
-                            {
-                            }
-                        }
-                    },
-                    mInternalCaptureHandler);
+            updateRepeatingRequest();
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * (Re)starts the repeating request from the current state of mCaptureBuilder.
+     */
+    private void updateRepeatingRequest()
+    {
+        CameraCaptureSession session = mCameraCaptureSession;
+        if (session == null || mCaptureBuilder == null)
+            return;
+
+        try {
+            mStillCaptureRequest = mCaptureBuilder.build();
+            session.setRepeatingRequest(mStillCaptureRequest, mCaptureCallback, mInternalCaptureHandler);
         } catch (CameraAccessException e) {
             e.printStackTrace();
+        } catch (IllegalStateException e) {
+            // The session was closed under us - we're stopping anyway
+        }
+    }
+
+    //*********************************************************************
+    //* Per-frame capture results (on the capture thread):
+    //*********************************************************************
+    private volatile long mLastExposureNanos = -1;
+    private volatile int mLastSensitivity = -1;
+    private volatile boolean mRealtimeTimestamps = false;
+
+    /**
+     * Whether the image timestamps use the elapsedRealtimeNanos() clock, so
+     * the capture latency can be measured
+     */
+    private static boolean hasRealtimeTimestamps(CameraCharacteristics characteristics)
+    {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
+            return false;
+
+        Integer timestampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        return timestampSource != null && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+    }
+
+    private final CameraCaptureSession.CaptureCallback mCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
+            super.onCaptureCompleted(session, request, result);
+            mFrameCount++;
+            mFrameStatistics.onProduced();
+
+            Long exposure = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+            if (exposure != null)
+                mLastExposureNanos = exposure;
+            Integer sensitivity = result.get(CaptureResult.SENSOR_SENSITIVITY);
+            if (sensitivity != null)
+                mLastSensitivity = sensitivity;
+
+            ExposureController exposureController = mExposureController;
+            if (exposureController != null && exposureController.onCaptureCompleted(result)) {
+                exposureController.apply(mCaptureBuilder);
+                updateRepeatingRequest();
+            }
+        }
+    };
+
+    /**
+     * Sets the saver the delivered sources hand their images to when saved - or null
+     */
+    public void setFrameSaver(FrameSaver frameSaver)
+    {
+        mFrameSaver = frameSaver;
+    }
+
+    /**
+     * Sets the recorder the luminance of the captured images is recorded in - or null
+     */
+    public void setFlightRecorder(FlightRecorder flightRecorder)
+    {
+        mFlightRecorder = flightRecorder;
+    }
+
+    /**
+     * The produced/dropped/delivered frame counts and queue wait times
+     */
+    public FrameStatistics getFrameStatistics()
+    {
+        return mFrameStatistics;
+    }
+
+    /**
+     * The exposure time of the latest captured frame (or -1 if unknown)
+     */
+    public long getLastExposureNanos()
+    {
+        return mLastExposureNanos;
+    }
+
+    /**
+     * The sensitivity (ISO) of the latest captured frame (or -1 if unknown)
+     */
+    public int getLastSensitivity()
+    {
+        return mLastSensitivity;
+    }
+
+    /**
+     * Whether the exposure time is currently being capped (see CaptureProfile.maxExposureNanos)
+     */
+    public boolean isCappingExposure()
+    {
+        ExposureController exposureController = mExposureController;
+        return exposureController != null && exposureController.isCapping();
+    }
+
+    //*********************************************************************
+    //* Metering and focus regions:
+    //*********************************************************************
+    private Rect mActiveArray = null;
+    private int mMaxAfRegions = 0;
+    private int mMaxAeRegions = 0;
+    private MeteringRectangle[] mDefaultAfRegions = null;
+    private MeteringRectangle[] mDefaultAeRegions = null;
+    private Rect mMeteringRegion = null;
+
+    /**
+     * Tells the capture where in the images the barcode is (in the coordinates of
+     * the images delivered by this CaptureManager) - or null for "nowhere in
+     * particular".
+     *
+     * If the capture profile says so, the auto-focus and auto-exposure regions
+     * are moved onto it (CaptureProfile.meterOnBarcode), and the capture zooms
+     * in on it once it has been tracked steadily (CaptureProfile.maxZoom).
+     * Small movements are ignored, to avoid restarting the repeating request on
+     * every frame.
+     *
+     * May be called from any thread.
+     */
+    public void setRegionOfInterest(final Rect imageRect)
+    {
+        if (!mCaptureProfile.meterOnBarcode && mCaptureProfile.maxZoom <= 1)
+            return;
+
+        Handler handler = mInternalCaptureHandler;
+        if (handler == null)
+            return;
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Right after a zoom change, the region may well have been found
+                // in an image captured with the previous crop region - so we
+                // can't tell where it is on the sensor:
+                if (imageRect != null && mFrameCount < mSettledAtFrame)
+                    return;
+
+                boolean changed = false;
+                if (mCaptureProfile.meterOnBarcode)
+                    changed |= applyMeteringRegion(imageRect);
+                if (mCaptureProfile.maxZoom > 1)
+                    changed |= applyZoom(imageRect);
+
+                if (changed)
+                    updateRepeatingRequest();
+            }
+        });
+    }
+
+    private boolean applyMeteringRegion(Rect imageRect)
+    {
+        if (mCaptureBuilder == null || mImageReader == null || mActiveArray == null)
+            return false;
+        if (mMaxAfRegions <= 0 && mMaxAeRegions <= 0)
+            return false;
+
+        Rect sensorRect = null;
+        if (imageRect != null)
+            sensorRect = SensorRegions.toSensor(imageRect, getCropRegion(), mImageReader.getWidth(), mImageReader.getHeight());
+
+        if (!SensorRegions.differSignificantly(mMeteringRegion, sensorRect))
+            return false;
+        mMeteringRegion = sensorRect;
+
+        if (sensorRect == null) {
+            if (mMaxAfRegions > 0)
+                mCaptureBuilder.set(CaptureRequest.CONTROL_AF_REGIONS, mDefaultAfRegions);
+            if (mMaxAeRegions > 0)
+                mCaptureBuilder.set(CaptureRequest.CONTROL_AE_REGIONS, mDefaultAeRegions);
+        } else {
+            MeteringRectangle[] regions = new MeteringRectangle[]{
+                    new MeteringRectangle(sensorRect, MeteringRectangle.METERING_WEIGHT_MAX)
+            };
+            if (mMaxAfRegions > 0)
+                mCaptureBuilder.set(CaptureRequest.CONTROL_AF_REGIONS, regions);
+            if (mMaxAeRegions > 0)
+                mCaptureBuilder.set(CaptureRequest.CONTROL_AE_REGIONS, regions);
+        }
+
+        Log.v(TAG, "Metering region " + sensorRect);
+        return true;
+    }
+
+    //*********************************************************************
+    //* Zooming in on the barcode (all on the capture thread):
+    //*********************************************************************
+    // Consecutive steady sightings before zooming in:
+    private static final int STABLE_HITS = 5;
+    // Size of the crop region relative to the barcode:
+    private static final double ZOOM_RELATIVE_SIZE = 3.0;
+    // Frames to ignore regions for after a zoom change (the camera pipeline
+    // plus the images queued up for decoding):
+    private static final int ZOOM_SETTLE_FRAMES = 8;
+
+    private float mMaxZoom = 1;
+    private Rect mCropRegion = null;
+    private Rect mTrackedRegion = null;
+    private int mStableHits = 0;
+    private long mFrameCount = 0;
+    private long mSettledAtFrame = 0;
+
+    private boolean applyZoom(Rect imageRect)
+    {
+        if (mCaptureBuilder == null || mImageReader == null || mActiveArray == null || mMaxZoom <= 1)
+            return false;
+
+        int imageWidth = mImageReader.getWidth();
+        int imageHeight = mImageReader.getHeight();
+
+        if (imageRect == null) {
+            // Lost it - back to the full field of view:
+            mTrackedRegion = null;
+            mStableHits = 0;
+            return mCropRegion != null && setCropRegion(null);
+        }
+
+        Rect sensorRect = SensorRegions.toSensor(imageRect, getCropRegion(), imageWidth, imageHeight);
+        if (sensorRect == null)
+            return false;
+
+        if (mTrackedRegion != null && !SensorRegions.differSignificantly(mTrackedRegion, sensorRect))
+            mStableHits++;
+        else
+            mStableHits = 1;
+        mTrackedRegion = sensorRect;
+
+        if (mStableHits < STABLE_HITS)
+            return false;
+
+        Rect crop = SensorRegions.zoomRegion(sensorRect, mActiveArray, imageWidth, imageHeight, ZOOM_RELATIVE_SIZE, mMaxZoom);
+        if (!SensorRegions.differSignificantly(SensorRegions.visibleRegion(getCropRegion(), imageWidth, imageHeight), crop))
+            return false;
+
+        return setCropRegion(crop);
+    }
+
+    private boolean setCropRegion(Rect crop)
+    {
+        mCropRegion = crop;
+        mCaptureBuilder.set(CaptureRequest.SCALER_CROP_REGION, crop == null ? mActiveArray : crop);
+        mSettledAtFrame = mFrameCount + ZOOM_SETTLE_FRAMES;
+
+        Log.v(TAG, "Crop region " + crop);
+        return true;
+    }
+
+    /**
+     * The region of the sensor active array currently being captured
+     */
+    private Rect getCropRegion()
+    {
+        return mCropRegion != null ? mCropRegion : mActiveArray;
+    }
+
+    private CaptureRequest.Builder createRequestBuilder(CameraDevice cameraDevice) throws CameraAccessException
+    {
+        try {
+            return cameraDevice.createCaptureRequest(mCaptureProfile.template.intValue);
+        } catch (IllegalArgumentException e) {
+            // Not all devices support all templates (e.g. zero shutter lag):
+            Log.w(TAG, "Capture template " + mCaptureProfile.template + " not supported - using Still");
+            return cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
         }
     }
 
+    /**
+     * Applies the frame rate and processing overrides from the capture profile
+     * - as far as the camera supports them.
+     */
+    private void applyCaptureProfile(String cameraId, CaptureRequest.Builder captureBuilder) throws CameraAccessException
+    {
+        CameraManager manager = (CameraManager) mActivity.getSystemService(Context.CAMERA_SERVICE);
+        CameraCharacteristics characteristics = CameraCharacteristicsCache.get(manager, cameraId);
+
+        mActiveArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        mRealtimeTimestamps = hasRealtimeTimestamps(characteristics);
+        Integer maxAfRegions = characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AF);
+        Integer maxAeRegions = characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AE);
+        mMaxAfRegions = maxAfRegions == null ? 0 : maxAfRegions;
+        mMaxAeRegions = maxAeRegions == null ? 0 : maxAeRegions;
+        mDefaultAfRegions = captureBuilder.get(CaptureRequest.CONTROL_AF_REGIONS);
+        mDefaultAeRegions = captureBuilder.get(CaptureRequest.CONTROL_AE_REGIONS);
+        mMeteringRegion = null;
+
+        Float maxDigitalZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+        mMaxZoom = Math.min(mCaptureProfile.maxZoom, maxDigitalZoom == null ? 1 : maxDigitalZoom);
+        mCropRegion = null;
+        mTrackedRegion = null;
+        mStableHits = 0;
+
+        mExposureController = null;
+        if (mCaptureProfile.maxExposureNanos > 0) {
+            if (contains(characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES), CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_MANUAL_SENSOR)) {
+                mExposureController = new ExposureController(
+                        mCaptureProfile.maxExposureNanos,
+                        characteristics.get(CameraCharacteristics.SENSOR_INFO_SENSITIVITY_RANGE)
+                );
+            } else if (mCaptureProfile.minFps <= 0 && mCaptureProfile.maxFps <= 0) {
+                // No manual control - but the exposure can't be longer than the frame:
+                Range<Integer> fpsRange = chooseMinFpsRange(
+                        characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES),
+                        (int) Math.ceil(1000000000.0 / mCaptureProfile.maxExposureNanos)
+                );
+                if (fpsRange != null) {
+                    Log.v(TAG, "No manual sensor control - capping exposure by AE target fps range " + fpsRange);
+                    captureBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+                } else {
+                    Log.w(TAG, "Cannot cap the exposure time on this camera");
+                }
+            }
+        }
+
+        if (mCaptureProfile.aeCompensation != 0) {
+            Range<Integer> compensationRange = characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_RANGE);
+            int compensation = mCaptureProfile.aeCompensation;
+            if (compensationRange != null)
+                compensation = Math.max(compensationRange.getLower(), Math.min(compensationRange.getUpper(), compensation));
+            captureBuilder.set(CaptureRequest.CONTROL_AE_EXPOSURE_COMPENSATION, compensation);
+        }
+
+        if (mCaptureProfile.minFps > 0 || mCaptureProfile.maxFps > 0) {
+            Range<Integer> fpsRange = chooseFpsRange(
+                    characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES),
+                    mCaptureProfile.minFps,
+                    mCaptureProfile.maxFps
+            );
+            if (fpsRange != null) {
+                Log.v(TAG, "AE target fps range " + fpsRange);
+                captureBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+            }
+        }
+
+        if (mCaptureProfile.noiseReductionMode >= 0) {
+            if (contains(characteristics.get(CameraCharacteristics.NOISE_REDUCTION_AVAILABLE_NOISE_REDUCTION_MODES), mCaptureProfile.noiseReductionMode))
+                captureBuilder.set(CaptureRequest.NOISE_REDUCTION_MODE, mCaptureProfile.noiseReductionMode);
+            else
+                Log.w(TAG, "Noise reduction mode " + mCaptureProfile.noiseReductionMode + " not supported");
+        }
+
+        if (mCaptureProfile.edgeMode >= 0) {
+            if (contains(characteristics.get(CameraCharacteristics.EDGE_AVAILABLE_EDGE_MODES), mCaptureProfile.edgeMode))
+                captureBuilder.set(CaptureRequest.EDGE_MODE, mCaptureProfile.edgeMode);
+            else
+                Log.w(TAG, "Edge mode " + mCaptureProfile.edgeMode + " not supported");
+        }
+    }
+
+    /**
+     * The supported fps range closest to [minFps, maxFps] (0 meaning "any")
+     */
+    private Range<Integer> chooseFpsRange(Range<Integer>[] fpsRanges, int minFps, int maxFps)
+    {
+        if (fpsRanges == null)
+            return null;
+
+        Range<Integer> best = null;
+        int bestDistance = Integer.MAX_VALUE;
+        for (Range<Integer> fpsRange : fpsRanges) {
+            int lower = fixAndroidFpsBug(fpsRange.getLower());
+            int upper = fixAndroidFpsBug(fpsRange.getUpper());
+
+            int distance = 0;
+            if (minFps > 0)
+                distance += Math.abs(lower - minFps);
+            if (maxFps > 0)
+                distance += Math.abs(upper - maxFps);
+
+            if (distance < bestDistance) {
+                best = fpsRange;
+                bestDistance = distance;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * The supported fps range with the lowest lower bound that is still at least
+     * minFps - or null if there is none.
+     */
+    private Range<Integer> chooseMinFpsRange(Range<Integer>[] fpsRanges, int minFps)
+    {
+        if (fpsRanges == null)
+            return null;
+
+        Range<Integer> best = null;
+        for (Range<Integer> fpsRange : fpsRanges) {
+            int lower = fixAndroidFpsBug(fpsRange.getLower());
+            if (lower < minFps)
+                continue;
+            if (best == null || lower < fixAndroidFpsBug(best.getLower()))
+                best = fpsRange;
+        }
+
+        return best;
+    }
+
+    private static boolean contains(int[] values, int value)
+    {
+        if (values == null)
+            return false;
+
+        for (int v : values)
+            if (v == value)
+                return true;
+
+        return false;
+    }
+
     public void stop()
     {
         if (mInternalCaptureThread != null) {
@@ -419,7 +1302,20 @@ public class CaptureManager {
         if (null != mImageReader) {
             mImageReader.setOnImageAvailableListener(null, null);
         }
+        if (null != mDetectionReader) {
+            mDetectionReader.setOnImageAvailableListener(null, null);
+        }
+        if (mDispatcher != null) {
+            mDispatcher.close();
+            mDispatcher = null;
+        }
         mStillCaptureRequest = null;
+        mCaptureBuilder = null;
+        mExposureController = null;
+        mMeteringRegion = null;
+        mCropRegion = null;
+        mTrackedRegion = null;
+        mStableHits = 0;
         mCameraCaptureSession = null;
     }
 
@@ -430,6 +1326,11 @@ public class CaptureManager {
             mImageReader.close();
             mImageReader = null;
         }
+        if (mDetectionReader != null) {
+            mDetectionReader.setOnImageAvailableListener(null, null);
+            mDetectionReader.close();
+            mDetectionReader = null;
+        }
     }
 
     //*********************************************************************
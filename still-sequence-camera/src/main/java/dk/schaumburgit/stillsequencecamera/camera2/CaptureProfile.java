@@ -0,0 +1,122 @@
+package dk.schaumburgit.stillsequencecamera.camera2;
+
+import android.hardware.camera2.CameraDevice;
+
+/**
+ * Settings for the repeating CaptureRequest used by CaptureManager, trading
+ * in-camera image processing against frame rate.
+ *
+ * template selects the CameraDevice template the request is built from. The
+ * still capture template (the default) often means still-capture latency and
+ * heavy noise reduction; the preview and record templates are tuned for a
+ * steady frame rate instead.
+ *
+ * minFps/maxFps select the CONTROL_AE_TARGET_FPS_RANGE closest to them among the
+ * ranges supported by the camera (0: leave it to the template).
+ *
+ * noiseReductionMode and edgeMode override the NOISE_REDUCTION_MODE and
+ * EDGE_MODE of the template (using the CameraMetadata constants, e.g.
+ * NOISE_REDUCTION_MODE_FAST) - or -1 to leave them alone. Modes not
+ * supported by the camera are ignored.
+ *
+ * maxExposureNanos > 0 caps the exposure time chosen by the auto-exposure,
+ * raising the sensitivity (ISO) to compensate - limiting the motion blur of
+ * e.g. barcodes on a conveyor belt. On cameras without manual sensor control,
+ * the cap is approximated by an AE fps range with a high enough lower bound.
+ *
+ * aeCompensation != 0 adjusts the auto-exposure target (in the camera's
+ * CONTROL_AE_COMPENSATION_STEP units) - e.g. negative values for shorter,
+ * darker exposures.
+ *
+ * meterOnBarcode makes the auto-focus and auto-exposure regions follow the
+ * barcode being tracked (see IStillSequenceCamera.setRegionOfInterest), so
+ * focus and exposure are optimized for the barcode rather than the background.
+ *
+ * maxZoom > 1 lets the capture zoom in (SCALER_CROP_REGION) on a barcode that
+ * has been tracked steadily for a while - up to maxZoom times, and never more
+ * than the camera's maximum digital zoom. The images are then delivered at
+ * the same output size, but with more pixels per barcode module. The capture
+ * goes back to the full field of view when the barcode is lost.
+ */
+public class CaptureProfile
+{
+    public enum Template
+    {
+        Still(CameraDevice.TEMPLATE_STILL_CAPTURE),
+        Preview(CameraDevice.TEMPLATE_PREVIEW),
+        Record(CameraDevice.TEMPLATE_RECORD),
+        ZeroShutterLag(CameraDevice.TEMPLATE_ZERO_SHUTTER_LAG)
+        ;
+        final int intValue;
+
+        private Template(int intValue) {
+            this.intValue = intValue;
+        }
+    }
+
+    public final Template template;
+    public final int minFps;
+    public final int maxFps;
+    public final int noiseReductionMode;
+    public final int edgeMode;
+    public final long maxExposureNanos;
+    public final int aeCompensation;
+    public final boolean meterOnBarcode;
+    public final float maxZoom;
+
+    public CaptureProfile(Template template, int minFps, int maxFps, int noiseReductionMode, int edgeMode, long maxExposureNanos, int aeCompensation, boolean meterOnBarcode, float maxZoom)
+    {
+        this.template = template;
+        this.minFps = minFps;
+        this.maxFps = maxFps;
+        this.noiseReductionMode = noiseReductionMode;
+        this.edgeMode = edgeMode;
+        this.maxExposureNanos = maxExposureNanos;
+        this.aeCompensation = aeCompensation;
+        this.meterOnBarcode = meterOnBarcode;
+        this.maxZoom = maxZoom;
+    }
+    public CaptureProfile(Template template, int minFps, int maxFps, int noiseReductionMode, int edgeMode, long maxExposureNanos, int aeCompensation, boolean meterOnBarcode)
+    {
+        this(template, minFps, maxFps, noiseReductionMode, edgeMode, maxExposureNanos, aeCompensation, meterOnBarcode, 1);
+    }
+    public CaptureProfile(Template template, int minFps, int maxFps, int noiseReductionMode, int edgeMode, long maxExposureNanos, int aeCompensation)
+    {
+        this(template, minFps, maxFps, noiseReductionMode, edgeMode, maxExposureNanos, aeCompensation, false);
+    }
+    public CaptureProfile(Template template, int minFps, int maxFps, int noiseReductionMode, int edgeMode)
+    {
+        this(template, minFps, maxFps, noiseReductionMode, edgeMode, 0, 0);
+    }
+    public CaptureProfile()
+    {
+        this(Template.Still, 0, 0, -1, -1);
+    }
+    public CaptureProfile clone(Template template)
+    {
+        if (template == null)
+            template = this.template;
+
+        return new CaptureProfile(template, this.minFps, this.maxFps, this.noiseReductionMode, this.edgeMode, this.maxExposureNanos, this.aeCompensation, this.meterOnBarcode, this.maxZoom);
+    }
+    public CaptureProfile clone(int minFps, int maxFps)
+    {
+        return new CaptureProfile(this.template, minFps, maxFps, this.noiseReductionMode, this.edgeMode, this.maxExposureNanos, this.aeCompensation, this.meterOnBarcode, this.maxZoom);
+    }
+    public CaptureProfile cloneProcessing(int noiseReductionMode, int edgeMode)
+    {
+        return new CaptureProfile(this.template, this.minFps, this.maxFps, noiseReductionMode, edgeMode, this.maxExposureNanos, this.aeCompensation, this.meterOnBarcode, this.maxZoom);
+    }
+    public CaptureProfile cloneExposure(long maxExposureNanos, int aeCompensation)
+    {
+        return new CaptureProfile(this.template, this.minFps, this.maxFps, this.noiseReductionMode, this.edgeMode, maxExposureNanos, aeCompensation, this.meterOnBarcode, this.maxZoom);
+    }
+    public CaptureProfile clone(boolean meterOnBarcode)
+    {
+        return new CaptureProfile(this.template, this.minFps, this.maxFps, this.noiseReductionMode, this.edgeMode, this.maxExposureNanos, this.aeCompensation, meterOnBarcode, this.maxZoom);
+    }
+    public CaptureProfile cloneZoom(float maxZoom)
+    {
+        return new CaptureProfile(this.template, this.minFps, this.maxFps, this.noiseReductionMode, this.edgeMode, this.maxExposureNanos, this.aeCompensation, this.meterOnBarcode, maxZoom);
+    }
+}
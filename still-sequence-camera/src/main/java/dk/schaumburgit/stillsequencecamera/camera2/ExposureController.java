@@ -0,0 +1,119 @@
+package dk.schaumburgit.stillsequencecamera.camera2;
+
+import android.annotation.TargetApi;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.os.Build;
+import android.util.Range;
+
+/**
+ * Caps the exposure time chosen by the auto-exposure, to limit motion blur
+ * (at the cost of a noisier image).
+ *
+ * The auto-exposure is left to meter the scene; whenever it settles on an
+ * exposure time longer than the cap, the controller switches to manual
+ * exposure with the time capped, and the sensitivity (ISO) raised to keep the
+ * total exposure (time x sensitivity) - as far as the sensor allows. Every
+ * REMETER_INTERVAL frames, the auto-exposure is switched back on to re-meter
+ * the scene.
+ *
+ * Requires the MANUAL_SENSOR capability. Must only be used from the capture
+ * thread.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class ExposureController
+{
+    private static final int METERING_TIMEOUT = 30;
+    private static final int REMETER_INTERVAL = 150;
+
+    private final long mMaxExposureNanos;
+    private final Range<Integer> mSensitivityRange;
+
+    private boolean mManual = false;
+    private int mFrames = 0;
+    private long mManualExposureNanos = 0;
+    private int mManualSensitivity = 0;
+
+    /**
+     * @param sensitivityRange The SENSOR_INFO_SENSITIVITY_RANGE of the camera (may be null)
+     */
+    ExposureController(long maxExposureNanos, Range<Integer> sensitivityRange)
+    {
+        mMaxExposureNanos = maxExposureNanos;
+        mSensitivityRange = sensitivityRange;
+    }
+
+    /**
+     * Called with every capture result.
+     *
+     * @return true if the exposure settings changed, so the repeating request
+     *         must be rebuilt (using apply())
+     */
+    boolean onCaptureCompleted(CaptureResult result)
+    {
+        mFrames++;
+
+        if (mManual) {
+            if (mFrames < REMETER_INTERVAL)
+                return false;
+
+            // Let the auto-exposure have another look at the scene:
+            mManual = false;
+            mFrames = 0;
+            return true;
+        }
+
+        Long exposure = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+        Integer sensitivity = result.get(CaptureResult.SENSOR_SENSITIVITY);
+        if (exposure == null || sensitivity == null)
+            return false;
+
+        if (!isSettled(result.get(CaptureResult.CONTROL_AE_STATE)) || exposure <= mMaxExposureNanos)
+            return false;
+
+        // Same total exposure, with the time capped and the gain raised instead:
+        long compensated = Math.round((double) sensitivity * exposure / mMaxExposureNanos);
+        if (mSensitivityRange != null)
+            compensated = Math.max(mSensitivityRange.getLower(), Math.min(mSensitivityRange.getUpper(), compensated));
+
+        mManualExposureNanos = mMaxExposureNanos;
+        mManualSensitivity = (int) compensated;
+        mManual = true;
+        mFrames = 0;
+        return true;
+    }
+
+    private boolean isSettled(Integer aeState)
+    {
+        if (aeState == null || mFrames >= METERING_TIMEOUT)
+            return true;
+
+        return aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED
+                || aeState == CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED
+                || aeState == CaptureResult.CONTROL_AE_STATE_LOCKED;
+    }
+
+    /**
+     * Sets the current exposure settings on the request builder
+     */
+    void apply(CaptureRequest.Builder captureBuilder)
+    {
+        if (mManual) {
+            captureBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_OFF);
+            captureBuilder.set(CaptureRequest.SENSOR_EXPOSURE_TIME, mManualExposureNanos);
+            captureBuilder.set(CaptureRequest.SENSOR_SENSITIVITY, mManualSensitivity);
+            // Shorter than possible is clamped by the camera - i.e. as fast as possible:
+            captureBuilder.set(CaptureRequest.SENSOR_FRAME_DURATION, mManualExposureNanos);
+        } else {
+            captureBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+        }
+    }
+
+    /**
+     * Whether the exposure is currently capped (i.e. set manually)
+     */
+    boolean isCapping()
+    {
+        return mManual;
+    }
+}
@@ -0,0 +1,53 @@
+package dk.schaumburgit.stillsequencecamera.camera2;
+
+/**
+ * How captured images are buffered between the camera and the listener.
+ *
+ * maxImages is the number of images each ImageReader can hold - i.e. the
+ * number of frames that can be queued up or in the hands of the listener
+ * (decoding) at the same time. When they are all in use, the camera skips
+ * frames.
+ *
+ * dropPolicy decides what happens when the images arrive faster than the
+ * listener's thread takes them:
+ *
+ * LatestWins: only the latest image waits for the listener - any older one
+ *             still waiting is dropped (lowest latency).
+ * BoundedQueue: up to queueDepth images wait for the listener, in order - the
+ *             oldest one is dropped when the queue is full.
+ * Block: up to queueDepth images wait for the listener - and while the queue
+ *             is full, no more images are taken from the ImageReader, leaving
+ *             it to the camera to hold back (no frames are dropped by us).
+ *
+ * The detection stream (if any) is always latest-wins: a detection image that
+ * can't be paired with a full-resolution image is simply discarded.
+ */
+public class FrameQueueOptions
+{
+    public enum DropPolicy
+    {
+        LatestWins,
+        BoundedQueue,
+        Block
+    }
+
+    public final int maxImages;
+    public final DropPolicy dropPolicy;
+    public final int queueDepth;
+
+    public FrameQueueOptions(int maxImages, DropPolicy dropPolicy, int queueDepth)
+    {
+        if (maxImages < 2)
+            throw new IllegalArgumentException("maxImages must be at least 2");
+        if (queueDepth < 1)
+            throw new IllegalArgumentException("queueDepth must be at least 1");
+
+        this.maxImages = maxImages;
+        this.dropPolicy = (dropPolicy == null) ? DropPolicy.LatestWins : dropPolicy;
+        this.queueDepth = (this.dropPolicy == DropPolicy.LatestWins) ? 1 : queueDepth;
+    }
+    public FrameQueueOptions()
+    {
+        this(4, DropPolicy.LatestWins, 1);
+    }
+}
@@ -8,7 +8,6 @@ import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.SensorManager;
-import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
@@ -66,9 +65,7 @@ public class PreviewManager
         mCameraId = cameraId;
         try {
             CameraManager manager = (CameraManager) mActivity.getSystemService(Context.CAMERA_SERVICE);
-            StreamConfigurationMap map = manager
-                    .getCameraCharacteristics(cameraId)
-                    .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            StreamConfigurationMap map = CameraCharacteristicsCache.getStreamMap(manager, cameraId);
 
             if (map == null) {
                 throw new UnsupportedOperationException("Insufficient camera info available");
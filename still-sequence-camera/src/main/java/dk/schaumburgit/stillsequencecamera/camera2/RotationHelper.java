@@ -39,7 +39,7 @@ class RotationHelper
     {
         try {
             CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
-            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+            CameraCharacteristics characteristics = CameraCharacteristicsCache.get(manager, cameraId);
             return characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
         } catch (android.hardware.camera2.CameraAccessException e) {
             Log.e(TAG, "CameraAccessException");
@@ -68,7 +68,7 @@ class RotationHelper
     {
         try {
             CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
-            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+            CameraCharacteristics characteristics = CameraCharacteristicsCache.get(manager, cameraId);
             int facing = characteristics.get(CameraCharacteristics.LENS_FACING);
             return facing == CameraCharacteristics.LENS_FACING_FRONT;
         } catch (android.hardware.camera2.CameraAccessException e) {
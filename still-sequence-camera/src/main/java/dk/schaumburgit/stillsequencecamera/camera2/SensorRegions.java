@@ -0,0 +1,103 @@
+package dk.schaumburgit.stillsequencecamera.camera2;
+
+import android.graphics.Rect;
+
+/**
+ * Maps between the coordinates of the captured images and the sensor
+ * active-array coordinates used by the CaptureRequest region keys
+ * (CONTROL_AF_REGIONS, CONTROL_AE_REGIONS, SCALER_CROP_REGION).
+ *
+ * The images from an ImageReader are never rotated: they are in sensor
+ * orientation, whatever the device or display rotation (RotationHelper only
+ * matters for what is shown on-screen). So the mapping is only a matter of
+ * scaling: the camera takes the crop region (the full active array unless
+ * zoomed), crops it further - centered - to the aspect ratio of the output,
+ * and scales that to the output size.
+ */
+class SensorRegions
+{
+    /**
+     * The part of the crop region (in active-array coordinates) that ends up
+     * in an output image of the given size.
+     */
+    static Rect visibleRegion(Rect cropRegion, int imageWidth, int imageHeight)
+    {
+        int cropWidth = cropRegion.width();
+        int cropHeight = cropRegion.height();
+
+        if ((long) cropWidth * imageHeight > (long) cropHeight * imageWidth) {
+            // Output is narrower than the crop region - crop the sides:
+            int visibleWidth = (int) ((long) cropHeight * imageWidth / imageHeight);
+            int left = cropRegion.left + (cropWidth - visibleWidth) / 2;
+            return new Rect(left, cropRegion.top, left + visibleWidth, cropRegion.bottom);
+        } else {
+            // Output is wider than the crop region - crop top and bottom:
+            int visibleHeight = (int) ((long) cropWidth * imageHeight / imageWidth);
+            int top = cropRegion.top + (cropHeight - visibleHeight) / 2;
+            return new Rect(cropRegion.left, top, cropRegion.right, top + visibleHeight);
+        }
+    }
+
+    /**
+     * Maps a rectangle in the coordinates of an imageWidth x imageHeight output
+     * image to active-array coordinates, clipped to the visible region.
+     */
+    static Rect toSensor(Rect imageRect, Rect cropRegion, int imageWidth, int imageHeight)
+    {
+        Rect visible = visibleRegion(cropRegion, imageWidth, imageHeight);
+        double scaleX = (double) visible.width() / imageWidth;
+        double scaleY = (double) visible.height() / imageHeight;
+
+        Rect result = new Rect(
+                visible.left + (int) Math.floor(imageRect.left * scaleX),
+                visible.top + (int) Math.floor(imageRect.top * scaleY),
+                visible.left + (int) Math.ceil(imageRect.right * scaleX),
+                visible.top + (int) Math.ceil(imageRect.bottom * scaleY)
+        );
+        if (!result.intersect(visible))
+            return null;
+
+        return result;
+    }
+
+    /**
+     * A crop region (with the aspect ratio of the output images) centered on
+     * the target, relativeSize times larger than the target - but zooming no
+     * more than maxZoom, and kept within the active array.
+     */
+    static Rect zoomRegion(Rect target, Rect activeArray, int imageWidth, int imageHeight, double relativeSize, float maxZoom)
+    {
+        Rect full = visibleRegion(activeArray, imageWidth, imageHeight);
+
+        // Big enough for the target in both directions, at the output aspect ratio:
+        double width = Math.max(target.width() * relativeSize, target.height() * relativeSize * imageWidth / imageHeight);
+        width = Math.max(width, full.width() / maxZoom);
+        width = Math.min(width, full.width());
+        double height = width * imageHeight / imageWidth;
+
+        int left = (int) Math.round(target.centerX() - width / 2);
+        int top = (int) Math.round(target.centerY() - height / 2);
+        left = Math.max(full.left, Math.min(full.right - (int) width, left));
+        top = Math.max(full.top, Math.min(full.bottom - (int) height, top));
+
+        return new Rect(left, top, left + (int) width, top + (int) height);
+    }
+
+    /**
+     * Whether two rectangles differ enough to be worth updating the capture
+     * request for: the centers more than a quarter of the size apart, or the
+     * sizes differing by more than a third.
+     */
+    static boolean differSignificantly(Rect a, Rect b)
+    {
+        if (a == null || b == null)
+            return a != b;
+
+        int size = Math.max(1, Math.max(a.width(), a.height()));
+        if (Math.abs(a.centerX() - b.centerX()) * 4 > size || Math.abs(a.centerY() - b.centerY()) * 4 > size)
+            return true;
+
+        return Math.abs(a.width() - b.width()) * 3 > Math.max(1, a.width())
+                || Math.abs(a.height() - b.height()) * 3 > Math.max(1, a.height());
+    }
+}
@@ -1,22 +1,64 @@
 package dk.schaumburgit.stillsequencecamera.camera2;
 
+import android.graphics.Rect;
 import android.media.Image;
 
-import dk.schaumburgit.stillsequencecamera.ISource;
+import dk.schaumburgit.stillsequencecamera.FrameBufferPool;
+import dk.schaumburgit.stillsequencecamera.FrameSaver;
+import dk.schaumburgit.stillsequencecamera.FrameStatistics;
+import dk.schaumburgit.stillsequencecamera.PooledSource;
 
 /**
  * Created by Thomas on 12-04-2018.
  */
 
-public class SourceImage implements ISource {
-    public SourceImage(Image image) {
+public class SourceImage extends PooledSource {
+    private final Image mImage;
+    private final Image mDetectionImage;
+    private final FrameStatistics mStatistics;
+
+    public SourceImage(Image image, FrameBufferPool pool) {
+        this(image, null, pool);
+    }
+
+    /**
+     * @param detectionImage The low-resolution image captured together with image
+     *                       (closed with the source) - or null
+     */
+    public SourceImage(Image image, Image detectionImage, FrameBufferPool pool) {
+        this(image, detectionImage, pool, null);
+    }
+
+    /**
+     * @param statistics Counts the source as released when it is closed - or null
+     */
+    public SourceImage(Image image, Image detectionImage, FrameBufferPool pool, FrameStatistics statistics) {
+        super(pool, image.getFormat(), image.getWidth(), image.getHeight());
+        mImage = image;
+        mDetectionImage = detectionImage;
+        mStatistics = statistics;
     }
 
     @Override
     public String save() {
-        return null;
+        return save(null);
     }
-    
-    public void close() {
+
+    @Override
+    public String save(Rect region) {
+        FrameSaver saver = getFrameSaver();
+        if (saver == null)
+            return null;
+
+        return saver.saveImage(mImage, region);
+    }
+
+    @Override
+    protected void onClose() {
+        mImage.close();
+        if (mDetectionImage != null)
+            mDetectionImage.close();
+        if (mStatistics != null)
+            mStatistics.onReleased();
     }
 }
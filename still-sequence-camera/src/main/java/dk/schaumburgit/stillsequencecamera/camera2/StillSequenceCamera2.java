@@ -3,6 +3,7 @@ package dk.schaumburgit.stillsequencecamera.camera2;
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Context;
+import android.graphics.Rect;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
@@ -16,13 +17,18 @@ import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import dk.schaumburgit.stillsequencecamera.CaptureFormatInfo;
+import dk.schaumburgit.stillsequencecamera.FrameBufferPool;
+import dk.schaumburgit.stillsequencecamera.FrameSaver;
+import dk.schaumburgit.stillsequencecamera.FrameStatistics;
 import dk.schaumburgit.stillsequencecamera.IStillSequenceCamera;
+import dk.schaumburgit.stillsequencecamera.replay.FlightRecorder;
 
 /**
  * Implements a fast still sequence camera using the Android
@@ -48,6 +54,7 @@ public class StillSequenceCamera2 implements IStillSequenceCamera {
     private FocusManager mFocusManager;
     private CaptureManager mImageCapture;
     private PreviewManager mPreview = null;
+    private final FrameBufferPool mBufferPool = new FrameBufferPool();
 
     private final static int CLOSED = 0;
     private final static int STOPPED = 1;
@@ -57,7 +64,7 @@ public class StillSequenceCamera2 implements IStillSequenceCamera {
     private final static int STOPPING = 5;
     private final static int FOCUSING = 6;
     private final static int ERROR = 7;
-    private int mState = CLOSED;
+    private volatile int mState = CLOSED;
     private boolean mLockFocus = true;
 
     /**
@@ -81,7 +88,7 @@ public class StillSequenceCamera2 implements IStillSequenceCamera {
         mFocusManager = new FocusManager(activity);
         if (camOptions.preview !=null)
             mPreview = new PreviewManager(activity, camOptions.preview);
-        mImageCapture = new CaptureManager(activity, mPreview, camOptions.minPixels);
+        mImageCapture = new CaptureManager(activity, mPreview, camOptions.minPixels, camOptions.detectionPixels, camOptions.captureProfile, camOptions.frameQueue, mBufferPool);
 
         mState = CLOSED;
 
@@ -93,7 +100,7 @@ public class StillSequenceCamera2 implements IStillSequenceCamera {
 
             for (String cameraId : manager.getCameraIdList()) {
                 CameraCharacteristics characteristics
-                        = manager.getCameraCharacteristics(cameraId);
+                        = CameraCharacteristicsCache.get(manager, cameraId);
 
                 // We don't use a front facing camera in this sample.
                 Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
@@ -123,6 +130,16 @@ public class StillSequenceCamera2 implements IStillSequenceCamera {
         return mImageCapture.getSupportedImageFormats(mCameraId, relativeDevicePerformance);
     }
 
+    @Override
+    public String getCameraId() {
+        return mCameraId;
+    }
+
+    @Override
+    public List<Size> getOutputSizes(int imageFormat) {
+        return mImageCapture.getOutputSizes(mCameraId, imageFormat);
+    }
+
     /**
      * Chooses a back-facing camera satisfying the requirements from the constructor (i.e. format
      * and resolution).
@@ -199,11 +216,11 @@ public class StillSequenceCamera2 implements IStillSequenceCamera {
                                 // (this may take several hundred milliseconds)
                                 mState = STARTING;
                                 Log.v(TAG, "start(): state => STARTING");
-                                List<Surface> surfaces;
+                                List<Surface> surfaces = new ArrayList<Surface>(Arrays.asList(mFocusManager.getSurface(), mImageCapture.getSurface()));
                                 if (mPreview != null)
-                                    surfaces = Arrays.asList(mFocusManager.getSurface(), mImageCapture.getSurface(), mPreview.getSurface());
-                                else
-                                    surfaces = Arrays.asList(mFocusManager.getSurface(), mImageCapture.getSurface());
+                                    surfaces.add(mPreview.getSurface());
+                                if (mImageCapture.getDetectionSurface() != null)
+                                    surfaces.add(mImageCapture.getDetectionSurface());
                                 mCameraDevice.createCaptureSession(
                                         //Arrays.asList(mFocusManager.getSurface(), mImageCapture.getSurface()),
                                         surfaces,
@@ -390,14 +407,31 @@ public class StillSequenceCamera2 implements IStillSequenceCamera {
         }).start();
     }
 
+    /**
+     * Closes the camera - stopping it first if needed, and waiting for the
+     * (asynchronous) stop to finish. The camera can be set up again afterwards,
+     * e.g. in another format.
+     */
     @Override
     public void close() {
         if (mState == CLOSED)
             return;
 
-        if (mState == CAPTURING)
+        if (mState == CAPTURING || mState == FOCUSING)
             stop();
 
+        if (mState == STOPPING) {
+            // The stop thread releases the lock once the device is closed:
+            try {
+                if (!mCameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
+                    throw new RuntimeException("Time out waiting for the camera to stop.");
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted while waiting for the camera to stop.", e);
+            }
+            mCameraOpenCloseLock.release();
+        }
+
         if (mState != STOPPED)
             throw new IllegalStateException("StillSequenceCamera2.close() can only be called in the STOPPED state");
 
@@ -407,6 +441,41 @@ public class StillSequenceCamera2 implements IStillSequenceCamera {
         mState = CLOSED;
     }
 
+    @Override
+    public FrameBufferPool getBufferPool() {
+        return mBufferPool;
+    }
+
+    @Override
+    public void setFrameSaver(FrameSaver frameSaver) {
+        mImageCapture.setFrameSaver(frameSaver);
+    }
+
+    @Override
+    public void setFlightRecorder(FlightRecorder flightRecorder) {
+        mImageCapture.setFlightRecorder(flightRecorder);
+    }
+
+    @Override
+    public FrameStatistics getFrameStatistics() {
+        return mImageCapture.getFrameStatistics();
+    }
+
+    @Override
+    public long getLastExposureNanos() {
+        return mImageCapture.getLastExposureNanos();
+    }
+
+    @Override
+    public int getLastSensitivity() {
+        return mImageCapture.getLastSensitivity();
+    }
+
+    @Override
+    public void setRegionOfInterest(Rect region) {
+        mImageCapture.setRegionOfInterest(region);
+    }
+
     @Override
     public boolean isLockFocus() {
         return mLockFocus;
@@ -4,6 +4,18 @@ import android.view.TextureView;
 
 /**
  * Created by Thomas on 06-02-2018.
+ *
+ * detectionPixels > 0 adds a second, low-resolution YUV stream of (at least)
+ * that many pixels, captured alongside every full-resolution image and made
+ * available through ISource.getDetectionImage() - so the scanner can locate
+ * the barcode in the small image, and only decode that region of the big one.
+ *
+ * captureProfile controls the capture request itself (template, frame rate,
+ * in-camera noise reduction etc.) - see CaptureProfile.
+ *
+ * frameQueue controls how many images are buffered between the camera and the
+ * scanner, and which ones are dropped when the scanner can't keep up - see
+ * FrameQueueOptions.
  */
 
 public class StillSequenceCamera2Options
@@ -24,11 +36,29 @@ public class StillSequenceCamera2Options
     public final TextureView preview;
     public final Facing facing;
     public final int minPixels;
-    public StillSequenceCamera2Options(TextureView preview, int minPixels, Facing facing)
+    public final int detectionPixels;
+    public final CaptureProfile captureProfile;
+    public final FrameQueueOptions frameQueue;
+    public StillSequenceCamera2Options(TextureView preview, int minPixels, Facing facing, int detectionPixels, CaptureProfile captureProfile, FrameQueueOptions frameQueue)
     {
         this.preview = preview;
         this.minPixels = minPixels;
         this.facing = facing;
+        this.detectionPixels = detectionPixels;
+        this.captureProfile = (captureProfile == null) ? new CaptureProfile() : captureProfile;
+        this.frameQueue = (frameQueue == null) ? new FrameQueueOptions() : frameQueue;
+    }
+    public StillSequenceCamera2Options(TextureView preview, int minPixels, Facing facing, int detectionPixels, CaptureProfile captureProfile)
+    {
+        this(preview, minPixels, facing, detectionPixels, captureProfile, null);
+    }
+    public StillSequenceCamera2Options(TextureView preview, int minPixels, Facing facing, int detectionPixels)
+    {
+        this(preview, minPixels, facing, detectionPixels, null);
+    }
+    public StillSequenceCamera2Options(TextureView preview, int minPixels, Facing facing)
+    {
+        this(preview, minPixels, facing, 0);
     }
     public StillSequenceCamera2Options(TextureView preview)
     {
@@ -36,14 +66,32 @@ public class StillSequenceCamera2Options
     }
     public StillSequenceCamera2Options clone(int minPixels)
     {
-        return new StillSequenceCamera2Options(this.preview, minPixels, this.facing);
+        return new StillSequenceCamera2Options(this.preview, minPixels, this.facing, this.detectionPixels, this.captureProfile, this.frameQueue);
     }
     public StillSequenceCamera2Options clone(TextureView preview)
     {
-        return new StillSequenceCamera2Options(preview, this.minPixels, this.facing);
+        return new StillSequenceCamera2Options(preview, this.minPixels, this.facing, this.detectionPixels, this.captureProfile, this.frameQueue);
     }
     public StillSequenceCamera2Options clone(Facing facing)
     {
-        return new StillSequenceCamera2Options(this.preview, this.minPixels, facing);
+        return new StillSequenceCamera2Options(this.preview, this.minPixels, facing, this.detectionPixels, this.captureProfile, this.frameQueue);
+    }
+    public StillSequenceCamera2Options clone(int minPixels, int detectionPixels)
+    {
+        if (minPixels < 0)
+            minPixels = this.minPixels;
+
+        if (detectionPixels < 0)
+            detectionPixels = this.detectionPixels;
+
+        return new StillSequenceCamera2Options(this.preview, minPixels, this.facing, detectionPixels, this.captureProfile, this.frameQueue);
+    }
+    public StillSequenceCamera2Options clone(CaptureProfile captureProfile)
+    {
+        return new StillSequenceCamera2Options(this.preview, this.minPixels, this.facing, this.detectionPixels, captureProfile, this.frameQueue);
+    }
+    public StillSequenceCamera2Options clone(FrameQueueOptions frameQueue)
+    {
+        return new StillSequenceCamera2Options(this.preview, this.minPixels, this.facing, this.detectionPixels, this.captureProfile, frameQueue);
     }
 }
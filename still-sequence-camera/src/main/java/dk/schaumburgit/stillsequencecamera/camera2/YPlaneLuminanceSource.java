@@ -0,0 +1,130 @@
+package dk.schaumburgit.stillsequencecamera.camera2;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+import android.os.Build;
+
+import com.google.zxing.LuminanceSource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A ZXing LuminanceSource reading the luminance values directly from the
+ * Y-plane of a YUV_420_888 (or YUV_422_888/YUV_444_888) Image.
+ *
+ * No copy of the image is made when the source is created, and the chroma
+ * planes are never touched: getRow() and getMatrix() read straight from the
+ * ByteBuffer of plane 0, honoring its row and pixel strides, and crop() simply
+ * returns a new view on the same buffer.
+ *
+ * NOTE: The source is only valid as long as the underlying Image is open -
+ * i.e. it must be consumed before the Image is closed (which happens when the
+ * ISource passed along with it is closed).
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class YPlaneLuminanceSource extends LuminanceSource {
+    private final ByteBuffer mBuffer;
+    private final int mRowStride;
+    private final int mPixelStride;
+    private final int mLeft;
+    private final int mTop;
+
+    public YPlaneLuminanceSource(Image image)
+    {
+        this(image.getPlanes()[0], image.getWidth(), image.getHeight());
+    }
+
+    public YPlaneLuminanceSource(Image.Plane yPlane, int width, int height)
+    {
+        this(yPlane.getBuffer(), yPlane.getRowStride(), yPlane.getPixelStride(), 0, 0, width, height);
+    }
+
+    /**
+     * A source reading a planar luminance image (one byte per pixel, rows
+     * rowStride bytes apart) from the start of the given buffer - e.g. the
+     * Y-plane of an NV21 frame in a memory-mapped file.
+     */
+    public YPlaneLuminanceSource(ByteBuffer buffer, int rowStride, int width, int height)
+    {
+        this(buffer, rowStride, 1, 0, 0, width, height);
+    }
+
+    private YPlaneLuminanceSource(ByteBuffer buffer, int rowStride, int pixelStride, int left, int top, int width, int height)
+    {
+        super(width, height);
+
+        if (pixelStride < 1)
+            throw new IllegalArgumentException("pixelStride must be positive");
+
+        if (rowStride < (width - 1) * pixelStride + 1)
+            throw new IllegalArgumentException("rowStride is too small for the image width");
+
+        // Our own view of the buffer, so we can move the position around without
+        // disturbing anybody else reading the same plane:
+        this.mBuffer = buffer.duplicate();
+        this.mRowStride = rowStride;
+        this.mPixelStride = pixelStride;
+        this.mLeft = left;
+        this.mTop = top;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight())
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+
+        int width = getWidth();
+        if (row == null || row.length < width)
+            row = new byte[width];
+
+        readRow(y, row, 0);
+
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        int width = getWidth();
+        int height = getHeight();
+        byte[] matrix = new byte[width * height];
+
+        // Fast path: the plane is exactly the matrix ZXing wants
+        if (mPixelStride == 1 && mRowStride == width && mLeft == 0 && mTop == 0) {
+            mBuffer.position(0);
+            mBuffer.get(matrix, 0, width * height);
+            return matrix;
+        }
+
+        for (int y = 0; y < height; y++)
+            readRow(y, matrix, y * width);
+
+        return matrix;
+    }
+
+    private void readRow(int y, byte[] dest, int destStart)
+    {
+        int width = getWidth();
+        int rowStart = (mTop + y) * mRowStride + mLeft * mPixelStride;
+
+        if (mPixelStride == 1) {
+            mBuffer.position(rowStart);
+            mBuffer.get(dest, destStart, width);
+        } else {
+            for (int x = 0, srcIndex = rowStart; x < width; x++, srcIndex += mPixelStride)
+                dest[destStart + x] = mBuffer.get(srcIndex);
+        }
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        if (left < 0 || top < 0 || left + width > getWidth() || top + height > getHeight())
+            throw new IllegalArgumentException("Crop rectangle does not fit within the image");
+
+        return new YPlaneLuminanceSource(mBuffer, mRowStride, mPixelStride, mLeft + left, mTop + top, width, height);
+    }
+}
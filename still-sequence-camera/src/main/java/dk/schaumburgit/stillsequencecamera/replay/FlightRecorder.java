@@ -0,0 +1,412 @@
+package dk.schaumburgit.stillsequencecamera.replay;
+
+import android.graphics.ImageFormat;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.zxing.LuminanceSource;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Keeps the luminance of the latest captured frames, and how their decoding
+ * went, in a fixed-size memory-mapped ring file - so when a scan goes wrong,
+ * the frames leading up to it can be exported (as a ReplayFile, for a
+ * ReplayCamera) and looked at.
+ *
+ * Recording a frame is a copy of its luminance into the mapping - downsampled
+ * by a whole factor if needed, to stay within maxPixels - with no allocation
+ * and no system calls, so it is cheap enough to leave on. The ring file
+ * holds the last capacity frames; as it is a memory mapping, the frames are
+ * in the file even if the process dies.
+ *
+ * The ring file starts with a header of five big-endian ints - magic
+ * ("SSFR"), version (1), capacity, width, height - and the long sequence
+ * number of the next frame, followed by capacity slots of SLOT_HEADER_SIZE +
+ * width x height bytes: the frame's sequence number (-1 while being written),
+ * timestamp (SystemClock.elapsedRealtimeNanos()), outcome, the length of the
+ * outcome text, the UTF-8 text (at most MAX_TEXT bytes) and the luminance.
+ */
+public class FlightRecorder
+{
+    private static final String TAG = "FlightRecorder";
+
+    /**
+     * How the decoding of a recorded frame went
+     */
+    public enum Outcome {Unknown, Hit, Blank, Error}
+
+    static final int MAGIC = 0x53534652;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 5 * 4 + 8;
+    static final int MAX_TEXT = 104;
+    static final int SLOT_HEADER_SIZE = 8 + 8 + 4 + 4 + MAX_TEXT;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final int mCapacity;
+    private final int mMaxPixels;
+
+    private final Object mLock = new Object();
+
+    // Set up by the first frame (and again if the frame size changes):
+    private RandomAccessFile mRingFile = null;
+    private MappedByteBuffer mMapped = null;
+    private int mSourceWidth = -1;
+    private int mSourceHeight = -1;
+    private int mScale = 1;
+    private int mWidth = 0;
+    private int mHeight = 0;
+    private int mSlotSize = 0;
+    private byte[] mRow = null;
+    private byte[] mScaledRow = null;
+
+    private long mNextSequence = 0;
+    private boolean mFrozen = false;
+    private int mExports = 0;
+    private boolean mClosed = false;
+
+    /**
+     * @param file      The ring file (created, or overwritten)
+     * @param capacity  The number of frames kept
+     * @param maxPixels Frames larger than this are downsampled by the smallest
+     *                  whole factor that makes them fit
+     */
+    public FlightRecorder(File file, int capacity, int maxPixels)
+    {
+        if (file == null)
+            throw new IllegalArgumentException("file cannot be null");
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1");
+        if (maxPixels < 1)
+            throw new IllegalArgumentException("maxPixels must be at least 1");
+
+        mFile = file;
+        mCapacity = capacity;
+        mMaxPixels = maxPixels;
+    }
+
+    //*********************************************************************
+    //* Recording:
+    //*********************************************************************
+
+    /**
+     * Records the luminance of a frame (called by the camera for every
+     * captured frame).
+     *
+     * @return The sequence number of the recorded frame (for setOutcome()) -
+     * or -1 if it wasn't recorded (while frozen, or if the ring file can't be
+     * written)
+     */
+    public long record(LuminanceSource luminance)
+    {
+        synchronized (mLock) {
+            if (mFrozen || mClosed)
+                return -1;
+
+            try {
+                ensureMapped(luminance.getWidth(), luminance.getHeight());
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot map " + mFile + " - stopped recording", e);
+                mClosed = true;
+                return -1;
+            }
+
+            long sequence = mNextSequence++;
+            int slot = slotOffset(sequence, mSlotSize);
+
+            mMapped.putLong(slot, -1);
+            mMapped.putLong(slot + 8, SystemClock.elapsedRealtimeNanos());
+            mMapped.putInt(slot + 16, Outcome.Unknown.ordinal());
+            mMapped.putInt(slot + 20, 0);
+
+            int pixels = slot + SLOT_HEADER_SIZE;
+            for (int y = 0; y < mHeight; y++) {
+                byte[] row = luminance.getRow(y * mScale, mRow);
+                if (mScale > 1) {
+                    for (int x = 0; x < mWidth; x++)
+                        mScaledRow[x] = row[x * mScale];
+                    row = mScaledRow;
+                }
+                mMapped.position(pixels + y * mWidth);
+                mMapped.put(row, 0, mWidth);
+            }
+
+            mMapped.putLong(slot, sequence);
+            mMapped.putLong(HEADER_SIZE - 8, mNextSequence);
+
+            return sequence;
+        }
+    }
+
+    /**
+     * Records how the decoding of a frame went, with e.g. the barcode found
+     * or the error message (truncated to MAX_TEXT bytes) - ignored if the
+     * frame is no longer in the ring.
+     */
+    public void setOutcome(long sequence, Outcome outcome, String text)
+    {
+        if (sequence < 0)
+            return;
+
+        byte[] bytes = (text == null) ? new byte[0] : text.getBytes(UTF8);
+        int length = Math.min(bytes.length, MAX_TEXT);
+
+        synchronized (mLock) {
+            if (mMapped == null || sequence >= mNextSequence || sequence < mNextSequence - mCapacity)
+                return;
+
+            int slot = slotOffset(sequence, mSlotSize);
+            if (mMapped.getLong(slot) != sequence)
+                return;
+
+            mMapped.putInt(slot + 16, outcome.ordinal());
+            mMapped.putInt(slot + 20, length);
+            mMapped.position(slot + 24);
+            mMapped.put(bytes, 0, length);
+        }
+    }
+
+    private int slotOffset(long sequence, int slotSize)
+    {
+        return HEADER_SIZE + (int) (sequence % mCapacity) * slotSize;
+    }
+
+    /**
+     * (Re)maps the ring file for frames of the given size, if it isn't
+     * already - starting the ring over.
+     */
+    private void ensureMapped(int sourceWidth, int sourceHeight) throws IOException
+    {
+        if (sourceWidth == mSourceWidth && sourceHeight == mSourceHeight)
+            return;
+
+        int scale = 1;
+        while ((long) (sourceWidth / scale) * (sourceHeight / scale) > mMaxPixels)
+            scale++;
+        int width = sourceWidth / scale;
+        int height = sourceHeight / scale;
+        int slotSize = SLOT_HEADER_SIZE + width * height;
+        long size = HEADER_SIZE + (long) mCapacity * slotSize;
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Ring file too large: " + size + " bytes");
+
+        unmap();
+
+        File directory = mFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+
+        RandomAccessFile ringFile = new RandomAccessFile(mFile, "rw");
+        try {
+            ringFile.setLength(size);
+            mMapped = ringFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            ringFile.close();
+            throw e;
+        }
+        mRingFile = ringFile;
+
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        mScale = scale;
+        mWidth = width;
+        mHeight = height;
+        mSlotSize = slotSize;
+        mRow = new byte[sourceWidth];
+        mScaledRow = new byte[width];
+        mNextSequence = 0;
+
+        mMapped.putInt(0, MAGIC);
+        mMapped.putInt(4, VERSION);
+        mMapped.putInt(8, mCapacity);
+        mMapped.putInt(12, width);
+        mMapped.putInt(16, height);
+        mMapped.putLong(HEADER_SIZE - 8, 0);
+        for (int n = 0; n < mCapacity; n++)
+            mMapped.putLong(HEADER_SIZE + n * slotSize, -1);
+    }
+
+    private void unmap()
+    {
+        mMapped = null;
+        mSourceWidth = -1;
+        mSourceHeight = -1;
+        if (mRingFile != null) {
+            try {
+                mRingFile.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing " + mFile, e);
+            }
+            mRingFile = null;
+        }
+    }
+
+    //*********************************************************************
+    //* Freezing and exporting:
+    //*********************************************************************
+
+    /**
+     * Stops recording, keeping the frames in the ring as they are
+     */
+    public void freeze()
+    {
+        synchronized (mLock) {
+            mFrozen = true;
+        }
+    }
+
+    /**
+     * Starts recording again after freeze()
+     */
+    public void resume()
+    {
+        synchronized (mLock) {
+            mFrozen = false;
+        }
+    }
+
+    public boolean isFrozen()
+    {
+        synchronized (mLock) {
+            return mFrozen;
+        }
+    }
+
+    /**
+     * Writes the frames recorded in the last lastNanos nanoseconds (before
+     * the latest frame) to a ReplayFile - as NV21 with neutral chroma, at the
+     * recorded (possibly downsampled) size - and their outcomes to a text file
+     * next to it (file + ".txt": sequence number, timestamp, outcome and text,
+     * tab separated, one frame per line).
+     *
+     * Recording is suspended while exporting.
+     *
+     * @return The number of frames exported
+     */
+    public int export(File file, long lastNanos) throws IOException
+    {
+        MappedByteBuffer mapped;
+        long first;
+        long end;
+        int width;
+        int height;
+        int slotSize;
+        boolean wasFrozen;
+        synchronized (mLock) {
+            if (mMapped == null || mNextSequence == 0)
+                throw new IllegalStateException("Nothing has been recorded");
+
+            wasFrozen = mFrozen;
+            mFrozen = true;
+            mExports++;
+
+            mapped = mMapped;
+            end = mNextSequence;
+            first = Math.max(0, end - mCapacity);
+            width = mWidth;
+            height = mHeight;
+            slotSize = mSlotSize;
+        }
+
+        try {
+            ByteBuffer ring = mapped.duplicate();
+            long newest = ring.getLong(slotOffset(end - 1, slotSize) + 8);
+
+            int ySize = width * height;
+            byte[] frame = new byte[ReplayFile.frameSize(ImageFormat.NV21, width, height)];
+            for (int n = ySize; n < frame.length; n++)
+                frame[n] = (byte) 128;
+
+            int exported = 0;
+            ReplayFileWriter writer = new ReplayFileWriter(file, ImageFormat.NV21, width, height);
+            Writer outcomes = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file.getPath() + ".txt"), UTF8));
+            try {
+                for (long sequence = first; sequence < end; sequence++) {
+                    int slot = slotOffset(sequence, slotSize);
+                    long timestamp = ring.getLong(slot + 8);
+                    if (ring.getLong(slot) != sequence || newest - timestamp > lastNanos)
+                        continue;
+
+                    ring.position(slot + SLOT_HEADER_SIZE);
+                    ring.get(frame, 0, ySize);
+                    writer.write(timestamp, frame);
+
+                    int outcome = ring.getInt(slot + 16);
+                    byte[] text = new byte[Math.min(Math.max(ring.getInt(slot + 20), 0), MAX_TEXT)];
+                    ring.position(slot + 24);
+                    ring.get(text);
+                    outcomes.write(sequence + "\t" + timestamp + "\t" + outcomeName(outcome) + "\t" + new String(text, UTF8) + "\n");
+                    exported++;
+                }
+            } finally {
+                writer.close();
+                outcomes.close();
+            }
+
+            return exported;
+        } finally {
+            synchronized (mLock) {
+                mExports--;
+                if (!wasFrozen)
+                    mFrozen = false;
+                if (mClosed && mExports == 0)
+                    unmap();
+            }
+        }
+    }
+
+    /**
+     * Freezes the recording at once, then exports the last lastNanos
+     * nanoseconds (see export()) in the background, and resumes recording.
+     */
+    public void freezeAndExport(final File file, final long lastNanos)
+    {
+        freeze();
+        new Thread("Flight Recorder Export") {
+            @Override
+            public void run() {
+                try {
+                    int exported = export(file, lastNanos);
+                    Log.i(TAG, "Exported " + exported + " frames to " + file);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error exporting to " + file, e);
+                } finally {
+                    FlightRecorder.this.resume();
+                }
+            }
+        }.start();
+    }
+
+    private static String outcomeName(int ordinal)
+    {
+        Outcome[] outcomes = Outcome.values();
+        return (ordinal >= 0 && ordinal < outcomes.length) ? outcomes[ordinal].name() : "Unknown";
+    }
+
+    /**
+     * Stops recording and releases the ring file (once any export running
+     * has finished). The frames stay in the file.
+     */
+    public void close()
+    {
+        synchronized (mLock) {
+            if (mClosed)
+                return;
+            mClosed = true;
+            if (mExports == 0)
+                unmap();
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package dk.schaumburgit.stillsequencecamera.replay;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.schaumburgit.stillsequencecamera.CaptureFormatInfo;
+import dk.schaumburgit.stillsequencecamera.FrameBufferPool;
+import dk.schaumburgit.stillsequencecamera.FrameSaver;
+import dk.schaumburgit.stillsequencecamera.FrameStatistics;
+import dk.schaumburgit.stillsequencecamera.IStillSequenceCamera;
+import dk.schaumburgit.stillsequencecamera.LuminanceThumbnail;
+import dk.schaumburgit.stillsequencecamera.SharpnessMeter;
+import dk.schaumburgit.stillsequencecamera.camera2.YPlaneLuminanceSource;
+import dk.schaumburgit.stillsequencecamera.imageformats.LuminanceSourceFactory;
+
+/**
+ * An IStillSequenceCamera playing back a recording of raw frames (see
+ * ReplayFile) instead of using a physical camera - so the scanning pipeline
+ * can be run, and timed, without a camera or a screen, with the same frames
+ * every time.
+ *
+ * The frames are read straight from the memory-mapped file, and delivered
+ * at the pace chosen in ReplayOptions by a playback thread of their own. The
+ * sources delivered are handled exactly like a camera's: the listener must
+ * close them, and at most MAX_IN_FLIGHT can be open at the same time.
+ */
+public class ReplayCamera implements IStillSequenceCamera
+{
+    private static final String TAG = "ReplayCamera";
+
+    /**
+     * The number of delivered frames that may be open at the same time (one
+     * being decoded, one waiting) - with real-time pacing, frames arriving
+     * while they are all open are skipped.
+     */
+    private static final int MAX_IN_FLIGHT = 2;
+
+    private final ReplayOptions mOptions;
+    private final ReplayFile mRecording;
+    private final FrameBufferPool mBufferPool = new FrameBufferPool();
+    private volatile FrameSaver mFrameSaver = null;
+    private volatile FlightRecorder mFlightRecorder = null;
+    private final FrameStatistics mFrameStatistics = new FrameStatistics();
+    private final SharpnessMeter mSharpnessMeter = new SharpnessMeter();
+
+    private final Object mLock = new Object();
+    private int mInFlight = 0;
+    private boolean mSetup = false;
+    private volatile boolean mPlaying = false;
+    private Thread mPlaybackThread = null;
+    private volatile OnImageAvailableListener mImageListener = null;
+    private Handler mCallbackHandler = null;
+    private boolean mLockFocus = true;
+
+    public ReplayCamera(ReplayOptions options) throws IOException
+    {
+        mOptions = options;
+        mRecording = ReplayFile.open(options.file);
+    }
+
+    @Override
+    public double sourceAspectRatio() {
+        return (double) mRecording.width / mRecording.height;
+    }
+
+    @Override
+    public List<CaptureFormatInfo> getSupportedImageFormats(double relativeDevicePerformance) {
+        List<CaptureFormatInfo> res = new ArrayList<CaptureFormatInfo>();
+        res.add(
+                new CaptureFormatInfo(
+                        mRecording.imageFormat,
+                        mRecording.width,
+                        mRecording.height,
+                        false,
+                        getFrameIntervalNanos(),
+                        LuminanceSourceFactory.nanosPerFrameConversion(mRecording.imageFormat, mRecording.width, mRecording.height, relativeDevicePerformance),
+                        "Replayed from " + mOptions.file.getName())
+        );
+        return res;
+    }
+
+    /**
+     * The interval between frames with the chosen pacing (0 for MaxSpeed)
+     */
+    private long getFrameIntervalNanos() {
+        switch (mOptions.pacing) {
+            case Recorded:
+                return mRecording.getAverageIntervalNanos();
+            case Fixed:
+                return mOptions.frameIntervalNanos;
+        }
+
+        return 0;
+    }
+
+    @Override
+    public String getCameraId() {
+        return "replay:" + mOptions.file.getName();
+    }
+
+    @Override
+    public List<Size> getOutputSizes(int imageFormat) {
+        List<Size> res = new ArrayList<Size>();
+        if (imageFormat == mRecording.imageFormat)
+            res.add(new Size(mRecording.width, mRecording.height));
+
+        return res;
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the format and size aren't those of the recording
+     */
+    @Override
+    public void setup(int imageFormat, int imageWidth, int imageHeight) {
+        if (imageFormat != mRecording.imageFormat || imageWidth != mRecording.width || imageHeight != mRecording.height)
+            throw new UnsupportedOperationException(
+                    "The recording holds " + mRecording.width + "x" + mRecording.height + " frames in format " + mRecording.imageFormat
+            );
+
+        mBufferPool.setup(imageFormat, imageWidth, imageHeight, 2 * MAX_IN_FLIGHT);
+        mSetup = true;
+    }
+
+    @Override
+    public void start(OnImageAvailableListener listener, Handler callbackHandler) {
+        if (!mSetup)
+            throw new IllegalStateException("ReplayCamera.start() cannot be called before setup()");
+        if (callbackHandler == null)
+            throw new IllegalArgumentException("callbackHandler cannot be null");
+        if (mPlaying)
+            return;
+
+        mImageListener = listener;
+        mCallbackHandler = callbackHandler;
+        mPlaying = true;
+        mPlaybackThread = new Thread(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        play();
+                    }
+                },
+                "ReplayCamera playback thread"
+        );
+        mPlaybackThread.start();
+    }
+
+    @Override
+    public void stop() {
+        mPlaying = false;
+        mImageListener = null;
+
+        Thread playbackThread = mPlaybackThread;
+        mPlaybackThread = null;
+        if (playbackThread == null)
+            return;
+
+        synchronized (mLock) {
+            mLock.notifyAll();
+        }
+        playbackThread.interrupt();
+        try {
+            playbackThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+        mRecording.close();
+    }
+
+    /**
+     * Waits for the playback to reach the end of its last pass (or to be
+     * stopped) - for at most timeoutMillis milliseconds.
+     *
+     * @return Whether the playback has ended
+     */
+    public boolean awaitEnd(long timeoutMillis) throws InterruptedException {
+        Thread playbackThread = mPlaybackThread;
+        if (playbackThread == null)
+            return true;
+
+        playbackThread.join(timeoutMillis);
+        return !playbackThread.isAlive();
+    }
+
+    //*********************************************************************
+    //* Playback (on the playback thread):
+    //*********************************************************************
+    private void play() {
+        long due = SystemClock.elapsedRealtimeNanos();
+        try {
+            for (int pass = 0; mOptions.passes == 0 || pass < mOptions.passes; pass++) {
+                for (int frame = 0; frame < mRecording.frameCount; frame++) {
+                    if (!mPlaying)
+                        return;
+
+                    if (mOptions.pacing == ReplayOptions.Pacing.MaxSpeed) {
+                        if (!awaitFreeSlot())
+                            return;
+                    } else {
+                        if (frame > 0 || pass > 0)
+                            due += intervalBefore(frame);
+                        sleepUntil(due);
+                    }
+
+                    deliver(frame);
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } finally {
+            mPlaying = false;
+        }
+    }
+
+    private long intervalBefore(int frame) {
+        if (mOptions.pacing == ReplayOptions.Pacing.Fixed)
+            return mOptions.frameIntervalNanos;
+
+        // Recorded - wrapping around to the start of the next pass with the
+        // average interval:
+        if (frame == 0)
+            return mRecording.getAverageIntervalNanos();
+
+        return Math.max(0, mRecording.getTimestampNanos(frame) - mRecording.getTimestampNanos(frame - 1));
+    }
+
+    private static void sleepUntil(long due) throws InterruptedException {
+        long remaining = due - SystemClock.elapsedRealtimeNanos();
+        if (remaining > 0)
+            Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+    }
+
+    private boolean awaitFreeSlot() throws InterruptedException {
+        synchronized (mLock) {
+            while (mPlaying && mInFlight > 0)
+                mLock.wait();
+        }
+
+        return mPlaying;
+    }
+
+    private void deliver(final int frame) {
+        mFrameStatistics.onProduced();
+
+        // Like a camera running out of buffers:
+        synchronized (mLock) {
+            if (mInFlight >= MAX_IN_FLIGHT)
+                return;
+            mInFlight++;
+        }
+        mFrameStatistics.onAcquired();
+
+        final ReplaySource source = new ReplaySource(this, mBufferPool, mRecording, frame);
+        source.setFrameSaver(mFrameSaver);
+        final long queuedAt = SystemClock.elapsedRealtimeNanos();
+        boolean posted = mCallbackHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        OnImageAvailableListener listener = mImageListener;
+                        if (listener == null) {
+                            mFrameStatistics.onDropped();
+                            source.close();
+                            return;
+                        }
+
+                        source.markDelivered();
+                        mFrameStatistics.onDelivered(SystemClock.elapsedRealtimeNanos() - queuedAt);
+                        try {
+                            long convertStart = SystemClock.elapsedRealtimeNanos();
+                            YPlaneLuminanceSource luminance = new YPlaneLuminanceSource(
+                                    mRecording.getFrame(frame),
+                                    mRecording.width,
+                                    mRecording.width,
+                                    mRecording.height
+                            );
+                            source.setThumbnail(LuminanceThumbnail.create(luminance));
+                            source.setSharpness(mSharpnessMeter.measure(luminance));
+                            FlightRecorder recorder = mFlightRecorder;
+                            if (recorder != null)
+                                source.setRecordedFrame(recorder.record(luminance));
+                            BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(luminance));
+                            mFrameStatistics.onConverted(SystemClock.elapsedRealtimeNanos() - convertStart);
+
+                            listener.onImageAvailable(source, bitmap);
+                        } catch (Exception e) {
+                            Log.e(TAG, "Error handling frame #" + frame, e);
+                            source.close();
+                        }
+                    }
+                }
+        );
+
+        // The callback thread is gone (we're stopping):
+        if (!posted) {
+            mFrameStatistics.onDropped();
+            source.close();
+        }
+    }
+
+    /**
+     * Called when a source is closed - by the listener, if it was delivered
+     */
+    void onReleased(boolean delivered) {
+        if (delivered)
+            mFrameStatistics.onReleased();
+        synchronized (mLock) {
+            mInFlight--;
+            mLock.notifyAll();
+        }
+    }
+
+    //*********************************************************************
+    //* The rest of IStillSequenceCamera:
+    //*********************************************************************
+    @Override
+    public FrameBufferPool getBufferPool() {
+        return mBufferPool;
+    }
+
+    @Override
+    public void setFrameSaver(FrameSaver frameSaver) {
+        mFrameSaver = frameSaver;
+    }
+
+    @Override
+    public void setFlightRecorder(FlightRecorder flightRecorder) {
+        mFlightRecorder = flightRecorder;
+    }
+
+    @Override
+    public FrameStatistics getFrameStatistics() {
+        return mFrameStatistics;
+    }
+
+    @Override
+    public long getLastExposureNanos() {
+        return -1;
+    }
+
+    @Override
+    public int getLastSensitivity() {
+        return -1;
+    }
+
+    @Override
+    public void setRegionOfInterest(Rect region) {
+        // Nothing to focus or meter - the frames are what they are
+    }
+
+    @Override
+    public boolean isLockFocus() {
+        return mLockFocus;
+    }
+
+    @Override
+    public void setLockFocus(boolean lockFocus) {
+        mLockFocus = lockFocus;
+    }
+}
@@ -0,0 +1,158 @@
+package dk.schaumburgit.stillsequencecamera.replay;
+
+import android.graphics.ImageFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A recording of raw camera frames, memory-mapped for playback by a
+ * ReplayCamera (and written by ReplayFileWriter).
+ *
+ * The file starts with a header of six big-endian ints:
+ *
+ * magic ("SSCR"), version (1), image format (ImageFormat.NV21 or
+ * ImageFormat.YUV_420_888), width, height and frame count
+ *
+ * followed by the frames, each one a long timestamp (in nanoseconds, any
+ * base) and frameSize bytes of image data. Both formats start with the
+ * width x height Y-plane, which is all the playback reads; the chroma (NV21
+ * interleaved, YUV_420_888 stored as I420) just comes along.
+ *
+ * All frames have the same size, so frame n is found without reading the
+ * ones before it. The whole file is mapped at once, which limits it to 2 GB.
+ */
+public class ReplayFile
+{
+    static final int MAGIC = 0x53534352;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 6 * 4;
+    private static final int TIMESTAMP_SIZE = 8;
+
+    public final int imageFormat;
+    public final int width;
+    public final int height;
+    public final int frameCount;
+    public final int frameSize;
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mMapped;
+
+    private ReplayFile(RandomAccessFile file, MappedByteBuffer mapped) throws IOException
+    {
+        mFile = file;
+        mMapped = mapped;
+
+        if (mapped.getInt(0) != MAGIC)
+            throw new IOException("Not a frame recording");
+        if (mapped.getInt(4) != VERSION)
+            throw new IOException("Unsupported recording version " + mapped.getInt(4));
+
+        imageFormat = mapped.getInt(8);
+        width = mapped.getInt(12);
+        height = mapped.getInt(16);
+        frameCount = mapped.getInt(20);
+        frameSize = frameSize(imageFormat, width, height);
+
+        if ((long) HEADER_SIZE + (long) frameCount * (TIMESTAMP_SIZE + frameSize) > mapped.capacity())
+            throw new IOException("Recording is truncated");
+    }
+
+    /**
+     * Maps the given recording into memory
+     */
+    public static ReplayFile open(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length < HEADER_SIZE)
+                throw new IOException("Not a frame recording");
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("Recording too large to map (max 2 GB)");
+
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return new ReplayFile(raf, mapped);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        } catch (IllegalArgumentException e) {
+            raf.close();
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * The number of bytes in one frame of the given format and size
+     *
+     * @throws IllegalArgumentException if the format can't be recorded
+     */
+    static int frameSize(int imageFormat, int width, int height)
+    {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+
+        switch (imageFormat) {
+            case ImageFormat.NV21:
+            case ImageFormat.YUV_420_888:
+                return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+        }
+
+        throw new IllegalArgumentException("Unsupported recording format " + imageFormat);
+    }
+
+    private int frameOffset(int frame)
+    {
+        if (frame < 0 || frame >= frameCount)
+            throw new IndexOutOfBoundsException("No frame #" + frame);
+
+        return HEADER_SIZE + frame * (TIMESTAMP_SIZE + frameSize);
+    }
+
+    public long getTimestampNanos(int frame)
+    {
+        return mMapped.getLong(frameOffset(frame));
+    }
+
+    /**
+     * A read-only view of the image data of the given frame - starting at
+     * its Y-plane. No data is copied.
+     */
+    public ByteBuffer getFrame(int frame)
+    {
+        ByteBuffer view = mMapped.duplicate();
+        int start = frameOffset(frame) + TIMESTAMP_SIZE;
+        view.position(start);
+        view.limit(start + frameSize);
+        return view.slice();
+    }
+
+    /**
+     * The average interval between the recorded frames (0 if there are
+     * fewer than two)
+     */
+    public long getAverageIntervalNanos()
+    {
+        if (frameCount < 2)
+            return 0;
+
+        return (getTimestampNanos(frameCount - 1) - getTimestampNanos(0)) / (frameCount - 1);
+    }
+
+    /**
+     * Closes the file. Views already handed out stay readable until they are
+     * garbage collected.
+     */
+    public void close()
+    {
+        try {
+            mFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package dk.schaumburgit.stillsequencecamera.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Writes a frame recording for ReplayCamera (see ReplayFile for the format)
+ * - e.g. from the preview frames of a device showing a performance problem,
+ * or from synthetic frames.
+ *
+ * Not thread safe.
+ */
+public class ReplayFileWriter
+{
+    private final File mFile;
+    private final int mFrameSize;
+    private final DataOutputStream mOut;
+    private int mFrameCount = 0;
+    private boolean mClosed = false;
+
+    public ReplayFileWriter(File file, int imageFormat, int width, int height) throws IOException
+    {
+        mFile = file;
+        mFrameSize = ReplayFile.frameSize(imageFormat, width, height);
+        mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+
+        mOut.writeInt(ReplayFile.MAGIC);
+        mOut.writeInt(ReplayFile.VERSION);
+        mOut.writeInt(imageFormat);
+        mOut.writeInt(width);
+        mOut.writeInt(height);
+        mOut.writeInt(0); // frame count, filled in by close()
+    }
+
+    /**
+     * Appends a frame: the first frameSize bytes of data (Y-plane first, then
+     * the chroma as NV21 or I420).
+     */
+    public void write(long timestampNanos, byte[] data) throws IOException
+    {
+        if (mClosed)
+            throw new IllegalStateException("The recording has been closed");
+        if (data.length < mFrameSize)
+            throw new IllegalArgumentException("Frame too small: " + data.length + " bytes, expected " + mFrameSize);
+
+        mOut.writeLong(timestampNanos);
+        mOut.write(data, 0, mFrameSize);
+        mFrameCount++;
+    }
+
+    /**
+     * Finishes the recording (writing the frame count into the header)
+     */
+    public void close() throws IOException
+    {
+        if (mClosed)
+            return;
+        mClosed = true;
+        mOut.close();
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.seek(ReplayFile.HEADER_SIZE - 4);
+            raf.writeInt(mFrameCount);
+        } finally {
+            raf.close();
+        }
+    }
+}
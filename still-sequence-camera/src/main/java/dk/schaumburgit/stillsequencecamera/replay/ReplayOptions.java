@@ -0,0 +1,59 @@
+package dk.schaumburgit.stillsequencecamera.replay;
+
+import java.io.File;
+
+/**
+ * Which recording a ReplayCamera plays back, and how fast.
+ *
+ * pacing decides when each frame is delivered:
+ *
+ * Recorded: at the intervals between the recorded timestamps - like the
+ *           camera that recorded them. Frames arriving while the listener is
+ *           still busy with earlier ones are skipped, as a camera would.
+ * Fixed: every frameIntervalNanos nanoseconds, skipping frames the same way.
+ * MaxSpeed: as soon as the listener has closed the previous frame - nothing
+ *           is skipped, so the frame rate is that of the decoding.
+ *
+ * passes is the number of times the recording is played (0: until stopped).
+ */
+public class ReplayOptions
+{
+    public enum Pacing
+    {
+        Recorded,
+        Fixed,
+        MaxSpeed
+    }
+
+    public final File file;
+    public final Pacing pacing;
+    public final long frameIntervalNanos;
+    public final int passes;
+
+    public ReplayOptions(File file, Pacing pacing, long frameIntervalNanos, int passes)
+    {
+        if (file == null)
+            throw new IllegalArgumentException("file cannot be null");
+        if (pacing == Pacing.Fixed && frameIntervalNanos <= 0)
+            throw new IllegalArgumentException("frameIntervalNanos must be positive for fixed pacing");
+        if (passes < 0)
+            throw new IllegalArgumentException("passes cannot be negative");
+
+        this.file = file;
+        this.pacing = (pacing == null) ? Pacing.Recorded : pacing;
+        this.frameIntervalNanos = frameIntervalNanos;
+        this.passes = passes;
+    }
+    public ReplayOptions(File file)
+    {
+        this(file, Pacing.Recorded, 0, 1);
+    }
+    public ReplayOptions clone(Pacing pacing, long frameIntervalNanos)
+    {
+        return new ReplayOptions(this.file, pacing, frameIntervalNanos, this.passes);
+    }
+    public ReplayOptions clone(int passes)
+    {
+        return new ReplayOptions(this.file, this.pacing, this.frameIntervalNanos, passes);
+    }
+}
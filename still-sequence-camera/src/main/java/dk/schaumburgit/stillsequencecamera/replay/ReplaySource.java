@@ -0,0 +1,58 @@
+package dk.schaumburgit.stillsequencecamera.replay;
+
+import android.graphics.Rect;
+
+import dk.schaumburgit.stillsequencecamera.FrameBufferPool;
+import dk.schaumburgit.stillsequencecamera.FrameSaver;
+import dk.schaumburgit.stillsequencecamera.PooledSource;
+
+/**
+ * The ISource of a replayed frame. The image data is read straight from the
+ * memory-mapped recording; closing the source lets the ReplayCamera deliver
+ * the next frame.
+ */
+class ReplaySource extends PooledSource
+{
+    private final ReplayCamera mCamera;
+    private final ReplayFile mRecording;
+    private final int mFrame;
+    private volatile boolean mDelivered = false;
+
+    ReplaySource(ReplayCamera camera, FrameBufferPool pool, ReplayFile recording, int frame)
+    {
+        super(pool, recording.imageFormat, recording.width, recording.height);
+        mCamera = camera;
+        mRecording = recording;
+        mFrame = frame;
+    }
+
+    /**
+     * Marks the source as handed to the listener (for the frame statistics)
+     */
+    void markDelivered()
+    {
+        mDelivered = true;
+    }
+
+    @Override
+    public String save()
+    {
+        return save(null);
+    }
+
+    @Override
+    public String save(Rect region)
+    {
+        FrameSaver saver = getFrameSaver();
+        if (saver == null)
+            return null;
+
+        return saver.saveFrame(mRecording.getFrame(mFrame), mRecording.imageFormat, mRecording.width, mRecording.height, region);
+    }
+
+    @Override
+    protected void onClose()
+    {
+        mCamera.onReleased(mDelivered);
+    }
+}
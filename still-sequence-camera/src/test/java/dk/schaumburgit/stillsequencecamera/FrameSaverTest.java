@@ -0,0 +1,157 @@
+package dk.schaumburgit.stillsequencecamera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FrameSaverTest
+{
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 12;
+
+    @Test
+    public void alignRegion_clipsToFrameAndChromaGrid() throws Exception
+    {
+        assertArrayEquals(new int[]{2, 4, 8, 8}, FrameSaver.alignRegion(WIDTH, HEIGHT, 3, 5, 11, 12, 1));
+        assertArrayEquals(new int[]{0, 0, 16, 12}, FrameSaver.alignRegion(WIDTH, HEIGHT, -5, -5, 100, 100, 1));
+        assertArrayEquals(new int[]{10, 6, 6, 6}, FrameSaver.alignRegion(WIDTH, HEIGHT, 11, 7, 20, 20, 1));
+    }
+
+    @Test
+    public void alignRegion_roundsDownToScalingGrid() throws Exception
+    {
+        assertArrayEquals(new int[]{2, 4, 8, 4}, FrameSaver.alignRegion(WIDTH, HEIGHT, 3, 5, 11, 11, 2));
+    }
+
+    @Test
+    public void alignRegion_isNullOutsideFrameOrTooSmall() throws Exception
+    {
+        assertNull(FrameSaver.alignRegion(WIDTH, HEIGHT, 16, 0, 20, 12, 1));
+        assertNull(FrameSaver.alignRegion(WIDTH, HEIGHT, -10, -10, 0, 0, 1));
+        assertNull(FrameSaver.alignRegion(WIDTH, HEIGHT, 4, 4, 5, 9, 1));
+        assertNull(FrameSaver.alignRegion(WIDTH, HEIGHT, 4, 4, 7, 9, 2));
+    }
+
+    @Test
+    public void copyRegion_cropsNV21Frame() throws Exception
+    {
+        byte[] out = new byte[6 * 4 * 3 / 2];
+        FrameSaver.PlaneView[] planes = FrameSaver.nv21Planes(ByteBuffer.wrap(nv21Frame()), WIDTH, HEIGHT);
+        FrameSaver.copyRegion(planes[0], planes[1], planes[2], 4, 2, 6, 4, 1, false, out);
+
+        assertArrayEquals(expected(4, 2, 6, 4, 1), out);
+    }
+
+    @Test
+    public void copyRegion_cropsI420FrameToNV21() throws Exception
+    {
+        byte[] out = new byte[6 * 4 * 3 / 2];
+        FrameSaver.PlaneView[] planes = FrameSaver.i420Planes(ByteBuffer.wrap(i420Frame()), WIDTH, HEIGHT);
+        FrameSaver.copyRegion(planes[0], planes[1], planes[2], 4, 2, 6, 4, 1, false, out);
+
+        assertArrayEquals(expected(4, 2, 6, 4, 1), out);
+    }
+
+    @Test
+    public void copyRegion_downsamples() throws Exception
+    {
+        byte[] out = new byte[4 * 2 * 3 / 2];
+        FrameSaver.PlaneView[] planes = FrameSaver.nv21Planes(ByteBuffer.wrap(nv21Frame()), WIDTH, HEIGHT);
+        FrameSaver.copyRegion(planes[0], planes[1], planes[2], 2, 4, 4, 2, 2, false, out);
+
+        assertArrayEquals(expected(2, 4, 4, 2, 2), out);
+    }
+
+    @Test
+    public void copyRegion_grayscale_hasNeutralChroma() throws Exception
+    {
+        byte[] out = new byte[6 * 4 * 3 / 2];
+        FrameSaver.PlaneView[] planes = FrameSaver.nv21Planes(ByteBuffer.wrap(nv21Frame()), WIDTH, HEIGHT);
+        FrameSaver.copyRegion(planes[0], planes[1], planes[2], 4, 2, 6, 4, 1, true, out);
+
+        byte[] expected = expected(4, 2, 6, 4, 1);
+        for (int n = 6 * 4; n < expected.length; n++)
+            expected[n] = (byte) 128;
+        assertArrayEquals(expected, out);
+    }
+
+    //*********************************************************************
+    //* A synthetic frame (with distinct values for every pixel):
+    //*********************************************************************
+
+    private static int lum(int x, int y)
+    {
+        return x + WIDTH * y;
+    }
+
+    private static int u(int x, int y)
+    {
+        return 200 + x + 2 * y;
+    }
+
+    private static int v(int x, int y)
+    {
+        return 100 + x + 8 * y;
+    }
+
+    private static byte[] nv21Frame()
+    {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++)
+                frame[x + WIDTH * y] = (byte) lum(x, y);
+
+        int dst = WIDTH * HEIGHT;
+        for (int y = 0; y < HEIGHT / 2; y++) {
+            for (int x = 0; x < WIDTH / 2; x++) {
+                frame[dst++] = (byte) v(x, y);
+                frame[dst++] = (byte) u(x, y);
+            }
+        }
+
+        return frame;
+    }
+
+    private static byte[] i420Frame()
+    {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++)
+                frame[x + WIDTH * y] = (byte) lum(x, y);
+
+        int chromaSize = (WIDTH / 2) * (HEIGHT / 2);
+        int dst = WIDTH * HEIGHT;
+        for (int y = 0; y < HEIGHT / 2; y++) {
+            for (int x = 0; x < WIDTH / 2; x++) {
+                frame[dst] = (byte) u(x, y);
+                frame[dst + chromaSize] = (byte) v(x, y);
+                dst++;
+            }
+        }
+
+        return frame;
+    }
+
+    /**
+     * The NV21 copy of the region, built pixel by pixel
+     */
+    private static byte[] expected(int left, int top, int outWidth, int outHeight, int scale)
+    {
+        byte[] res = new byte[outWidth * outHeight * 3 / 2];
+        int dst = 0;
+        for (int y = 0; y < outHeight; y++)
+            for (int x = 0; x < outWidth; x++)
+                res[dst++] = (byte) lum(left + x * scale, top + y * scale);
+
+        for (int y = 0; y < outHeight / 2; y++) {
+            for (int x = 0; x < outWidth / 2; x++) {
+                res[dst++] = (byte) v(left / 2 + x * scale, top / 2 + y * scale);
+                res[dst++] = (byte) u(left / 2 + x * scale, top / 2 + y * scale);
+            }
+        }
+
+        return res;
+    }
+}
@@ -0,0 +1,99 @@
+package dk.schaumburgit.stillsequencecamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest
+{
+    private static final long FIRST_BOUND = 1L << 18;
+
+    @Test
+    public void bucketBounds_arePowersOfTwo() throws Exception
+    {
+        assertEquals(FIRST_BOUND, LatencyHistogram.getBucketUpperBoundNanos(0));
+        assertEquals(FIRST_BOUND << 1, LatencyHistogram.getBucketUpperBoundNanos(1));
+        assertEquals(FIRST_BOUND << 14, LatencyHistogram.getBucketUpperBoundNanos(LatencyHistogram.BUCKET_COUNT - 2));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getBucketUpperBoundNanos(LatencyHistogram.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void record_countsInBucketBelowUpperBound() throws Exception
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0);
+        histogram.record(FIRST_BOUND - 1);
+        histogram.record(FIRST_BOUND);
+        histogram.record(2 * FIRST_BOUND - 1);
+        histogram.record(2 * FIRST_BOUND);
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(3, snapshot.getBucketCount(0));
+        assertEquals(2, snapshot.getBucketCount(1));
+        assertEquals(1, snapshot.getBucketCount(2));
+        assertEquals(1, snapshot.getBucketCount(LatencyHistogram.BUCKET_COUNT - 1));
+        assertEquals(7, snapshot.count);
+        assertEquals(Long.MAX_VALUE, snapshot.maxNanos);
+    }
+
+    @Test
+    public void snapshot_averageAndMaximum() throws Exception
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.record(2000);
+        histogram.record(6000);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(3, snapshot.count);
+        assertEquals(9000, snapshot.totalNanos);
+        assertEquals(3000, snapshot.getAverageNanos());
+        assertEquals(6000, snapshot.maxNanos);
+    }
+
+    @Test
+    public void getPercentileNanos_returnsBucketBoundCappedAtMaximum() throws Exception
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int n = 0; n < 90; n++)
+            histogram.record(100000);
+        for (int n = 0; n < 10; n++)
+            histogram.record(1000000);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(FIRST_BOUND, snapshot.getPercentileNanos(50));
+        assertEquals(FIRST_BOUND, snapshot.getPercentileNanos(90));
+        // (1 ms is in the bucket up to 2^20 ns, but nothing above 1 ms was recorded)
+        assertEquals(1000000, snapshot.getPercentileNanos(95));
+        assertEquals(1000000, snapshot.getPercentileNanos(100));
+        assertEquals(FIRST_BOUND, snapshot.getPercentileNanos(0));
+    }
+
+    @Test
+    public void emptySnapshot_isZero() throws Exception
+    {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+        assertEquals(0, snapshot.count);
+        assertEquals(0, snapshot.getAverageNanos());
+        assertEquals(0, snapshot.getPercentileNanos(99));
+    }
+
+    @Test
+    public void snapshot_isNotAffectedByLaterRecordings() throws Exception
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        histogram.record(1000);
+        histogram.reset();
+
+        assertEquals(1, snapshot.count);
+        assertEquals(1, snapshot.getBucketCount(0));
+        assertEquals(0, histogram.snapshot().count);
+        assertEquals(0, histogram.snapshot().getBucketCount(0));
+    }
+}
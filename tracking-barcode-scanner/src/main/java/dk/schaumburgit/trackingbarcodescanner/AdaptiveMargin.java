@@ -0,0 +1,61 @@
+package dk.schaumburgit.trackingbarcodescanner;
+
+/**
+ * Tunes the tracking margin to the observed movement of the barcodes.
+ *
+ * Hits inside the tracking window mean the margin could be smaller: after
+ * SHRINK_AFTER consecutive hits, the margin is shrunk a little. A near-miss
+ * (the barcode was found, but only by the fallback scan outside the window)
+ * means the margin was too small, and it is grown substantially.
+ *
+ * The margin always stays within [minMargin, maxMargin].
+ */
+class AdaptiveMargin
+{
+    private static final int SHRINK_AFTER = 3;
+    private static final double SHRINK_FACTOR = 0.9;
+    private static final double GROW_FACTOR = 1.5;
+
+    private final double mMinMargin;
+    private final double mMaxMargin;
+    private double mMargin;
+    private int mConsecutiveHits = 0;
+
+    AdaptiveMargin(double initialMargin, double minMargin, double maxMargin)
+    {
+        mMinMargin = minMargin;
+        mMaxMargin = Math.max(minMargin, maxMargin);
+        mMargin = clamp(initialMargin);
+    }
+
+    double get()
+    {
+        return mMargin;
+    }
+
+    /**
+     * The barcode was found inside the tracking window
+     */
+    void hit()
+    {
+        mConsecutiveHits++;
+        if (mConsecutiveHits >= SHRINK_AFTER) {
+            mMargin = clamp(mMargin * SHRINK_FACTOR);
+            mConsecutiveHits = 0;
+        }
+    }
+
+    /**
+     * The barcode was found, but outside the tracking window
+     */
+    void nearMiss()
+    {
+        mConsecutiveHits = 0;
+        mMargin = clamp(mMargin * GROW_FACTOR);
+    }
+
+    private double clamp(double margin)
+    {
+        return Math.max(mMinMargin, Math.min(mMaxMargin, margin));
+    }
+}
@@ -12,11 +12,20 @@ public class Barcode
     public final String contents;
     public final BarcodeFormat format;
     public final Point[] points;
+    /**
+     * Identifies the same physical barcode across frames when tracking
+     * multiple barcodes (-1 if not tracked)
+     */
+    public final int trackId;
 
     public Barcode(String contents, BarcodeFormat format, Point[] points) {
+        this(contents, format, points, -1);
+    }
+
+    public Barcode(String contents, BarcodeFormat format, Point[] points, int trackId) {
         this.contents = contents;
         this.format = format;
         this.points = points;
+        this.trackId = trackId;
     }
 }
-
@@ -0,0 +1,223 @@
+package dk.schaumburgit.trackingbarcodescanner;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Reader;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * A MultiFormatReader configured once with the decode hints from ScanOptions,
+ * and then reused for every scan.
+ *
+ * MultiFormatReader.decode(image, hints) rebuilds its list of readers from the
+ * hints on every call - decodeWithState() uses the ones set up by setHints().
+ * The multiple-barcode scans go through the same pre-configured reader, by
+ * wrapping it in a Reader that ignores the hints passed per call.
+ *
+ * Barcodes rejected by the beginsWith filter are remembered in a
+ * RejectionCache: once a wrong barcode is seen repeatedly in the same place,
+ * single-barcode scans - of the whole frame or of a tracked region of it -
+ * only look at the areas around it.
+ *
+ * Like the ZXing readers themselves, instances are not thread safe.
+ */
+class ConfiguredReader
+{
+    /**
+     * Areas smaller than this (in either direction) left around a masked-out
+     * barcode are not worth scanning
+     */
+    private static final int MIN_REGION_SIZE = 32;
+
+    private final String mBeginsWith;
+    private final RejectionCache mRejections;
+    private final MultiFormatReader mReader;
+    private final GenericMultipleBarcodeReader mMultiReader;
+
+    ConfiguredReader(ScanOptions scanOptions)
+    {
+        mBeginsWith = scanOptions.beginsWith;
+        mRejections = (mBeginsWith == null) ? null : new RejectionCache();
+
+        mReader = new MultiFormatReader();
+        mReader.setHints(scanOptions.getDecodeHints());
+
+        mMultiReader = new GenericMultipleBarcodeReader(
+                new Reader() {
+                    @Override
+                    public Result decode(BinaryBitmap image) throws NotFoundException {
+                        return mReader.decodeWithState(image);
+                    }
+
+                    @Override
+                    public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints) throws NotFoundException {
+                        return mReader.decodeWithState(image);
+                    }
+
+                    @Override
+                    public void reset() {
+                        mReader.reset();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Called once at the start of every frame, before its scans
+     */
+    void nextFrame()
+    {
+        if (mRejections != null)
+            mRejections.nextFrame();
+    }
+
+    /**
+     * Finds a barcode (matching the beginsWith prefix, if any) in a region of
+     * a frameWidth x frameHeight frame, cropped at offsetX/offsetY. The result
+     * points are in the coordinates of the region.
+     *
+     * Negative offsets mean the position of the region is unknown: it is then
+     * scanned without masks, and rejections in it are not remembered.
+     *
+     * @throws NotFoundException if there is none
+     */
+    Result decode(BinaryBitmap bitmap, int offsetX, int offsetY, int frameWidth, int frameHeight) throws NotFoundException
+    {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+
+        ArrayList<Geometry.Rectangle> masks = null;
+        if (mRejections != null && offsetX >= 0 && offsetY >= 0) {
+            Geometry.Rectangle scanned = new Geometry.Rectangle(offsetX, offsetY);
+            scanned.width = width;
+            scanned.height = height;
+            masks = mRejections.getMasks(scanned, frameWidth, frameHeight);
+        }
+        if (masks == null || masks.isEmpty() || !bitmap.isCropSupported())
+            return decodeAccepted(bitmap, 0, 0, offsetX, offsetY, frameWidth, frameHeight);
+
+        // Scan around the barcodes we know we'll reject:
+        Geometry.Rectangle full = new Geometry.Rectangle(0, 0);
+        full.width = width;
+        full.height = height;
+        ArrayList<Geometry.Rectangle> regions = new ArrayList<Geometry.Rectangle>();
+        regions.add(full);
+        for (Geometry.Rectangle mask : masks) {
+            ArrayList<Geometry.Rectangle> remaining = new ArrayList<Geometry.Rectangle>();
+            for (Geometry.Rectangle region : regions)
+                remaining.addAll(RejectionCache.subtract(region, mask));
+            regions = remaining;
+        }
+
+        for (Geometry.Rectangle region : regions) {
+            if (region.width < MIN_REGION_SIZE || region.height < MIN_REGION_SIZE)
+                continue;
+
+            try {
+                BinaryBitmap cropped = bitmap.crop(region.x, region.y, region.width, region.height);
+                return decodeAccepted(cropped, region.x, region.y, offsetX, offsetY, frameWidth, frameHeight);
+            } catch (NotFoundException e) {
+                // try the next region
+            }
+        }
+
+        throw NotFoundException.getNotFoundInstance();
+    }
+
+    /**
+     * Decodes a crop (at offsetX/offsetY) of the scanned region, with the
+     * result points translated into the coordinates of the region. The region
+     * itself is at regionX/regionY in the frame (negative if unknown).
+     */
+    private Result decodeAccepted(BinaryBitmap bitmap, int offsetX, int offsetY, int regionX, int regionY, int frameWidth, int frameHeight) throws NotFoundException
+    {
+        Result result;
+        try {
+            result = mReader.decodeWithState(bitmap);
+        } finally {
+            mReader.reset();
+        }
+
+        if (result == null || result.getText() == null)
+            throw NotFoundException.getNotFoundInstance();
+
+        if (!isAccepted(result)) {
+            if (mRejections != null && regionX >= 0 && regionY >= 0)
+                mRejections.reject(result, regionX + offsetX, regionY + offsetY, frameWidth, frameHeight);
+            throw NotFoundException.getNotFoundInstance();
+        }
+
+        if (offsetX == 0 && offsetY == 0)
+            return result;
+
+        return translate(result, offsetX, offsetY);
+    }
+
+    private static Result translate(Result result, int offsetX, int offsetY)
+    {
+        ResultPoint[] points = result.getResultPoints();
+        ResultPoint[] translated = null;
+        if (points != null) {
+            translated = new ResultPoint[points.length];
+            for (int n = 0; n < points.length; n++)
+                if (points[n] != null)
+                    translated[n] = new ResultPoint(points[n].getX() + offsetX, points[n].getY() + offsetY);
+        }
+
+        Result moved = new Result(result.getText(), result.getRawBytes(), translated, result.getBarcodeFormat());
+        moved.putAllMetadata(result.getResultMetadata());
+        return moved;
+    }
+
+    /**
+     * The number of single-barcode scans that masked out one or more
+     * previously rejected barcodes
+     */
+    long getMaskedScans()
+    {
+        return (mRejections == null) ? 0 : mRejections.getMaskedScans();
+    }
+
+    /**
+     * Finds all barcodes (matching the beginsWith prefix, if any)
+     *
+     * @throws NotFoundException if there are none
+     */
+    Result[] decodeMultiple(BinaryBitmap bitmap) throws NotFoundException
+    {
+        Result[] results;
+        try {
+            results = mMultiReader.decodeMultiple(bitmap);
+        } finally {
+            mReader.reset();
+        }
+
+        if (mBeginsWith == null)
+            return results;
+
+        ArrayList<Result> accepted = new ArrayList<Result>(results.length);
+        for (Result result : results)
+            if (isAccepted(result))
+                accepted.add(result);
+
+        if (accepted.isEmpty())
+            throw NotFoundException.getNotFoundInstance();
+
+        return accepted.toArray(new Result[accepted.size()]);
+    }
+
+    private boolean isAccepted(Result result)
+    {
+        if (result == null || result.getText() == null)
+            return false;
+
+        return mBeginsWith == null || result.getText().startsWith(mBeginsWith);
+    }
+}
@@ -0,0 +1,153 @@
+package dk.schaumburgit.trackingbarcodescanner;
+
+import android.graphics.Point;
+
+/**
+ * A constant-velocity (alpha-beta filter) model of a barcode's movement
+ * across frames.
+ *
+ * Every hit feeds the centroid of the barcode's points into the filter;
+ * predict() then returns the region where the barcode is expected to be
+ * in the next frame - i.e. a square the size of the previous hit, shifted by
+ * the estimated velocity.
+ *
+ * Time is measured in frames: a frame without a hit simply lets the
+ * prediction run one frame further.
+ *
+ * With velocity prediction switched off, the model just remembers the
+ * previous hit.
+ */
+class MotionModel
+{
+    // Critically damped: beta = alpha^2 / (2 - alpha)
+    private static final double ALPHA = 0.6;
+    private static final double BETA = ALPHA * ALPHA / (2 - ALPHA);
+
+    private final int mPatience;
+    private final boolean mPredictVelocity;
+
+    private int mHits = 0;
+    private int mFramesSinceHit = 0;
+    private double mX;
+    private double mY;
+    private double mVelocityX;
+    private double mVelocityY;
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * @param patience The number of consecutive misses after which the model
+     *                 forgets the barcode.
+     * @param predictVelocity Whether to move the predicted region along with
+     *                        the estimated velocity.
+     */
+    MotionModel(int patience, boolean predictVelocity)
+    {
+        mPatience = patience;
+        mPredictVelocity = predictVelocity;
+    }
+
+    void reset()
+    {
+        mHits = 0;
+        mFramesSinceHit = 0;
+        mVelocityX = 0;
+        mVelocityY = 0;
+    }
+
+    /**
+     * Records a hit at the given barcode points in the current frame.
+     */
+    void hit(Point[] points)
+    {
+        if (points == null || points.length == 0) {
+            miss();
+            return;
+        }
+
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        double sumX = 0;
+        double sumY = 0;
+        for (Point p : points) {
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+            sumX += p.x;
+            sumY += p.y;
+        }
+        double measuredX = sumX / points.length;
+        double measuredY = sumY / points.length;
+
+        mWidth = maxX - minX;
+        mHeight = maxY - minY;
+
+        if (mHits == 0 || !mPredictVelocity) {
+            mX = measuredX;
+            mY = measuredY;
+            mVelocityX = 0;
+            mVelocityY = 0;
+        } else {
+            int dt = mFramesSinceHit + 1;
+            double predictedX = mX + mVelocityX * dt;
+            double predictedY = mY + mVelocityY * dt;
+            double residualX = measuredX - predictedX;
+            double residualY = measuredY - predictedY;
+
+            mX = predictedX + ALPHA * residualX;
+            mY = predictedY + ALPHA * residualY;
+            mVelocityX += BETA * residualX / dt;
+            mVelocityY += BETA * residualY / dt;
+        }
+
+        mHits++;
+        mFramesSinceHit = 0;
+    }
+
+    /**
+     * Records that the barcode was not found in the current frame.
+     */
+    void miss()
+    {
+        if (mHits == 0)
+            return;
+
+        mFramesSinceHit++;
+        if (mFramesSinceHit >= mPatience)
+            reset();
+    }
+
+    /**
+     * The region where the barcode is expected in the next frame - or null if
+     * the model hasn't seen enough hits to have a position (or velocity) estimate.
+     *
+     * @param relativeMargin Margin added on all sides, relative to the barcode size
+     *                       (its larger side)
+     */
+    Geometry.Rectangle predict(double relativeMargin, int imageWidth, int imageHeight)
+    {
+        if (mHits < (mPredictVelocity ? 2 : 1))
+            return null;
+
+        int dt = mFramesSinceHit + 1;
+        double centerX = mX + mVelocityX * dt;
+        double centerY = mY + mVelocityY * dt;
+
+        // A square from the larger side: the points of a 1D barcode lie on one
+        // line, so they have no height (or width, if it is held vertically)
+        int halfSize = (int)(Math.max(mWidth, mHeight) * (0.5 + relativeMargin));
+
+        Geometry.Rectangle result = new Geometry.Rectangle((int)centerX - halfSize, (int)centerY - halfSize);
+        result.width = 2 * halfSize;
+        result.height = 2 * halfSize;
+
+        result = result.normalize(0, 0, imageWidth, imageHeight);
+        if (result.width <= 0 || result.height <= 0)
+            return null;
+
+        return result;
+    }
+}
@@ -0,0 +1,189 @@
+package dk.schaumburgit.trackingbarcodescanner;
+
+import android.graphics.Point;
+
+import com.google.zxing.BinaryBitmap;
+
+import java.util.ArrayList;
+
+/**
+ * Tracks several barcodes independently across frames.
+ *
+ * Once a full-frame scan has found a set of barcodes, each of them becomes a
+ * track with its own id and motion model, and the following frames only scan
+ * the expected region of each track. A full-frame scan is done again every
+ * fullScanInterval frames (to pick up new barcodes), or as soon as a tracked
+ * scan finds fewer barcodes than expected.
+ *
+ * Tracks are matched to the barcodes of a full scan by contents (and, for
+ * identical contents, by distance), and dropped after trackingPatience
+ * consecutive misses.
+ */
+class MultiTracker
+{
+    interface RegionScanner
+    {
+        Barcode find(BinaryBitmap bitmap, Geometry.Rectangle region);
+    }
+
+    interface FullScanner
+    {
+        Barcode[] findAll(BinaryBitmap bitmap);
+    }
+
+    private static class Track
+    {
+        final int id;
+        final String contents;
+        final MotionModel motion;
+        double centerX;
+        double centerY;
+        int misses = 0;
+        boolean matched = false;
+
+        Track(int id, String contents, MotionModel motion)
+        {
+            this.id = id;
+            this.contents = contents;
+            this.motion = motion;
+        }
+
+        void hit(Point[] points)
+        {
+            motion.hit(points);
+            misses = 0;
+            if (points != null && points.length > 0) {
+                double sumX = 0;
+                double sumY = 0;
+                for (Point p : points) {
+                    sumX += p.x;
+                    sumY += p.y;
+                }
+                centerX = sumX / points.length;
+                centerY = sumY / points.length;
+            }
+        }
+
+        void miss()
+        {
+            motion.miss();
+            misses++;
+        }
+    }
+
+    private final TrackingOptions mOptions;
+    private final ArrayList<Track> mTracks = new ArrayList<Track>();
+    private int mNextTrackId = 0;
+    private int mFramesSinceFullScan = 0;
+
+    MultiTracker(TrackingOptions options)
+    {
+        mOptions = options;
+    }
+
+    Barcode[] find(BinaryBitmap bitmap, double margin, RegionScanner regionScanner, FullScanner fullScanner)
+    {
+        boolean fullScanDue = mTracks.isEmpty() || mFramesSinceFullScan >= mOptions.fullScanInterval;
+
+        if (!fullScanDue) {
+            Barcode[] found = new Barcode[mTracks.size()];
+            boolean foundAll = true;
+            for (int n = 0; n < found.length && foundAll; n++) {
+                Track track = mTracks.get(n);
+                Geometry.Rectangle region = track.motion.predict(margin, bitmap.getWidth(), bitmap.getHeight());
+                Barcode bc = (region == null) ? null : regionScanner.find(bitmap, region);
+                if (bc != null && SameContents(bc.contents, track.contents))
+                    found[n] = new Barcode(bc.contents, bc.format, bc.points, track.id);
+                else
+                    foundAll = false;
+            }
+
+            if (foundAll) {
+                for (int n = 0; n < found.length; n++)
+                    mTracks.get(n).hit(found[n].points);
+                mFramesSinceFullScan++;
+                return found;
+            }
+
+            // Lost one (or more) - rescan everything to get back on track
+            // (the full scan updates the tracks, hits and misses alike):
+        }
+
+        mFramesSinceFullScan = 0;
+        Barcode[] all = fullScanner.findAll(bitmap);
+        Barcode[] result = associate(all);
+        dropLostTracks();
+        return result;
+    }
+
+    private Barcode[] associate(Barcode[] barcodes)
+    {
+        for (Track track : mTracks)
+            track.matched = false;
+
+        if (barcodes == null)
+            barcodes = new Barcode[0];
+
+        Barcode[] result = new Barcode[barcodes.length];
+        for (int n = 0; n < barcodes.length; n++) {
+            Barcode bc = barcodes[n];
+            Track track = closestUnmatched(bc);
+            if (track == null) {
+                track = new Track(mNextTrackId++, bc.contents, new MotionModel(mOptions.trackingPatience, mOptions.predictMotion));
+                mTracks.add(track);
+            }
+            track.matched = true;
+            track.hit(bc.points);
+            result[n] = new Barcode(bc.contents, bc.format, bc.points, track.id);
+        }
+
+        for (Track track : mTracks)
+            if (!track.matched)
+                track.miss();
+
+        return result;
+    }
+
+    private Track closestUnmatched(Barcode bc)
+    {
+        double x = 0;
+        double y = 0;
+        if (bc.points != null && bc.points.length > 0) {
+            for (Point p : bc.points) {
+                x += p.x;
+                y += p.y;
+            }
+            x /= bc.points.length;
+            y /= bc.points.length;
+        }
+
+        Track best = null;
+        double bestDistance = Double.MAX_VALUE;
+        for (Track track : mTracks) {
+            if (track.matched || !SameContents(bc.contents, track.contents))
+                continue;
+
+            double dx = track.centerX - x;
+            double dy = track.centerY - y;
+            double distance = dx * dx + dy * dy;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = track;
+            }
+        }
+
+        return best;
+    }
+
+    private void dropLostTracks()
+    {
+        for (int n = mTracks.size() - 1; n >= 0; n--)
+            if (mTracks.get(n).misses >= mOptions.trackingPatience)
+                mTracks.remove(n);
+    }
+
+    private static boolean SameContents(String s1, String s2)
+    {
+        return (s1 == null) ? (s2 == null) : s1.equals(s2);
+    }
+}
@@ -0,0 +1,123 @@
+package dk.schaumburgit.trackingbarcodescanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.FormatException;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.DetectorResult;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.detector.Detector;
+
+/**
+ * Locates a barcode in a low-resolution detection image, so only the
+ * corresponding region of the full-resolution image needs to be decoded.
+ *
+ * The detection image is first decoded as it is - which is cheap at low
+ * resolution, works for every symbology, and yields the location of any
+ * barcode big enough to be read. If that fails (e.g. a dense QR code, too
+ * fine to read at low resolution), the QR finder patterns - which are large
+ * and easy to detect even then - are searched for.
+ *
+ * Not thread safe.
+ */
+class RegionLocator
+{
+    private final MultiFormatReader mReader;
+    private final boolean mDetectQR;
+
+    RegionLocator(ScanOptions scanOptions)
+    {
+        mReader = new MultiFormatReader();
+        mReader.setHints(scanOptions.getDecodeHints());
+        mDetectQR = scanOptions.formats == null || scanOptions.formats.contains(BarcodeFormat.QR_CODE);
+    }
+
+    /**
+     * The bounding box of a barcode in the detection image (in detection image
+     * coordinates) - or null if none was found.
+     */
+    Geometry.Rectangle locate(LuminanceSource detectionImage)
+    {
+        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(detectionImage));
+
+        try {
+            Result result = mReader.decodeWithState(bitmap);
+            Geometry.Rectangle bounds = boundsOf(result.getResultPoints());
+            if (bounds != null)
+                return bounds;
+        } catch (NotFoundException e) {
+            // No readable barcode - look for finder patterns
+        } finally {
+            mReader.reset();
+        }
+
+        if (!mDetectQR)
+            return null;
+
+        try {
+            DetectorResult detected = new Detector(bitmap.getBlackMatrix()).detect();
+            return boundsOf(detected.getPoints());
+        } catch (NotFoundException e) {
+            return null;
+        } catch (FormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Scales a rectangle in detection image coordinates up to the full image,
+     * adding relativeMargin on all sides (1D barcodes only report points along
+     * a line, so the margin is based on the larger dimension).
+     */
+    static Geometry.Rectangle scale(Geometry.Rectangle bounds, int detectionWidth, int detectionHeight, int imageWidth, int imageHeight, double relativeMargin)
+    {
+        double scaleX = (double) imageWidth / detectionWidth;
+        double scaleY = (double) imageHeight / detectionHeight;
+
+        double size = Math.max(bounds.width * scaleX, bounds.height * scaleY);
+        double margin = size * relativeMargin;
+
+        int left = (int) (bounds.x * scaleX - margin);
+        int top = (int) (bounds.y * scaleY - margin);
+        int right = (int) ((bounds.x + bounds.width) * scaleX + margin) + 1;
+        int bottom = (int) ((bounds.y + bounds.height) * scaleY + margin) + 1;
+
+        Geometry.Rectangle result = new Geometry.Rectangle(left, top);
+        result.width = right - left;
+        result.height = bottom - top;
+
+        result = result.normalize(0, 0, imageWidth, imageHeight);
+        if (result.width <= 0 || result.height <= 0)
+            return null;
+
+        return result;
+    }
+
+    private static Geometry.Rectangle boundsOf(ResultPoint[] points)
+    {
+        if (points == null || points.length == 0)
+            return null;
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (ResultPoint point : points) {
+            if (point == null)
+                continue;
+            minX = Math.min(minX, point.getX());
+            minY = Math.min(minY, point.getY());
+            maxX = Math.max(maxX, point.getX());
+            maxY = Math.max(maxY, point.getY());
+        }
+        if (minX > maxX)
+            return null;
+
+        Geometry.Rectangle bounds = new Geometry.Rectangle((int) minX, (int) minY);
+        bounds.width = (int) Math.ceil(maxX) - bounds.x;
+        bounds.height = (int) Math.ceil(maxY) - bounds.y;
+        return bounds;
+    }
+}
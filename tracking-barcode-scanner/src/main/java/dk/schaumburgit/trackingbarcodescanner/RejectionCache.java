@@ -0,0 +1,252 @@
+package dk.schaumburgit.trackingbarcodescanner;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import java.util.ArrayList;
+
+/**
+ * Remembers barcodes recently rejected by the beginsWith filter, so a wrong
+ * barcode sitting still in view isn't decoded (and rejected) again on every
+ * frame - and, more importantly, doesn't hide the barcodes we are looking for
+ * (a single-barcode decode stops at the first barcode it finds).
+ *
+ * Rejections are kept in frame coordinates, keyed by the size of the frame,
+ * the location of the barcode and the hash of its contents - so a barcode
+ * rejected in a full scan is also masked out of a tracked region of a later
+ * frame, and vice versa. Once the same barcode has been rejected
+ * STABLE_REJECTIONS times in the same place, its bounding box (plus a margin,
+ * and squared up for 1D barcodes) is returned by getMasks() - translated into the region scanned - for the
+ * caller to scan around.
+ *
+ * Time is counted in frames (see nextFrame()), however many scans each frame
+ * takes: every REVALIDATION_INTERVAL frames no masks are returned, so the
+ * masked areas get a normal scan. A rejected barcode still in place is
+ * rejected (and thereby confirmed) again, while entries not confirmed within
+ * EXPIRY frames are forgotten.
+ *
+ * Not thread safe.
+ */
+class RejectionCache
+{
+    private static final int MAX_ENTRIES = 4;
+    private static final int STABLE_REJECTIONS = 2;
+    private static final int REVALIDATION_INTERVAL = 10;
+    private static final int EXPIRY = 2 * REVALIDATION_INTERVAL + 1;
+    private static final double MASK_MARGIN = 0.1;
+    private static final double MIN_ASPECT = 0.25;
+
+    private static class Entry
+    {
+        final int frameWidth;
+        final int frameHeight;
+        final int contentsHash;
+        Geometry.Rectangle bounds;
+        int rejections;
+        long lastRejected;
+
+        Entry(int frameWidth, int frameHeight, int contentsHash, Geometry.Rectangle bounds)
+        {
+            this.frameWidth = frameWidth;
+            this.frameHeight = frameHeight;
+            this.contentsHash = contentsHash;
+            this.bounds = bounds;
+        }
+
+        boolean matches(int frameWidth, int frameHeight, int contentsHash, Geometry.Rectangle bounds)
+        {
+            if (frameWidth != this.frameWidth || frameHeight != this.frameHeight || contentsHash != this.contentsHash)
+                return false;
+
+            // Same place (allowing for a bit of jitter):
+            int dx = Math.abs((bounds.x + bounds.width / 2) - (this.bounds.x + this.bounds.width / 2));
+            int dy = Math.abs((bounds.y + bounds.height / 2) - (this.bounds.y + this.bounds.height / 2));
+            return dx <= Math.max(this.bounds.width, 1) / 2 && dy <= Math.max(this.bounds.height, 1) / 2;
+        }
+    }
+
+    private final ArrayList<Entry> mEntries = new ArrayList<Entry>();
+    private long mFrames = 0;
+    private long mMaskedScans = 0;
+
+    /**
+     * Called once at the start of every frame, before its scans
+     */
+    void nextFrame()
+    {
+        mFrames++;
+
+        for (int n = mEntries.size() - 1; n >= 0; n--)
+            if (mFrames - mEntries.get(n).lastRejected > EXPIRY)
+                mEntries.remove(n);
+    }
+
+    /**
+     * Records that the result was rejected - with the result points
+     * translated by offsetX/offsetY into the coordinates of the
+     * frameWidth x frameHeight frame.
+     */
+    void reject(Result result, int offsetX, int offsetY, int frameWidth, int frameHeight)
+    {
+        Geometry.Rectangle bounds = boundsOf(result.getResultPoints(), offsetX, offsetY);
+        if (bounds == null)
+            return;
+
+        int contentsHash = result.getText().hashCode();
+        for (Entry entry : mEntries) {
+            if (entry.matches(frameWidth, frameHeight, contentsHash, bounds)) {
+                entry.bounds = bounds;
+                entry.rejections++;
+                entry.lastRejected = mFrames;
+                return;
+            }
+        }
+
+        if (mEntries.size() == MAX_ENTRIES)
+            mEntries.remove(oldestEntry());
+
+        Entry entry = new Entry(frameWidth, frameHeight, contentsHash, bounds);
+        entry.rejections = 1;
+        entry.lastRejected = mFrames;
+        mEntries.add(entry);
+    }
+
+    /**
+     * The areas of region (a part of a frameWidth x frameHeight frame, in
+     * frame coordinates) to leave out of the next scan of it - in the
+     * coordinates of the region itself. Empty if a normal scan should be done.
+     */
+    ArrayList<Geometry.Rectangle> getMasks(Geometry.Rectangle region, int frameWidth, int frameHeight)
+    {
+        ArrayList<Geometry.Rectangle> masks = new ArrayList<Geometry.Rectangle>();
+        if (mFrames % REVALIDATION_INTERVAL == 0)
+            return masks;
+
+        for (Entry entry : mEntries) {
+            if (entry.frameWidth != frameWidth || entry.frameHeight != frameHeight)
+                continue;
+            if (entry.rejections < STABLE_REJECTIONS)
+                continue;
+
+            Geometry.Rectangle mask = withMargin(entry.bounds, frameWidth, frameHeight);
+            mask = translate(mask, -region.x, -region.y).normalize(0, 0, region.width, region.height);
+            if (mask.width > 0 && mask.height > 0)
+                masks.add(mask);
+        }
+
+        if (!masks.isEmpty())
+            mMaskedScans++;
+
+        return masks;
+    }
+
+    /**
+     * The number of scans done with one or more rejected barcodes masked out
+     */
+    long getMaskedScans()
+    {
+        return mMaskedScans;
+    }
+
+    private int oldestEntry()
+    {
+        int oldest = 0;
+        for (int n = 1; n < mEntries.size(); n++)
+            if (mEntries.get(n).lastRejected < mEntries.get(oldest).lastRejected)
+                oldest = n;
+        return oldest;
+    }
+
+    private static Geometry.Rectangle boundsOf(ResultPoint[] points, int offsetX, int offsetY)
+    {
+        if (points == null || points.length == 0)
+            return null;
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (ResultPoint point : points) {
+            if (point == null)
+                continue;
+            minX = Math.min(minX, (int) point.getX() + offsetX);
+            minY = Math.min(minY, (int) point.getY() + offsetY);
+            maxX = Math.max(maxX, (int) point.getX() + offsetX);
+            maxY = Math.max(maxY, (int) point.getY() + offsetY);
+        }
+        if (minX > maxX)
+            return null;
+
+        Geometry.Rectangle bounds = new Geometry.Rectangle(minX, minY);
+        bounds.width = maxX - minX;
+        bounds.height = maxY - minY;
+
+        // 1D barcodes only report points along the scan line, while their bars
+        // extend across it: bounds that thin are widened into a square around
+        // the line - so the mask covers the bars, and a barcode that moves
+        // slightly across the line is still recognized as the same one.
+        int size = Math.max(bounds.width, bounds.height);
+        if (Math.min(bounds.width, bounds.height) < size * MIN_ASPECT) {
+            bounds.x = (minX + maxX - size) / 2;
+            bounds.y = (minY + maxY - size) / 2;
+            bounds.width = size;
+            bounds.height = size;
+        }
+
+        return bounds;
+    }
+
+    private static Geometry.Rectangle translate(Geometry.Rectangle rectangle, int dx, int dy)
+    {
+        Geometry.Rectangle result = new Geometry.Rectangle(rectangle);
+        result.x += dx;
+        result.y += dy;
+        return result;
+    }
+
+    private static Geometry.Rectangle withMargin(Geometry.Rectangle bounds, int frameWidth, int frameHeight)
+    {
+        // (relative to the larger dimension, as for the tracked regions)
+        int margin = (int) (Math.max(bounds.width, bounds.height) * MASK_MARGIN) + 1;
+
+        Geometry.Rectangle result = new Geometry.Rectangle(bounds.x - margin, bounds.y - margin);
+        result.width = bounds.width + 2 * margin;
+        result.height = bounds.height + 2 * margin;
+        return result.normalize(0, 0, frameWidth, frameHeight);
+    }
+
+    /**
+     * Splits region into the (up to 4) rectangles left when mask is cut out of it.
+     */
+    static ArrayList<Geometry.Rectangle> subtract(Geometry.Rectangle region, Geometry.Rectangle mask)
+    {
+        ArrayList<Geometry.Rectangle> result = new ArrayList<Geometry.Rectangle>(4);
+
+        int left = Math.max(region.x, mask.x);
+        int top = Math.max(region.y, mask.y);
+        int right = Math.min(region.x + region.width, mask.x + mask.width);
+        int bottom = Math.min(region.y + region.height, mask.y + mask.height);
+        if (left >= right || top >= bottom) {
+            result.add(region);
+            return result;
+        }
+
+        // Full-width strips above and below the mask...
+        addIfNotEmpty(result, region.x, region.y, region.width, top - region.y);
+        addIfNotEmpty(result, region.x, bottom, region.width, region.y + region.height - bottom);
+        // ...and the pieces left and right of it:
+        addIfNotEmpty(result, region.x, top, left - region.x, bottom - top);
+        addIfNotEmpty(result, right, top, region.x + region.width - right, bottom - top);
+
+        return result;
+    }
+
+    private static void addIfNotEmpty(ArrayList<Geometry.Rectangle> list, int x, int y, int width, int height)
+    {
+        if (width <= 0 || height <= 0)
+            return;
+
+        Geometry.Rectangle rectangle = new Geometry.Rectangle(x, y);
+        rectangle.width = width;
+        rectangle.height = height;
+        list.add(rectangle);
+    }
+}
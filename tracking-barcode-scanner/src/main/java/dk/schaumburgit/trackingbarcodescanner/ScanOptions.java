@@ -1,21 +1,77 @@
 package dk.schaumburgit.trackingbarcodescanner;
 
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Created by Thomas on 06-02-2018.
+ *
+ * formats restricts the symbologies looked for (null: all of them) - a
+ * QR-only deployment thus avoids running all the 1D readers on every frame.
+ * tryHarder and pureBarcode are passed on to ZXing as the corresponding
+ * DecodeHintType hints.
  */
 
 public class ScanOptions
 {
     public final String emptyMarker;
     public final String beginsWith;
+    public final Set<BarcodeFormat> formats;
+    public final boolean tryHarder;
+    public final boolean pureBarcode;
     public ScanOptions()
     {
         this.emptyMarker = null;
         this.beginsWith = null;
+        this.formats = null;
+        this.tryHarder = false;
+        this.pureBarcode = false;
     }
     public ScanOptions(String emptyMarker, String beginsWith)
+    {
+        this(emptyMarker, beginsWith, null, false, false);
+    }
+    public ScanOptions(String emptyMarker, String beginsWith, Set<BarcodeFormat> formats, boolean tryHarder, boolean pureBarcode)
     {
         this.emptyMarker = emptyMarker;
         this.beginsWith = beginsWith;
+        this.formats = (formats == null || formats.isEmpty()) ? null : Collections.unmodifiableSet(EnumSet.copyOf(formats));
+        this.tryHarder = tryHarder;
+        this.pureBarcode = pureBarcode;
+    }
+    public ScanOptions clone(Set<BarcodeFormat> formats, boolean tryHarder, boolean pureBarcode)
+    {
+        return new ScanOptions(this.emptyMarker, this.beginsWith, formats, tryHarder, pureBarcode);
+    }
+
+    /**
+     * Whether any of formats, tryHarder or pureBarcode differ from
+     * the defaults
+     */
+    public boolean hasDecodeHints()
+    {
+        return formats != null || tryHarder || pureBarcode;
+    }
+
+    /**
+     * The ZXing hints corresponding to these options
+     */
+    public Map<DecodeHintType, Object> getDecodeHints()
+    {
+        Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        if (formats != null)
+            hints.put(DecodeHintType.POSSIBLE_FORMATS, formats);
+        if (tryHarder)
+            hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+        if (pureBarcode)
+            hints.put(DecodeHintType.PURE_BARCODE, Boolean.TRUE);
+
+        return hints;
     }
 }
@@ -4,11 +4,14 @@ package dk.schaumburgit.trackingbarcodescanner;
  * Created by Thomas on 21-11-2015.
  */
 
+import android.graphics.Point;
 import android.util.Size;
 
 import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
 import com.google.zxing.NotFoundException;
 import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
 
 
 /**
@@ -41,6 +44,41 @@ import com.google.zxing.Result;
  * occasionally occur. This parameter specifies how many consecutive bad frames will cause
  * a tracking loss (default 5).
  *
+ * PredictMotion (boolean): Centre the tracking scan where the barcode is predicted to be,
+ * based on its velocity over the previous hits (default false). This keeps a barcode
+ * moving at a steady pace (e.g. on a conveyor belt) inside a small search area.
+ *
+ * AdaptiveMargin (boolean): Tune the tracking margin per session, shrinking it while the
+ * barcode keeps being found inside the tracking window, and growing it when it is only found
+ * by the fallback scan (default false). The current value is available from
+ * getCurrentTrackingMargin().
+ *
+ * With either of these, each frame gets (at most) one tracked scan - of the predicted
+ * window, with the current margin - before the fallback full scan.
+ *
+ * TrackMultiple (boolean): Let findMultiple() track every barcode it finds separately, scanning
+ * only the region around each one, with a full scan every FullScanInterval frames or when a
+ * barcode is lost (default false). The barcodes returned carry a trackId identifying them
+ * across frames.
+ *
+ * Decode hints (ScanOptions.formats, tryHarder, pureBarcode): when set, scanning uses a
+ * MultiFormatReader configured once with the corresponding ZXing hints - so e.g. a QR-only
+ * deployment doesn't pay for the 1D readers on every frame.
+ *
+ * Rejected barcodes (ScanOptions.beginsWith): a barcode not matching the prefix, but sitting
+ * still in view, is remembered and left out of the subsequent scans (with a periodic re-check),
+ * so the scanner isn't stuck decoding it over and over instead of looking for the right one.
+ *
+ * Detection images: findSingle(bitmap, detectionImage) first locates the barcode in a
+ * low-resolution image of the same scene, and only decodes that region of the full-resolution
+ * bitmap. When nothing is located, the full bitmap is only scanned every FullScanInterval
+ * frames - so empty frames cost no more than scanning the small image.
+ *
+ * Stage timing: with a StageTimer set (see setStageTimer), the time spent binarizing and
+ * decoding is reported per scan - split into tracked scans (a region of the image) and full
+ * scans (the whole image). The binarization is then done up-front, before the decoding, so it
+ * can be timed separately.
+ *
  * PreferredImageFormats (readonly, int[]): Specifies the image formats supported by
  * TrackingBarcodeScanner - using values from the ImageFormats enum - in order of preference
  * (default {YUV_420_888, JPEG})
@@ -49,32 +87,328 @@ public class TrackingBarcodeScanner {
     private static final String TAG = "BarcodeFinder";
     private final Scanner mScanner;
     private final Tracker mTracker;
+    private final TrackingOptions mTrackingOptions;
+    private final MotionModel mMotionModel;
+    private final AdaptiveMargin mAdaptiveMargin;
+    private final MultiTracker mMultiTracker;
+    private final ConfiguredReader mConfiguredReader;
+    private final ScanOptions mScanOptions;
+    private RegionLocator mRegionLocator = null;
+    private int mFramesSinceFullScan = 0;
+    private StageTimer mStageTimer = null;
+    private int mFrameWidth = 0;
+    private int mFrameHeight = 0;
+
+    /**
+     * Receives the time spent in each stage of a scan. Called on the
+     * scanning thread.
+     */
+    public interface StageTimer
+    {
+        void onBinarized(long nanos);
+        void onTrackedScan(long nanos);
+        void onFullScan(long nanos);
+    }
     public TrackingBarcodeScanner(ScanOptions scanOptions, TrackingOptions trackingOptions)
     {
+        this.mTrackingOptions = trackingOptions;
+        this.mScanOptions = scanOptions;
         this.mTracker = new Tracker(trackingOptions, scanOptions);
         this.mScanner = new Scanner(scanOptions, trackingOptions);
+
+        if (trackingOptions.predictMotion || trackingOptions.adaptiveMargin)
+            this.mMotionModel = new MotionModel(trackingOptions.trackingPatience, trackingOptions.predictMotion);
+        else
+            this.mMotionModel = null;
+
+        if (trackingOptions.adaptiveMargin)
+            this.mAdaptiveMargin = new AdaptiveMargin(trackingOptions.trackingMargin, trackingOptions.minTrackingMargin, trackingOptions.maxTrackingMargin);
+        else
+            this.mAdaptiveMargin = null;
+
+        this.mMultiTracker = trackingOptions.trackMultiple ? new MultiTracker(trackingOptions) : null;
+        this.mConfiguredReader = (scanOptions.hasDecodeHints() || scanOptions.beginsWith != null) ? new ConfiguredReader(scanOptions) : null;
+    }
+
+    /**
+     * The relative margin currently used around the expected barcode position
+     * (only differs from TrackingOptions.trackingMargin with adaptive margins)
+     */
+    public double getCurrentTrackingMargin() {
+        if (mAdaptiveMargin != null)
+            return mAdaptiveMargin.get();
+
+        return mTrackingOptions.trackingMargin;
+    }
+
+    /**
+     * The number of scans that left out one or more barcodes previously
+     * rejected by ScanOptions.beginsWith
+     */
+    public long getMaskedScans() {
+        return (mConfiguredReader == null) ? 0 : mConfiguredReader.getMaskedScans();
+    }
+
+    /**
+     * Sets the timer receiving the time spent in each stage of the
+     * following scans (null, the default, for no timing)
+     */
+    public void setStageTimer(StageTimer stageTimer) {
+        mStageTimer = stageTimer;
+    }
+
+    private void startFrame(BinaryBitmap bitmap) {
+        mFrameWidth = bitmap.getWidth();
+        mFrameHeight = bitmap.getHeight();
+        if (mConfiguredReader != null)
+            mConfiguredReader.nextFrame();
     }
 
     public Barcode findSingle(BinaryBitmap bitmap) {
+        startFrame(bitmap);
+        return findSingleInFrame(bitmap);
+    }
+
+    private Barcode findSingleInFrame(BinaryBitmap bitmap) {
+        if (mMotionModel == null)
+            return trackSingle(bitmap);
+
+        // With a motion model, it replaces the Tracker's fixed-margin window.
+        // The tracked scan: where the barcode is expected to be, with the
+        // current margin...
+        Geometry.Rectangle expected = mMotionModel.predict(getCurrentTrackingMargin(), bitmap.getWidth(), bitmap.getHeight());
+        if (expected != null) {
+            Barcode bc = findInRegion(bitmap, expected);
+            if (bc != null) {
+                mMotionModel.hit(bc.points);
+                if (mAdaptiveMargin != null)
+                    mAdaptiveMargin.hit();
+                return bc;
+            }
+        }
+
+        // ...then fall back to scanning the whole image:
+        Barcode bc = findInImage(bitmap);
+        if (bc != null) {
+            mMotionModel.hit(bc.points);
+            // Found - but not where we looked first:
+            if (expected != null && mAdaptiveMargin != null)
+                mAdaptiveMargin.nearMiss();
+        } else {
+            mMotionModel.miss();
+        }
+
+        return bc;
+    }
+
+    /**
+     * Like findSingle(bitmap), but first locates the barcode in detectionImage - a
+     * low-resolution image of the same scene - and then only decodes that region
+     * of bitmap.
+     *
+     * If no barcode is located, the full bitmap is still scanned every
+     * TrackingOptions.fullScanInterval frames (to catch barcodes too small to
+     * locate in the detection image); in all other frames null is returned right away.
+     */
+    public Barcode findSingle(BinaryBitmap bitmap, LuminanceSource detectionImage) {
+        if (detectionImage == null)
+            return findSingle(bitmap);
+
+        startFrame(bitmap);
+        if (mRegionLocator == null)
+            mRegionLocator = new RegionLocator(mScanOptions);
+
+        Geometry.Rectangle located = mRegionLocator.locate(detectionImage);
+        if (located != null) {
+            Geometry.Rectangle region = RegionLocator.scale(
+                    located,
+                    detectionImage.getWidth(),
+                    detectionImage.getHeight(),
+                    bitmap.getWidth(),
+                    bitmap.getHeight(),
+                    getCurrentTrackingMargin()
+            );
+            Barcode bc = (region == null) ? null : findInRegion(bitmap, region);
+            if (bc != null) {
+                if (mMotionModel != null)
+                    mMotionModel.hit(bc.points);
+                return bc;
+            }
+        }
+
+        if (++mFramesSinceFullScan < mTrackingOptions.fullScanInterval) {
+            if (mMotionModel != null)
+                mMotionModel.miss();
+            return null;
+        }
+
+        mFramesSinceFullScan = 0;
+        return findSingleInFrame(bitmap);
+    }
+
+    private Barcode trackSingle(BinaryBitmap bitmap) {
         return mTracker.findSingle(
                 bitmap,
                 new Tracker.MyUnaryFunction<BinaryBitmap, Result>() {
                     @Override
                     public Result apply(BinaryBitmap binaryBitmap) throws NotFoundException {
-                        return mScanner.doFind(binaryBitmap);
+                        // (the Tracker doesn't tell where its crops are)
+                        boolean whole = binaryBitmap.getWidth() == mFrameWidth && binaryBitmap.getHeight() == mFrameHeight;
+                        return doFind(binaryBitmap, whole ? 0 : -1, whole ? 0 : -1);
                     }
                 }
         );
     }
 
+    /**
+     * Scans the whole bitmap, returning any barcode found (or null if none was found).
+     */
+    private Barcode findInImage(BinaryBitmap bitmap) {
+        Result result;
+        try {
+            result = doFind(bitmap, 0, 0);
+        } catch (NotFoundException e) {
+            return null;
+        }
+
+        if (result == null || result.getText() == null)
+            return null;
+
+        return toBarcode(result, 0, 0);
+    }
+
+    /**
+     * Scans only the given region of the bitmap, returning any barcode found
+     * in full-image coordinates (or null if none was found).
+     */
+    private Barcode findInRegion(BinaryBitmap bitmap, Geometry.Rectangle region) {
+        if (!bitmap.isCropSupported())
+            return null;
+
+        Result result;
+        try {
+            result = doFind(bitmap.crop(region.x, region.y, region.width, region.height), region.x, region.y);
+        } catch (NotFoundException e) {
+            return null;
+        }
+
+        if (result == null || result.getText() == null)
+            return null;
+
+        return toBarcode(result, region.x, region.y);
+    }
+
+    /**
+     * Scans (a crop at offsetX/offsetY of) the current frame - negative
+     * offsets if the position of the crop is unknown.
+     */
+    private Result doFind(BinaryBitmap bitmap, int offsetX, int offsetY) throws NotFoundException {
+        StageTimer timer = mStageTimer;
+        if (timer == null)
+            return find(bitmap, offsetX, offsetY);
+
+        long start = binarize(bitmap, timer);
+        try {
+            return find(bitmap, offsetX, offsetY);
+        } finally {
+            onScanned(bitmap, timer, start);
+        }
+    }
+
+    private Result find(BinaryBitmap bitmap, int offsetX, int offsetY) throws NotFoundException {
+        if (mConfiguredReader != null)
+            return mConfiguredReader.decode(bitmap, offsetX, offsetY, mFrameWidth, mFrameHeight);
+
+        return mScanner.doFind(bitmap);
+    }
+
+    private Result[] doFindMultiple(BinaryBitmap bitmap) throws NotFoundException {
+        StageTimer timer = mStageTimer;
+        if (timer == null)
+            return findAll(bitmap);
+
+        long start = binarize(bitmap, timer);
+        try {
+            return findAll(bitmap);
+        } finally {
+            onScanned(bitmap, timer, start);
+        }
+    }
+
+    private Result[] findAll(BinaryBitmap bitmap) throws NotFoundException {
+        if (mConfiguredReader != null)
+            return mConfiguredReader.decodeMultiple(bitmap);
+
+        return mScanner.doFindMultiple(bitmap);
+    }
+
+    /**
+     * Binarizes the bitmap (cached by it for the decoding), reporting the
+     * time spent. Returns the time the decoding starts.
+     */
+    private static long binarize(BinaryBitmap bitmap, StageTimer timer) throws NotFoundException {
+        long start = System.nanoTime();
+        bitmap.getBlackMatrix();
+        long binarized = System.nanoTime();
+        timer.onBinarized(binarized - start);
+        return binarized;
+    }
+
+    private void onScanned(BinaryBitmap bitmap, StageTimer timer, long start) {
+        long nanos = System.nanoTime() - start;
+        if (bitmap.getWidth() == mFrameWidth && bitmap.getHeight() == mFrameHeight)
+            timer.onFullScan(nanos);
+        else
+            timer.onTrackedScan(nanos);
+    }
+
+    private static Barcode toBarcode(Result result, int offsetX, int offsetY) {
+        ResultPoint[] resultPoints = result.getResultPoints();
+        Point[] points = null;
+        if (resultPoints != null) {
+            points = new Point[resultPoints.length];
+            for (int n = 0; n < resultPoints.length; n++)
+                points[n] = new Point(
+                        (int) resultPoints[n].getX() + offsetX,
+                        (int) resultPoints[n].getY() + offsetY
+                );
+        }
+
+        return new Barcode(result.getText(), result.getBarcodeFormat(), points);
+    }
+
     public Barcode[] findMultiple(BinaryBitmap bitmap)
+    {
+        startFrame(bitmap);
+        if (mMultiTracker == null)
+            return trackMultiple(bitmap);
+
+        return mMultiTracker.find(
+                bitmap,
+                getCurrentTrackingMargin(),
+                new MultiTracker.RegionScanner() {
+                    @Override
+                    public Barcode find(BinaryBitmap bitmap, Geometry.Rectangle region) {
+                        return findInRegion(bitmap, region);
+                    }
+                },
+                new MultiTracker.FullScanner() {
+                    @Override
+                    public Barcode[] findAll(BinaryBitmap bitmap) {
+                        return trackMultiple(bitmap);
+                    }
+                }
+        );
+    }
+
+    private Barcode[] trackMultiple(BinaryBitmap bitmap)
     {
         return mTracker.findMultiple(
                 bitmap,
                 new Tracker.MyUnaryFunction<BinaryBitmap, Result[]>() {
                     @Override
                     public Result[] apply(BinaryBitmap binaryBitmap) throws NotFoundException {
-                        return mScanner.doFindMultiple(binaryBitmap);
+                        return doFindMultiple(binaryBitmap);
                     }
                 }
         );
@@ -9,20 +9,60 @@ package dk.schaumburgit.trackingbarcodescanner;
  *
  * If this narrowed search fails a number of times, the scanner will revert to
  * searching the full image.
+ *
+ * With predictMotion enabled, the narrowed search is moved to where the barcode
+ * is expected to be, based on its velocity over the previous frames - which
+ * allows a smaller margin for barcodes moving at a steady pace (e.g. on a
+ * conveyor belt).
+ *
+ * With adaptiveMargin enabled, trackingMargin is only the starting point: the
+ * margin is shrunk while the barcode keeps being found inside the tracking
+ * window, and grown when it is found outside it - always staying within
+ * [minTrackingMargin, maxTrackingMargin].
+ *
+ * With trackMultiple enabled, multi-barcode scans track each barcode found
+ * separately, only rescanning the full image every fullScanInterval frames
+ * (or when a tracked barcode is lost).
  */
 public class TrackingOptions
 {
     public final double trackingMargin;
     public final int trackingPatience;
-    public TrackingOptions(double margin, int patience)
+    public final boolean predictMotion;
+    public final boolean adaptiveMargin;
+    public final double minTrackingMargin;
+    public final double maxTrackingMargin;
+    public final boolean trackMultiple;
+    public final int fullScanInterval;
+    public TrackingOptions(double margin, int patience, boolean predictMotion, boolean adaptiveMargin, double minMargin, double maxMargin, boolean trackMultiple, int fullScanInterval)
     {
         this.trackingMargin = margin;
         this.trackingPatience = patience;
+        this.predictMotion = predictMotion;
+        this.adaptiveMargin = adaptiveMargin;
+        this.minTrackingMargin = minMargin;
+        this.maxTrackingMargin = maxMargin;
+        this.trackMultiple = trackMultiple;
+        this.fullScanInterval = fullScanInterval;
+    }
+    public TrackingOptions(double margin, int patience, boolean predictMotion)
+    {
+        this(margin, patience, predictMotion, false, 0.1, 2.0, false, 10);
+    }
+    public TrackingOptions(double margin, int patience)
+    {
+        this(margin, patience, false);
     }
     public TrackingOptions()
     {
         this.trackingMargin = 1.0;
         this.trackingPatience = 5;
+        this.predictMotion = false;
+        this.adaptiveMargin = false;
+        this.minTrackingMargin = 0.1;
+        this.maxTrackingMargin = 2.0;
+        this.trackMultiple = false;
+        this.fullScanInterval = 10;
     }
     public TrackingOptions clone(double margin, int patience)
     {
@@ -32,6 +72,27 @@ public class TrackingOptions
         if (patience < 0)
             patience = this.trackingPatience;
 
-        return new TrackingOptions(margin, patience);
+        return new TrackingOptions(margin, patience, this.predictMotion, this.adaptiveMargin, this.minTrackingMargin, this.maxTrackingMargin, this.trackMultiple, this.fullScanInterval);
+    }
+    public TrackingOptions withPredictMotion(boolean predictMotion)
+    {
+        return new TrackingOptions(this.trackingMargin, this.trackingPatience, predictMotion, this.adaptiveMargin, this.minTrackingMargin, this.maxTrackingMargin, this.trackMultiple, this.fullScanInterval);
+    }
+    public TrackingOptions withAdaptiveMargin(boolean adaptiveMargin, double minMargin, double maxMargin)
+    {
+        if (minMargin < 0)
+            minMargin = this.minTrackingMargin;
+
+        if (maxMargin < 0)
+            maxMargin = this.maxTrackingMargin;
+
+        return new TrackingOptions(this.trackingMargin, this.trackingPatience, this.predictMotion, adaptiveMargin, minMargin, maxMargin, this.trackMultiple, this.fullScanInterval);
+    }
+    public TrackingOptions withTrackMultiple(boolean trackMultiple, int fullScanInterval)
+    {
+        if (fullScanInterval < 1)
+            fullScanInterval = this.fullScanInterval;
+
+        return new TrackingOptions(this.trackingMargin, this.trackingPatience, this.predictMotion, this.adaptiveMargin, this.minTrackingMargin, this.maxTrackingMargin, trackMultiple, fullScanInterval);
     }
 }
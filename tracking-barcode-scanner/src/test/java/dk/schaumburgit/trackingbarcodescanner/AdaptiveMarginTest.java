@@ -0,0 +1,77 @@
+package dk.schaumburgit.trackingbarcodescanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveMarginTest
+{
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void initialMargin_isClamped() throws Exception
+    {
+        assertEquals(2.0, new AdaptiveMargin(5.0, 0.1, 2.0).get(), DELTA);
+        assertEquals(0.1, new AdaptiveMargin(0.0, 0.1, 2.0).get(), DELTA);
+        assertEquals(1.0, new AdaptiveMargin(1.0, 0.1, 2.0).get(), DELTA);
+    }
+
+    @Test
+    public void hit_shrinksAfterThreeHits() throws Exception
+    {
+        AdaptiveMargin margin = new AdaptiveMargin(1.0, 0.1, 2.0);
+
+        margin.hit();
+        margin.hit();
+        assertEquals(1.0, margin.get(), DELTA);
+
+        margin.hit();
+        assertEquals(0.9, margin.get(), DELTA);
+
+        // ...and again only after three more:
+        margin.hit();
+        margin.hit();
+        assertEquals(0.9, margin.get(), DELTA);
+        margin.hit();
+        assertEquals(0.81, margin.get(), DELTA);
+    }
+
+    @Test
+    public void hit_neverShrinksBelowMinimum() throws Exception
+    {
+        AdaptiveMargin margin = new AdaptiveMargin(0.11, 0.1, 2.0);
+        for (int n = 0; n < 30; n++)
+            margin.hit();
+
+        assertEquals(0.1, margin.get(), DELTA);
+    }
+
+    @Test
+    public void nearMiss_growsUpToMaximum() throws Exception
+    {
+        AdaptiveMargin margin = new AdaptiveMargin(1.0, 0.1, 2.0);
+
+        margin.nearMiss();
+        assertEquals(1.5, margin.get(), DELTA);
+
+        margin.nearMiss();
+        assertEquals(2.0, margin.get(), DELTA);
+    }
+
+    @Test
+    public void nearMiss_restartsHitCount() throws Exception
+    {
+        AdaptiveMargin margin = new AdaptiveMargin(1.0, 0.1, 2.0);
+
+        margin.hit();
+        margin.hit();
+        margin.nearMiss();
+        assertEquals(1.5, margin.get(), DELTA);
+
+        margin.hit();
+        margin.hit();
+        assertEquals(1.5, margin.get(), DELTA);
+        margin.hit();
+        assertEquals(1.35, margin.get(), DELTA);
+    }
+}
@@ -0,0 +1,139 @@
+package dk.schaumburgit.trackingbarcodescanner;
+
+import android.graphics.Point;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MotionModelTest
+{
+    private static final int IMAGE_WIDTH = 1000;
+    private static final int IMAGE_HEIGHT = 1000;
+
+    @Test
+    public void predict_isNullBeforeFirstHit() throws Exception
+    {
+        MotionModel model = new MotionModel(3, false);
+        assertNull(model.predict(0.5, IMAGE_WIDTH, IMAGE_HEIGHT));
+    }
+
+    @Test
+    public void predict_withoutVelocity_returnsPreviousHitWithMargin() throws Exception
+    {
+        MotionModel model = new MotionModel(3, false);
+        model.hit(square(100, 200, 10));
+
+        Geometry.Rectangle predicted = model.predict(0.5, IMAGE_WIDTH, IMAGE_HEIGHT);
+        assertRectangle(80, 180, 40, 40, predicted);
+
+        // A miss doesn't move it:
+        model.miss();
+        assertRectangle(80, 180, 40, 40, model.predict(0.5, IMAGE_WIDTH, IMAGE_HEIGHT));
+    }
+
+    @Test
+    public void predict_withVelocity_needsTwoHits() throws Exception
+    {
+        MotionModel model = new MotionModel(3, true);
+        model.hit(square(100, 200, 10));
+        assertNull(model.predict(0.5, IMAGE_WIDTH, IMAGE_HEIGHT));
+
+        model.hit(square(110, 200, 10));
+        assertNotNull(model.predict(0.5, IMAGE_WIDTH, IMAGE_HEIGHT));
+    }
+
+    @Test
+    public void predict_withVelocity_followsConstantMovement() throws Exception
+    {
+        MotionModel model = new MotionModel(3, true);
+        for (int n = 0; n < 20; n++)
+            model.hit(square(100 + 10 * n, 200 + 5 * n, 10));
+
+        // The next frame should have the centre at (300, 300):
+        Geometry.Rectangle predicted = model.predict(0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        assertEquals(290, predicted.x, 1);
+        assertEquals(290, predicted.y, 1);
+        assertEquals(20, predicted.width);
+        assertEquals(20, predicted.height);
+
+        // ...and a miss lets the prediction run one frame further:
+        model.miss();
+        predicted = model.predict(0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        assertEquals(300, predicted.x, 1);
+        assertEquals(295, predicted.y, 1);
+    }
+
+    @Test
+    public void predict_for1DBarcode_usesLengthInBothDimensions() throws Exception
+    {
+        // A 1D barcode is found as two points on the scan line:
+        MotionModel model = new MotionModel(3, true);
+        model.hit(new Point[]{point(100, 200), point(200, 200)});
+        model.hit(new Point[]{point(110, 200), point(210, 200)});
+
+        Geometry.Rectangle predicted = model.predict(0.5, IMAGE_WIDTH, IMAGE_HEIGHT);
+        assertNotNull(predicted);
+        assertEquals(200, predicted.width);
+        assertEquals(200, predicted.height);
+        assertEquals(200, predicted.y + predicted.height / 2, 1);
+
+        // ...and held vertically:
+        model = new MotionModel(3, false);
+        model.hit(new Point[]{point(300, 100), point(300, 160)});
+        assertRectangle(240, 70, 120, 120, model.predict(0.5, IMAGE_WIDTH, IMAGE_HEIGHT));
+    }
+
+    @Test
+    public void predict_isClippedToImage() throws Exception
+    {
+        MotionModel model = new MotionModel(3, false);
+        model.hit(square(5, 995, 10));
+
+        assertRectangle(0, 975, 25, 25, model.predict(0.5, IMAGE_WIDTH, IMAGE_HEIGHT));
+    }
+
+    @Test
+    public void miss_forgetsBarcodeAfterPatience() throws Exception
+    {
+        MotionModel model = new MotionModel(2, false);
+        model.hit(square(100, 200, 10));
+
+        model.miss();
+        assertNotNull(model.predict(0.5, IMAGE_WIDTH, IMAGE_HEIGHT));
+
+        model.miss();
+        assertNull(model.predict(0.5, IMAGE_WIDTH, IMAGE_HEIGHT));
+    }
+
+    private static void assertRectangle(int x, int y, int width, int height, Geometry.Rectangle actual)
+    {
+        assertNotNull(actual);
+        assertEquals(x, actual.x);
+        assertEquals(y, actual.y);
+        assertEquals(width, actual.width);
+        assertEquals(height, actual.height);
+    }
+
+    /**
+     * The corners of a square around the given centre
+     */
+    static Point[] square(int centerX, int centerY, int halfSide)
+    {
+        return new Point[]{
+                point(centerX - halfSide, centerY - halfSide),
+                point(centerX + halfSide, centerY - halfSide),
+                point(centerX + halfSide, centerY + halfSide),
+                point(centerX - halfSide, centerY + halfSide)
+        };
+    }
+
+    static Point point(int x, int y)
+    {
+        // (the Point constructors are stubs in local unit tests, the fields aren't)
+        Point p = new Point();
+        p.x = x;
+        p.y = y;
+        return p;
+    }
+}
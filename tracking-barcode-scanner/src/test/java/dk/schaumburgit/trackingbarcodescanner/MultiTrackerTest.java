@@ -0,0 +1,194 @@
+package dk.schaumburgit.trackingbarcodescanner;
+
+import android.graphics.Point;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class MultiTrackerTest
+{
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 400;
+
+    private final BinaryBitmap mBitmap = new BinaryBitmap(new HybridBinarizer(
+            new PlanarYUVLuminanceSource(new byte[WIDTH * HEIGHT], WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, false)));
+
+    // The barcodes "in view" - found by the fake scanners below:
+    private final ArrayList<Barcode> mScene = new ArrayList<Barcode>();
+    private boolean mRegionScansFail = false;
+    private int mFullScans = 0;
+
+    private final MultiTracker.RegionScanner mRegionScanner = new MultiTracker.RegionScanner() {
+        @Override
+        public Barcode find(BinaryBitmap bitmap, Geometry.Rectangle region) {
+            if (mRegionScansFail)
+                return null;
+
+            for (Barcode bc : mScene) {
+                Point center = center(bc.points);
+                if (center.x >= region.x && center.x < region.x + region.width && center.y >= region.y && center.y < region.y + region.height)
+                    return bc;
+            }
+
+            return null;
+        }
+    };
+
+    private final MultiTracker.FullScanner mFullScanner = new MultiTracker.FullScanner() {
+        @Override
+        public Barcode[] findAll(BinaryBitmap bitmap) {
+            mFullScans++;
+            return mScene.toArray(new Barcode[mScene.size()]);
+        }
+    };
+
+    @Test
+    public void fullScan_assignsTrackIds() throws Exception
+    {
+        MultiTracker tracker = new MultiTracker(options(5, 10));
+        show("A", 100, 100);
+        show("B", 300, 300);
+
+        Barcode[] found = tracker.find(mBitmap, 1.0, mRegionScanner, mFullScanner);
+
+        assertTrackIds(found, 0, 1);
+        assertEquals(1, mFullScans);
+    }
+
+    @Test
+    public void trackedFrames_keepIdsWithoutFullScan() throws Exception
+    {
+        MultiTracker tracker = new MultiTracker(options(5, 10));
+        show("A", 100, 100);
+        show("B", 300, 300);
+        tracker.find(mBitmap, 1.0, mRegionScanner, mFullScanner);
+
+        mScene.clear();
+        show("A", 105, 105);
+        show("B", 295, 295);
+        Barcode[] found = tracker.find(mBitmap, 1.0, mRegionScanner, mFullScanner);
+
+        assertTrackIds(found, 0, 1);
+        assertEquals("A", found[0].contents);
+        assertEquals(105, center(found[0].points).x);
+        assertEquals(1, mFullScans);
+    }
+
+    @Test
+    public void fullScan_isRepeatedAfterInterval() throws Exception
+    {
+        MultiTracker tracker = new MultiTracker(options(5, 3));
+        show("A", 100, 100);
+
+        for (int n = 0; n < 4; n++)
+            tracker.find(mBitmap, 1.0, mRegionScanner, mFullScanner);
+        assertEquals(1, mFullScans);
+
+        tracker.find(mBitmap, 1.0, mRegionScanner, mFullScanner);
+        assertEquals(2, mFullScans);
+    }
+
+    @Test
+    public void lostBarcode_triggersFullScan_andIsDroppedAfterPatience() throws Exception
+    {
+        MultiTracker tracker = new MultiTracker(options(2, 10));
+        show("A", 100, 100);
+        show("B", 300, 300);
+        tracker.find(mBitmap, 1.0, mRegionScanner, mFullScanner);
+
+        mScene.remove(1);
+        assertTrackIds(tracker.find(mBitmap, 1.0, mRegionScanner, mFullScanner), 0);
+        assertEquals(2, mFullScans);
+        assertTrackIds(tracker.find(mBitmap, 1.0, mRegionScanner, mFullScanner), 0);
+        assertEquals(3, mFullScans);
+
+        // B has been dropped, so A alone is tracked without a full scan:
+        assertTrackIds(tracker.find(mBitmap, 1.0, mRegionScanner, mFullScanner), 0);
+        assertEquals(3, mFullScans);
+    }
+
+    @Test
+    public void identicalContents_areMatchedByDistance() throws Exception
+    {
+        MultiTracker tracker = new MultiTracker(options(5, 10));
+        show("X", 100, 100);
+        show("X", 300, 300);
+        assertTrackIds(tracker.find(mBitmap, 1.0, mRegionScanner, mFullScanner), 0, 1);
+
+        // Found by a full scan, in the opposite order:
+        mRegionScansFail = true;
+        mScene.clear();
+        show("X", 302, 302);
+        show("X", 102, 102);
+        assertTrackIds(tracker.find(mBitmap, 1.0, mRegionScanner, mFullScanner), 1, 0);
+        assertEquals(2, mFullScans);
+    }
+
+    @Test
+    public void oneDimensionalBarcodes_areTrackedWithoutFullScan() throws Exception
+    {
+        MultiTracker tracker = new MultiTracker(options(5, 10));
+        show1D("A", 100, 100);
+        show1D("B", 300, 300);
+        tracker.find(mBitmap, 1.0, mRegionScanner, mFullScanner);
+
+        mScene.clear();
+        show1D("A", 110, 102);
+        show1D("B", 290, 298);
+        Barcode[] found = tracker.find(mBitmap, 1.0, mRegionScanner, mFullScanner);
+
+        assertTrackIds(found, 0, 1);
+        assertEquals(110, center(found[0].points).x);
+        assertEquals(1, mFullScans);
+    }
+
+    private static TrackingOptions options(int patience, int fullScanInterval)
+    {
+        return new TrackingOptions(1.0, patience).withTrackMultiple(true, fullScanInterval);
+    }
+
+    private void show(String contents, int centerX, int centerY)
+    {
+        mScene.add(new Barcode(contents, BarcodeFormat.QR_CODE, MotionModelTest.square(centerX, centerY, 10)));
+    }
+
+    /**
+     * A 1D barcode: two points on a horizontal scan line
+     */
+    private void show1D(String contents, int centerX, int centerY)
+    {
+        Point[] points = new Point[]{
+                MotionModelTest.point(centerX - 40, centerY),
+                MotionModelTest.point(centerX + 40, centerY)
+        };
+        mScene.add(new Barcode(contents, BarcodeFormat.CODE_128, points));
+    }
+
+    private static void assertTrackIds(Barcode[] found, int... trackIds)
+    {
+        assertNotNull(found);
+        assertEquals(trackIds.length, found.length);
+        for (int n = 0; n < trackIds.length; n++)
+            assertEquals(trackIds[n], found[n].trackId);
+    }
+
+    private static Point center(Point[] points)
+    {
+        int x = 0;
+        int y = 0;
+        for (Point p : points) {
+            x += p.x;
+            y += p.y;
+        }
+
+        return MotionModelTest.point(x / points.length, y / points.length);
+    }
+}
@@ -0,0 +1,276 @@
+package dk.schaumburgit.trackingbarcodescanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class RejectionCacheTest
+{
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    //*********************************************************************
+    //* subtract():
+    //*********************************************************************
+
+    @Test
+    public void subtract_withoutOverlap_returnsRegion() throws Exception
+    {
+        Geometry.Rectangle region = rectangle(0, 0, 100, 100);
+        ArrayList<Geometry.Rectangle> pieces = RejectionCache.subtract(region, rectangle(150, 0, 20, 20));
+
+        assertEquals(1, pieces.size());
+        assertRectangle(0, 0, 100, 100, pieces.get(0));
+    }
+
+    @Test
+    public void subtract_centre_returnsFourPieces() throws Exception
+    {
+        ArrayList<Geometry.Rectangle> pieces = RejectionCache.subtract(rectangle(0, 0, 100, 100), rectangle(40, 40, 20, 20));
+
+        assertEquals(4, pieces.size());
+        assertRectangle(0, 0, 100, 40, pieces.get(0));
+        assertRectangle(0, 60, 100, 40, pieces.get(1));
+        assertRectangle(0, 40, 40, 20, pieces.get(2));
+        assertRectangle(60, 40, 40, 20, pieces.get(3));
+    }
+
+    @Test
+    public void subtract_corner_leavesOutEmptyPieces() throws Exception
+    {
+        ArrayList<Geometry.Rectangle> pieces = RejectionCache.subtract(rectangle(0, 0, 100, 100), rectangle(-10, -10, 30, 30));
+
+        assertEquals(2, pieces.size());
+        assertRectangle(0, 20, 100, 80, pieces.get(0));
+        assertRectangle(20, 0, 80, 20, pieces.get(1));
+    }
+
+    @Test
+    public void subtract_everything_returnsNothing() throws Exception
+    {
+        assertTrue(RejectionCache.subtract(rectangle(10, 10, 50, 50), rectangle(0, 0, 100, 100)).isEmpty());
+    }
+
+    //*********************************************************************
+    //* Masks:
+    //*********************************************************************
+
+    @Test
+    public void getMasks_onlyAfterRepeatedRejections() throws Exception
+    {
+        RejectionCache cache = new RejectionCache();
+        cache.nextFrame();
+
+        cache.reject(wrongBarcode(), 0, 0, WIDTH, HEIGHT);
+        assertTrue(cache.getMasks(wholeFrame(), WIDTH, HEIGHT).isEmpty());
+
+        cache.nextFrame();
+        cache.reject(wrongBarcode(), 0, 0, WIDTH, HEIGHT);
+        ArrayList<Geometry.Rectangle> masks = cache.getMasks(wholeFrame(), WIDTH, HEIGHT);
+
+        // The bounds (100, 100, 100 x 50) plus a 10% (+1) margin:
+        assertEquals(1, masks.size());
+        assertRectangle(89, 89, 122, 72, masks.get(0));
+        assertEquals(1, cache.getMaskedScans());
+    }
+
+    @Test
+    public void getMasks_areTranslatedIntoRegion() throws Exception
+    {
+        RejectionCache cache = stableRejection();
+
+        ArrayList<Geometry.Rectangle> masks = cache.getMasks(rectangle(50, 60, 300, 300), WIDTH, HEIGHT);
+
+        assertEquals(1, masks.size());
+        assertRectangle(39, 29, 122, 72, masks.get(0));
+    }
+
+    @Test
+    public void getMasks_areClippedToRegion() throws Exception
+    {
+        RejectionCache cache = stableRejection();
+
+        ArrayList<Geometry.Rectangle> masks = cache.getMasks(rectangle(150, 120, 100, 100), WIDTH, HEIGHT);
+        assertEquals(1, masks.size());
+        assertRectangle(0, 0, 61, 41, masks.get(0));
+
+        assertTrue(cache.getMasks(rectangle(300, 300, 100, 100), WIDTH, HEIGHT).isEmpty());
+    }
+
+    @Test
+    public void reject_inRegion_isRecordedInFrameCoordinates() throws Exception
+    {
+        RejectionCache cache = new RejectionCache();
+        cache.nextFrame();
+
+        // The same barcode, found in a scan of a region at (50, 40)...
+        cache.reject(wrongBarcode(-50, -40), 50, 40, WIDTH, HEIGHT);
+        // ...and in a full scan:
+        cache.reject(wrongBarcode(), 0, 0, WIDTH, HEIGHT);
+
+        ArrayList<Geometry.Rectangle> masks = cache.getMasks(wholeFrame(), WIDTH, HEIGHT);
+        assertEquals(1, masks.size());
+        assertRectangle(89, 89, 122, 72, masks.get(0));
+    }
+
+    @Test
+    public void getMasks_ignoresOtherFrameSizes() throws Exception
+    {
+        RejectionCache cache = stableRejection();
+
+        assertTrue(cache.getMasks(rectangle(0, 0, 320, 240), 320, 240).isEmpty());
+    }
+
+    @Test
+    public void getMasks_isEmptyOnRevalidationFrames() throws Exception
+    {
+        RejectionCache cache = stableRejection();
+
+        // Frames are counted from 1: every 10th frame is scanned without masks
+        for (int frame = 2; frame < 10; frame++)
+            cache.nextFrame();
+        assertFalse(cache.getMasks(wholeFrame(), WIDTH, HEIGHT).isEmpty());
+
+        cache.nextFrame();
+        assertTrue(cache.getMasks(wholeFrame(), WIDTH, HEIGHT).isEmpty());
+
+        cache.nextFrame();
+        assertFalse(cache.getMasks(wholeFrame(), WIDTH, HEIGHT).isEmpty());
+    }
+
+    @Test
+    public void nextFrame_expiresUnconfirmedRejections() throws Exception
+    {
+        RejectionCache cache = stableRejection();
+
+        // Last rejected in frame 1, kept for 21 more frames:
+        for (int frame = 2; frame <= 22; frame++)
+            cache.nextFrame();
+        assertFalse(cache.getMasks(wholeFrame(), WIDTH, HEIGHT).isEmpty());
+
+        cache.nextFrame();
+        assertTrue(cache.getMasks(wholeFrame(), WIDTH, HEIGHT).isEmpty());
+    }
+
+    @Test
+    public void reject_confirmsRejection() throws Exception
+    {
+        RejectionCache cache = stableRejection();
+
+        for (int frame = 2; frame <= 20; frame++)
+            cache.nextFrame();
+        cache.reject(wrongBarcode(), 0, 0, WIDTH, HEIGHT);
+
+        // Kept until frame 41 now, instead of 22:
+        for (int frame = 21; frame <= 41; frame++)
+            cache.nextFrame();
+        assertFalse(cache.getMasks(wholeFrame(), WIDTH, HEIGHT).isEmpty());
+
+        cache.nextFrame();
+        assertTrue(cache.getMasks(wholeFrame(), WIDTH, HEIGHT).isEmpty());
+    }
+
+    @Test
+    public void oneDimensionalBarcode_isMaskedAcrossItsBars() throws Exception
+    {
+        RejectionCache cache = new RejectionCache();
+        cache.nextFrame();
+
+        // Found on slightly different scan lines every time:
+        cache.reject(wrong1DBarcode(200), 0, 0, WIDTH, HEIGHT);
+        cache.reject(wrong1DBarcode(220), 0, 0, WIDTH, HEIGHT);
+        cache.reject(wrong1DBarcode(180), 0, 0, WIDTH, HEIGHT);
+        cache.reject(wrong1DBarcode(240), 0, 0, WIDTH, HEIGHT);
+
+        // A single entry, squared up around the latest scan line (100 - 300 x 240), plus the margin:
+        ArrayList<Geometry.Rectangle> masks = cache.getMasks(wholeFrame(), WIDTH, HEIGHT);
+        assertEquals(1, masks.size());
+        assertRectangle(79, 119, 242, 242, masks.get(0));
+    }
+
+    @Test
+    public void oneDimensionalBarcode_heldVertically() throws Exception
+    {
+        RejectionCache cache = new RejectionCache();
+        cache.nextFrame();
+
+        ResultPoint[] points = new ResultPoint[]{new ResultPoint(300, 100), new ResultPoint(300, 200)};
+        cache.reject(new Result("wrong", null, points, BarcodeFormat.CODE_128), 0, 0, WIDTH, HEIGHT);
+        points = new ResultPoint[]{new ResultPoint(310, 100), new ResultPoint(310, 200)};
+        cache.reject(new Result("wrong", null, points, BarcodeFormat.CODE_128), 0, 0, WIDTH, HEIGHT);
+
+        ArrayList<Geometry.Rectangle> masks = cache.getMasks(wholeFrame(), WIDTH, HEIGHT);
+        assertEquals(1, masks.size());
+        assertRectangle(249, 89, 122, 122, masks.get(0));
+    }
+
+    /**
+     * A cache in frame 1, with the wrong barcode rejected twice
+     */
+    private static RejectionCache stableRejection()
+    {
+        RejectionCache cache = new RejectionCache();
+        cache.nextFrame();
+        cache.reject(wrongBarcode(), 0, 0, WIDTH, HEIGHT);
+        cache.reject(wrongBarcode(), 0, 0, WIDTH, HEIGHT);
+        return cache;
+    }
+
+    private static Result wrongBarcode()
+    {
+        return wrongBarcode(0, 0);
+    }
+
+    /**
+     * A barcode with the bounds (100, 100, 100 x 50) - moved by dx, dy
+     */
+    private static Result wrongBarcode(int dx, int dy)
+    {
+        ResultPoint[] points = new ResultPoint[]{
+                new ResultPoint(100 + dx, 150 + dy),
+                new ResultPoint(100 + dx, 100 + dy),
+                new ResultPoint(200 + dx, 100 + dy)
+        };
+        return new Result("wrong", null, points, BarcodeFormat.QR_CODE);
+    }
+
+    /**
+     * A 1D barcode from x = 100 to 300, found on the given scan line
+     */
+    private static Result wrong1DBarcode(int y)
+    {
+        ResultPoint[] points = new ResultPoint[]{
+                new ResultPoint(100, y),
+                new ResultPoint(300, y)
+        };
+        return new Result("wrong", null, points, BarcodeFormat.CODE_128);
+    }
+
+    private static Geometry.Rectangle wholeFrame()
+    {
+        return rectangle(0, 0, WIDTH, HEIGHT);
+    }
+
+    private static Geometry.Rectangle rectangle(int x, int y, int width, int height)
+    {
+        Geometry.Rectangle result = new Geometry.Rectangle(x, y);
+        result.width = width;
+        result.height = height;
+        return result;
+    }
+
+    private static void assertRectangle(int x, int y, int width, int height, Geometry.Rectangle actual)
+    {
+        assertNotNull(actual);
+        assertEquals(x, actual.x);
+        assertEquals(y, actual.y);
+        assertEquals(width, actual.width);
+        assertEquals(height, actual.height);
+    }
+}